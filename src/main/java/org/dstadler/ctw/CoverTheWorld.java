@@ -5,6 +5,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.io.function.IORunnable;
+import org.dstadler.commons.logging.jdk.LoggerFactory;
 import org.dstadler.commons.util.ExecutorUtil;
 import org.dstadler.ctw.geojson.CreateAdjacent;
 import org.dstadler.ctw.geojson.CreateClusterGeoJSON;
@@ -18,6 +19,7 @@ import org.dstadler.ctw.geojson.CreateLargestRectangleGeoJSONTiles;
 import org.dstadler.ctw.geojson.CreateLargestSquareGeoJSONSquares;
 import org.dstadler.ctw.geojson.CreateLargestSquareGeoJSONTiles;
 import org.dstadler.ctw.gpx.CreateListOfVisitedSquares;
+import org.dstadler.ctw.utils.CoverageSnapshot;
 
 /**
  * Main application to read GPX tracks and produce the GeoJSON
@@ -26,50 +28,48 @@ import org.dstadler.ctw.gpx.CreateListOfVisitedSquares;
 public class CoverTheWorld {
 
 	public static void main(String[] args) throws Throwable {
-		// this needs to run first to compute "Visited*.txt"
-		CreateListOfVisitedSquares.main(args);
+		LoggerFactory.initLogging();
+
+		// this needs to run first to compute "Visited*.txt", the result
+		// is also kept in memory, so the following steps do not need
+		// to read the text-files again
+		CoverageSnapshot snapshot = CreateListOfVisitedSquares.computeSnapshot();
 
 		// schedule tasks for all further steps as all of them
-		// only read from "Visited*.txt" and write to their own
+		// only read from the snapshot and write to their own
 		// files. So these can run in parallel and thus consume
 		// more of the available CPU resources
 		ExecutorService executor = Executors.newWorkStealingPool();
 		AtomicReference<Throwable> ex = new AtomicReference<>();
 
-		// read "Visited*.txt"
 		// produce "Adjacent*"
-		submit(executor, ex, () -> CreateAdjacent.main(args));
+		final int recurseLevel = args.length > 0 ? Integer.parseInt(args[0]) : CreateAdjacent.RECURSE_LEVEL;
+		submit(executor, ex, () -> CreateAdjacent.run(snapshot, recurseLevel));
 
-		// read "Visited*.txt"
 		// produce "Visited*.js"
-		submit(executor, ex, CreateGeoJSON::computeGeoJSONSquares);
-		submit(executor, ex, CreateGeoJSON::computeGeoJSONSquaresNew);
-		submit(executor, ex, CreateGeoJSON::computeGeoJSONTiles);
-		submit(executor, ex, CreateGeoJSON::computeGeoJSONTilesNew);
+		submit(executor, ex, () -> CreateGeoJSON.computeGeoJSONSquares(snapshot));
+		submit(executor, ex, () -> CreateGeoJSON.computeGeoJSONSquaresNew(snapshot));
+		submit(executor, ex, () -> CreateGeoJSON.computeGeoJSONTiles(snapshot));
+		submit(executor, ex, () -> CreateGeoJSON.computeGeoJSONTilesNew(snapshot));
 
-		// read "Visited*.txt"
 		// produce "ClusterSquares.*"
-		submit(executor, ex, () -> CreateClusterGeoJSON.main(args));
+		submit(executor, ex, () -> CreateClusterGeoJSON.run(snapshot));
 
-		// read "Visited*.txt"
 		// produce "LargestCluster*"
-		submit(executor, ex, () -> CreateLargestClusterGeoJSONSquares.main(args));
-		submit(executor, ex, () -> CreateLargestClusterGeoJSONTiles.main(args));
+		submit(executor, ex, () -> CreateLargestClusterGeoJSONSquares.run(snapshot));
+		submit(executor, ex, () -> CreateLargestClusterGeoJSONTiles.run(snapshot));
 
-		// read "Visited*.txt"
 		// produce "LargestConnected*"
-		submit(executor, ex, () -> CreateLargestConnectedGeoJSONSquares.main(args));
-		submit(executor, ex, () -> CreateLargestConnectedGeoJSONTiles.main(args));
+		submit(executor, ex, () -> CreateLargestConnectedGeoJSONSquares.run(snapshot));
+		submit(executor, ex, () -> CreateLargestConnectedGeoJSONTiles.run(snapshot));
 
-		// read "Visited*.txt"
 		// produce "LargestRectangle*"
-		submit(executor, ex, () -> CreateLargestRectangleGeoJSONSquares.main(args));
-		submit(executor, ex, () -> CreateLargestRectangleGeoJSONTiles.main(args));
+		submit(executor, ex, () -> CreateLargestRectangleGeoJSONSquares.run(snapshot));
+		submit(executor, ex, () -> CreateLargestRectangleGeoJSONTiles.run(snapshot));
 
-		// read "Visited*.txt"
 		// produce "LargestSquare*"
-		submit(executor, ex, () -> CreateLargestSquareGeoJSONSquares.main(args));
-		submit(executor, ex, () -> CreateLargestSquareGeoJSONTiles.main(args));
+		submit(executor, ex, () -> CreateLargestSquareGeoJSONSquares.run(snapshot));
+		submit(executor, ex, () -> CreateLargestSquareGeoJSONTiles.run(snapshot));
 
 		// wait for the tasks to finish
 		ExecutorUtil.shutdownAndAwaitTermination(executor, 120_000);
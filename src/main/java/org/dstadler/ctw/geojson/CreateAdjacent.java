@@ -6,25 +6,25 @@ import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_NEW_
 import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_TXT;
 
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.function.Function;
+import java.util.function.LongFunction;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-import org.apache.commons.io.FileUtils;
 import org.dstadler.commons.logging.jdk.LoggerFactory;
 import org.dstadler.ctw.utils.BaseTile;
-import org.dstadler.ctw.utils.OSMTile;
+import org.dstadler.ctw.utils.CellBitmap;
+import org.dstadler.ctw.utils.CellKey;
+import org.dstadler.ctw.utils.CoverageSnapshot;
+import org.dstadler.ctw.utils.LongHashSet;
 import org.dstadler.ctw.utils.UTMRefWithHash;
 
 import com.github.filosganga.geogson.model.Feature;
@@ -55,7 +55,7 @@ public class CreateAdjacent {
 	public static final String ADJACENT_TILES_NEW_TXT = "txt/AdjacentTilesNew.txt";
 
 	// how many adjacent tiles we create around covered squares/tiles
-	private static final int RECURSE_LEVEL = 3;
+	public static final int RECURSE_LEVEL = 3;
 
 	public static void main(String[] args) throws IOException {
 		LoggerFactory.initLogging();
@@ -67,70 +67,97 @@ public class CreateAdjacent {
 			recurseLevel = RECURSE_LEVEL;
 		}
 
+		run(CoverageSnapshot.read(), recurseLevel);
+	}
+
+	public static void run(CoverageSnapshot snapshot, int recurseLevel) throws IOException {
 		log.info("Computing GeoJSON for adjacent squares and tiles with recurseLevel " + recurseLevel);
 
-		writeAdjacentGeoJSON(VISITED_SQUARES_TXT, ADJACENT_SQUARES_JS, "adjacentSquares",
-				UTMRefWithHash::fromString, "squares", ADJACENT_SQUARES_TXT, null, recurseLevel);
+		writeAdjacentGeoJSON(snapshot.getSquareGrid(), VISITED_SQUARES_TXT, ADJACENT_SQUARES_JS, "adjacentSquares",
+				squares -> adjacentSquares(squares, recurseLevel), CellKey::toSquare,
+				"squares", ADJACENT_SQUARES_TXT, null);
 
-		writeAdjacentGeoJSON(VISITED_SQUARES_NEW_TXT, ADJACENT_SQUARES_NEW_JS, "adjacentSquaresNew",
-				UTMRefWithHash::fromString, "squares", ADJACENT_SQUARES_NEW_TXT, VISITED_SQUARES_TXT, recurseLevel);
+		writeAdjacentGeoJSON(snapshot.getNewSquareGrid(), VISITED_SQUARES_NEW_TXT, ADJACENT_SQUARES_NEW_JS, "adjacentSquaresNew",
+				squares -> adjacentSquares(squares, recurseLevel), CellKey::toSquare,
+				"squares", ADJACENT_SQUARES_NEW_TXT, snapshot.getSquareGrid());
 
-		writeAdjacentGeoJSON(VISITED_TILES_TXT, ADJACENT_TILES_JS, "adjacentTiles",
-				OSMTile::fromString, "tiles", ADJACENT_TILES_TXT, null, recurseLevel);
+		writeAdjacentGeoJSON(snapshot.getTileGrid(), VISITED_TILES_TXT, ADJACENT_TILES_JS, "adjacentTiles",
+				tiles -> adjacentTiles(tiles, recurseLevel), CellKey::toTile,
+				"tiles", ADJACENT_TILES_TXT, null);
 
-		writeAdjacentGeoJSON(VISITED_TILES_NEW_TXT, ADJACENT_TILES_NEW_JS, "adjacentTilesNew",
-				OSMTile::fromString, "tiles", ADJACENT_TILES_NEW_TXT, VISITED_TILES_TXT, recurseLevel);
+		writeAdjacentGeoJSON(snapshot.getNewTileGrid(), VISITED_TILES_NEW_TXT, ADJACENT_TILES_NEW_JS, "adjacentTilesNew",
+				tiles -> adjacentTiles(tiles, recurseLevel), CellKey::toTile,
+				"tiles", ADJACENT_TILES_NEW_TXT, snapshot.getTileGrid());
 	}
 
-	private static <T extends BaseTile<T>> void writeAdjacentGeoJSON(String squaresFile, String jsonOutputFile, String varPrefix,
-			Function<String, T> toObject,
-			String title, String adjacentTxtFile, String fullTxtFile, int recurseLevel) throws IOException {
+	/**
+	 * @param squares The covered or new squares
+	 * @param squaresFile The text-file which contains the squares, only used for logging
+	 * @param full All covered squares if squares contains only the new ones, null otherwise
+	 */
+	private static void writeAdjacentGeoJSON(CellBitmap squares, String squaresFile, String jsonOutputFile, String varPrefix,
+			Function<CellBitmap, CellBitmap> toAdjacent, LongFunction<BaseTile<?>> toObject,
+			String title, String adjacentTxtFile, CellBitmap full) throws IOException {
 		log.info("Writing from " + squaresFile + " to " + jsonOutputFile +
 				" with prefix '" + varPrefix + "' and title " + title);
 
-		// read list of UTMRefs for covered or new squares
-		Set<BaseTile<T>> squares = readFile(new File(squaresFile)).
-				stream().
-				map(toObject).
-				collect(Collectors.toSet());
-
 		// add adjacent tiles with borders
-		// do not generate for zoom 12 and lower
-		Set<BaseTile<T>> adjacentTiles = new HashSet<>();
-		for (BaseTile<T> tile : squares) {
-			addAdjacentTiles(squares, adjacentTiles, tile, recurseLevel);
-		}
+		CellBitmap adjacentTiles = toAdjacent.apply(squares);
 
-		log.info("Having " + adjacentTiles.size() + " adjacent tiles");
+		log.info("Having " + adjacentTiles.cardinality() + " adjacent tiles");
 
 		// remove adjacent-tiles which are already covered
-		if (fullTxtFile != null) {
-			Set<BaseTile<T>> fullSquares = readFile(new File(fullTxtFile)).
-					stream().
-					map(toObject).
-					collect(Collectors.toSet());
+		if (full != null) {
+			adjacentTiles = adjacentTiles.andNot(full);
 
-			adjacentTiles.removeAll(fullSquares);
+			log.info("Having " + adjacentTiles.cardinality() + " adjacent tiles after removing already covered ones");
+		}
 
-			log.info("Having " + adjacentTiles.size() + " adjacent tiles after removing already covered ones");
+		// sorted by key, so the output does not depend on the order of a HashSet
+		List<BaseTile<?>> tiles = new ArrayList<>(adjacentTiles.cardinality());
+		for (long key : adjacentTiles.toSortedArray()) {
+			tiles.add(toObject.apply(key));
 		}
 
-		writeJsFile(adjacentTiles, varPrefix, jsonOutputFile);
+		writeJsFile(tiles, varPrefix, jsonOutputFile);
 
 		// write list of adjacent tiles to text-file
 		writeListOfAdjacent(
-				adjacentTiles.stream().
+				tiles.stream().
 						map(BaseTile::string).
 						collect(Collectors.toSet()),
 				adjacentTxtFile);
 
-		log.info("Wrote " + adjacentTiles.size() + " adjacent " + title + " from " + squaresFile + " to " + jsonOutputFile);
+		log.info("Wrote " + tiles.size() + " adjacent " + title + " from " + squaresFile + " to " + jsonOutputFile);
 	}
 
-	private static Set<String> readFile(File file) throws IOException {
-		return file.exists() ?
-				new TreeSet<>(FileUtils.readLines(file, StandardCharsets.UTF_8)) :
-				Collections.emptySet();
+	/**
+	 * Tiles in a distance of up to recurseLevel steps up, down, left or right
+	 * which are not covered, computed by shifting the bitmap of covered tiles.
+	 */
+	private static CellBitmap adjacentTiles(CellBitmap tiles, int recurseLevel) {
+		return tiles.dilate(recurseLevel).andNot(tiles);
+	}
+
+	/**
+	 * The same as {@link #adjacentTiles(CellBitmap, int)}, but squares need
+	 * to adjust the latitude band when moving up or down, so they cannot
+	 * be shifted in the bitmap and are computed via {@link UTMRefWithHash}.
+	 */
+	private static CellBitmap adjacentSquares(CellBitmap squares, int recurseLevel) {
+		Set<BaseTile<UTMRefWithHash>> squaresIn = new HashSet<>();
+		squares.forEach(key -> squaresIn.add(CellKey.toSquare(key)));
+
+		Set<BaseTile<UTMRefWithHash>> adjacentSquares = new HashSet<>();
+		for (BaseTile<UTMRefWithHash> square : squaresIn) {
+			addAdjacentTiles(squaresIn, adjacentSquares, square, recurseLevel);
+		}
+
+		LongHashSet keys = new LongHashSet(adjacentSquares.size());
+		for (BaseTile<UTMRefWithHash> square : adjacentSquares) {
+			keys.add(CellKey.squareOf((UTMRefWithHash) square));
+		}
+		return CellBitmap.ofSquares(keys);
 	}
 
 	private static <T> void addAdjacentTiles(Set<BaseTile<T>> tilesIn, Set<BaseTile<T>> adjacentTiles, BaseTile<T> tile, int recurse) {
@@ -151,13 +178,13 @@ public class CreateAdjacent {
 		}
 	}
 
-	private static <T extends BaseTile<T>> void writeJsFile(Set<BaseTile<T>> adjacentTiles,
+	private static void writeJsFile(List<BaseTile<?>> adjacentTiles,
 			String varPrefix,
 			String jsonOutputFile)
 			throws IOException {
 		// add GeoJSON for all squares/tiles
 		List<Feature> features = new ArrayList<>();
-		for (BaseTile<T> adjacentTile : adjacentTiles) {
+		for (BaseTile<?> adjacentTile : adjacentTiles) {
 			features.add(GeoJSON.createLines(adjacentTile.getRectangle(),
 					null
 					/*square + "\n" + toRectangle.apply(square)*/));
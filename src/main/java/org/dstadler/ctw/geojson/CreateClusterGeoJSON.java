@@ -4,7 +4,6 @@ import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_SQUARES_TX
 import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_TXT;
 
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
@@ -12,10 +11,14 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
 
 import org.dstadler.commons.logging.jdk.LoggerFactory;
 import org.dstadler.ctw.utils.BaseTile;
+import org.dstadler.ctw.utils.CellBitmap;
+import org.dstadler.ctw.utils.CellKey;
+import org.dstadler.ctw.utils.CoverageSnapshot;
 import org.dstadler.ctw.utils.OSMTile;
 import org.dstadler.ctw.utils.UTMRefWithHash;
 
@@ -44,15 +47,22 @@ public class CreateClusterGeoJSON {
 	public static void main(String[] args) throws IOException {
 		LoggerFactory.initLogging();
 
-		Set<UTMRefWithHash> refs = UTMRefWithHash.readSquares(new File(VISITED_SQUARES_TXT));
-		run("squares", VISITED_SQUARES_TXT, refs, CLUSTER_SQUARES_JSON, CLUSTER_SQUARES_TXT);
+		run(CoverageSnapshot.read());
+	}
+
+	public static void run(CoverageSnapshot snapshot) throws IOException {
+		Set<UTMRefWithHash> refs = snapshot.getSquares();
+		run("squares", VISITED_SQUARES_TXT, refs, ref -> partOfCluster(ref, refs), CLUSTER_SQUARES_JSON, CLUSTER_SQUARES_TXT);
 
-		Set<OSMTile> tiles = OSMTile.readTiles(new File(VISITED_TILES_TXT));
-		run("tiles", VISITED_TILES_TXT, tiles, CLUSTER_TILES_JSON, CLUSTER_TILES_TXT);
+		// tiles can be shifted in the grid to find all tiles with four covered neighbours at once,
+		// squares need to adjust the latitude band when moving up or down, so they are checked
+		// via partOfCluster()
+		CellBitmap clusterTiles = snapshot.getTileGrid().interior();
+		run("tiles", VISITED_TILES_TXT, snapshot.getTiles(), tile -> clusterTiles.contains(CellKey.tileOf(tile)), CLUSTER_TILES_JSON, CLUSTER_TILES_TXT);
 	}
 
-	private static <T> void run(String title, String visitedTxt, Set<? extends BaseTile<T>> squares, String clusterJS,
-			String clusterTxt) throws IOException {
+	private static <T extends BaseTile<T>> void run(String title, String visitedTxt, Set<T> squares, Predicate<T> partOfCluster,
+			String clusterJS, String clusterTxt) throws IOException {
 		log.info("Computing all cluster " +  title);
 
 		Preconditions.checkState(squares.size() > 0,
@@ -60,8 +70,8 @@ public class CreateClusterGeoJSON {
 
 		Set<String> clusterSquares = new TreeSet<>();
 		List<Feature> features = new ArrayList<>();
-		for (BaseTile<T> ref : squares) {
-			if (partOfCluster(ref, squares)) {
+		for (T ref : squares) {
+			if (partOfCluster.test(ref)) {
 				log.fine("Found square in cluster: " + ref + ": " + OSMTile.fromLatLngZoom(
 						ref.toLatLng().getLatitude(),
 						ref.toLatLng().getLongitude(), 12));
@@ -6,7 +6,6 @@ import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_NEW_
 import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_TXT;
 import static org.dstadler.ctw.utils.Constants.SQUARE_SIZE;
 import static org.dstadler.ctw.utils.Constants.TILE_ZOOM;
-import static org.dstadler.ctw.utils.Constants.ZONE;
 
 import java.awt.Rectangle;
 import java.io.BufferedWriter;
@@ -30,9 +29,11 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.dstadler.commons.logging.jdk.LoggerFactory;
 import org.dstadler.ctw.utils.BaseTile;
+import org.dstadler.ctw.utils.CoverageSnapshot;
 import org.dstadler.ctw.utils.LatLonRectangle;
 import org.dstadler.ctw.utils.MatrixUtils;
 import org.dstadler.ctw.utils.OSMTile;
+import org.dstadler.ctw.utils.SquareGrid;
 import org.dstadler.ctw.utils.UTMRefWithHash;
 
 import com.github.filosganga.geogson.model.Feature;
@@ -68,54 +69,66 @@ public class CreateGeoJSON {
 
 		log.info("Computing GeoJSON for visited squares and tiles");
 
-		computeGeoJSONSquares();
-		computeGeoJSONSquaresNew();
-		computeGeoJSONTiles();
-		computeGeoJSONTilesNew();
+		CoverageSnapshot snapshot = CoverageSnapshot.read();
+		computeGeoJSONSquares(snapshot);
+		computeGeoJSONSquaresNew(snapshot);
+		computeGeoJSONTiles(snapshot);
+		computeGeoJSONTilesNew(snapshot);
 	}
 
-	public static void computeGeoJSONSquares() throws IOException {
+	public static void computeGeoJSONSquares(CoverageSnapshot snapshot) throws IOException {
 		log.info("Computing GeoJSON for visited squares");
 
-		writeGeoJSON(VISITED_SQUARES_TXT, VISITED_SQUARES_JS, "squares",
-				UTMRefWithHash::getRectangle, UTMRefWithHash::fromString, "squares");
+		writeGeoJSON(snapshot.sortedSquares(), VISITED_SQUARES_TXT, VISITED_SQUARES_JS, "squares",
+				UTMRefWithHash::getRectangle, "squares");
 	}
 
-	public static void computeGeoJSONSquaresNew() throws IOException {
+	public static void computeGeoJSONSquaresNew(CoverageSnapshot snapshot) throws IOException {
 		log.info("Computing GeoJSON for visited new squares");
 
-		writeGeoJSON(VISITED_SQUARES_NEW_TXT, VISITED_SQUARES_NEW_JS, "squaresnew",
-				UTMRefWithHash::getRectangle, UTMRefWithHash::fromString, "new squares");
+		writeGeoJSON(snapshot.sortedNewSquares(), VISITED_SQUARES_NEW_TXT, VISITED_SQUARES_NEW_JS, "squaresnew",
+				UTMRefWithHash::getRectangle, "new squares");
 	}
 
-	public static void computeGeoJSONTiles() throws IOException {
+	public static void computeGeoJSONTiles(CoverageSnapshot snapshot) throws IOException {
 		log.info("Computing GeoJSON for visited tiles");
 
-		writeGeoJSON(VISITED_TILES_TXT, VISITED_TILES_JS, "tiles",
-				OSMTile::getRectangle, OSMTile::fromString, "tiles");
+		writeGeoJSON(snapshot.sortedTiles(), VISITED_TILES_TXT, VISITED_TILES_JS, "tiles",
+				OSMTile::getRectangle, "tiles");
 	}
 
-	public static void computeGeoJSONTilesNew() throws IOException {
+	public static void computeGeoJSONTilesNew(CoverageSnapshot snapshot) throws IOException {
 		log.info("Computing GeoJSON for visited new tiles");
 
-		writeGeoJSON(VISITED_TILES_NEW_TXT, VISITED_TILES_NEW_JS, "tilesnew",
-				OSMTile::getRectangle, OSMTile::fromString, "new tiles");
+		writeGeoJSON(snapshot.sortedNewTiles(), VISITED_TILES_NEW_TXT, VISITED_TILES_NEW_JS, "tilesnew",
+				OSMTile::getRectangle, "new tiles");
 	}
 
-	@SuppressWarnings({ "unchecked", "SuspiciousMethodCalls" })
 	protected static <T extends BaseTile<T>> void writeGeoJSON(String squaresFile, String jsonOutputFile, String varPrefix,
 			Function<T, LatLonRectangle> toRectangle,
 			Function<String, T> toObject,
 			String title) throws IOException {
-		log.info(title + ": Writing from " + squaresFile + " to " + jsonOutputFile +
-				" with prefix '" + varPrefix + "'");
-
 		// read list of UTMRefs for covered or new squares
 		Set<T> squares = readSquares(new File(squaresFile)).
 				stream().
 				map(toObject).
 				collect(Collectors.toCollection(TreeSet::new));
 
+		writeGeoJSON(squares, squaresFile, jsonOutputFile, varPrefix, toRectangle, title);
+	}
+
+	/**
+	 * @param squares Sorted set of the covered or new squares, squares are removed while
+	 * 		combining them
+	 * @param squaresFile The text-file which contains the squares, only used for logging
+	 */
+	@SuppressWarnings({ "unchecked", "SuspiciousMethodCalls" })
+	private static <T extends BaseTile<T>> void writeGeoJSON(Set<T> squares, String squaresFile, String jsonOutputFile, String varPrefix,
+			Function<T, LatLonRectangle> toRectangle,
+			String title) throws IOException {
+		log.info(title + ": Writing from " + squaresFile + " to " + jsonOutputFile +
+				" with prefix '" + varPrefix + "'");
+
 		log.info(title + ": Read " + squares.size());
 
 		List<Feature> features = new ArrayList<>();
@@ -338,40 +351,19 @@ public class CreateGeoJSON {
 	}
 
 	public static Feature getSquareRectangle(Set<UTMRefWithHash> squares, String textFile, String title) throws IOException {
-		double minEast = Double.MAX_VALUE, maxEast = Double.MIN_VALUE,
-				minNorth = Double.MAX_VALUE, maxNorth = Double.MIN_VALUE;
-
-		boolean found = false;
-		for (UTMRefWithHash square : squares) {
-			if (square.getLngZone() != ZONE) {
-				continue;
-			}
+		Pair<SquareGrid, Pair<Rectangle, Integer>> largest =
+				SquareGrid.findLargest(SquareGrid.split(squares), MatrixUtils::maxRectangle);
 
-			if (square.getEasting() > maxEast) {
-				maxEast = square.getEasting();
-			}
-			if (square.getEasting() < minEast) {
-				minEast = square.getEasting();
-			}
-
-			if (square.getNorthing() > maxNorth) {
-				maxNorth = square.getNorthing();
-			}
-			if (square.getNorthing() < minNorth) {
-				minNorth = square.getNorthing();
-			}
-
-			found = true;
-		}
-
-		// stop if all the remaining squares are outside the default UTM-zone
-		if (!found) {
+		// stop if none of the remaining squares is in the zones which are used
+		if (largest == null) {
 			return null;
 		}
 
-		int[][] M = MatrixUtils.populateMatrix(squares, minEast, minNorth, maxEast, maxNorth, ZONE);
+		SquareGrid grid = largest.getKey();
+		double minEast = grid.getMinEast();
+		double minNorth = grid.getMinNorth();
 
-		Pair<Rectangle,Integer> result = MatrixUtils.maxRectangle(M);
+		Pair<Rectangle,Integer> result = largest.getValue();
 		Rectangle rect = result.getKey();
 
 		// stop when we do not find any real rectangles any more
@@ -384,13 +376,13 @@ public class CreateGeoJSON {
 					" = " + result.getValue());
 		}
 
-		UTMRefWithHash recRefMinMin = new UTMRefWithHash(ZONE, 'U',
+		UTMRefWithHash recRefMinMin = grid.ref(
 				(minEast + (rect.x - rect.width) * SQUARE_SIZE), (minNorth + (rect.y - rect.height) * SQUARE_SIZE + SQUARE_SIZE));
-		UTMRefWithHash recRefMaxMin = new UTMRefWithHash(ZONE, 'U',
+		UTMRefWithHash recRefMaxMin = grid.ref(
 				(minEast + (rect.x - rect.width) * SQUARE_SIZE), (minNorth + rect.y * SQUARE_SIZE + SQUARE_SIZE));
-		UTMRefWithHash recRefMinMax = new UTMRefWithHash(ZONE, 'U',
+		UTMRefWithHash recRefMinMax = grid.ref(
 				(minEast + rect.x * SQUARE_SIZE), (minNorth + (rect.y - rect.height) * SQUARE_SIZE + SQUARE_SIZE));
-		UTMRefWithHash recRefMaxMax = new UTMRefWithHash(ZONE, 'U',
+		UTMRefWithHash recRefMaxMax = grid.ref(
 				(minEast + rect.x * SQUARE_SIZE), (minNorth + rect.y * SQUARE_SIZE + SQUARE_SIZE));
 
 		if (log.isLoggable(Level.FINE)) {
@@ -412,8 +404,8 @@ public class CreateGeoJSON {
 		// remove all squares of the rectangle from the list of remaining squares
 		for (double easting = recRefMinMin.getEasting(); easting < recRefMinMax.getEasting(); easting+=SQUARE_SIZE) {
 			for (double northing = recRefMinMax.getNorthing(); northing < recRefMaxMax.getNorthing(); northing+=SQUARE_SIZE) {
-				final UTMRefWithHash ref = new UTMRefWithHash(ZONE, 'U', easting, northing);
-				final UTMRefWithHash refFixed = new UTMRefWithHash(ZONE, ref.toLatLng().toUTMRef().getLatZone(), easting, northing);
+				final UTMRefWithHash ref = grid.ref(easting, northing);
+				final UTMRefWithHash refFixed = new UTMRefWithHash(grid.getZone(), ref.toLatLng().toUTMRef().getLatZone(), easting, northing);
 				final boolean removed = squares.remove(
 						// have to fix-up latZone
 						refFixed);
@@ -20,6 +20,7 @@ import java.util.stream.Collectors;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.dstadler.commons.logging.jdk.LoggerFactory;
+import org.dstadler.ctw.utils.CoverageSnapshot;
 import org.dstadler.ctw.utils.OSMTile;
 import org.dstadler.ctw.utils.UTMRefWithHash;
 
@@ -47,9 +48,13 @@ public class CreateLargestClusterGeoJSONSquares {
     public static void main(String[] args) throws IOException {
         LoggerFactory.initLogging();
 
+		run(CoverageSnapshot.read());
+    }
+
+    public static void run(CoverageSnapshot snapshot) throws IOException {
 		log.info("Computing largest cluster squares");
 
-		List<Set<UTMRefWithHash>> clusters = computeLargestCluster();
+		List<Set<UTMRefWithHash>> clusters = computeLargestCluster(snapshot);
 
 		clusters.sort(Comparator.
 				comparingInt((Set<UTMRefWithHash> o) -> o.size()).
@@ -98,14 +103,16 @@ public class CreateLargestClusterGeoJSONSquares {
 		}
     }
 
-	private static List<Set<UTMRefWithHash>> computeLargestCluster() throws IOException {
+	private static List<Set<UTMRefWithHash>> computeLargestCluster(CoverageSnapshot snapshot) {
 		List<Set<UTMRefWithHash>> clusters = new ArrayList<>();
 
-		Set<UTMRefWithHash> squares = UTMRefWithHash.readSquares(new File(VISITED_SQUARES_TXT));
-		Preconditions.checkState(squares.size() > 0,
+		Set<UTMRefWithHash> allSquares = snapshot.getSquares();
+		Preconditions.checkState(allSquares.size() > 0,
 				"Did not read any squares from " + VISITED_SQUARES_TXT);
 
-		Set<UTMRefWithHash> allSquares = new HashSet<>(squares);
+		// squares are removed while checking them, added one by one to iterate in the same order as the shared set
+		Set<UTMRefWithHash> squares = new HashSet<>();
+		squares.addAll(allSquares);
 
 		// check each square
 		while (squares.size() > 0) {
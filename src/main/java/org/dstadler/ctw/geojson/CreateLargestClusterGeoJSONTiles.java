@@ -19,6 +19,7 @@ import java.util.stream.Collectors;
 
 import org.apache.commons.io.FileUtils;
 import org.dstadler.commons.logging.jdk.LoggerFactory;
+import org.dstadler.ctw.utils.CoverageSnapshot;
 import org.dstadler.ctw.utils.OSMTile;
 
 import com.github.filosganga.geogson.model.Feature;
@@ -45,9 +46,13 @@ public class CreateLargestClusterGeoJSONTiles {
     public static void main(String[] args) throws IOException {
         LoggerFactory.initLogging();
 
+		run(CoverageSnapshot.read());
+    }
+
+    public static void run(CoverageSnapshot snapshot) throws IOException {
 		log.info("Computing largest cluster tiles");
 
-		List<Set<OSMTile>> clusters = computeLargestCluster();
+		List<Set<OSMTile>> clusters = computeLargestCluster(snapshot);
 
 		clusters.sort(Comparator.
 				comparingInt((Set<OSMTile> o) -> o.size()).
@@ -94,14 +99,16 @@ public class CreateLargestClusterGeoJSONTiles {
 		}
     }
 
-	private static List<Set<OSMTile>> computeLargestCluster() throws IOException {
+	private static List<Set<OSMTile>> computeLargestCluster(CoverageSnapshot snapshot) {
 		List<Set<OSMTile>> clusters = new ArrayList<>();
 
-		Set<OSMTile> tiles = OSMTile.readTiles(new File(VISITED_TILES_TXT));
-		Preconditions.checkState(tiles.size() > 0,
+		Set<OSMTile> allTiles = snapshot.getTiles();
+		Preconditions.checkState(allTiles.size() > 0,
 				"Did not read any tiles from " + VISITED_TILES_TXT);
 
-		Set<OSMTile> allTiles = new HashSet<>(tiles);
+		// tiles are removed while checking them, added one by one to iterate in the same order as the shared set
+		Set<OSMTile> tiles = new HashSet<>();
+		tiles.addAll(allTiles);
 
 		// check each tile
 		while (tiles.size() > 0) {
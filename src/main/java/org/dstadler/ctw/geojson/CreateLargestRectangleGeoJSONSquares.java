@@ -5,12 +5,14 @@ import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_SQUARES_TX
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
 import org.dstadler.commons.logging.jdk.LoggerFactory;
+import org.dstadler.ctw.utils.CoverageSnapshot;
 import org.dstadler.ctw.utils.UTMRefWithHash;
 
 import com.github.filosganga.geogson.model.Feature;
@@ -20,9 +22,10 @@ import com.google.common.base.Preconditions;
  * This application reads the list of covered squares and
  * tries to find the largest area covered by a rectangle.
  *
- * Note: Currently only UTMRef-LonZone "33" is used to make
- * computation easier. If the rectangle should someday span
- * more than one Zone, this tool likely needs a major overhaul!
+ * Note: By default only UTMRef-LonZone "33" is used to make
+ * computation easier. With {@link org.dstadler.ctw.utils.SquareGrid#PROPERTY_MULTI_ZONE}
+ * the largest rectangle of all zones is used, but a rectangle cannot
+ * span more than one Zone.
  *
  * Results are stored in a TXT file for easy diffing via version
  * control and a JS file which can be used as overlay layer in a
@@ -37,9 +40,14 @@ public class CreateLargestRectangleGeoJSONSquares {
 	public static void main(String[] args) throws IOException {
 		LoggerFactory.initLogging();
 
+		run(CoverageSnapshot.read());
+	}
+
+	public static void run(CoverageSnapshot snapshot) throws IOException {
 		log.info("Computing largest rectangle for squares");
 
-		Set<UTMRefWithHash> squares = UTMRefWithHash.readSquares(new File(VISITED_SQUARES_TXT));
+		// the cells of the rectangle are removed when it is found
+		Set<UTMRefWithHash> squares = new HashSet<>(snapshot.getSquares());
 		Preconditions.checkState(squares.size() > 0,
 				"Did not read any squares from " + VISITED_SQUARES_TXT);
 
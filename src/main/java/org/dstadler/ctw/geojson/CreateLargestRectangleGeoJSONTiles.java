@@ -5,12 +5,14 @@ import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_TXT;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
 import org.dstadler.commons.logging.jdk.LoggerFactory;
+import org.dstadler.ctw.utils.CoverageSnapshot;
 import org.dstadler.ctw.utils.OSMTile;
 
 import com.github.filosganga.geogson.model.Feature;
@@ -37,9 +39,14 @@ public class CreateLargestRectangleGeoJSONTiles {
 	public static void main(String[] args) throws IOException {
 		LoggerFactory.initLogging();
 
+		run(CoverageSnapshot.read());
+	}
+
+	public static void run(CoverageSnapshot snapshot) throws IOException {
 		log.info("Computing largest rectangle for tiles");
 
-		Set<OSMTile> tiles = OSMTile.readTiles(new File(VISITED_TILES_TXT));
+		// the cells of the rectangle are removed when it is found
+		Set<OSMTile> tiles = new HashSet<>(snapshot.getTiles());
 		Preconditions.checkState(tiles.size() > 0,
 				"Did not read any tiles from " + VISITED_TILES_TXT);
 
@@ -2,11 +2,9 @@ package org.dstadler.ctw.geojson;
 
 import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_SQUARES_TXT;
 import static org.dstadler.ctw.utils.Constants.SQUARE_SIZE;
-import static org.dstadler.ctw.utils.Constants.ZONE;
 
 import java.awt.Rectangle;
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
@@ -17,7 +15,9 @@ import java.util.logging.Logger;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.dstadler.commons.logging.jdk.LoggerFactory;
+import org.dstadler.ctw.utils.CoverageSnapshot;
 import org.dstadler.ctw.utils.MatrixUtils;
+import org.dstadler.ctw.utils.SquareGrid;
 import org.dstadler.ctw.utils.UTMRefWithHash;
 
 import com.github.filosganga.geogson.model.Feature;
@@ -31,9 +31,10 @@ import com.google.gson.JsonPrimitive;
  * This application reads the list of covered squares and
  * tries to find the largest area covered by a square.
  *
- * Note: Currently only UTMRef-LonZone "33" is used to make
- * computation easier. If the rectangle should someday span
- * more than one Zone, this tool likely needs a major overhaul!
+ * Note: By default only UTMRef-LonZone "33" is used to make
+ * computation easier. With {@link SquareGrid#PROPERTY_MULTI_ZONE}
+ * the largest square of all zones is used, but a square cannot
+ * span more than one Zone.
  *
  * Results are stored in a TXT file for easy diffing via version
  * control and a JS file which can be used as overlay layer in a
@@ -48,49 +49,38 @@ public class CreateLargestSquareGeoJSONSquares {
 	public static void main(String[] args) throws IOException {
 		LoggerFactory.initLogging();
 
+		run(CoverageSnapshot.read());
+	}
+
+	public static void run(CoverageSnapshot snapshot) throws IOException {
 		log.info("Computing largest square for squares");
 
-		Set<UTMRefWithHash> squares = UTMRefWithHash.readSquares(new File(VISITED_SQUARES_TXT));
+		Set<UTMRefWithHash> squares = snapshot.getSquares();
 		Preconditions.checkState(squares.size() > 0,
 				"Did not read any squares from " + VISITED_SQUARES_TXT);
 
-		double minEast = Double.MAX_VALUE, maxEast = Double.MIN_VALUE,
-				minNorth = Double.MAX_VALUE, maxNorth = Double.MIN_VALUE;
-		for (UTMRefWithHash square : squares) {
-			if (square.getLngZone() != ZONE) {
-				continue;
-			}
-
-			if (square.getEasting() > maxEast) {
-				maxEast = square.getEasting();
-			}
-			if (square.getEasting() < minEast) {
-				minEast = square.getEasting();
-			}
-
-			if (square.getNorthing() > maxNorth) {
-				maxNorth = square.getNorthing();
-			}
-			if (square.getNorthing() < minNorth) {
-				minNorth = square.getNorthing();
-			}
-		}
+		Pair<SquareGrid, Pair<Rectangle, Integer>> largest =
+				SquareGrid.findLargest(SquareGrid.split(squares), MatrixUtils::maxSubSquare);
+		Preconditions.checkState(largest != null,
+				"Did not find any squares in %s in %s", SquareGrid.describeZones(), VISITED_SQUARES_TXT);
 
-		int[][] M = MatrixUtils.populateMatrix(squares, minEast, minNorth, maxEast, maxNorth, ZONE);
+		SquareGrid grid = largest.getKey();
+		double minEast = grid.getMinEast();
+		double minNorth = grid.getMinNorth();
 
-		Pair<Rectangle,Integer> result = MatrixUtils.maxSubSquare(M);
+		Pair<Rectangle,Integer> result = largest.getValue();
 		Rectangle rect = result.getKey();
 
 		log.info("Area of maximum square " + rect + ": " + rect.width + "x" + rect.height +
 				" = " + result.getValue());
 
-		UTMRefWithHash recRefMinMin = new UTMRefWithHash(ZONE, 'U',
+		UTMRefWithHash recRefMinMin = grid.ref(
 				(minEast + (rect.x - rect.width) * SQUARE_SIZE), (minNorth + (rect.y - rect.height) * SQUARE_SIZE + SQUARE_SIZE));
-		UTMRefWithHash recRefMaxMin = new UTMRefWithHash(ZONE, 'U',
+		UTMRefWithHash recRefMaxMin = grid.ref(
 				(minEast + (rect.x - rect.width) * SQUARE_SIZE), (minNorth + rect.y * SQUARE_SIZE + SQUARE_SIZE));
-		UTMRefWithHash recRefMinMax = new UTMRefWithHash(ZONE, 'U',
+		UTMRefWithHash recRefMinMax = grid.ref(
 				(minEast + rect.x * SQUARE_SIZE), (minNorth + (rect.y - rect.height) * SQUARE_SIZE + SQUARE_SIZE));
-		UTMRefWithHash recRefMaxMax = new UTMRefWithHash(ZONE, 'U',
+		UTMRefWithHash recRefMaxMax = grid.ref(
 				(minEast + rect.x * SQUARE_SIZE), (minNorth + rect.y * SQUARE_SIZE + SQUARE_SIZE));
 
 		log.info("Found largest square at " + rect.x + "x" + rect.y + " with size " + rect.width + "x" + rect.height
@@ -5,7 +5,6 @@ import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_TXT;
 
 import java.awt.Rectangle;
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
@@ -16,6 +15,7 @@ import java.util.logging.Logger;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.dstadler.commons.logging.jdk.LoggerFactory;
+import org.dstadler.ctw.utils.CoverageSnapshot;
 import org.dstadler.ctw.utils.MatrixUtils;
 import org.dstadler.ctw.utils.OSMTile;
 
@@ -43,9 +43,13 @@ public class CreateLargestSquareGeoJSONTiles {
 	public static void main(String[] args) throws IOException {
 		LoggerFactory.initLogging();
 
+		run(CoverageSnapshot.read());
+	}
+
+	public static void run(CoverageSnapshot snapshot) throws IOException {
 		log.info("Computing largest square for tiles");
 
-		Set<OSMTile> tiles = OSMTile.readTiles(new File(VISITED_TILES_TXT));
+		Set<OSMTile> tiles = snapshot.getTiles();
 		Preconditions.checkState(tiles.size() > 0,
 				"Did not read any tiles from " + VISITED_TILES_TXT);
 
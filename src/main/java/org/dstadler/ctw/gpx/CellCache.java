@@ -0,0 +1,89 @@
+package org.dstadler.ctw.gpx;
+
+import static org.dstadler.ctw.utils.Constants.TILE_ZOOM;
+
+import org.dstadler.ctw.utils.CellKey;
+import org.dstadler.ctw.utils.OSMTile;
+import org.dstadler.ctw.utils.TileEdges;
+import org.dstadler.ctw.utils.UTMSquareConverter;
+
+/**
+ * Remembers the square and tile of the previous track-point, so
+ * that the keys for consecutive points in the same cell are
+ * returned without projecting the point again.
+ *
+ * Track-points of walking or running usually stay in the same
+ * square for dozens of points, so most points are handled with
+ * a few comparisons instead of the multiple conversions between
+ * lat/lon and UTM which {@link UTMSquareConverter#getSquareKey(double, double)}
+ * performs.
+ *
+ * The results are the same as when computing the keys for each
+ * point separately.
+ *
+ * An instance keeps state of the current track, so a separate
+ * instance is needed for each GPX file which is read concurrently.
+ */
+public class CellCache {
+	// degrees which are kept from the edges of the tile, this covers
+	// rounding differences between computing the edges and the tile
+	private static final double TILE_INSET = 1e-9;
+
+	private final SquareBounds squareBounds = new SquareBounds();
+	private boolean hasSquare;
+	private long square;
+
+	// NaN never compares as inside, so no point is in the tile before the first one
+	private double tileMinLat = Double.NaN;
+	private double tileMaxLat = Double.NaN;
+	private double tileMinLon = Double.NaN;
+	private double tileMaxLon = Double.NaN;
+	private long tile;
+
+	/**
+	 * @return The key of the square as computed by {@link UTMSquareConverter#getSquareKey(double, double)}
+	 */
+	public long getSquare(double lat, double lon) {
+		if (hasSquare && squareBounds.contains(lat, lon)) {
+			return square;
+		}
+
+		square = UTMSquareConverter.getSquareKey(lat, lon);
+		hasSquare = true;
+
+		// the box of the resulting square, without projecting the point again
+		squareBounds.update(CellKey.squareZone(square), CellKey.squareBand(square),
+				CellKey.squareEasting(square), CellKey.squareNorthing(square));
+
+		// the square can be normalized to a neighbour, the box is only valid for
+		// other points if it contains the point which produced the square
+		if (!squareBounds.contains(lat, lon)) {
+			squareBounds.clear();
+		}
+
+		return square;
+	}
+
+	/**
+	 * @return The key of the tile as computed by {@link OSMTile#fromLatLngZoom(double, double, int)}
+	 * 		at zoom {@link org.dstadler.ctw.utils.Constants#TILE_ZOOM}
+	 */
+	public long getTile(double lat, double lon) {
+		// the edges only contain valid coordinates, so invalid ones still fail below
+		if (lat > tileMinLat && lat < tileMaxLat && lon > tileMinLon && lon < tileMaxLon) {
+			return tile;
+		}
+
+		tile = CellKey.tileOf(OSMTile.fromLatLngZoom(lat, lon, TILE_ZOOM));
+
+		// y grows towards the south
+		int x = CellKey.tileX(tile);
+		int y = CellKey.tileY(tile);
+		tileMinLat = TileEdges.latitude(y + 1, TILE_ZOOM) + TILE_INSET;
+		tileMaxLat = TileEdges.latitude(y, TILE_ZOOM) - TILE_INSET;
+		tileMinLon = TileEdges.longitude(x, TILE_ZOOM) + TILE_INSET;
+		tileMaxLon = TileEdges.longitude(x + 1, TILE_ZOOM) - TILE_INSET;
+
+		return tile;
+	}
+}
@@ -0,0 +1,200 @@
+package org.dstadler.ctw.gpx;
+
+import org.dstadler.ctw.utils.CellKey;
+import org.dstadler.ctw.utils.LongHashSet;
+
+/**
+ * Reference-counts how many GPX files cover each square or tile.
+ *
+ * This allows to retract cells when a GPX file is removed or
+ * replaced: a cell is only dropped from the visited area when
+ * the last file which covers it goes away.
+ *
+ * Cells are the keys of {@link CellKey}, counts are kept in two
+ * parallel primitive arrays with open addressing in the same way
+ * as {@link LongHashSet}, so the index needs no object per cell.
+ *
+ * Cells whose count dropped to zero are remembered as "retracted"
+ * until they are added again.
+ *
+ * Updates are thread-safe.
+ */
+public class CellIndex {
+	private static final int MIN_CAPACITY = 16;
+
+	// marks unused slots, the count of this key is tracked separately
+	private static final long EMPTY = 0;
+
+	private long[] keys = new long[MIN_CAPACITY];
+	private int[] counts = new int[MIN_CAPACITY];
+	private int emptyCount;
+	private int size;
+
+	private final LongHashSet retracted = new LongHashSet();
+
+	/**
+	 * Increment the count of all given cells.
+	 *
+	 * @param cells The cells of one GPX file
+	 */
+	public synchronized void add(long[] cells) {
+		for (long cell : cells) {
+			if (cell == EMPTY) {
+				if (emptyCount++ == 0) {
+					size++;
+				}
+			} else {
+				int pos = find(cell);
+				if (keys[pos] == EMPTY) {
+					keys[pos] = cell;
+					size++;
+				}
+				counts[pos]++;
+
+				if (size * 2 > keys.length) {
+					resize(keys.length * 2);
+				}
+			}
+
+			retracted.remove(cell);
+		}
+	}
+
+	/**
+	 * Decrement the count of all given cells, cells which
+	 * are not covered by any file afterwards are removed
+	 * and remembered as retracted. Cells which are not
+	 * contained in the index are ignored.
+	 *
+	 * @param cells The cells of one GPX file
+	 */
+	public synchronized void remove(long[] cells) {
+		for (long cell : cells) {
+			if (cell == EMPTY) {
+				if (emptyCount == 0) {
+					continue;
+				}
+				if (--emptyCount == 0) {
+					size--;
+					retracted.add(cell);
+				}
+				continue;
+			}
+
+			int pos = find(cell);
+			if (keys[pos] == EMPTY) {
+				continue;
+			}
+
+			if (--counts[pos] == 0) {
+				delete(pos);
+				size--;
+				retracted.add(cell);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of GPX files which cover the given cell, 0 if it is not covered
+	 */
+	public synchronized int getCount(long cell) {
+		if (cell == EMPTY) {
+			return emptyCount;
+		}
+
+		int pos = find(cell);
+		return keys[pos] == EMPTY ? 0 : counts[pos];
+	}
+
+	public boolean contains(long cell) {
+		return getCount(cell) > 0;
+	}
+
+	/**
+	 * @return A copy of all cells which are covered by at least one GPX file
+	 */
+	public synchronized LongHashSet getCells() {
+		LongHashSet cells = new LongHashSet(size);
+		if (emptyCount > 0) {
+			cells.add(EMPTY);
+		}
+		for (long key : keys) {
+			if (key != EMPTY) {
+				cells.add(key);
+			}
+		}
+		return cells;
+	}
+
+	/**
+	 * @return A copy of the cells which were covered before, but are
+	 * 		not covered by any GPX file any more
+	 */
+	public synchronized LongHashSet getRetracted() {
+		LongHashSet copy = new LongHashSet(retracted.size());
+		copy.addAll(retracted);
+		return copy;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return The slot of the given key or the empty slot where it would be inserted
+	 */
+	private int find(long key) {
+		int mask = keys.length - 1;
+		int pos = hash(key) & mask;
+		while (keys[pos] != EMPTY && keys[pos] != key) {
+			pos = (pos + 1) & mask;
+		}
+		return pos;
+	}
+
+	private void delete(int pos) {
+		// move following keys of the same probe-sequence into the gap
+		int mask = keys.length - 1;
+		int gap = pos;
+		pos = (pos + 1) & mask;
+		while (keys[pos] != EMPTY) {
+			int home = hash(keys[pos]) & mask;
+
+			// only move if the home-slot is not between the gap and the current position
+			if (((pos - home) & mask) >= ((pos - gap) & mask)) {
+				keys[gap] = keys[pos];
+				counts[gap] = counts[pos];
+				gap = pos;
+			}
+			pos = (pos + 1) & mask;
+		}
+		keys[gap] = EMPTY;
+		counts[gap] = 0;
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = new long[capacity];
+		counts = new int[capacity];
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int pos = find(oldKeys[i]);
+				keys[pos] = oldKeys[i];
+				counts[pos] = oldCounts[i];
+			}
+		}
+	}
+
+	private static int hash(long value) {
+		// same spreading as in LongHashSet
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "CellIndex{size=" + size + ", retracted=" + retracted.size() + "}";
+	}
+}
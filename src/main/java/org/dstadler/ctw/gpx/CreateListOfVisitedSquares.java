@@ -1,45 +1,44 @@
 package org.dstadler.ctw.gpx;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Writer;
-import java.nio.file.FileVisitOption;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-import org.dstadler.commons.gpx.GPXTrackpointsParser;
-import org.dstadler.commons.gpx.TrackPoint;
+import org.apache.commons.lang3.tuple.Pair;
 import org.dstadler.commons.logging.jdk.LoggerFactory;
-import org.dstadler.commons.util.ExecutorUtil;
-import org.dstadler.ctw.utils.Constants;
-import org.dstadler.ctw.utils.OSMTile;
-import org.dstadler.ctw.utils.UTMRefWithHash;
-import org.xml.sax.SAXException;
+import org.dstadler.ctw.utils.CellBitmap;
+import org.dstadler.ctw.utils.CellKey;
+import org.dstadler.ctw.utils.CoverageBitmap;
+import org.dstadler.ctw.utils.CoverageJournal;
+import org.dstadler.ctw.utils.CoverageSnapshot;
+import org.dstadler.ctw.utils.CoverageStore;
+import org.dstadler.ctw.utils.LongHashSet;
 
 import com.google.common.base.Preconditions;
 
-import uk.me.jstott.jcoord.LatLng;
+import jakarta.annotation.Nullable;
 
 /**
  * Small tool to read all GPX files and produce a list of
@@ -54,38 +53,83 @@ import uk.me.jstott.jcoord.LatLng;
 public class CreateListOfVisitedSquares {
 	private static final Logger log = LoggerFactory.make();
 
-	// location where GPX files are located
+	// location where GPX files are located, also *.fit files, *.gz files and *.zip archives are read
 	public static final File GPX_DIR = new File("gpx");
 
 	// squares
 	public static final String VISITED_SQUARES_TXT = "txt/VisitedSquares.txt";
 	public static final String VISITED_SQUARES_NEW_TXT = "txt/VisitedSquaresNew.txt";
+	public static final String VISITED_SQUARES_REMOVED_TXT = "txt/VisitedSquaresRemoved.txt";
 
 	// tiles
 	public static final String VISITED_TILES_TXT = "txt/VisitedTiles.txt";
 	public static final String VISITED_TILES_NEW_TXT = "txt/VisitedTilesNew.txt";
+	public static final String VISITED_TILES_REMOVED_TXT = "txt/VisitedTilesRemoved.txt";
 
-	public static void main(String[] args) throws IOException, SAXException {
+	// opt-in: only parse GPX files which were added or changed since the previous run
+	// and re-use the squares and tiles of all other files from a manifest
+	public static final String PROPERTY_INCREMENTAL = "ctw.incremental";
+
+	// allows to store the manifest in a different location
+	public static final String PROPERTY_MANIFEST = "ctw.manifest";
+	public static final String GPX_MANIFEST_TXT = "cache/GPXManifest.txt";
+
+	// opt-in: also include squares and tiles which are crossed between consecutive track-points
+	public static final String PROPERTY_SEGMENTS = "ctw.segments";
+
+	// maximum distance in meters between two track-points which is filled in when using segments
+	public static final String PROPERTY_SEGMENTS_MAX_GAP = "ctw.segments.maxGap";
+
+	// opt-in: read plain GPX files via the memory-mapped GPXByteScanner instead of an XML parser
+	public static final String PROPERTY_SCANNER = "ctw.scanner";
+
+	// tuning of the ingestion-pipeline: number of parser-threads and how many
+	// files/results can wait for being parsed/aggregated
+	public static final String PROPERTY_PARSE_THREADS = "ctw.parseThreads";
+	public static final String PROPERTY_PARSE_QUEUE = "ctw.parseQueue";
+	public static final String PROPERTY_AGGREGATE_QUEUE = "ctw.aggregateQueue";
+
+	// opt-in: read this many files concurrently on virtual threads before parsing them,
+	// useful when opening files has a high latency, e.g. on network file systems
+	public static final String PROPERTY_CONCURRENT_READS = "ctw.concurrentReads";
+
+	// opt-in: the new-files contain all cells which were newly covered since the given
+	// date, e.g. "2026-01-01", as recorded in the journal instead of only the last change
+	public static final String PROPERTY_NEW_SINCE = "ctw.newSince";
+
+	public static void main(String[] args) throws IOException {
 		LoggerFactory.initLogging();
 
+		computeSnapshot();
+	}
+
+	/**
+	 * Read all GPX files, write the "Visited*.txt" files and keep the
+	 * result in memory for the following steps.
+	 *
+	 * @return The covered and newly covered squares and tiles
+	 */
+	public static CoverageSnapshot computeSnapshot() throws IOException {
 		long start = System.currentTimeMillis();
 
-		// Use a UTMRef/OSMTile as String to avoid double-imprecision affecting the resulting output
-		Set<String> visitedSquares = ConcurrentHashMap.newKeySet();
-		Set<String> visitedTiles = ConcurrentHashMap.newKeySet();
+		// Use packed keys of UTMRef/OSMTile to avoid double-imprecision affecting the resulting output
+		final LongHashSet visitedSquares;
+		final LongHashSet visitedTiles;
+		if (Boolean.getBoolean(PROPERTY_INCREMENTAL)) {
+			GPXManifest manifest = readVisitedIncremental(getManifestFile());
 
-		final Consumer<TrackPoint> consumer = trackPoint -> {
-			// Squares use UTMRef
-			LatLng latLng = new LatLng(trackPoint.getLatitude(), trackPoint.getLongitude());
-			visitedSquares.add(UTMRefWithHash.getSquareString(latLng));
+			visitedSquares = manifest.getSquareIndex().getCells();
+			visitedTiles = manifest.getTileIndex().getCells();
+		} else {
+			// all parser-threads add to the same bitmaps
+			CoverageBitmap squares = new CoverageBitmap();
+			CoverageBitmap tiles = new CoverageBitmap();
 
-			// Tiles use OSMTile
-			visitedTiles.add(OSMTile.
-					fromLatLngZoom(trackPoint.getLatitude(), trackPoint.getLongitude(), Constants.TILE_ZOOM).
-					toCoords());
-		};
+			readVisited(squares, tiles);
 
-		readVisited(consumer);
+			visitedSquares = squares.toSet();
+			visitedTiles = tiles.toSet();
+		}
 
 		Preconditions.checkState(visitedSquares.size() > 0,
 				"Did not read any square from GPX tracks in directory '" + GPX_DIR + "'");
@@ -93,112 +137,393 @@ public class CreateListOfVisitedSquares {
 				"Did not read any tile from GPX tracks in '" + GPX_DIR + "'");
 
 		// Squares
-		processVisitedArea(VISITED_SQUARES_TXT, VISITED_SQUARES_NEW_TXT, "squares", visitedSquares);
+		Pair<long[], long[]> squares = processVisitedArea(VISITED_SQUARES_TXT, VISITED_SQUARES_NEW_TXT, VISITED_SQUARES_REMOVED_TXT,
+				"squares", visitedSquares, CellKey::parseSquare, CellKey::formatSquare, CellBitmap::ofSquares);
 
 		// Tiles
-		processVisitedArea(VISITED_TILES_TXT, VISITED_TILES_NEW_TXT, "tiles", visitedTiles);
+		Pair<long[], long[]> tiles = processVisitedArea(VISITED_TILES_TXT, VISITED_TILES_NEW_TXT, VISITED_TILES_REMOVED_TXT,
+				"tiles", visitedTiles, CellKey::parseTile, CellKey::formatTile, CellBitmap::ofTiles);
 
 		log.info("Finished reading GPX files after " + (System.currentTimeMillis() - start) + "ms");
+
+		return CoverageSnapshot.of(squares.getLeft(), squares.getRight(), tiles.getLeft(), tiles.getRight());
 	}
 
-	private static void readVisited(Consumer<TrackPoint> toStringFun) throws IOException {
-		AtomicInteger count = new AtomicInteger();
+	/**
+	 * Create the consumer which computes squares and tiles for the points of one GPX file.
+	 */
+	private static TrackPointConsumer cellConsumer(LongConsumer squares, LongConsumer tiles) {
+		if (Boolean.getBoolean(PROPERTY_SEGMENTS)) {
+			return new SegmentRasterizer(squares, tiles, getMaxGap());
+		}
 
-		Preconditions.checkState(GPX_DIR.exists() && GPX_DIR.isDirectory(),
-				"Directory '%s' does not exist or is not a directory (%s/%s)",
-				GPX_DIR, GPX_DIR.exists(), GPX_DIR.isDirectory());
+		// consecutive points usually stay in the same cell, the cache
+		// avoids computing the same square/tile again for them
+		CellCache cache = new CellCache();
+		return (lat, lon, time) -> {
+			// Squares use UTMRef
+			squares.accept(cache.getSquare(lat, lon));
 
-		log.info("Searching directory '" + GPX_DIR + "' for GPX tracks");
+			// Tiles use OSMTile
+			tiles.accept(cache.getTile(lat, lon));
+		};
+	}
 
-		Collection<Future<?>> futures = new ConcurrentLinkedDeque<>();
-		ExecutorService executor = Executors.newWorkStealingPool();
+	private static double getMaxGap() {
+		return Double.parseDouble(System.getProperty(PROPERTY_SEGMENTS_MAX_GAP,
+				Double.toString(SegmentRasterizer.DEFAULT_MAX_GAP)));
+	}
 
-		try (Stream<Path> walk = Files.walk(GPX_DIR.toPath(), FileVisitOption.FOLLOW_LINKS)) {
-			walk.
-					parallel().
-					forEach(path -> futures.add(executor.submit(() -> {
-						File gpxFile = path.toFile();
+	/**
+	 * Describes how cells are computed from track-points, cached
+	 * results in the manifest are discarded when this changes.
+	 */
+	private static String getManifestSettings() {
+		if (Boolean.getBoolean(PROPERTY_SEGMENTS)) {
+			return "segments " + getMaxGap();
+		}
 
-						if(gpxFile.isDirectory() ||
-								!gpxFile.getName().toLowerCase().endsWith(".gpx")) {
-							return;
-						}
+		return "points";
+	}
 
-						// only log sometimes to not spam the output
-						if (count.incrementAndGet() % 20 == 0) {
-							log.info("Move " + count.incrementAndGet() + ": " + gpxFile);
-						}
-						readTrackPoints(gpxFile, toStringFun);
-					})));
-		}
+	private static void readVisited(CoverageBitmap visitedSquares, CoverageBitmap visitedTiles) throws IOException {
+		// cells are set directly in the shared bitmaps, so there is nothing left to aggregate
+		newPipeline().run(GPX_DIR,
+				source -> {
+					readTrackPoints(source, cellConsumer(visitedSquares.writer(), visitedTiles.writer()));
+					return null;
+				},
+				cells -> {});
+	}
+
+	private static IngestionPipeline newPipeline() {
+		int threads = Integer.getInteger(PROPERTY_PARSE_THREADS, Runtime.getRuntime().availableProcessors());
+		return new IngestionPipeline(threads,
+				Integer.getInteger(PROPERTY_PARSE_QUEUE, 4 * threads),
+				Integer.getInteger(PROPERTY_AGGREGATE_QUEUE, 4 * threads),
+				Integer.getInteger(PROPERTY_CONCURRENT_READS, 0));
+	}
+
+	private static GPXManifest readVisitedIncremental(File manifestFile) throws IOException {
+		GPXManifest manifest = GPXManifest.read(manifestFile, getManifestSettings());
+
+		log.info("Read manifest with " + manifest.size() + " GPX files from " + manifestFile);
+
+		Set<String> paths = ConcurrentHashMap.newKeySet();
+		AtomicInteger parsed = new AtomicInteger();
+		newPipeline().run(GPX_DIR,
+				source -> {
+					paths.add(source.getPath());
+					try {
+						GPXManifest.Entry entry = computeEntry(manifest, source, parsed);
+						return entry == null ? null : Pair.of(source.getPath(), entry);
+					} catch (IOException e) {
+						throw new RuntimeException("While handling " + source, e);
+					}
+				},
+				entry -> manifest.put(entry.getLeft(), entry.getRight()));
+
+		// drop results of GPX files which do not exist any more
+		int removed = manifest.retainAll(paths).size();
+
+		log.info(String.format("Parsed %,d new or changed GPX files, re-used results for %,d, removed %,d",
+				parsed.get(), paths.size() - parsed.get(), removed));
+
+		// removed or changed files can cause cells to not be covered any more
+		log.info(String.format("Retracted %,d squares and %,d tiles which are not covered by any GPX file any more",
+				manifest.getSquareIndex().getRetracted().size(), manifest.getTileIndex().getRetracted().size()));
+
+		manifest.write(manifestFile);
 
-		Iterator<Future<?>> it = futures.iterator();
-		while (it.hasNext()) {
-			Future<?> future = it.next();
-			try {
-				future.get();
-			} catch (InterruptedException | ExecutionException e) {
-				throw new RuntimeException(e);
+		return manifest;
+	}
+
+	/**
+	 * Parse the given GPX file unless the manifest already has an
+	 * up-to-date entry for it.
+	 *
+	 * The hash is computed on the uncompressed GPX data, so it
+	 * does not change when a file is only re-compressed.
+	 *
+	 * The manifest is only read here, so this can run concurrently
+	 * for multiple files while the returned entries are stored by
+	 * a single thread.
+	 *
+	 * @return The new entry for the file or null if the cached entry is still valid
+	 */
+	private static GPXManifest.Entry computeEntry(GPXManifest manifest, GPXSource source, AtomicInteger parsed) throws IOException {
+		long size = source.getSize();
+		long lastModified = source.getLastModified();
+
+		GPXManifest.Entry entry = manifest.get(source.getPath());
+		if (entry != null) {
+			if (entry.matches(source)) {
+				return null;
+			}
+
+			// only touched, but content is unchanged
+			if (entry.getSize() == size && entry.getHash().equals(hashFile(source))) {
+				return entry.withLastModified(lastModified);
 			}
-			it.remove();
 		}
 
-		ExecutorUtil.shutdownAndAwaitTermination(executor, 10_000);
+		LongHashSet squares = new LongHashSet();
+		LongHashSet tiles = new LongHashSet();
+
+		// compute the hash while parsing to read the file only once
+		MessageDigest digest = newDigest();
+		parseTrackPoints(source, cellConsumer(squares::add, tiles::add), digest);
+		parsed.incrementAndGet();
+
+		return new GPXManifest.Entry(size, lastModified, HexFormat.of().formatHex(digest.digest()),
+				squares, tiles);
+	}
+
+	private static String hashFile(GPXSource source) throws IOException {
+		MessageDigest digest = newDigest();
+		try (InputStream stream = new DigestInputStream(source.open(), digest)) {
+			stream.transferTo(OutputStream.nullOutputStream());
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static File getManifestFile() {
+		return new File(System.getProperty(PROPERTY_MANIFEST, GPX_MANIFEST_TXT));
 	}
 
-	private static void readTrackPoints(File gpxFile, Consumer<TrackPoint> toStringFun) {
+	private static void readTrackPoints(GPXSource source, TrackPointConsumer toStringFun) {
 		try {
-			final SortedMap<Long, TrackPoint> trackPoints = GPXTrackpointsParser.parseContent(gpxFile, false);
+			parseTrackPoints(source, toStringFun, null);
+		} catch (IOException e) {
+			throw new RuntimeException("While handling " + source, e);
+		}
+	}
 
-			for (TrackPoint trackPoint : trackPoints.values()) {
-				toStringFun.accept(trackPoint);
+	/**
+	 * Stream the points of the given source to the consumer instead
+	 * of collecting them per file first.
+	 *
+	 * @param digest If not null, receives all bytes of the source
+	 */
+	private static void parseTrackPoints(GPXSource source, TrackPointConsumer consumer,
+			@Nullable MessageDigest digest) throws IOException {
+		if (Boolean.getBoolean(PROPERTY_SCANNER) && source.isMappable()) {
+			ByteBuffer buffer = source.map();
+			if (digest != null) {
+				digest.update(buffer.duplicate());
+			}
+
+			GPXByteScanner.parse(buffer, source.getPath(), consumer);
+			return;
+		}
+
+		try (InputStream stream = digest == null ? source.open() : new DigestInputStream(source.open(), digest)) {
+			source.parse(stream, consumer);
+
+			// include any trailing data after the closing element in the hash
+			if (digest != null) {
+				stream.transferTo(OutputStream.nullOutputStream());
 			}
-		} catch (IOException e) {
-			throw new RuntimeException("While handling " + gpxFile, e);
 		}
 	}
 
-	private static void processVisitedArea(String visitedFile, String visitedNewFile,
-			String title, Set<String> visited) throws IOException {
+	/**
+	 * @return The keys of all covered cells and the keys of the cells in the
+	 * 		new-file, both in the order of the lines of the files
+	 */
+	private static Pair<long[], long[]> processVisitedArea(String visitedFile, String visitedNewFile, String visitedRemovedFile,
+			String title, LongHashSet visited, ToLongFunction<String> parser, LongFunction<String> formatter,
+			Function<LongHashSet, CellBitmap> toBitmap) throws IOException {
 		long start = System.currentTimeMillis();
 
-		Set<String> previous = readPrevious(visitedFile);
+		File textFile = new File(visitedFile);
+
+		// the journal is only continued if it matches the text-file before it is written
+		CoverageJournal journal = CoverageJournal.open(textFile);
+
+		// write the full list and compute newly covered squares and squares which are not covered
+		// any more, e.g. because a GPX file was removed, by comparing it with the previous list
+		File fullTmp = tmpFile(visitedFile);
+		File addedTmp = tmpFile(visitedNewFile);
+		File removedTmp = tmpFile(visitedRemovedFile);
+		SortedMergeDiff diff = SortedMergeDiff.write(sortedLines(visited, formatter), textFile,
+				fullTmp, addedTmp, removedTmp, parser);
+
+		// the sorted text-file cannot be appended to, but it only needs to be replaced if coverage changed
+		boolean rewritten = diff.isChanged() || CoverageStore.read(textFile) == null;
+		if (rewritten) {
+			replace(fullTmp, visitedFile, diff.getKeys());
+		} else {
+			Files.delete(fullTmp.toPath());
+		}
 
-		writeListOfVisited(visited, visitedFile);
+		if (diff.isChanged()) {
+			long run = journal.append(() -> previousKeys(visited, diff),
+					sorted(diff.getAdded()), sorted(diff.getRemoved()));
+			log.info("Recorded run " + run + " in journal " + CoverageJournal.getJournalFile(textFile));
+		} else if (rewritten) {
+			// the journal still matches the content, it would be started again otherwise
+			journal.textFileWritten();
+		}
 
 		log.info(String.format("Found %,d covered " + title + " after %,dms",
 				visited.size(), System.currentTimeMillis() - start));
 
-		// compute newly covered squares by removing all previously known ones
-		visited.removeAll(previous);
+		long[] added = diff.getAdded();
+		long[] removed = diff.getRemoved();
 
 		// re-write the new-file if we found some this time
 		// otherwise the previous "new" entries should stay in place
-		if (visited.size() > 0) {
-			writeListOfVisited(visited, visitedNewFile);
+		LongHashSet addedSince = readAddedSince(journal, title);
+		final long[] newKeys;
+		if (addedSince != null) {
+			Files.delete(addedTmp.toPath());
+			newKeys = writeListOfVisited(toBitmap.apply(addedSince), visitedNewFile, parser, formatter);
+		} else if (added.length > 0) {
+			replace(addedTmp, visitedNewFile, added);
+			newKeys = added;
+		} else {
+			Files.delete(addedTmp.toPath());
+
+			long[] previousNewKeys = CoverageStore.readKeys(new File(visitedNewFile), parser);
+			if (removed.length > 0) {
+				// retracted squares should not stay in the previous "new" entries
+				CellBitmap previousNew = toBitmap.apply(toSet(previousNewKeys));
+				CellBitmap remaining = previousNew.andNot(toBitmap.apply(toSet(removed)));
+				newKeys = remaining.cardinality() != previousNew.cardinality() ?
+						writeListOfVisited(remaining, visitedNewFile, parser, formatter) :
+						previousNewKeys;
+			} else {
+				newKeys = previousNewKeys;
+			}
 		}
 
-		log.info(String.format("Having %,d newly covered " + title + " after %,dms",
-				visited.size(), System.currentTimeMillis() - start));
-	}
+		// the removed-file is kept in sync with the new-file, i.e. it is
+		// only updated when coverage changed in this run
+		if (removed.length > 0) {
+			replace(removedTmp, visitedRemovedFile, removed);
+		} else {
+			Files.delete(removedTmp.toPath());
 
-	private static Set<String> readPrevious(String visitedFile) throws IOException {
-		if (new File(visitedFile).exists()) {
-			try (BufferedReader reader = new BufferedReader(new FileReader(visitedFile))) {
-				return reader.lines().collect(Collectors.toCollection(TreeSet::new));
+			if (added.length > 0) {
+				Files.deleteIfExists(new File(visitedRemovedFile).toPath());
 			}
 		}
 
-		return Collections.emptySet();
+		log.info(String.format("Having %,d newly covered and %,d removed " + title + " after %,dms",
+				added.length, removed.length, System.currentTimeMillis() - start));
+
+		return Pair.of(diff.getKeys(), newKeys);
 	}
 
-	private static void writeListOfVisited(Set<String> visited, String visitedTxtFile) throws IOException {
+	/**
+	 * @return The cells which were newly covered since the date set via
+	 * 		{@link #PROPERTY_NEW_SINCE}, null if it is not set or the journal
+	 * 		does not go back as far
+	 */
+	@Nullable
+	private static LongHashSet readAddedSince(CoverageJournal journal, String title) {
+		String since = System.getProperty(PROPERTY_NEW_SINCE);
+		if (since == null) {
+			return null;
+		}
+
+		long time = LocalDate.parse(since).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+		// an outdated journal does not describe the current text-file
+		LongHashSet cells = journal.isCurrent() ? journal.addedSince(journal.getLastRunAt(time)) : null;
+		if (cells == null) {
+			log.warning("Journal for " + title + " does not go back to " + since +
+					", only using the cells of the last change");
+		} else {
+			log.info(String.format("Found %,d " + title + " which were newly covered since %s", cells.size(), since));
+		}
+		return cells;
+	}
+
+	private static File tmpFile(String file) {
+		return new File(file + ".tmp");
+	}
+
+	private static void replace(File tmp, String file, long[] keys) throws IOException {
+		Files.move(tmp.toPath(), new File(file).toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		// binary copy in the same order for faster loading in later steps
+		CoverageStore.write(new File(file), keys);
+	}
+
+	/**
+	 * @return The cells in the order of the text-files, sorted once as Strings
+	 */
+	private static String[] sortedLines(LongHashSet cells, LongFunction<String> formatter) {
+		String[] lines = new String[cells.size()];
+		int[] i = new int[1];
+		cells.forEach(key -> lines[i[0]++] = formatter.apply(key));
+		Arrays.sort(lines);
+		return lines;
+	}
+
+	/**
+	 * The cells before this run, only needed when the journal is started again.
+	 */
+	private static long[] previousKeys(LongHashSet visited, SortedMergeDiff diff) {
+		LongHashSet previous = new LongHashSet(visited.size());
+		previous.addAll(visited);
+		for (long key : diff.getAdded()) {
+			previous.remove(key);
+		}
+		for (long key : diff.getRemoved()) {
+			previous.add(key);
+		}
+		return previous.toSortedArray();
+	}
+
+	private static long[] sorted(long[] keys) {
+		long[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	private static LongHashSet toSet(long[] keys) {
+		LongHashSet set = new LongHashSet(keys.length);
+		for (long key : keys) {
+			set.add(key);
+		}
+		return set;
+	}
+
+	/**
+	 * @return The keys of the written cells in the order of the lines
+	 */
+	private static long[] writeListOfVisited(CellBitmap visited, String visitedTxtFile,
+			ToLongFunction<String> parser, LongFunction<String> formatter) throws IOException {
+		// cells are only converted to strings here, sorted in the same way as before
+		LongHashSet cells = new LongHashSet(visited.cardinality());
+		visited.forEach(cells::add);
+		String[] lines = sortedLines(cells, formatter);
+
 		// create list of latLngBounds for SVG elements to overlay
+		long[] keys = new long[lines.length];
 		try (Writer writer = new BufferedWriter(new FileWriter(visitedTxtFile))) {
-			for (String square : new TreeSet<>(visited)) {
-				writer.write(square);
+			for (int i = 0; i < lines.length; i++) {
+				writer.write(lines[i]);
 				writer.write('\n');
+
+				keys[i] = parser.applyAsLong(lines[i]);
 			}
 		}
+
+		// binary copy in the same order for faster loading in later steps
+		CoverageStore.write(new File(visitedTxtFile), keys);
+
+		return keys;
 	}
 }
@@ -0,0 +1,313 @@
+package org.dstadler.ctw.gpx;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read track-points from binary FIT files as written by Garmin and
+ * other fitness-devices, without converting them to GPX first.
+ *
+ * Only the parts of the format which are needed for covering squares
+ * and tiles are decoded: position and timestamp of "record" messages
+ * and timer-stop "event" messages, which end the current segment.
+ * All other messages and developer-fields are skipped based on the
+ * sizes in their definition-messages. Compressed timestamp headers and
+ * multiple FIT files chained in one stream are supported.
+ *
+ * CRCs are not verified, truncated data is reported as IOException.
+ *
+ * See the "Flexible and Interoperable Data Transfer (FIT) Protocol"
+ * in the FIT SDK for a description of the format.
+ */
+public class FITStreamingParser {
+	private static final byte[] FIT_SIGNATURE = ".FIT".getBytes(StandardCharsets.US_ASCII);
+	private static final int MIN_HEADER_SIZE = 12;
+	private static final int CRC_SIZE = 2;
+
+	// record-header
+	private static final int COMPRESSED_TIMESTAMP_HEADER = 0x80;
+	private static final int DEFINITION_MESSAGE = 0x40;
+	private static final int DEVELOPER_DATA = 0x20;
+	private static final int LOCAL_MESSAGE_TYPE_MASK = 0x0F;
+	private static final int TIME_OFFSET_MASK = 0x1F;
+	private static final int LOCAL_MESSAGE_TYPES = 16;
+
+	// global message numbers and field numbers of the FIT profile
+	private static final int MESG_RECORD = 20;
+	private static final int MESG_EVENT = 21;
+	private static final int FIELD_POSITION_LAT = 0;
+	private static final int FIELD_POSITION_LONG = 1;
+	private static final int FIELD_EVENT = 0;
+	private static final int FIELD_EVENT_TYPE = 1;
+	private static final int FIELD_TIMESTAMP = 253;
+
+	private static final int EVENT_TIMER = 0;
+	private static final int EVENT_TYPE_STOP = 1;
+	private static final int EVENT_TYPE_STOP_ALL = 4;
+	private static final int EVENT_TYPE_STOP_DISABLE = 8;
+	private static final int EVENT_TYPE_STOP_DISABLE_ALL = 9;
+
+	private static final int INVALID_SINT32 = 0x7FFFFFFF;
+	private static final long INVALID_UINT32 = 0xFFFFFFFFL;
+
+	// FIT timestamps are seconds since 1989-12-31T00:00:00Z
+	private static final long FIT_EPOCH_SECONDS = 631065600L;
+
+	// positions are stored as "semicircles", i.e. 2^31 correspond to 180 degrees
+	private static final double SEMICIRCLES_TO_DEGREES = 180.0 / (1L << 31);
+
+	/**
+	 * Stream all track-points of the given FIT file to the consumer.
+	 *
+	 * @param fitFile The FIT file to read
+	 * @param consumer Invoked for every track-point in the file
+	 * @return The number of track-points which were reported
+	 * @throws IOException If reading or decoding the file fails
+	 */
+	public static int parse(File fitFile, TrackPointConsumer consumer) throws IOException {
+		try (InputStream stream = new BufferedInputStream(new FileInputStream(fitFile))) {
+			return parse(stream, fitFile.toString(), consumer);
+		}
+	}
+
+	/**
+	 * Stream all track-points of the given FIT data to the consumer.
+	 *
+	 * The stream is not closed by this method.
+	 *
+	 * @param stream The FIT data, should be buffered as it is read in small chunks
+	 * @param name A name for the data which is used in error messages
+	 * @param consumer Invoked for every track-point in the file
+	 * @return The number of track-points which were reported
+	 * @throws IOException If reading or decoding the data fails
+	 */
+	public static int parse(InputStream stream, String name, TrackPointConsumer consumer) throws IOException {
+		try {
+			int count = 0;
+
+			// FIT files can be chained, each with its own header
+			int headerSize = stream.read();
+			if (headerSize == -1) {
+				throw new IOException("Empty FIT data in " + name);
+			}
+			do {
+				long dataSize = readHeader(stream, headerSize, name);
+				count += readRecords(stream, dataSize, name, consumer);
+
+				// the CRC of the file is not verified
+				readFully(stream, CRC_SIZE);
+
+				headerSize = stream.read();
+			} while (headerSize != -1);
+
+			consumer.endSegment();
+
+			return count;
+		} catch (EOFException e) {
+			throw new IOException("Unexpected end of FIT data in " + name, e);
+		}
+	}
+
+	private static long readHeader(InputStream stream, int headerSize, String name) throws IOException {
+		if (headerSize < MIN_HEADER_SIZE) {
+			throw new IOException("Invalid size of FIT header in " + name + ": " + headerSize);
+		}
+
+		byte[] header = readFully(stream, headerSize - 1);
+		for (int i = 0; i < FIT_SIGNATURE.length; i++) {
+			// the signature starts at offset 8 of the header, the size-byte was read already
+			if (header[7 + i] != FIT_SIGNATURE[i]) {
+				throw new IOException("Missing FIT signature in " + name);
+			}
+		}
+
+		// size of the records without header and CRC, always little endian
+		return readUInt32(header, 3, false);
+	}
+
+	private static int readRecords(InputStream stream, long dataSize, String name, TrackPointConsumer consumer) throws IOException {
+		// local message types are only valid inside one FIT file
+		Definition[] definitions = new Definition[LOCAL_MESSAGE_TYPES];
+
+		int count = 0;
+		long lastTimestamp = -1;
+		long remaining = dataSize;
+		while (remaining > 0) {
+			int header = stream.read();
+			if (header == -1) {
+				throw new EOFException();
+			}
+			remaining--;
+
+			final int localType;
+			long timestamp = -1;
+			if ((header & COMPRESSED_TIMESTAMP_HEADER) != 0) {
+				// data-message with a 5-bit offset to the previous timestamp
+				localType = (header >> 5) & 0x03;
+				if (lastTimestamp >= 0) {
+					int offset = header & TIME_OFFSET_MASK;
+					timestamp = (lastTimestamp & ~TIME_OFFSET_MASK) + offset;
+					if (offset < (lastTimestamp & TIME_OFFSET_MASK)) {
+						// the offset rolled over
+						timestamp += TIME_OFFSET_MASK + 1;
+					}
+				}
+			} else if ((header & DEFINITION_MESSAGE) != 0) {
+				Definition definition = readDefinition(stream, (header & DEVELOPER_DATA) != 0);
+				definitions[header & LOCAL_MESSAGE_TYPE_MASK] = definition;
+				remaining -= definition.definitionSize;
+				continue;
+			} else {
+				localType = header & LOCAL_MESSAGE_TYPE_MASK;
+			}
+
+			Definition definition = definitions[localType];
+			if (definition == null) {
+				throw new IOException("Data message for undefined local message type " + localType + " in " + name);
+			}
+
+			byte[] data = readFully(stream, definition.size);
+			remaining -= definition.size;
+
+			if (definition.timestampOffset >= 0) {
+				long value = readUInt32(data, definition.timestampOffset, definition.bigEndian);
+				if (value != INVALID_UINT32) {
+					timestamp = value;
+				}
+			}
+			if (timestamp >= 0) {
+				lastTimestamp = timestamp;
+			}
+
+			if (definition.globalNumber == MESG_RECORD &&
+					definition.latOffset >= 0 && definition.lonOffset >= 0) {
+				int lat = readInt32(data, definition.latOffset, definition.bigEndian);
+				int lon = readInt32(data, definition.lonOffset, definition.bigEndian);
+
+				// records without a GPS-fix have no position
+				if (lat != INVALID_SINT32 && lon != INVALID_SINT32) {
+					consumer.accept(lat * SEMICIRCLES_TO_DEGREES, lon * SEMICIRCLES_TO_DEGREES,
+							timestamp >= 0 ? (timestamp + FIT_EPOCH_SECONDS) * 1000 : TrackPointConsumer.NO_TIME);
+					count++;
+				}
+			} else if (definition.globalNumber == MESG_EVENT &&
+					definition.eventOffset >= 0 && definition.eventTypeOffset >= 0) {
+				// stopping the timer pauses the recording, so do not connect points across it
+				if (data[definition.eventOffset] == EVENT_TIMER &&
+						isStop(data[definition.eventTypeOffset] & 0xFF)) {
+					consumer.endSegment();
+				}
+			}
+		}
+
+		return count;
+	}
+
+	private static boolean isStop(int eventType) {
+		return eventType == EVENT_TYPE_STOP || eventType == EVENT_TYPE_STOP_ALL ||
+				eventType == EVENT_TYPE_STOP_DISABLE || eventType == EVENT_TYPE_STOP_DISABLE_ALL;
+	}
+
+	private static Definition readDefinition(InputStream stream, boolean hasDeveloperFields) throws IOException {
+		// reserved, architecture, global message number (2 bytes), number of fields
+		byte[] fixed = readFully(stream, 5);
+		boolean bigEndian = fixed[1] == 1;
+		int globalNumber = bigEndian ?
+				((fixed[2] & 0xFF) << 8) | (fixed[3] & 0xFF) :
+				((fixed[3] & 0xFF) << 8) | (fixed[2] & 0xFF);
+
+		Definition definition = new Definition(globalNumber, bigEndian);
+
+		// field definition number, size, base type
+		int fieldCount = fixed[4] & 0xFF;
+		byte[] fields = readFully(stream, fieldCount * 3);
+		definition.definitionSize = fixed.length + fields.length;
+		for (int i = 0; i < fieldCount; i++) {
+			definition.addField(fields[i * 3] & 0xFF, fields[i * 3 + 1] & 0xFF);
+		}
+
+		// developer fields only add to the size of the data
+		if (hasDeveloperFields) {
+			int developerCount = readFully(stream, 1)[0] & 0xFF;
+			byte[] developerFields = readFully(stream, developerCount * 3);
+			definition.definitionSize += 1 + developerFields.length;
+			for (int i = 0; i < developerCount; i++) {
+				definition.size += developerFields[i * 3 + 1] & 0xFF;
+			}
+		}
+
+		return definition;
+	}
+
+	private static byte[] readFully(InputStream stream, int length) throws IOException {
+		byte[] bytes = stream.readNBytes(length);
+		if (bytes.length != length) {
+			throw new EOFException();
+		}
+		return bytes;
+	}
+
+	private static int readInt32(byte[] data, int offset, boolean bigEndian) {
+		if (bigEndian) {
+			return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) |
+					((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+		}
+
+		return ((data[offset + 3] & 0xFF) << 24) | ((data[offset + 2] & 0xFF) << 16) |
+				((data[offset + 1] & 0xFF) << 8) | (data[offset] & 0xFF);
+	}
+
+	private static long readUInt32(byte[] data, int offset, boolean bigEndian) {
+		return readInt32(data, offset, bigEndian) & INVALID_UINT32;
+	}
+
+	/**
+	 * Layout of the data-messages of one local message type.
+	 */
+	private static final class Definition {
+		private final int globalNumber;
+		private final boolean bigEndian;
+
+		// number of bytes of the definition-message and of each data-message
+		private int definitionSize;
+		private int size;
+
+		// offsets of the interesting fields in the data-message, -1 if not present
+		private int latOffset = -1;
+		private int lonOffset = -1;
+		private int timestampOffset = -1;
+		private int eventOffset = -1;
+		private int eventTypeOffset = -1;
+
+		private Definition(int globalNumber, boolean bigEndian) {
+			this.globalNumber = globalNumber;
+			this.bigEndian = bigEndian;
+		}
+
+		private void addField(int number, int fieldSize) {
+			// fields with an unexpected size, e.g. arrays, are ignored
+			if (number == FIELD_TIMESTAMP && fieldSize == 4) {
+				timestampOffset = size;
+			} else if (globalNumber == MESG_RECORD && fieldSize == 4) {
+				if (number == FIELD_POSITION_LAT) {
+					latOffset = size;
+				} else if (number == FIELD_POSITION_LONG) {
+					lonOffset = size;
+				}
+			} else if (globalNumber == MESG_EVENT && fieldSize == 1) {
+				if (number == FIELD_EVENT) {
+					eventOffset = size;
+				} else if (number == FIELD_EVENT_TYPE) {
+					eventTypeOffset = size;
+				}
+			}
+
+			size += fieldSize;
+		}
+	}
+}
@@ -0,0 +1,297 @@
+package org.dstadler.ctw.gpx;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Extract the "lat" and "lon" attributes of track-points directly from
+ * the bytes of a GPX file without a general XML parser.
+ *
+ * Files are memory-mapped and scanned for "trkpt" start-tags and
+ * "trkseg" end-tags, coordinates are parsed from the bytes without
+ * creating Strings. This avoids most of the tokenization and allocation
+ * of {@link GPXStreamingParser}, but only works for the usual GPX files:
+ * comments and CDATA sections are skipped, but entities and character
+ * references in coordinates are not supported.
+ *
+ * Points are reported as soon as the start-tag is found and without
+ * a timestamp, i.e. with {@link TrackPointConsumer#NO_TIME}.
+ */
+public class GPXByteScanner {
+	private static final byte[] TRKPT = "trkpt".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] TRKSEG = "trkseg".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] LAT = "lat".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] LON = "lon".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] COMMENT_START = "!--".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] COMMENT_END = "-->".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CDATA_START = "![CDATA[".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CDATA_END = "]]>".getBytes(StandardCharsets.US_ASCII);
+
+	// powers of ten which are exactly representable as double
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	// mantissas up to this value are exactly representable as double
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	/**
+	 * Memory-map the given GPX file and report all track-points to the consumer.
+	 *
+	 * @param gpxFile The GPX file to read, needs to be smaller than 2GB
+	 * @param consumer Invoked for every track-point in the file
+	 * @return The number of track-points which were reported
+	 * @throws IOException If reading or scanning the file fails
+	 */
+	public static int parse(File gpxFile, TrackPointConsumer consumer) throws IOException {
+		return parse(map(gpxFile), gpxFile.toString(), consumer);
+	}
+
+	/**
+	 * Memory-map the given file read-only.
+	 *
+	 * @param file The file to map, needs to be smaller than 2GB
+	 * @return A buffer with the content of the file
+	 * @throws IOException If the file cannot be mapped
+	 */
+	public static ByteBuffer map(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Cannot map file " + file + " with " + size + " bytes");
+			}
+
+			// the mapping stays valid after closing the channel
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
+
+	/**
+	 * Report all track-points in the remaining bytes of the buffer to the consumer.
+	 *
+	 * The position of the buffer is not changed.
+	 *
+	 * @param buffer The GPX data
+	 * @param name A name for the data which is used in error messages
+	 * @param consumer Invoked for every track-point in the data
+	 * @return The number of track-points which were reported
+	 * @throws IOException If the data contains an invalid track-point
+	 */
+	public static int parse(ByteBuffer buffer, String name, TrackPointConsumer consumer) throws IOException {
+		int count = 0;
+		int limit = buffer.limit();
+		int pos = buffer.position();
+		while ((pos = indexOf(buffer, (byte) '<', pos, limit)) != -1) {
+			pos++;
+			if (pos >= limit) {
+				break;
+			}
+
+			if (buffer.get(pos) == '!') {
+				pos = skipMarkup(buffer, pos, limit);
+				continue;
+			}
+
+			boolean endTag = buffer.get(pos) == '/';
+			if (endTag) {
+				pos++;
+			}
+
+			// element names can have a namespace-prefix, e.g. "gpx:trkpt"
+			int localStart = pos;
+			while (pos < limit && !isNameEnd(buffer.get(pos))) {
+				if (buffer.get(pos) == ':') {
+					localStart = pos + 1;
+				}
+				pos++;
+			}
+
+			if (!endTag && equals(buffer, localStart, pos, TRKPT)) {
+				int tagEnd = indexOf(buffer, (byte) '>', pos, limit);
+				if (tagEnd == -1) {
+					throw new IOException("Unterminated track-point at offset " + pos + " in " + name);
+				}
+
+				double lat = parseAttribute(buffer, pos, tagEnd, LAT, name);
+				double lon = parseAttribute(buffer, pos, tagEnd, LON, name);
+				consumer.accept(lat, lon, TrackPointConsumer.NO_TIME);
+				count++;
+
+				pos = tagEnd + 1;
+			} else if (endTag && equals(buffer, localStart, pos, TRKSEG)) {
+				consumer.endSegment();
+			}
+		}
+
+		return count;
+	}
+
+	private static int skipMarkup(ByteBuffer buffer, int pos, int limit) {
+		final int end;
+		if (startsWith(buffer, pos, limit, COMMENT_START)) {
+			end = indexOf(buffer, COMMENT_END, pos + COMMENT_START.length, limit);
+		} else if (startsWith(buffer, pos, limit, CDATA_START)) {
+			end = indexOf(buffer, CDATA_END, pos + CDATA_START.length, limit);
+		} else {
+			// e.g. DOCTYPE, which is not expected in GPX files
+			end = indexOf(buffer, (byte) '>', pos, limit);
+		}
+
+		return end == -1 ? limit : end + 1;
+	}
+
+	private static double parseAttribute(ByteBuffer buffer, int from, int to, byte[] attribute, String name) throws IOException {
+		int pos = from;
+		while (pos < to) {
+			// the attribute-name needs to be preceded by whitespace
+			if (isWhitespace(buffer.get(pos)) && startsWith(buffer, pos + 1, to, attribute)) {
+				int valuePos = pos + 1 + attribute.length;
+				while (valuePos < to && isWhitespace(buffer.get(valuePos))) {
+					valuePos++;
+				}
+
+				if (valuePos < to && buffer.get(valuePos) == '=') {
+					valuePos++;
+					while (valuePos < to && isWhitespace(buffer.get(valuePos))) {
+						valuePos++;
+					}
+
+					if (valuePos < to && (buffer.get(valuePos) == '"' || buffer.get(valuePos) == '\'')) {
+						int valueEnd = indexOf(buffer, buffer.get(valuePos), valuePos + 1, to);
+						if (valueEnd == -1) {
+							break;
+						}
+
+						try {
+							return parseDouble(buffer, valuePos + 1, valueEnd);
+						} catch (NumberFormatException e) {
+							throw new IOException("Invalid value for attribute '" + new String(attribute, StandardCharsets.US_ASCII) +
+									"' at offset " + valuePos + " in " + name, e);
+						}
+					}
+				}
+			}
+			pos++;
+		}
+
+		throw new IOException("Track-point without attribute '" + new String(attribute, StandardCharsets.US_ASCII) +
+				"' at offset " + from + " in " + name);
+	}
+
+	/**
+	 * Parse a decimal number from the given bytes with the same result as
+	 * {@link Double#parseDouble(String)}.
+	 *
+	 * Usual coordinates with up to 15 digits are converted exactly via
+	 * a long mantissa and a power of ten, other values fall back to
+	 * {@link Double#parseDouble(String)}.
+	 *
+	 * @throws NumberFormatException If the bytes do not contain a valid number
+	 */
+	static double parseDouble(ByteBuffer buffer, int start, int end) {
+		int pos = start;
+		int last = end;
+
+		// Double.parseDouble() ignores leading and trailing whitespace
+		while (pos < last && isWhitespace(buffer.get(pos))) {
+			pos++;
+		}
+		while (last > pos && isWhitespace(buffer.get(last - 1))) {
+			last--;
+		}
+
+		boolean negative = false;
+		if (pos < last && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+			negative = buffer.get(pos) == '-';
+			pos++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean dot = false;
+		boolean exact = true;
+		for (; pos < last; pos++) {
+			byte b = buffer.get(pos);
+			if (b >= '0' && b <= '9') {
+				if (mantissa >= MAX_EXACT_MANTISSA / 10) {
+					exact = false;
+					break;
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (dot) {
+					exponent--;
+				}
+			} else if (b == '.' && !dot) {
+				dot = true;
+			} else {
+				// exponent, "NaN", "Infinity", hex-values or invalid characters
+				exact = false;
+				break;
+			}
+		}
+
+		if (exact && digits > 0 && exponent >= -POWERS_OF_TEN.length + 1) {
+			// both values are exact, so a single division is correctly rounded
+			double value = mantissa / POWERS_OF_TEN[-exponent];
+			return negative ? -value : value;
+		}
+
+		byte[] bytes = new byte[end - start];
+		buffer.get(start, bytes);
+		return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+	}
+
+	private static boolean isNameEnd(byte b) {
+		return isWhitespace(b) || b == '>' || b == '/';
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+	}
+
+	private static boolean equals(ByteBuffer buffer, int start, int end, byte[] bytes) {
+		return end - start == bytes.length && startsWith(buffer, start, end, bytes);
+	}
+
+	private static boolean startsWith(ByteBuffer buffer, int pos, int limit, byte[] bytes) {
+		if (limit - pos < bytes.length) {
+			return false;
+		}
+
+		for (int i = 0; i < bytes.length; i++) {
+			if (buffer.get(pos + i) != bytes[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static int indexOf(ByteBuffer buffer, byte b, int from, int limit) {
+		for (int i = from; i < limit; i++) {
+			if (buffer.get(i) == b) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	private static int indexOf(ByteBuffer buffer, byte[] bytes, int from, int limit) {
+		for (int i = from; i <= limit - bytes.length; i++) {
+			if (startsWith(buffer, i, limit, bytes)) {
+				return i + bytes.length - 1;
+			}
+		}
+
+		return -1;
+	}
+}
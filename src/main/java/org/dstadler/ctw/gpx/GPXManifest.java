@@ -0,0 +1,403 @@
+package org.dstadler.ctw.gpx;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+import java.util.logging.Logger;
+
+import org.dstadler.commons.logging.jdk.LoggerFactory;
+import org.dstadler.ctw.utils.CellKey;
+import org.dstadler.ctw.utils.LongHashSet;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps track of all GPX files which were read previously together
+ * with the squares and tiles which each file covers.
+ *
+ * This allows to only parse GPX files which were added or changed
+ * since the last run and merge the cached results of all other
+ * files.
+ *
+ * The manifest is stored as simple text-file, one block per GPX file:
+ *
+ * <pre>
+ * F &lt;size&gt; &lt;last-modified&gt; &lt;hash&gt; &lt;path&gt;
+ * S &lt;square&gt;
+ * T &lt;tile&gt;
+ * </pre>
+ *
+ * The first line holds a header with a format-version and a
+ * description of the settings which were used to compute the
+ * cells. If any of these differ, the previous manifest is ignored.
+ *
+ * A {@link CellIndex} for squares and tiles is kept up-to-date
+ * when entries are added, replaced or removed, so that cells
+ * which are not covered by any GPX file any more are retracted.
+ *
+ * In memory, cells are kept as keys of {@link CellKey}, they are
+ * only converted to Strings when the file is read or written.
+ */
+public class GPXManifest {
+	private static final Logger log = LoggerFactory.make();
+
+	private static final String HEADER = "# GPXManifest 1 ";
+
+	private final String settings;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private final CellIndex squareIndex = new CellIndex();
+	private final CellIndex tileIndex = new CellIndex();
+
+	/**
+	 * Create an empty manifest.
+	 *
+	 * @param settings A short text which describes how cells are computed
+	 *                 from track-points, e.g. "points"
+	 */
+	public GPXManifest(String settings) {
+		Preconditions.checkArgument(!settings.contains("\n"),
+				"Settings cannot contain newlines: %s", settings);
+		this.settings = settings;
+	}
+
+	/**
+	 * Cached information about one GPX file.
+	 */
+	public static class Entry {
+		private final long size;
+		private final long lastModified;
+		private final String hash;
+
+		// sorted keys without duplicates
+		private final long[] squares;
+		private final long[] tiles;
+
+		public Entry(long size, long lastModified, String hash, Set<String> squares, Set<String> tiles) {
+			this(size, lastModified, hash, toKeys(squares, CellKey::parseSquare), toKeys(tiles, CellKey::parseTile));
+		}
+
+		/**
+		 * @param squares Keys of the covered squares as produced by {@link CellKey}
+		 * @param tiles Keys of the covered tiles as produced by {@link CellKey}
+		 */
+		public Entry(long size, long lastModified, String hash, LongHashSet squares, LongHashSet tiles) {
+			this(size, lastModified, hash, squares.toSortedArray(), tiles.toSortedArray());
+		}
+
+		private Entry(long size, long lastModified, String hash, long[] squares, long[] tiles) {
+			Preconditions.checkArgument(hash.indexOf(' ') == -1 && !hash.isEmpty(),
+					"Invalid hash: '%s'", hash);
+
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+			this.squares = squares;
+			this.tiles = tiles;
+		}
+
+		private static long[] toKeys(Set<String> cells, ToLongFunction<String> parser) {
+			LongHashSet keys = new LongHashSet(cells.size());
+			for (String cell : cells) {
+				keys.add(parser.applyAsLong(cell));
+			}
+			return keys.toSortedArray();
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public String getHash() {
+			return hash;
+		}
+
+		public Set<String> getSquares() {
+			return toStrings(squares, CellKey::formatSquare);
+		}
+
+		public Set<String> getTiles() {
+			return toStrings(tiles, CellKey::formatTile);
+		}
+
+		/**
+		 * @return A copy of this entry with a different last-modified timestamp,
+		 * 		used when a file was touched without changing its content
+		 */
+		public Entry withLastModified(long newLastModified) {
+			return new Entry(size, newLastModified, hash, squares, tiles);
+		}
+
+		/**
+		 * @return true if the given source has the same size and last-modified
+		 * 		timestamp as recorded in this entry
+		 */
+		public boolean matches(GPXSource source) {
+			return source.getSize() == size && source.getLastModified() == lastModified;
+		}
+	}
+
+	public String getSettings() {
+		return settings;
+	}
+
+	public Entry get(String path) {
+		return entries.get(path);
+	}
+
+	/**
+	 * Add or replace the entry for the given path and
+	 * update the reference-counts of the covered cells.
+	 */
+	public void put(String path, Entry entry) {
+		Preconditions.checkArgument(!path.contains("\n"),
+				"Paths cannot contain newlines: %s", path);
+		Entry previous = entries.put(path, entry);
+
+		// add first so that cells which are still covered do not drop to zero
+		squareIndex.add(entry.squares);
+		tileIndex.add(entry.tiles);
+
+		if (previous != null) {
+			squareIndex.remove(previous.squares);
+			tileIndex.remove(previous.tiles);
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public Set<String> getPaths() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	/**
+	 * Remove all entries whose path is not contained in the given
+	 * collection, i.e. GPX files which were deleted since the
+	 * previous run.
+	 *
+	 * @param paths The paths of all GPX files which still exist
+	 * @return The entries which were removed, keyed by path
+	 */
+	public Map<String, Entry> retainAll(Collection<String> paths) {
+		Set<String> keep = new HashSet<>(paths);
+
+		Map<String, Entry> removed = new TreeMap<>();
+		entries.entrySet().removeIf(entry -> {
+			if (keep.contains(entry.getKey())) {
+				return false;
+			}
+
+			removed.put(entry.getKey(), entry.getValue());
+			return true;
+		});
+
+		for (Entry entry : removed.values()) {
+			squareIndex.remove(entry.squares);
+			tileIndex.remove(entry.tiles);
+		}
+
+		return removed;
+	}
+
+	/**
+	 * @return The union of the squares of all GPX files in the manifest
+	 */
+	public Set<String> getSquares() {
+		return toStrings(squareIndex.getCells(), CellKey::formatSquare);
+	}
+
+	/**
+	 * @return The union of the tiles of all GPX files in the manifest
+	 */
+	public Set<String> getTiles() {
+		return toStrings(tileIndex.getCells(), CellKey::formatTile);
+	}
+
+	public CellIndex getSquareIndex() {
+		return squareIndex;
+	}
+
+	public CellIndex getTileIndex() {
+		return tileIndex;
+	}
+
+	/**
+	 * @return Squares which were covered by a GPX file that was removed or
+	 * 		replaced and which are not covered by any other GPX file
+	 */
+	public Set<String> getRetractedSquares() {
+		return toStrings(squareIndex.getRetracted(), CellKey::formatSquare);
+	}
+
+	/**
+	 * @return Tiles which were covered by a GPX file that was removed or
+	 * 		replaced and which are not covered by any other GPX file
+	 */
+	public Set<String> getRetractedTiles() {
+		return toStrings(tileIndex.getRetracted(), CellKey::formatTile);
+	}
+
+	private static Set<String> toStrings(LongHashSet keys, LongFunction<String> formatter) {
+		return toStrings(keys.toSortedArray(), formatter);
+	}
+
+	private static Set<String> toStrings(long[] keys, LongFunction<String> formatter) {
+		Set<String> cells = new TreeSet<>();
+		for (long key : keys) {
+			cells.add(formatter.apply(key));
+		}
+		return cells;
+	}
+
+	/**
+	 * Read a manifest which was written via {@link #write(File)}.
+	 *
+	 * An empty manifest is returned if the file does not exist or if
+	 * it was written with a different format-version or different
+	 * settings, so that all GPX files are parsed again.
+	 *
+	 * @param file The file to read from
+	 * @param settings The settings that are currently in use
+	 * @return The resulting manifest, never null
+	 * @throws IOException If reading the file fails
+	 */
+	public static GPXManifest read(File file, String settings) throws IOException {
+		GPXManifest manifest = new GPXManifest(settings);
+		if (!file.exists()) {
+			return manifest;
+		}
+
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String header = reader.readLine();
+			if (!(HEADER + settings).equals(header)) {
+				log.info("Ignoring manifest " + file + " with different format or settings: " + header);
+				return manifest;
+			}
+
+			String path = null;
+			long size = 0;
+			long lastModified = 0;
+			String hash = null;
+			LongHashSet squares = new LongHashSet();
+			LongHashSet tiles = new LongHashSet();
+
+			int lineNr = 1;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lineNr++;
+				if (line.isEmpty()) {
+					continue;
+				}
+
+				Preconditions.checkState(line.length() > 2 && line.charAt(1) == ' ',
+						"Invalid line %s in manifest %s: %s", lineNr, file, line);
+
+				switch (line.charAt(0)) {
+					case 'F' -> {
+						if (path != null) {
+							manifest.put(path, new Entry(size, lastModified, hash, squares, tiles));
+						}
+
+						String[] parts = line.split(" ", 5);
+						Preconditions.checkState(parts.length == 5,
+								"Invalid line %s in manifest %s: %s", lineNr, file, line);
+
+						size = Long.parseLong(parts[1]);
+						lastModified = Long.parseLong(parts[2]);
+						hash = parts[3];
+						path = parts[4];
+						squares = new LongHashSet();
+						tiles = new LongHashSet();
+					}
+					case 'S' -> {
+						Preconditions.checkState(path != null,
+								"Square without file at line %s in manifest %s", lineNr, file);
+						squares.add(parseCell(line, CellKey::parseSquare, lineNr, file));
+					}
+					case 'T' -> {
+						Preconditions.checkState(path != null,
+								"Tile without file at line %s in manifest %s", lineNr, file);
+						tiles.add(parseCell(line, CellKey::parseTile, lineNr, file));
+					}
+					default -> throw new IllegalStateException(
+							"Invalid line " + lineNr + " in manifest " + file + ": " + line);
+				}
+			}
+
+			if (path != null) {
+				manifest.put(path, new Entry(size, lastModified, hash, squares, tiles));
+			}
+		}
+
+		return manifest;
+	}
+
+	private static long parseCell(String line, CellParser parser, int lineNr, File file) {
+		try {
+			return parser.parse(line, 2, line.length());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalStateException("Invalid line " + lineNr + " in manifest " + file + ": " + line, e);
+		}
+	}
+
+	private interface CellParser {
+		long parse(CharSequence str, int start, int end);
+	}
+
+	/**
+	 * Write the manifest to the given file.
+	 *
+	 * Entries, squares and tiles are sorted to produce stable output.
+	 * The data is written to a temporary file first and then moved in
+	 * place so that an interrupted run does not leave a broken manifest.
+	 *
+	 * @param file The file to write to, missing parent directories are created
+	 * @throws IOException If writing the file fails
+	 */
+	public void write(File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Could not create directory " + parent);
+		}
+
+		File tmp = new File(parent, file.getName() + ".tmp");
+		try (Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+			writer.write(HEADER + settings + "\n");
+
+			for (Map.Entry<String, Entry> mapEntry : new TreeMap<>(entries).entrySet()) {
+				Entry entry = mapEntry.getValue();
+				writer.write("F " + entry.getSize() + " " + entry.getLastModified() + " " +
+						entry.getHash() + " " + mapEntry.getKey() + "\n");
+
+				for (String square : entry.getSquares()) {
+					writer.write("S " + square + "\n");
+				}
+				for (String tile : entry.getTiles()) {
+					writer.write("T " + tile + "\n");
+				}
+			}
+		}
+
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -0,0 +1,391 @@
+package org.dstadler.ctw.gpx;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A GPX track which is read either from a plain GPX file, from
+ * a gzipped GPX file or from an entry inside a zip archive.
+ *
+ * Binary FIT files are supported in the same way, they are
+ * decoded via {@link FITStreamingParser} instead of
+ * {@link GPXStreamingParser}.
+ *
+ * Data is decompressed while it is read, so archives do not need
+ * to be extracted before reading the tracks.
+ *
+ * Entries of zip archives use the path of the archive followed by
+ * "!/" and the name of the entry, e.g. "gpx/export.zip!/track.gpx".
+ * All entries of one archive share a single open {@link ZipFile}, so
+ * the central directory is read only once per archive. Multiple entries
+ * can still be read concurrently, the archive is closed when all entries
+ * were read or released via {@link #release()}.
+ *
+ * Via {@link #load()} the data can be read into memory up-front, e.g.
+ * on a separate thread when file-access has a high latency, and is then
+ * parsed from memory.
+ */
+public class GPXSource {
+	private static final String GPX_SUFFIX = ".gpx";
+	private static final String FIT_SUFFIX = ".fit";
+	private static final String GZIP_SUFFIX = ".gz";
+	private static final String ZIP_SUFFIX = ".zip";
+
+	// separates the path of the zip archive from the name of the entry
+	public static final String ZIP_SEPARATOR = "!/";
+
+	private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+	private final String entryName;
+	private final String path;
+	private final long size;
+	private final long lastModified;
+
+	// the content of the file or the uncompressed zip entry, null if not loaded
+	private final byte[] data;
+
+	// the shared handle of the zip archive, null for files and loaded entries
+	private final Archive archive;
+	private final AtomicBoolean released = new AtomicBoolean();
+
+	private GPXSource(File file, String entryName, String path, long size, long lastModified, byte[] data,
+			Archive archive) {
+		this.file = file;
+		this.entryName = entryName;
+		this.path = path;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.data = data;
+		this.archive = archive;
+	}
+
+	/**
+	 * @return true if the file is a GPX or FIT file, either plain or gzipped
+	 */
+	public static boolean isGPXFile(String name) {
+		String lower = name.toLowerCase(Locale.ROOT);
+		if (lower.endsWith(GZIP_SUFFIX)) {
+			lower = lower.substring(0, lower.length() - GZIP_SUFFIX.length());
+		}
+
+		return lower.endsWith(GPX_SUFFIX) || lower.endsWith(FIT_SUFFIX);
+	}
+
+	private static boolean isFITFile(String name) {
+		String lower = name.toLowerCase(Locale.ROOT);
+		return lower.endsWith(FIT_SUFFIX) || lower.endsWith(FIT_SUFFIX + GZIP_SUFFIX);
+	}
+
+	/**
+	 * @return true if the file is a zip archive which may contain GPX files
+	 */
+	public static boolean isZipFile(String name) {
+		return name.toLowerCase(Locale.ROOT).endsWith(ZIP_SUFFIX);
+	}
+
+	/**
+	 * @param file A plain or gzipped GPX or FIT file
+	 */
+	public static GPXSource ofFile(File file) {
+		Preconditions.checkArgument(isGPXFile(file.getName()),
+				"Expected a GPX file, but had: %s", file);
+
+		return new GPXSource(file, null, file.getPath(), file.length(), file.lastModified(), null, null);
+	}
+
+	/**
+	 * List all GPX and FIT files inside the given zip archive.
+	 *
+	 * Size and last-modified timestamp are taken from the entries,
+	 * so unchanged entries can be detected when the archive is
+	 * re-created.
+	 *
+	 * @param file The zip archive
+	 * @return A source for each GPX file in the archive
+	 * @throws IOException If the archive cannot be read
+	 */
+	public static List<GPXSource> ofZipFile(File file) throws IOException {
+		List<GPXSource> sources = new ArrayList<>();
+		ZipFile zip = new ZipFile(file);
+		try {
+			Archive archive = new Archive(file, zip);
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				String name = entry.getName().toLowerCase(Locale.ROOT);
+				if (entry.isDirectory() || !(name.endsWith(GPX_SUFFIX) || name.endsWith(FIT_SUFFIX))) {
+					continue;
+				}
+
+				sources.add(new GPXSource(file, entry.getName(),
+						file.getPath() + ZIP_SEPARATOR + entry.getName(),
+						entry.getSize(), entry.getTime(), null, archive));
+			}
+
+			// the handle which listed the entries stays open until all of them are released
+			archive.pending(sources.size());
+		} catch (IOException | RuntimeException e) {
+			zip.close();
+			throw e;
+		}
+
+		return sources;
+	}
+
+	/**
+	 * Stream the track-points of data which was read via {@link #open()}
+	 * to the consumer, using the parser for the type of this source.
+	 *
+	 * The stream is not closed by this method.
+	 *
+	 * @param stream The data of this source
+	 * @param consumer Invoked for every track-point
+	 * @return The number of track-points which were reported
+	 * @throws IOException If reading or parsing the data fails
+	 */
+	public int parse(InputStream stream, TrackPointConsumer consumer) throws IOException {
+		if (isFITFile(entryName != null ? entryName : file.getName())) {
+			return FITStreamingParser.parse(stream, path, consumer);
+		}
+
+		return GPXStreamingParser.parse(stream, path, consumer);
+	}
+
+	/**
+	 * Open the uncompressed GPX or FIT data of this source.
+	 *
+	 * @return A buffered stream, the caller needs to close it
+	 * @throws IOException If the file cannot be opened
+	 */
+	public InputStream open() throws IOException {
+		if (data != null) {
+			// zip entries are stored uncompressed, gzipped files are decompressed while parsing
+			if (entryName == null && isGzipFile()) {
+				return new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(data), GZIP_BUFFER_SIZE));
+			}
+
+			return new ByteArrayInputStream(data);
+		}
+
+		if (entryName != null) {
+			return openZipEntry();
+		}
+
+		if (isGzipFile()) {
+			return new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), GZIP_BUFFER_SIZE));
+		}
+
+		return new BufferedInputStream(new FileInputStream(file));
+	}
+
+	private boolean isGzipFile() {
+		return file.getName().toLowerCase(Locale.ROOT).endsWith(GZIP_SUFFIX);
+	}
+
+	/**
+	 * Read the data of this source into memory, so that it can be
+	 * parsed later without accessing the file again.
+	 *
+	 * Gzipped files are kept compressed, entries of zip archives
+	 * are decompressed while reading them.
+	 *
+	 * @return A source with the same path, size and timestamp which
+	 * 		reads from memory, this source if it was loaded already
+	 * @throws IOException If the file cannot be read
+	 */
+	public GPXSource load() throws IOException {
+		if (data != null) {
+			return this;
+		}
+
+		final byte[] bytes;
+		if (entryName != null) {
+			try (InputStream stream = openZipEntry()) {
+				bytes = stream.readAllBytes();
+			}
+		} else {
+			bytes = Files.readAllBytes(file.toPath());
+		}
+
+		release();
+
+		return new GPXSource(file, entryName, path, size, lastModified, bytes, null);
+	}
+
+	/**
+	 * Signal that this source is not read any more, e.g. because it was
+	 * skipped or processed already. For entries of zip archives the shared
+	 * archive is closed when all its entries are released, it is opened
+	 * again if the entry is read afterwards.
+	 *
+	 * This is done automatically when a stream returned by {@link #open()}
+	 * is closed or the source is loaded, releasing more than once has no effect.
+	 */
+	public void release() throws IOException {
+		if (archive != null && released.compareAndSet(false, true)) {
+			archive.release();
+		}
+	}
+
+	/**
+	 * @return true if the data was read into memory via {@link #load()}
+	 */
+	public boolean isLoaded() {
+		return data != null;
+	}
+
+	private InputStream openZipEntry() throws IOException {
+		InputStream stream = archive.open(entryName);
+
+		return new FilterInputStream(stream) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					release();
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return true if this is an uncompressed GPX file or a loaded
+	 * 		GPX entry of a zip archive, which can be read via {@link GPXByteScanner}
+	 */
+	public boolean isMappable() {
+		if (entryName != null) {
+			return data != null && entryName.toLowerCase(Locale.ROOT).endsWith(GPX_SUFFIX);
+		}
+
+		return file.getName().toLowerCase(Locale.ROOT).endsWith(GPX_SUFFIX);
+	}
+
+	/**
+	 * @return The uncompressed GPX data, either memory-mapped from
+	 * 		the file or wrapping the loaded data
+	 * @throws IOException If the file cannot be mapped
+	 * @throws IllegalStateException If the source is not mappable
+	 */
+	public ByteBuffer map() throws IOException {
+		Preconditions.checkState(isMappable(), "Cannot map %s", path);
+
+		return data != null ? ByteBuffer.wrap(data) : GPXByteScanner.map(file);
+	}
+
+	/**
+	 * @return The file or archive which contains the GPX data
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return A unique path for this source, for zip entries
+	 * 		this is the archive and the entry-name separated by "!/"
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return The size of the file, for zip entries the uncompressed size
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+
+	/**
+	 * The zip archive which is shared by all its entries, the handle is
+	 * closed when all entries were released and no stream is open any more.
+	 */
+	private static final class Archive {
+		private final File file;
+		private ZipFile zip;
+
+		// the number of entries which were not released yet and the number of open streams
+		private int pending;
+		private int streams;
+
+		private Archive(File file, ZipFile zip) {
+			this.file = file;
+			this.zip = zip;
+		}
+
+		private synchronized void pending(int count) throws IOException {
+			pending = count;
+			closeIfUnused();
+		}
+
+		private synchronized InputStream open(String entryName) throws IOException {
+			if (zip == null) {
+				zip = new ZipFile(file);
+			}
+
+			ZipEntry entry = zip.getEntry(entryName);
+			if (entry == null) {
+				closeIfUnused();
+				throw new IOException("Could not find entry " + entryName + " in " + file);
+			}
+
+			// ZipFile supports reading multiple entries concurrently
+			InputStream stream = new BufferedInputStream(zip.getInputStream(entry));
+			streams++;
+
+			return new FilterInputStream(stream) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						closed();
+					}
+				}
+			};
+		}
+
+		private synchronized void closed() throws IOException {
+			streams--;
+			closeIfUnused();
+		}
+
+		private synchronized void release() throws IOException {
+			pending--;
+			closeIfUnused();
+		}
+
+		private void closeIfUnused() throws IOException {
+			if (pending <= 0 && streams == 0 && zip != null) {
+				zip.close();
+				zip = null;
+			}
+		}
+	}
+}
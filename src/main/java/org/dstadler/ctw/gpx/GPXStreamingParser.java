@@ -0,0 +1,147 @@
+package org.dstadler.ctw.gpx;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.input.CloseShieldInputStream;
+
+/**
+ * Read track-points from GPX files via StAX without building
+ * up any intermediate data structures.
+ *
+ * In contrast to {@link org.dstadler.commons.gpx.GPXTrackpointsParser}
+ * this does not collect all points of a file into a map, but
+ * reports each point to a {@link TrackPointConsumer} as soon as
+ * its element is closed. Memory usage thus stays flat regardless
+ * of the size of the GPX file.
+ *
+ * Points are reported in document order, no sorting or
+ * de-duplication by time is done. The end of each track-segment
+ * is reported via {@link TrackPointConsumer#endSegment()}.
+ */
+public class GPXStreamingParser {
+	private static final XMLInputFactory FACTORY = createFactory();
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+
+		// GPX files do not need DTDs or external entities, so disable them
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+		// we only look at local names, so namespace-processing is not needed
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+
+		return factory;
+	}
+
+	/**
+	 * Stream all track-points of the given GPX file to the consumer.
+	 *
+	 * @param gpxFile The GPX file to read
+	 * @param consumer Invoked for every track-point in the file
+	 * @return The number of track-points which were reported
+	 * @throws IOException If reading or parsing the file fails
+	 */
+	public static int parse(File gpxFile, TrackPointConsumer consumer) throws IOException {
+		try (InputStream stream = new BufferedInputStream(new FileInputStream(gpxFile))) {
+			return parse(stream, gpxFile.toString(), consumer);
+		}
+	}
+
+	/**
+	 * Stream all track-points of the given GPX data to the consumer.
+	 *
+	 * The stream is not closed by this method.
+	 *
+	 * @param stream The GPX data
+	 * @param name A name for the data which is used in error messages
+	 * @param consumer Invoked for every track-point in the file
+	 * @return The number of track-points which were reported
+	 * @throws IOException If reading or parsing the data fails
+	 */
+	public static int parse(InputStream stream, String name, TrackPointConsumer consumer) throws IOException {
+		int count = 0;
+		try {
+			// the XML parser closes the stream when reaching the end of the document
+			XMLStreamReader reader = FACTORY.createXMLStreamReader(CloseShieldInputStream.wrap(stream));
+			try {
+				boolean inTrackPoint = false;
+				double lat = 0;
+				double lon = 0;
+				long time = TrackPointConsumer.NO_TIME;
+
+				while (reader.hasNext()) {
+					int event = reader.next();
+					if (event == XMLStreamConstants.START_ELEMENT) {
+						String element = localName(reader.getLocalName());
+						if ("trkpt".equals(element)) {
+							lat = parseCoordinate(reader, "lat", name);
+							lon = parseCoordinate(reader, "lon", name);
+							time = TrackPointConsumer.NO_TIME;
+							inTrackPoint = true;
+						} else if (inTrackPoint && "time".equals(element)) {
+							time = parseTime(reader.getElementText());
+						}
+					} else if (event == XMLStreamConstants.END_ELEMENT) {
+						String element = localName(reader.getLocalName());
+						if (inTrackPoint && "trkpt".equals(element)) {
+							consumer.accept(lat, lon, time);
+							inTrackPoint = false;
+							count++;
+						} else if ("trkseg".equals(element)) {
+							consumer.endSegment();
+						}
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("While parsing " + name, e);
+		}
+
+		return count;
+	}
+
+	private static String localName(String name) {
+		// without namespace-processing we may see prefixed element names, e.g. "gpx:trkpt"
+		int pos = name.indexOf(':');
+		return pos == -1 ? name : name.substring(pos + 1);
+	}
+
+	private static double parseCoordinate(XMLStreamReader reader, String attribute, String name) throws IOException {
+		String value = reader.getAttributeValue(null, attribute);
+		if (value == null) {
+			throw new IOException("Track-point without attribute '" + attribute + "' at " +
+					reader.getLocation().getLineNumber() + " in " + name);
+		}
+
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid value for attribute '" + attribute + "' at " +
+					reader.getLocation().getLineNumber() + " in " + name + ": " + value, e);
+		}
+	}
+
+	private static long parseTime(String text) {
+		// covering squares and tiles does not need the time, so
+		// do not fail the whole file because of a broken timestamp
+		try {
+			return Instant.parse(text.trim()).toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return TrackPointConsumer.NO_TIME;
+		}
+	}
+}
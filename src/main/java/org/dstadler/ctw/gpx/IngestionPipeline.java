@@ -0,0 +1,432 @@
+package org.dstadler.ctw.gpx;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.dstadler.commons.logging.jdk.LoggerFactory;
+import org.dstadler.commons.util.ExecutorUtil;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Reads all GPX files of a directory in three stages which are
+ * connected via bounded queues:
+ *
+ * <ol>
+ *     <li>a single walker-thread lists the files of the directory and
+ *     the entries of zip archives</li>
+ *     <li>a configurable number of parser-threads read the files and
+ *     compute a result for each of them, e.g. the covered cells</li>
+ *     <li>the calling thread aggregates the results one by one, so
+ *     the aggregated data does not need to be thread-safe</li>
+ * </ol>
+ *
+ * Stages block when the queue to the next stage is full, so the
+ * number of files and results which are waiting is limited
+ * independently of the number of GPX files.
+ *
+ * Optionally the files are read into memory on virtual threads before
+ * they are queued for parsing, see {@link GPXSource#load()}. When opening
+ * and reading files has a high latency, e.g. on network file systems, many
+ * files are then read concurrently while the number of parser-threads
+ * still matches the number of CPUs.
+ *
+ * The first failure in any stage stops the walker, the remaining
+ * queued items are drained without processing them and the failure
+ * is re-thrown from {@link #run(File, Function, Consumer)}.
+ */
+public class IngestionPipeline {
+	private static final Logger log = LoggerFactory.make();
+
+	// marks the end of the items in a queue
+	private static final Object END = new Object();
+
+	private final int parseThreads;
+	private final int parseQueueDepth;
+	private final int aggregateQueueDepth;
+	private final int concurrentReads;
+
+	/**
+	 * @param parseThreads The number of threads which read and parse GPX files
+	 * @param parseQueueDepth The number of files which can wait for being parsed
+	 * @param aggregateQueueDepth The number of results which can wait for being aggregated
+	 */
+	public IngestionPipeline(int parseThreads, int parseQueueDepth, int aggregateQueueDepth) {
+		this(parseThreads, parseQueueDepth, aggregateQueueDepth, 0);
+	}
+
+	/**
+	 * @param parseThreads The number of threads which parse GPX files
+	 * @param parseQueueDepth The number of files which can wait for being parsed
+	 * @param aggregateQueueDepth The number of results which can wait for being aggregated
+	 * @param concurrentReads The number of files which are read concurrently on virtual
+	 *                        threads before parsing them, 0 to read them in the parser-threads
+	 */
+	public IngestionPipeline(int parseThreads, int parseQueueDepth, int aggregateQueueDepth, int concurrentReads) {
+		Preconditions.checkArgument(parseThreads > 0,
+				"Need at least one parser-thread, but had %s", parseThreads);
+		Preconditions.checkArgument(parseQueueDepth > 0,
+				"Need a positive depth for the parse-queue, but had %s", parseQueueDepth);
+		Preconditions.checkArgument(aggregateQueueDepth > 0,
+				"Need a positive depth for the aggregate-queue, but had %s", aggregateQueueDepth);
+		Preconditions.checkArgument(concurrentReads >= 0,
+				"Need a non-negative number of concurrent reads, but had %s", concurrentReads);
+
+		this.parseThreads = parseThreads;
+		this.parseQueueDepth = parseQueueDepth;
+		this.aggregateQueueDepth = aggregateQueueDepth;
+		this.concurrentReads = concurrentReads;
+	}
+
+	/**
+	 * Parse all GPX files in the given directory and aggregate the results.
+	 *
+	 * @param dir The directory which is searched recursively for GPX files
+	 * @param parser Computes the result for one GPX file, invoked concurrently,
+	 *               results which are null are not aggregated
+	 * @param aggregator Receives all results, invoked only by the calling thread
+	 * @param <R> The type of results
+	 * @throws IOException If listing the files fails
+	 */
+	public <R> void run(File dir, Function<GPXSource, R> parser, Consumer<R> aggregator) throws IOException {
+		Preconditions.checkState(dir.exists() && dir.isDirectory(),
+				"Directory '%s' does not exist or is not a directory (%s/%s)",
+				dir, dir.exists(), dir.isDirectory());
+
+		log.info("Searching directory '" + dir + "' for GPX tracks with " + parseThreads +
+				" parser-threads, queue-depths " + parseQueueDepth + "/" + aggregateQueueDepth +
+				(concurrentReads > 0 ? ", " + concurrentReads + " concurrent reads" : ""));
+
+		BlockingQueue<Object> sources = new ArrayBlockingQueue<>(parseQueueDepth);
+		BlockingQueue<Object> results = new ArrayBlockingQueue<>(aggregateQueueDepth);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		Stage walkStage = new Stage("Walking", 1);
+		Stage readStage = new Stage("Reading", concurrentReads);
+		Stage parseStage = new Stage("Parsing", parseThreads);
+		Stage aggregateStage = new Stage("Aggregating", 1);
+
+		ExecutorService walkExecutor = Executors.newFixedThreadPool(1,
+				new BasicThreadFactory.Builder().namingPattern("gpx-walker-%d").daemon(true).build());
+		ExecutorService parseExecutor = Executors.newFixedThreadPool(parseThreads,
+				new BasicThreadFactory.Builder().namingPattern("gpx-parser-%d").daemon(true).build());
+
+		// virtual threads are cheap while blocked on I/O, the semaphore limits open files and loaded data
+		Reader reader = concurrentReads > 0 ?
+				new Reader(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("gpx-reader-", 0).factory()),
+						new Semaphore(concurrentReads), concurrentReads, readStage) :
+				null;
+		try {
+			walkExecutor.submit(() -> walk(dir, sources, failure, walkStage, reader, parseThreads));
+
+			AtomicInteger runningParsers = new AtomicInteger(parseThreads);
+			for (int i = 0; i < parseThreads; i++) {
+				parseExecutor.submit(() -> parse(sources, results, parser, failure, parseStage, runningParsers));
+			}
+
+			aggregate(results, aggregator, failure, aggregateStage);
+		} catch (InterruptedException e) {
+			failure.compareAndSet(null, e);
+
+			// stop the other stages as the queues are not drained any more
+			walkExecutor.shutdownNow();
+			parseExecutor.shutdownNow();
+			if (reader != null) {
+				reader.executor.shutdownNow();
+			}
+			Thread.currentThread().interrupt();
+		} finally {
+			ExecutorUtil.shutdownAndAwaitTermination(walkExecutor, 10_000);
+			if (reader != null) {
+				ExecutorUtil.shutdownAndAwaitTermination(reader.executor, 10_000);
+			}
+			ExecutorUtil.shutdownAndAwaitTermination(parseExecutor, 10_000);
+		}
+
+		walkStage.log();
+		if (reader != null) {
+			readStage.log();
+		}
+		parseStage.log();
+		aggregateStage.log();
+
+		Throwable e = failure.get();
+		if (e instanceof IOException) {
+			throw (IOException) e;
+		} else if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		} else if (e instanceof Error) {
+			throw (Error) e;
+		} else if (e != null) {
+			throw new IllegalStateException("While reading GPX files from " + dir, e);
+		}
+	}
+
+	private static void walk(File dir, BlockingQueue<Object> sources, AtomicReference<Throwable> failure,
+			Stage stage, Reader reader, int parsers) {
+		try (Stream<Path> walk = Files.walk(dir.toPath(), FileVisitOption.FOLLOW_LINKS)) {
+			Iterator<Path> it = walk.iterator();
+			while (it.hasNext() && failure.get() == null) {
+				File file = it.next().toFile();
+				if (file.isDirectory()) {
+					continue;
+				}
+
+				if (GPXSource.isZipFile(file.getName())) {
+					long start = System.nanoTime();
+					List<GPXSource> entries = GPXSource.ofZipFile(file);
+					stage.busy(System.nanoTime() - start);
+
+					for (int i = 0; i < entries.size(); i++) {
+						stage.processed();
+						try {
+							enqueue(entries.get(i), sources, failure, reader);
+						} catch (InterruptedException | RuntimeException | Error e) {
+							// entries which were not queued would keep the zip archive open
+							for (GPXSource entry : entries.subList(i, entries.size())) {
+								release(entry, failure);
+							}
+							throw e;
+						}
+					}
+				} else if (GPXSource.isGPXFile(file.getName())) {
+					stage.processed();
+					enqueue(GPXSource.ofFile(file), sources, failure, reader);
+				}
+			}
+		} catch (IOException | RuntimeException | Error e) {
+			failure.compareAndSet(null, e);
+		} catch (InterruptedException e) {
+			failure.compareAndSet(null, e);
+			Thread.currentThread().interrupt();
+		} finally {
+			stage.done();
+
+			// parsers and aggregator wait for the end-markers also after a failure
+			end(sources, failure, reader, parsers);
+		}
+	}
+
+	private static void end(BlockingQueue<Object> sources, AtomicReference<Throwable> failure,
+			Reader reader, int parsers) {
+		// fails right away if the walker was interrupted, the other stages are stopped then as well
+		try {
+			// parsers may only stop after all pending reads are queued
+			if (reader != null) {
+				reader.awaitReads();
+			}
+
+			// one end-marker for each parser
+			for (int i = 0; i < parsers; i++) {
+				sources.put(END);
+			}
+		} catch (InterruptedException e) {
+			failure.compareAndSet(null, e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void enqueue(GPXSource source, BlockingQueue<Object> sources,
+			AtomicReference<Throwable> failure, Reader reader) throws InterruptedException {
+		if (reader == null) {
+			sources.put(source);
+			return;
+		}
+
+		// blocks while the maximum number of files is being read
+		reader.permits.acquire();
+		try {
+			read(source, sources, failure, reader);
+		} catch (RuntimeException e) {
+			// the read was not started, e.g. because the executor was shut down
+			reader.permits.release();
+			throw e;
+		}
+	}
+
+	private static void read(GPXSource source, BlockingQueue<Object> sources,
+			AtomicReference<Throwable> failure, Reader reader) {
+		reader.executor.submit(() -> {
+			try {
+				long start = System.nanoTime();
+				GPXSource loaded = source.load();
+				reader.stage.busy(System.nanoTime() - start);
+				reader.stage.processed();
+
+				sources.put(loaded);
+			} catch (InterruptedException e) {
+				failure.compareAndSet(null, e);
+				Thread.currentThread().interrupt();
+			} catch (Throwable e) {
+				// the walker only waits for the permits, so nothing else reports this failure
+				failure.compareAndSet(null, e);
+			} finally {
+				// load() releases the source after reading it, but not if opening it fails
+				release(source, failure);
+				reader.permits.release();
+			}
+		});
+	}
+
+	private static <R> void parse(BlockingQueue<Object> sources, BlockingQueue<Object> results,
+			Function<GPXSource, R> parser, AtomicReference<Throwable> failure, Stage stage,
+			AtomicInteger runningParsers) {
+		try {
+			Object item;
+			while ((item = sources.take()) != END) {
+				GPXSource source = (GPXSource) item;
+
+				// after a failure only drain the queue
+				if (failure.get() != null) {
+					release(source, failure);
+					continue;
+				}
+
+				long start = System.nanoTime();
+				try {
+					R result = parser.apply(source);
+					stage.busy(System.nanoTime() - start);
+
+					// only log sometimes to not spam the output
+					long count = stage.processed();
+					if (count % 20 == 0) {
+						log.info("Move " + count + ": " + source);
+					}
+
+					if (result != null) {
+						results.put(result);
+					}
+				} catch (RuntimeException | Error e) {
+					// keep draining the queue, otherwise the walker would block
+					failure.compareAndSet(null, e);
+				} finally {
+					// the parser may skip the source without reading it
+					release(source, failure);
+				}
+			}
+
+			// the last parser signals the end to the aggregator
+			if (runningParsers.decrementAndGet() == 0) {
+				stage.done();
+				results.put(END);
+			}
+		} catch (InterruptedException e) {
+			failure.compareAndSet(null, e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void release(GPXSource source, AtomicReference<Throwable> failure) {
+		// closes the shared zip archive after its last entry
+		try {
+			source.release();
+		} catch (IOException e) {
+			failure.compareAndSet(null, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <R> void aggregate(BlockingQueue<Object> results, Consumer<R> aggregator,
+			AtomicReference<Throwable> failure, Stage stage) throws InterruptedException {
+		Object item;
+		while ((item = results.take()) != END) {
+			// after a failure only drain the queue
+			if (failure.get() != null) {
+				continue;
+			}
+
+			long start = System.nanoTime();
+			try {
+				aggregator.accept((R) item);
+			} catch (RuntimeException e) {
+				failure.compareAndSet(null, e);
+			}
+			stage.busy(System.nanoTime() - start);
+			stage.processed();
+		}
+
+		stage.done();
+	}
+
+	/**
+	 * Reads files on virtual threads, limited by the permits of the semaphore.
+	 */
+	private static final class Reader {
+		private final ExecutorService executor;
+		private final Semaphore permits;
+		private final int concurrentReads;
+		private final Stage stage;
+
+		private Reader(ExecutorService executor, Semaphore permits, int concurrentReads, Stage stage) {
+			this.executor = executor;
+			this.permits = permits;
+			this.concurrentReads = concurrentReads;
+			this.stage = stage;
+		}
+
+		private void awaitReads() throws InterruptedException {
+			// all permits are available again when no read is running any more
+			permits.acquire(concurrentReads);
+			permits.release(concurrentReads);
+			stage.done();
+		}
+	}
+
+	/**
+	 * Statistics of one stage of the pipeline.
+	 */
+	private static final class Stage {
+		private final String name;
+		private final int threads;
+		private final long start = System.nanoTime();
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong busyNanos = new AtomicLong();
+		private volatile long end;
+
+		private Stage(String name, int threads) {
+			this.name = name;
+			this.threads = threads;
+		}
+
+		private long processed() {
+			return count.incrementAndGet();
+		}
+
+		private void busy(long nanos) {
+			busyNanos.addAndGet(nanos);
+		}
+
+		private void done() {
+			end = System.nanoTime();
+		}
+
+		private void log() {
+			long elapsedMs = TimeUnit.NANOSECONDS.toMillis((end == 0 ? System.nanoTime() : end) - start);
+			long busyMs = TimeUnit.NANOSECONDS.toMillis(busyNanos.get());
+
+			// busy-time above the elapsed time means that the threads were working in parallel
+			log.info(String.format("%s: %,d files in %,dms with %d threads, %,.1f files/s, busy %,dms",
+					name, count.get(), elapsedMs, threads,
+					elapsedMs == 0 ? 0.0 : count.get() * 1000.0 / elapsedMs, busyMs));
+		}
+	}
+}
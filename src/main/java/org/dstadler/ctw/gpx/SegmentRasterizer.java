@@ -0,0 +1,264 @@
+package org.dstadler.ctw.gpx;
+
+import static org.dstadler.ctw.utils.Constants.SQUARE_SIZE;
+import static org.dstadler.ctw.utils.Constants.TILE_ZOOM;
+
+import java.util.function.LongConsumer;
+
+import org.dstadler.ctw.utils.CellKey;
+import org.dstadler.ctw.utils.OSMTile;
+import org.dstadler.ctw.utils.UTMSquareConverter;
+
+import com.google.common.base.Preconditions;
+
+import uk.me.jstott.jcoord.LatLng;
+import uk.me.jstott.jcoord.UTMRef;
+
+/**
+ * Collects squares and tiles by walking along the straight line
+ * between consecutive track-points of a segment instead of only
+ * looking at the track-points themselves.
+ *
+ * Cells are traversed via a DDA-style grid-walk, squares in the
+ * UTM-grid via easting/northing and tiles in fractional tile-units.
+ * Each crossed cell is reported once and cell-keys are only
+ * computed when a cell-boundary is crossed, so consecutive points
+ * in the same cell are cheap and sparse recordings do not miss
+ * cells which are only crossed between two points. Points which
+ * stay inside the square of the previous point are detected via
+ * {@link SquareBounds} without projecting them to UTM at all.
+ *
+ * The gap between two points is only filled if they are not
+ * further apart than a given distance, larger gaps usually
+ * indicate a pause in recording or a lost GPS-signal.
+ *
+ * An instance keeps state of the current segment, so a separate
+ * instance is needed for each GPX file which is read concurrently.
+ */
+public class SegmentRasterizer implements TrackPointConsumer {
+	// maximum distance in meters between two track-points which is filled in by default
+	public static final double DEFAULT_MAX_GAP = 2000;
+
+	// limits how often a line is split when it crosses UTM-zones
+	private static final int MAX_SPLIT_DEPTH = 8;
+
+	// approximate length of one degree latitude in meters
+	private static final double METERS_PER_DEGREE = 111_200;
+
+	private final LongConsumer squares;
+	private final LongConsumer tiles;
+	private final double maxGap;
+
+	// the previous point of the current segment
+	private boolean hasPrevious = false;
+	private double prevLat;
+	private double prevLon;
+	private UTMRef prevUTMRef;
+	private double prevTileX;
+	private double prevTileY;
+
+	// the square of the previous point, for quickly skipping points in the same square
+	private final SquareBounds squareBounds = new SquareBounds();
+
+	/**
+	 * @param squares Receives the keys of all covered squares, see {@link CellKey}
+	 * @param tiles Receives the keys of all covered tiles, see {@link CellKey}
+	 * @param maxGap Maximum distance in meters between two consecutive
+	 *               track-points for which crossed cells are filled in
+	 */
+	public SegmentRasterizer(LongConsumer squares, LongConsumer tiles, double maxGap) {
+		Preconditions.checkArgument(maxGap >= 0,
+				"Maximum gap cannot be negative, but had %s", maxGap);
+
+		this.squares = squares;
+		this.tiles = tiles;
+		this.maxGap = maxGap;
+	}
+
+	@Override
+	public void accept(double lat, double lon, long time) {
+		double tileX = OSMTile.computeXTile(lon, TILE_ZOOM);
+		double tileY = OSMTile.computeYTile(lat, TILE_ZOOM);
+
+		// still in the same square and tile, only remember the position,
+		// the UTM-position is computed when it is needed for leaving the square
+		if (hasPrevious && squareBounds.contains(lat, lon) &&
+				Math.floor(tileX) == Math.floor(prevTileX) && Math.floor(tileY) == Math.floor(prevTileY)) {
+			prevLat = lat;
+			prevLon = lon;
+			prevUTMRef = null;
+			prevTileX = tileX;
+			prevTileY = tileY;
+			return;
+		}
+
+		UTMRef utmRef = new LatLng(lat, lon).toUTMRef();
+
+		if (hasPrevious && distance(prevLat, prevLon, lat, lon) <= maxGap) {
+			if (prevUTMRef == null) {
+				prevUTMRef = new LatLng(prevLat, prevLon).toUTMRef();
+			}
+
+			walkSquares(prevLat, prevLon, prevUTMRef, lat, lon, utmRef, 0);
+			walkTiles(prevTileX, prevTileY, tileX, tileY, lat, lon);
+		} else {
+			squares.accept(UTMSquareConverter.getSquareKey(lat, lon));
+			tiles.accept(CellKey.tileOf(OSMTile.fromLatLngZoom(lat, lon, TILE_ZOOM)));
+		}
+
+		if (!squareBounds.contains(lat, lon)) {
+			squareBounds.update(utmRef);
+		}
+
+		hasPrevious = true;
+		prevLat = lat;
+		prevLon = lon;
+		prevUTMRef = utmRef;
+		prevTileX = tileX;
+		prevTileY = tileY;
+	}
+
+	@Override
+	public void endSegment() {
+		// do not connect the last point with the first point of the next segment
+		hasPrevious = false;
+		prevUTMRef = null;
+	}
+
+	private void walkSquares(double lat1, double lon1, UTMRef ref1,
+			double lat2, double lon2, UTMRef ref2, int depth) {
+		// easting/northing is only comparable inside the same zone and hemisphere
+		if (ref1.getLngZone() != ref2.getLngZone() || isNorth(ref1) != isNorth(ref2)) {
+			if (depth >= MAX_SPLIT_DEPTH) {
+				squares.accept(UTMSquareConverter.getSquareKey(lat2, lon2));
+				return;
+			}
+
+			// split the line and handle both halves separately
+			double latMid = (lat1 + lat2) / 2;
+			double lonMid = (lon1 + lon2) / 2;
+			UTMRef refMid = new LatLng(latMid, lonMid).toUTMRef();
+
+			walkSquares(lat1, lon1, ref1, latMid, lonMid, refMid, depth + 1);
+			walkSquares(latMid, lonMid, refMid, lat2, lon2, ref2, depth + 1);
+			return;
+		}
+
+		double x1 = cellPosition(ref1.getEasting());
+		double y1 = cellPosition(ref1.getNorthing());
+		double x2 = cellPosition(ref2.getEasting());
+		double y2 = cellPosition(ref2.getNorthing());
+
+		// still in the same square, nothing to do
+		if (Math.floor(x1) == Math.floor(x2) && Math.floor(y1) == Math.floor(y2)) {
+			return;
+		}
+
+		walk(x1, y1, x2, y2, (x, y, px, py) -> {
+			// use a point on the line inside the square to compute the square in the same way
+			// as if there was a track-point, this takes care of zone- and band-boundaries
+			LatLng latLng = new UTMRef(ref1.getLngZone(), ref1.getLatZone(),
+					px * SQUARE_SIZE, py * SQUARE_SIZE).toLatLng();
+			squares.accept(UTMSquareConverter.getSquareKey(latLng.getLatitude(), latLng.getLongitude()));
+		});
+
+		squares.accept(UTMSquareConverter.getSquareKey(lat2, lon2));
+	}
+
+	private void walkTiles(double x1, double y1, double x2, double y2, double lat2, double lon2) {
+		// still in the same tile, nothing to do
+		if (Math.floor(x1) == Math.floor(x2) && Math.floor(y1) == Math.floor(y2)) {
+			return;
+		}
+
+		int max = 1 << TILE_ZOOM;
+		walk(x1, y1, x2, y2, (x, y, px, py) -> {
+			if (x >= 0 && x < max && y >= 0 && y < max) {
+				tiles.accept(CellKey.tile(TILE_ZOOM, x, y));
+			}
+		});
+
+		tiles.accept(CellKey.tileOf(OSMTile.fromLatLngZoom(lat2, lon2, TILE_ZOOM)));
+	}
+
+	private static boolean isNorth(UTMRef ref) {
+		return ref.getLatZone() >= 'N';
+	}
+
+	private static double cellPosition(double meters) {
+		// round to full meters in the same way as when computing the square-string
+		return ((double) Math.round(meters)) / SQUARE_SIZE;
+	}
+
+	/**
+	 * Approximate distance in meters, precise enough to detect gaps
+	 * between track-points.
+	 */
+	static double distance(double lat1, double lon1, double lat2, double lon2) {
+		double dLat = lat2 - lat1;
+		double dLon = (lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+
+		return Math.sqrt(dLat * dLat + dLon * dLon) * METERS_PER_DEGREE;
+	}
+
+	/**
+	 * Receives the cells which are crossed when walking the grid.
+	 */
+	@FunctionalInterface
+	interface CellVisitor {
+		/**
+		 * @param x The x-coordinate of the cell
+		 * @param y The y-coordinate of the cell
+		 * @param px The x-position of a point on the line inside the cell
+		 * @param py The y-position of a point on the line inside the cell
+		 */
+		void visit(int x, int y, double px, double py);
+	}
+
+	/**
+	 * Walk the grid of unit-sized cells along the line from (x1, y1) to (x2, y2)
+	 * and report each crossed cell except for the cells containing the start-
+	 * and end-point.
+	 *
+	 * Cells are stepped either horizontally or vertically, so when the line
+	 * crosses exactly through a corner, one of the neighbouring cells is
+	 * reported as well.
+	 */
+	static void walk(double x1, double y1, double x2, double y2, CellVisitor visitor) {
+		int x = (int) Math.floor(x1);
+		int y = (int) Math.floor(y1);
+		int endX = (int) Math.floor(x2);
+		int endY = (int) Math.floor(y2);
+
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+
+		int stepX = dx > 0 ? 1 : -1;
+		int stepY = dy > 0 ? 1 : -1;
+
+		// the line-parameter t in [0, 1] at which the next vertical/horizontal boundary is crossed
+		double deltaX = dx == 0 ? Double.POSITIVE_INFINITY : 1 / Math.abs(dx);
+		double deltaY = dy == 0 ? Double.POSITIVE_INFINITY : 1 / Math.abs(dy);
+		double nextX = dx == 0 ? Double.POSITIVE_INFINITY : (dx > 0 ? x + 1 - x1 : x1 - x) * deltaX;
+		double nextY = dy == 0 ? Double.POSITIVE_INFINITY : (dy > 0 ? y + 1 - y1 : y1 - y) * deltaY;
+
+		// the number of steps is fixed, this ensures that we end up in the cell of the end-point
+		int steps = Math.abs(endX - x) + Math.abs(endY - y);
+		for (int i = 1; i < steps; i++) {
+			double t;
+			if (y == endY || (x != endX && nextX < nextY)) {
+				t = nextX;
+				x += stepX;
+				nextX += deltaX;
+			} else {
+				t = nextY;
+				y += stepY;
+				nextY += deltaY;
+			}
+
+			// use the middle of the part of the line inside this cell
+			double mid = (t + Math.min(1, Math.min(nextX, nextY))) / 2;
+			visitor.visit(x, y, x1 + dx * mid, y1 + dy * mid);
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package org.dstadler.ctw.gpx;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.function.ToLongFunction;
+import java.util.logging.Logger;
+
+import org.dstadler.commons.logging.jdk.LoggerFactory;
+
+/**
+ * Writes the sorted list of covered cells and compares it with the list
+ * of the previous run in the same pass.
+ *
+ * Both lists are sorted in the order of the text-files, i.e. as Strings,
+ * so walking through both at the same time finds the added and removed
+ * cells. The previous list is read line by line, so only the current
+ * cells and the changed ones are kept in memory.
+ *
+ * If the previous list is not sorted, e.g. because it was edited manually,
+ * it is read completely and sorted in memory instead. Lines of the previous
+ * list which cannot be parsed are skipped with a warning.
+ */
+public class SortedMergeDiff {
+	private static final Logger log = LoggerFactory.make();
+
+	// keys in the order of the written lines
+	private final long[] keys;
+	private final long[] added;
+	private final long[] removed;
+
+	private SortedMergeDiff(long[] keys, long[] added, long[] removed) {
+		this.keys = keys;
+		this.added = added;
+		this.removed = removed;
+	}
+
+	/**
+	 * @param current The current cells, sorted as Strings, without duplicates
+	 * @param previousFile The list of the previous run, may not exist
+	 * @param fullFile Receives all current cells, must not be the previous file
+	 * @param addedFile Receives the cells which are not in the previous list
+	 * @param removedFile Receives the cells of the previous list which are not covered any more
+	 * @param parser Computes the key of a cell
+	 * @return The keys of all, added and removed cells
+	 * @throws IOException If reading or writing a file fails
+	 */
+	public static SortedMergeDiff write(String[] current, File previousFile,
+			File fullFile, File addedFile, File removedFile, ToLongFunction<String> parser) throws IOException {
+		if (!previousFile.exists()) {
+			return write(current, new String[0], fullFile, addedFile, removedFile, parser);
+		}
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(previousFile))) {
+			SortedMergeDiff diff = merge(current, reader::readLine, fullFile, addedFile, removedFile, parser);
+			if (diff != null) {
+				return diff;
+			}
+		}
+
+		log.warning("File " + previousFile + " is not sorted, reading it completely");
+
+		String[] previous;
+		try (BufferedReader reader = new BufferedReader(new FileReader(previousFile))) {
+			previous = reader.lines().distinct().sorted().toArray(String[]::new);
+		}
+		return write(current, previous, fullFile, addedFile, removedFile, parser);
+	}
+
+	private static SortedMergeDiff write(String[] current, String[] previous,
+			File fullFile, File addedFile, File removedFile, ToLongFunction<String> parser) throws IOException {
+		int[] next = new int[1];
+		return merge(current, () -> next[0] < previous.length ? previous[next[0]++] : null,
+				fullFile, addedFile, removedFile, parser);
+	}
+
+	/**
+	 * @return The result or null if the previous lines are not sorted
+	 */
+	private static SortedMergeDiff merge(String[] current, LineSource previous,
+			File fullFile, File addedFile, File removedFile, ToLongFunction<String> parser) throws IOException {
+		long[] keys = new long[current.length];
+		LongList added = new LongList();
+		LongList removed = new LongList();
+
+		try (Writer full = new BufferedWriter(new FileWriter(fullFile));
+			 Writer addedWriter = new BufferedWriter(new FileWriter(addedFile));
+			 Writer removedWriter = new BufferedWriter(new FileWriter(removedFile))) {
+			String last = null;
+			String line = previous.readLine();
+			for (int i = 0; i < current.length; i++) {
+				String cell = current[i];
+
+				// previous cells before the current one are not covered any more
+				int compare;
+				while (line != null && (compare = line.compareTo(cell)) <= 0) {
+					if (last != null && last.compareTo(line) >= 0) {
+						return null;
+					}
+					last = line;
+
+					if (compare < 0) {
+						remove(line, removedWriter, removed, parser);
+					}
+					line = previous.readLine();
+
+					if (compare == 0) {
+						break;
+					}
+				}
+
+				keys[i] = parser.applyAsLong(cell);
+				writeLine(full, cell);
+
+				if (last == null || !last.equals(cell)) {
+					writeLine(addedWriter, cell);
+					added.add(keys[i]);
+				}
+			}
+
+			// remaining previous cells are not covered any more
+			while (line != null) {
+				if (last != null && last.compareTo(line) >= 0) {
+					return null;
+				}
+				last = line;
+
+				remove(line, removedWriter, removed, parser);
+				line = previous.readLine();
+			}
+		}
+
+		return new SortedMergeDiff(keys, added.toArray(), removed.toArray());
+	}
+
+	private static void remove(String line, Writer removedWriter, LongList removed,
+			ToLongFunction<String> parser) throws IOException {
+		// lines of the previous list which are not a cell, e.g. empty ones, were never covered
+		long key;
+		try {
+			key = parser.applyAsLong(line);
+		} catch (IllegalArgumentException e) {
+			log.warning("Skipping invalid line '" + line + "' of the previous list: " + e.getMessage());
+			return;
+		}
+
+		writeLine(removedWriter, line);
+		removed.add(key);
+	}
+
+	private static void writeLine(Writer writer, String line) throws IOException {
+		writer.write(line);
+		writer.write('\n');
+	}
+
+	/**
+	 * @return The keys of all current cells in the order of the lines
+	 */
+	public long[] getKeys() {
+		return keys;
+	}
+
+	/**
+	 * @return The keys of the added cells in the order of the lines
+	 */
+	public long[] getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return The keys of the removed cells in the order of the lines
+	 */
+	public long[] getRemoved() {
+		return removed;
+	}
+
+	public boolean isChanged() {
+		return added.length > 0 || removed.length > 0;
+	}
+
+	private interface LineSource {
+		String readLine() throws IOException;
+	}
+
+	private static final class LongList {
+		private long[] values = new long[16];
+		private int size;
+
+		private void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		private long[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package org.dstadler.ctw.gpx;
+
+import static org.dstadler.ctw.utils.Constants.SQUARE_SIZE;
+
+import org.dstadler.ctw.utils.UTMSquareConverter;
+
+import uk.me.jstott.jcoord.LatLng;
+import uk.me.jstott.jcoord.UTMRef;
+
+/**
+ * A latitude/longitude box which lies completely inside one square
+ * of the UTM-grid.
+ *
+ * This allows to check with a few comparisons if a track-point is
+ * still in the same square as the previous one, without running
+ * the projection to UTM for it.
+ *
+ * The box is the largest lat/lon-rectangle inside the corners of the
+ * square, shrunk by a small margin, so points near the border of
+ * a square are simply not detected as being inside. Squares which
+ * are close to the border of a UTM-zone, the equator, the
+ * special zones around Norway and Svalbard or the polar regions
+ * are not cached at all, as the square-string there can depend on
+ * more than the easting/northing of a point.
+ */
+public class SquareBounds {
+	// meters which are kept from the border of the square, this covers
+	// rounding to full meters and the curvature of the grid-lines
+	private static final double INSET = 2;
+
+	// width of a UTM-zone in degrees longitude
+	private static final int ZONE_WIDTH = 6;
+
+	// getSquareString() handles squares beyond this latitude differently
+	private static final double MAX_LATITUDE = 79.9;
+
+	// NaN never compares as inside, so an empty box does not contain any point
+	private double minLat = Double.NaN;
+	private double maxLat = Double.NaN;
+	private double minLon = Double.NaN;
+	private double maxLon = Double.NaN;
+
+	// receives the corners of the square, re-used to not create objects
+	private final double[] southWest = new double[2];
+	private final double[] southEast = new double[2];
+	private final double[] northWest = new double[2];
+	private final double[] northEast = new double[2];
+
+	/**
+	 * @return true if the point is inside the current box and thus is
+	 * 		guaranteed to map to the same square
+	 */
+	public boolean contains(double lat, double lon) {
+		return lat > minLat && lat < maxLat && lon > minLon && lon < maxLon;
+	}
+
+	/**
+	 * Set the box to the square which contains the given point.
+	 *
+	 * @param utmRef The point as computed via {@link LatLng#toUTMRef()}
+	 */
+	public void update(UTMRef utmRef) {
+		update(utmRef.getLngZone(), utmRef.getLatZone(), normalize(utmRef.getEasting()), normalize(utmRef.getNorthing()));
+	}
+
+	/**
+	 * Set the box to the given square.
+	 *
+	 * @param zone The UTM longitude zone of the square
+	 * @param band The UTM latitude band of the square, only the hemisphere is used
+	 * @param easting The easting of the square in meters, a multiple of the square-size
+	 * @param northing The northing of the square in meters, a multiple of the square-size
+	 */
+	public void update(int zone, char band, double easting, double northing) {
+		UTMSquareConverter.toLatLng(zone, band, easting + INSET, northing + INSET, southWest);
+		UTMSquareConverter.toLatLng(zone, band, easting + SQUARE_SIZE - INSET, northing + INSET, southEast);
+		UTMSquareConverter.toLatLng(zone, band, easting + INSET, northing + SQUARE_SIZE - INSET, northWest);
+		UTMSquareConverter.toLatLng(zone, band, easting + SQUARE_SIZE - INSET, northing + SQUARE_SIZE - INSET, northEast);
+
+		minLat = Math.max(southWest[0], southEast[0]);
+		maxLat = Math.min(northWest[0], northEast[0]);
+		minLon = Math.max(southWest[1], northWest[1]);
+		maxLon = Math.min(southEast[1], northEast[1]);
+
+		if (!isCacheable(zone)) {
+			clear();
+		}
+	}
+
+	/**
+	 * Reset the box so that it does not contain any point.
+	 */
+	public void clear() {
+		minLat = Double.NaN;
+		maxLat = Double.NaN;
+		minLon = Double.NaN;
+		maxLon = Double.NaN;
+	}
+
+	private boolean isCacheable(int zone) {
+		// the box needs to be non-empty
+		if (!(minLat < maxLat && minLon < maxLon)) {
+			return false;
+		}
+
+		// squares near the poles are computed differently
+		if (minLat < -MAX_LATITUDE || maxLat > MAX_LATITUDE) {
+			return false;
+		}
+
+		// all points need to be in the same hemisphere
+		if (minLat < 0 && maxLat >= 0) {
+			return false;
+		}
+
+		// all points need to be projected into the same zone
+		double zoneStart = (zone - 1) * ZONE_WIDTH - 180;
+		if (minLon < zoneStart || maxLon >= zoneStart + ZONE_WIDTH) {
+			return false;
+		}
+
+		// zones are wider/narrower around Norway and Svalbard
+		return !intersects(56, 64, 3, 12) && !intersects(72, 84, 0, 42);
+	}
+
+	private boolean intersects(double lat1, double lat2, double lon1, double lon2) {
+		return maxLat >= lat1 && minLat <= lat2 && maxLon >= lon1 && minLon <= lon2;
+	}
+
+	private static double normalize(double meters) {
+		// same rounding as when computing the square-string
+		//noinspection IntegerDivisionInFloatingPointContext
+		return (Math.round(meters) / SQUARE_SIZE) * SQUARE_SIZE;
+	}
+
+	@Override
+	public String toString() {
+		return "SquareBounds{" +
+				"lat=" + minLat + " - " + maxLat +
+				", lon=" + minLon + " - " + maxLon +
+				'}';
+	}
+}
@@ -0,0 +1,35 @@
+package org.dstadler.ctw.gpx;
+
+/**
+ * Callback which is invoked for every track-point while
+ * streaming through a GPX file.
+ *
+ * Only primitive values are passed so that no objects
+ * need to be allocated for every single point of a track.
+ */
+@FunctionalInterface
+public interface TrackPointConsumer {
+	/**
+	 * Value which is passed as time if a track-point
+	 * does not provide a valid timestamp.
+	 */
+	long NO_TIME = Long.MIN_VALUE;
+
+	/**
+	 * Handle one track-point.
+	 *
+	 * @param lat The latitude of the point
+	 * @param lon The longitude of the point
+	 * @param time The time of the point in milliseconds since the epoch
+	 *             or {@link #NO_TIME} if the point has no timestamp
+	 */
+	void accept(double lat, double lon, long time);
+
+	/**
+	 * Invoked when a track-segment ends, i.e. the next point
+	 * should not be connected with the previous one.
+	 */
+	default void endSegment() {
+		// nothing to do by default
+	}
+}
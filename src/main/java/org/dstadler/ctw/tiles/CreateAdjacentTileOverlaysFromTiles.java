@@ -2,6 +2,7 @@ package org.dstadler.ctw.tiles;
 
 import static org.dstadler.ctw.geojson.CreateAdjacent.ADJACENT_TILES_NEW_TXT;
 import static org.dstadler.ctw.geojson.CreateAdjacent.ADJACENT_TILES_TXT;
+import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_REMOVED_TXT;
 
 import java.io.File;
 import java.io.IOException;
@@ -11,6 +12,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import org.dstadler.commons.logging.jdk.LoggerFactory;
+import org.dstadler.ctw.geojson.CreateAdjacent;
+import org.dstadler.ctw.utils.OSMTile;
 
 /**
  * This application takes the list of covered tiles from
@@ -60,6 +63,14 @@ public class CreateAdjacentTileOverlaysFromTiles {
 
 		Set<String> tiles = CreateTileOverlaysHelper.read(tilesFile, "adjacentTiles");
 
+		if (onlyNewTiles) {
+			// tiles around tiles which are not covered any more may have changed as well
+			Set<String> removedTiles = CreateTileOverlaysHelper.readOptional(VISITED_TILES_REMOVED_TXT, "removed tiles");
+			for (String removedTile : removedTiles) {
+				addSurroundingTiles(OSMTile.fromString(removedTile), tiles);
+			}
+		}
+
 		AtomicInteger tilesOverall = new AtomicInteger();
 		// t.toCoords().equals("17/70647/45300")
 		CreateTileOverlaysHelper.generateTiles(tiles, tilesOverall,
@@ -68,4 +79,16 @@ public class CreateAdjacentTileOverlaysFromTiles {
 		log.info(String.format(Locale.US, "Wrote %,d files overall in %,dms",
 				tilesOverall.get(), System.currentTimeMillis() - start));
 	}
+
+	private static void addSurroundingTiles(OSMTile tile, Set<String> tiles) {
+		// adjacent tiles are computed recursively, so a removed tile can
+		// affect tiles up to this distance
+		int distance = CreateAdjacent.RECURSE_LEVEL + 1;
+		int max = 1 << tile.getZoom();
+		for (int x = Math.max(0, tile.getXTile() - distance); x <= Math.min(max - 1, tile.getXTile() + distance); x++) {
+			for (int y = Math.max(0, tile.getYTile() - distance); y <= Math.min(max - 1, tile.getYTile() + distance); y++) {
+				tiles.add(new OSMTile(tile.getZoom(), x, y).toCoords());
+			}
+		}
+	}
 }
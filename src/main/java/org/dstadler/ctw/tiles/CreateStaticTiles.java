@@ -30,6 +30,7 @@ import javax.imageio.ImageIO;
 import org.apache.commons.lang3.Strings;
 import org.dstadler.commons.logging.jdk.LoggerFactory;
 import org.dstadler.commons.net.UrlUtils;
+import org.dstadler.ctw.utils.OSMTile;
 
 import com.google.common.base.Preconditions;
 
@@ -160,7 +161,7 @@ public class CreateStaticTiles {
 							file.replace("\\", "/"),
 							"/"),
 					".png");
-			Preconditions.checkState(coords.matches("\\d+/\\d+/\\d+"),
+			Preconditions.checkState(OSMTile.isCoords(coords),
 					"Had invalid coordinates for file %s: %s",
 					file, coords);
 
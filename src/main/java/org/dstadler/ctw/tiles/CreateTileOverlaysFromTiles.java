@@ -1,10 +1,12 @@
 package org.dstadler.ctw.tiles;
 
 import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_NEW_TXT;
+import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_REMOVED_TXT;
 import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_TXT;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -73,9 +75,17 @@ public class CreateTileOverlaysFromTiles {
 			log.info(String.format("Write touched full tiles for %d new tiles, found %d affected tiles",
 					tiles.size(), newTiles.size()));
 
+			// tiles which are not covered any more need to be re-rendered as well
+			Set<String> removedTiles = CreateTileOverlaysHelper.readOptional(VISITED_TILES_REMOVED_TXT, "removed tiles");
+			Set<OSMTile> touchedTiles = new HashSet<>(newTiles);
+			touchedTiles.addAll(CreateTileOverlaysHelper.touchedTiles(removedTiles));
+
+			Set<String> tilesIn = CreateTileOverlaysHelper.read(VISITED_TILES_TXT, "tiles");
+			tilesIn.addAll(removedTiles);
+
 			tilesOverall = new AtomicInteger();
-			CreateTileOverlaysHelper.generateTiles(CreateTileOverlaysHelper.read(VISITED_TILES_TXT, "tiles"), tilesOverall, TILES_TILES_DIR,
-					VISITED_TILES_JSON, newTiles::contains, false);
+			CreateTileOverlaysHelper.generateTiles(tilesIn, tilesOverall, TILES_TILES_DIR,
+					VISITED_TILES_JSON, touchedTiles::contains, false);
 
 			log.info(String.format(Locale.US, "Wrote %,d files for changed tiles in %,dms",
 					tilesOverall.get(), System.currentTimeMillis() - start));
@@ -2,10 +2,12 @@ package org.dstadler.ctw.tiles;
 
 import static org.dstadler.ctw.tiles.CreateStaticTiles.TILE_DIR_COMBINED_SQUARES;
 import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_SQUARES_NEW_TXT;
+import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_SQUARES_REMOVED_TXT;
 import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_SQUARES_TXT;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.Set;
@@ -15,9 +17,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import org.dstadler.commons.logging.jdk.LoggerFactory;
 import org.dstadler.ctw.geotools.GeoTools;
+import org.dstadler.ctw.utils.Constants;
 import org.dstadler.ctw.utils.LatLonRectangle;
 import org.dstadler.ctw.utils.OSMTile;
 import org.dstadler.ctw.utils.UTMRefWithHash;
@@ -86,9 +90,22 @@ public class CreateTileOverlaysFromUTMRef {
 			log.info(String.format("Write touched full tiles for %d new squares, found %d affected tiles",
 					squares.size(), newTiles.size()));
 
+			// tiles of squares which are not covered any more need to be re-rendered as well
+			Set<String> removedSquares = CreateTileOverlaysHelper.readOptional(VISITED_SQUARES_REMOVED_TXT, "removed squares");
+			Set<OSMTile> touchedTiles = new HashSet<>(newTiles);
+			SquareTiles removedTiles = new SquareTiles(removedSquares);
+			for (int zoom = Constants.MIN_ZOOM; zoom <= Constants.MAX_ZOOM; zoom++) {
+				for (int i = 0; i < removedTiles.size(); i++) {
+					removedTiles.handleSquare(i, zoom, touchedTiles, t -> true);
+				}
+			}
+
+			Set<String> squaresIn = CreateTileOverlaysHelper.read(VISITED_SQUARES_TXT, "squares");
+			squaresIn.addAll(removedSquares);
+
 			tilesOverall = new AtomicInteger();
-			generateTiles(CreateTileOverlaysHelper.read(VISITED_SQUARES_TXT, "squares"), tilesOverall, TILES_SQUARES_DIR,
-					VISITED_SQUARES_JSON, newTiles::contains);
+			generateTiles(squaresIn, tilesOverall, TILES_SQUARES_DIR,
+					VISITED_SQUARES_JSON, touchedTiles::contains);
 
 			log.info(String.format(Locale.US, "Wrote %,d files for changed tiles in %,dms",
 					tilesOverall.get(), System.currentTimeMillis() - start));
@@ -102,13 +119,16 @@ public class CreateTileOverlaysFromUTMRef {
 
 		Set<OSMTile> allTiles = ConcurrentHashMap.newKeySet();
 
+		// tiles of all squares at all zoom-levels are computed up-front
+		SquareTiles squareTiles = new SquareTiles(squares);
+
 		CreateTileOverlaysHelper.forEachZoom(
-				zoom -> generateTilesForOneZoom(zoom, squares, tilesOverall, tileDir, filter, features, allTiles));
+				zoom -> generateTilesForOneZoom(zoom, squareTiles, tilesOverall, tileDir, filter, features, allTiles));
 
 		return allTiles;
 	}
 
-	private static void generateTilesForOneZoom(int zoom, Set<String> squares,
+	private static void generateTilesForOneZoom(int zoom, SquareTiles squares,
 			AtomicInteger tilesOverall,
 			File tileDir,
 			Predicate<OSMTile> filter,
@@ -122,12 +142,12 @@ public class CreateTileOverlaysFromUTMRef {
 
 		int squareCount = squares.size();
 		int squareNr = 1;
-		for (String square : squares) {
-			handleSquare(square, zoom, tilesOut, filter);
+		for (int i = 0; i < squareCount; i++) {
+			squares.handleSquare(i, zoom, tilesOut, filter);
 
 			if (lastLogSquare.get() + TimeUnit.SECONDS.toMillis(5) < System.currentTimeMillis()) {
 				log.info(String.format(Locale.US, "%s: Zoom %d: %,d of %,d: %s - %,d",
-						tileDir, zoom, squareNr, squareCount, square, tilesOut.size()));
+						tileDir, zoom, squareNr, squareCount, squares.get(i), tilesOut.size()));
 
 				lastLogSquare.set(System.currentTimeMillis());
 			}
@@ -149,26 +169,72 @@ public class CreateTileOverlaysFromUTMRef {
 				tileDir, tilesOutSize, zoom, CreateTileOverlaysHelper.concatProgress()));
 	}
 
-	private static void handleSquare(String square, int zoom, Set<OSMTile> tiles, Predicate<OSMTile> filter) {
-		// select starting and ending tile
-		UTMRefWithHash ref1 = UTMRefWithHash.fromString(square);
+	/**
+	 * The range of tiles which each square touches at all zoom-levels.
+	 *
+	 * The corners of all squares are converted to tiles for all zoom-levels in one
+	 * pass via {@link OSMTile#fromLatLngZoom(double[], double[], int, int[], int[][], int[][])},
+	 * so the projection is computed once per corner instead of once per corner and zoom.
+	 */
+	private static final class SquareTiles {
+		private static final int[] ZOOMS = IntStream.rangeClosed(Constants.MIN_ZOOM, Constants.MAX_ZOOM).toArray();
+
+		private final String[] squares;
+
+		// per zoom and square: the tile of the corner at lat2/lon1 and of the corner at lat1/lon2
+		private final int[][] x1;
+		private final int[][] y1;
+		private final int[][] x2;
+		private final int[][] y2;
+
+		private SquareTiles(Collection<String> squares) {
+			this.squares = squares.toArray(new String[0]);
+
+			int count = this.squares.length;
+			double[] lats1 = new double[count];
+			double[] lons1 = new double[count];
+			double[] lats2 = new double[count];
+			double[] lons2 = new double[count];
+			for (int i = 0; i < count; i++) {
+				LatLonRectangle recSquare = UTMRefWithHash.fromString(this.squares[i]).getRectangle();
+				lats1[i] = recSquare.lat2;
+				lons1[i] = recSquare.lon1;
+				lats2[i] = recSquare.lat1;
+				lons2[i] = recSquare.lon2;
+			}
 
-		LatLonRectangle recSquare = ref1.getRectangle();
+			x1 = new int[ZOOMS.length][count];
+			y1 = new int[ZOOMS.length][count];
+			x2 = new int[ZOOMS.length][count];
+			y2 = new int[ZOOMS.length][count];
+			OSMTile.fromLatLngZoom(lats1, lons1, count, ZOOMS, x1, y1);
+			OSMTile.fromLatLngZoom(lats2, lons2, count, ZOOMS, x2, y2);
+		}
 
-		OSMTile nr1 = OSMTile.fromLatLngZoom(recSquare.lat2, recSquare.lon1, zoom);
-		OSMTile nr2 = OSMTile.fromLatLngZoom(recSquare.lat1, recSquare.lon2, zoom);
+		private int size() {
+			return squares.length;
+		}
 
-		for (int x = nr1.getXTile(); x <= nr2.getXTile(); x++) {
-			for (int y = nr1.getYTile(); y >= nr2.getYTile(); y--) {
-				// construct the tile that we want to process
-				OSMTile tile = new OSMTile(zoom, x, y);
+		private String get(int square) {
+			return squares[square];
+		}
 
-				// check if this tile should be included
-				if (!filter.test(tile)) {
-					continue;
-				}
+		private void handleSquare(int square, int zoom, Set<OSMTile> tiles, Predicate<OSMTile> filter) {
+			int z = zoom - Constants.MIN_ZOOM;
 
-				tiles.add(tile);
+			// select starting and ending tile
+			for (int x = x1[z][square]; x <= x2[z][square]; x++) {
+				for (int y = y1[z][square]; y >= y2[z][square]; y--) {
+					// construct the tile that we want to process
+					OSMTile tile = new OSMTile(zoom, x, y);
+
+					// check if this tile should be included
+					if (!filter.test(tile)) {
+						continue;
+					}
+
+					tiles.add(tile);
+				}
 			}
 		}
 	}
@@ -78,6 +78,37 @@ public class CreateTileOverlaysHelper {
 		return lines;
 	}
 
+	/**
+	 * Read the given file if it exists, e.g. for the list of squares or tiles
+	 * which are not covered any more.
+	 *
+	 * @return The lines of the file or an empty set if it does not exist
+	 */
+	protected static Set<String> readOptional(String file, String logName) throws IOException {
+		if (!new File(file).exists()) {
+			return new TreeSet<>();
+		}
+
+		return read(file, logName);
+	}
+
+	/**
+	 * Compute all tiles of all zoom-levels which overlap the given tiles.
+	 *
+	 * @param tilesIn Tiles in the format "zoom/x/y"
+	 * @return The resulting set of tiles
+	 */
+	protected static Set<OSMTile> touchedTiles(Set<String> tilesIn) {
+		Set<OSMTile> tiles = new HashSet<>();
+		for (int zoom = Constants.MIN_ZOOM; zoom <= Constants.MAX_ZOOM; zoom++) {
+			for (String tileIn : tilesIn) {
+				handleTile(tileIn, zoom, tiles, t -> true);
+			}
+		}
+
+		return tiles;
+	}
+
 	protected static void cleanTiles(File tileDir) {
 		if (tileDir.exists()) {
 			log.info("Removing previous tiles at " + tileDir);
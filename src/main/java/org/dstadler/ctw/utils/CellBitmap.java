@@ -0,0 +1,474 @@
+package org.dstadler.ctw.utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongConsumer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An immutable, compressed set of squares or tiles with fast set algebra,
+ * similar to Roaring bitmaps, but with two dimensions.
+ *
+ * Cells are identified by the keys of {@link CellKey} and grouped into
+ * blocks of 64x64 neighbouring cells, i.e. with the same zoom (tiles) or
+ * zone and band (squares) and the same upper bits of x/y (tiles) or
+ * easting/northing (squares). Blocks are kept sorted by their id, so
+ * combining two bitmaps is a merge of the blocks.
+ *
+ * Each block uses the smaller of two containers:
+ * <ul>
+ *     <li>up to {@value #MAX_ARRAY_CELLS} cells: the sorted positions of the cells</li>
+ *     <li>more cells: one bit per cell, one word per column of 64 cells</li>
+ * </ul>
+ *
+ * Shifting all cells by a few cells in x or y, e.g. to find neighbours, moves
+ * the words of a block and carries bits over into the neighbouring blocks.
+ * Cells which are shifted outside of the range of x/y of the key are dropped.
+ */
+public class CellBitmap {
+	// cells per block in each direction
+	private static final int BLOCK_BITS = 6;
+	private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	// positions need 2 bytes per cell, the bitmap 512 bytes per block
+	static final int MAX_ARRAY_CELLS = 256;
+
+	// bits of x and y in the key, the bits above are the "plane", e.g. the zoom of tiles
+	private final int bits;
+	private final int blockBits;
+	private final long maxBlock;
+
+	private final long[] blockIds;
+	private final Container[] containers;
+	private final int cardinality;
+
+	private CellBitmap(int bits, long[] blockIds, Container[] containers) {
+		this.bits = bits;
+		this.blockBits = bits - BLOCK_BITS;
+		this.maxBlock = (1L << blockBits) - 1;
+		this.blockIds = blockIds;
+		this.containers = containers;
+
+		int count = 0;
+		for (Container container : containers) {
+			count += container.cardinality;
+		}
+		this.cardinality = count;
+	}
+
+	/**
+	 * @param squares Keys as produced by {@link CellKey#square(int, char, long, long)}
+	 */
+	public static CellBitmap ofSquares(LongHashSet squares) {
+		return of(CellKey.KM_BITS, squares);
+	}
+
+	/**
+	 * @param tiles Keys as produced by {@link CellKey#tile(int, int, int)}
+	 */
+	public static CellBitmap ofTiles(LongHashSet tiles) {
+		return of(CellKey.TILE_BITS, tiles);
+	}
+
+	static CellBitmap of(int bits, LongHashSet keys) {
+		long[] array = new long[keys.size()];
+		int[] i = new int[1];
+		keys.forEach(key -> array[i[0]++] = key);
+		return of(bits, array);
+	}
+
+	static CellBitmap of(int bits, long[] keys) {
+		Preconditions.checkArgument(bits > BLOCK_BITS && bits <= 29,
+				"Invalid number of bits %s", bits);
+
+		long mask = (1L << bits) - 1;
+		int blockBits = bits - BLOCK_BITS;
+
+		// block id and position in one long, so sorting groups the cells by block
+		long[] cells = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			long key = keys[i];
+			Preconditions.checkArgument(key >= 0, "Invalid key %s", key);
+
+			long x = (key >>> bits) & mask;
+			long y = key & mask;
+			long blockId = ((key >>> (2 * bits)) << (2 * blockBits)) | ((x >>> BLOCK_BITS) << blockBits) | (y >>> BLOCK_BITS);
+			cells[i] = (blockId << (2 * BLOCK_BITS)) | position(x, y);
+		}
+		Arrays.sort(cells);
+
+		long[] blockIds = new long[cells.length];
+		Container[] containers = new Container[cells.length];
+		int blocks = 0;
+		long[] words = new long[BLOCK_SIZE];
+		for (int i = 0; i < cells.length; i++) {
+			int pos = (int) (cells[i] & ((1 << (2 * BLOCK_BITS)) - 1));
+			words[pos >>> BLOCK_BITS] |= 1L << (pos & BLOCK_MASK);
+
+			long blockId = cells[i] >>> (2 * BLOCK_BITS);
+			if (i == cells.length - 1 || (cells[i + 1] >>> (2 * BLOCK_BITS)) != blockId) {
+				blockIds[blocks] = blockId;
+				containers[blocks] = Container.of(words);
+				blocks++;
+
+				words = new long[BLOCK_SIZE];
+			}
+		}
+
+		return new CellBitmap(bits, Arrays.copyOf(blockIds, blocks), Arrays.copyOf(containers, blocks));
+	}
+
+	private static CellBitmap of(int bits, Map<Long, long[]> blocks) {
+		long[] blockIds = new long[blocks.size()];
+		Container[] containers = new Container[blocks.size()];
+		int count = 0;
+		for (Map.Entry<Long, long[]> entry : blocks.entrySet()) {
+			Container container = Container.of(entry.getValue());
+			if (container != null) {
+				blockIds[count] = entry.getKey();
+				containers[count] = container;
+				count++;
+			}
+		}
+
+		return new CellBitmap(bits, Arrays.copyOf(blockIds, count), Arrays.copyOf(containers, count));
+	}
+
+	private static int position(long x, long y) {
+		return (int) (((x & BLOCK_MASK) << BLOCK_BITS) | (y & BLOCK_MASK));
+	}
+
+	/**
+	 * @return The number of cells
+	 */
+	public int cardinality() {
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		return cardinality == 0;
+	}
+
+	public boolean contains(long key) {
+		if (key < 0) {
+			return false;
+		}
+
+		long mask = (1L << bits) - 1;
+		long x = (key >>> bits) & mask;
+		long y = key & mask;
+		int index = Arrays.binarySearch(blockIds, blockId(key >>> (2 * bits), x >>> BLOCK_BITS, y >>> BLOCK_BITS));
+		return index >= 0 && containers[index].contains(position(x, y));
+	}
+
+	/**
+	 * @return The cells which are contained in this or the other bitmap
+	 */
+	public CellBitmap or(CellBitmap other) {
+		return combine(other, (a, b) -> a | b, true, true);
+	}
+
+	/**
+	 * @return The cells which are contained in this and the other bitmap
+	 */
+	public CellBitmap and(CellBitmap other) {
+		return combine(other, (a, b) -> a & b, false, false);
+	}
+
+	/**
+	 * @return The cells of this bitmap which are not contained in the other bitmap
+	 */
+	public CellBitmap andNot(CellBitmap other) {
+		return combine(other, (a, b) -> a & ~b, true, false);
+	}
+
+	private CellBitmap combine(CellBitmap other, LongBinaryOperator op, boolean keepThis, boolean keepOther) {
+		Preconditions.checkArgument(bits == other.bits,
+				"Cannot combine bitmaps of squares and tiles, had %s and %s bits", bits, other.bits);
+
+		long[] ids = new long[blockIds.length + other.blockIds.length];
+		Container[] result = new Container[ids.length];
+		int count = 0;
+
+		// merge the sorted blocks, containers are immutable, so blocks of only one side are re-used
+		int i = 0, j = 0;
+		while (i < blockIds.length || j < other.blockIds.length) {
+			long id;
+			Container container;
+			if (j == other.blockIds.length || (i < blockIds.length && blockIds[i] < other.blockIds[j])) {
+				id = blockIds[i];
+				container = keepThis ? containers[i] : null;
+				i++;
+			} else if (i == blockIds.length || other.blockIds[j] < blockIds[i]) {
+				id = other.blockIds[j];
+				container = keepOther ? other.containers[j] : null;
+				j++;
+			} else {
+				id = blockIds[i];
+				long[] a = containers[i].words();
+				long[] b = other.containers[j].words();
+				long[] words = new long[BLOCK_SIZE];
+				for (int w = 0; w < BLOCK_SIZE; w++) {
+					words[w] = op.applyAsLong(a[w], b[w]);
+				}
+				container = Container.of(words);
+				i++;
+				j++;
+			}
+
+			if (container != null) {
+				ids[count] = id;
+				result[count] = container;
+				count++;
+			}
+		}
+
+		return new CellBitmap(bits, Arrays.copyOf(ids, count), Arrays.copyOf(result, count));
+	}
+
+	/**
+	 * Move all cells by the given number of cells.
+	 *
+	 * For tiles, x is the column and y the row, i.e. dy = -1 moves each tile to
+	 * the tile {@link OSMTile#up()}. For squares, x is the easting and y the northing,
+	 * the latitude band is not changed.
+	 *
+	 * @param dx The number of cells to move in x, -63 to 63
+	 * @param dy The number of cells to move in y, -63 to 63
+	 * @return A bitmap with the moved cells, cells outside of the range of the key are dropped
+	 */
+	public CellBitmap shift(int dx, int dy) {
+		Preconditions.checkArgument(Math.abs(dx) < BLOCK_SIZE && Math.abs(dy) < BLOCK_SIZE,
+				"Can only shift by less than %s cells, but had %s/%s", BLOCK_SIZE, dx, dy);
+
+		Map<Long, long[]> shifted = new TreeMap<>();
+		for (int i = 0; i < blockIds.length; i++) {
+			long plane = blockIds[i] >>> (2 * blockBits);
+			long blockX = (blockIds[i] >>> blockBits) & maxBlock;
+			long blockY = blockIds[i] & maxBlock;
+
+			long[] words = containers[i].words();
+			for (int x = 0; x < BLOCK_SIZE; x++) {
+				long word = words[x];
+				if (word == 0) {
+					continue;
+				}
+
+				// columns move between words, rows between bits of a word
+				int targetX = x + dx;
+				long targetBlockX = blockX + (targetX >> BLOCK_BITS);
+				int column = targetX & BLOCK_MASK;
+				if (dy >= 0) {
+					set(shifted, plane, targetBlockX, blockY, column, word << dy);
+					set(shifted, plane, targetBlockX, blockY + 1, column, dy == 0 ? 0 : word >>> (BLOCK_SIZE - dy));
+				} else {
+					set(shifted, plane, targetBlockX, blockY, column, word >>> -dy);
+					set(shifted, plane, targetBlockX, blockY - 1, column, word << (BLOCK_SIZE + dy));
+				}
+			}
+		}
+
+		return of(bits, shifted);
+	}
+
+	private void set(Map<Long, long[]> blocks, long plane, long blockX, long blockY, int column, long word) {
+		if (word == 0 || blockX < 0 || blockX > maxBlock || blockY < 0 || blockY > maxBlock) {
+			return;
+		}
+
+		blocks.computeIfAbsent(blockId(plane, blockX, blockY), id -> new long[BLOCK_SIZE])[column] |= word;
+	}
+
+	/**
+	 * @param distance The maximum number of steps up, down, left or right
+	 * @return All cells which can be reached from a cell of this bitmap with
+	 * 		the given number of steps, including the cells of this bitmap
+	 */
+	public CellBitmap dilate(int distance) {
+		Preconditions.checkArgument(distance >= 0, "Invalid distance %s", distance);
+
+		CellBitmap result = this;
+		for (int i = 0; i < distance; i++) {
+			CellBitmap previous = result;
+			result = previous.
+					or(previous.shift(0, -1)).
+					or(previous.shift(0, 1)).
+					or(previous.shift(-1, 0)).
+					or(previous.shift(1, 0));
+		}
+		return result;
+	}
+
+	/**
+	 * @return The cells of this bitmap whose four neighbours up, down, left
+	 * 		and right are all contained in this bitmap as well
+	 */
+	public CellBitmap interior() {
+		return and(shift(0, -1)).
+				and(shift(0, 1)).
+				and(shift(-1, 0)).
+				and(shift(1, 0));
+	}
+
+	/**
+	 * Pass all keys to the consumer, sorted by block, not by key.
+	 */
+	public void forEach(LongConsumer consumer) {
+		for (int i = 0; i < blockIds.length; i++) {
+			long plane = blockIds[i] >>> (2 * blockBits);
+			long blockX = (blockIds[i] >>> blockBits) & maxBlock;
+			long blockY = blockIds[i] & maxBlock;
+			long base = (plane << (2 * bits)) | ((blockX << BLOCK_BITS) << bits) | (blockY << BLOCK_BITS);
+
+			Container container = containers[i];
+			if (container.cells != null) {
+				for (char pos : container.cells) {
+					consumer.accept(base | ((long) (pos >>> BLOCK_BITS) << bits) | (pos & BLOCK_MASK));
+				}
+			} else {
+				for (int x = 0; x < BLOCK_SIZE; x++) {
+					long word = container.words[x];
+					while (word != 0) {
+						consumer.accept(base | ((long) x << bits) | Long.numberOfTrailingZeros(word));
+						word &= word - 1;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return All keys in ascending order
+	 */
+	public long[] toSortedArray() {
+		long[] keys = new long[cardinality];
+		int[] i = new int[1];
+		forEach(key -> keys[i[0]++] = key);
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	/**
+	 * @return The number of blocks which store the positions of their cells
+	 */
+	int arrayContainers() {
+		int count = 0;
+		for (Container container : containers) {
+			if (container.cells != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private long blockId(long plane, long blockX, long blockY) {
+		return (plane << (2 * blockBits)) | (blockX << blockBits) | blockY;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof CellBitmap)) {
+			return false;
+		}
+
+		CellBitmap that = (CellBitmap) o;
+		if (bits != that.bits || cardinality != that.cardinality || !Arrays.equals(blockIds, that.blockIds)) {
+			return false;
+		}
+		for (int i = 0; i < containers.length; i++) {
+			if (!Arrays.equals(containers[i].words(), that.containers[i].words())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(blockIds) + cardinality;
+	}
+
+	@Override
+	public String toString() {
+		return "CellBitmap{" +
+				"cardinality=" + cardinality +
+				", blocks=" + blockIds.length +
+				'}';
+	}
+
+	/**
+	 * The cells of one block of 64x64 cells.
+	 */
+	private static final class Container {
+		// sorted positions (x << 6 | y) if there are only a few cells
+		private final char[] cells;
+
+		// otherwise one word per column x with one bit per row y
+		private final long[] words;
+
+		private final int cardinality;
+
+		private Container(char[] cells, long[] words, int cardinality) {
+			this.cells = cells;
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		/**
+		 * @return A container for the given words, null if no bit is set
+		 */
+		private static Container of(long[] words) {
+			int cardinality = 0;
+			for (long word : words) {
+				cardinality += Long.bitCount(word);
+			}
+
+			if (cardinality == 0) {
+				return null;
+			}
+			if (cardinality > MAX_ARRAY_CELLS) {
+				return new Container(null, words, cardinality);
+			}
+
+			char[] cells = new char[cardinality];
+			int i = 0;
+			for (int x = 0; x < BLOCK_SIZE; x++) {
+				long word = words[x];
+				while (word != 0) {
+					cells[i++] = (char) ((x << BLOCK_BITS) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return new Container(cells, null, cardinality);
+		}
+
+		private boolean contains(int pos) {
+			if (cells != null) {
+				return Arrays.binarySearch(cells, (char) pos) >= 0;
+			}
+			return (words[pos >>> BLOCK_BITS] & (1L << (pos & BLOCK_MASK))) != 0;
+		}
+
+		/**
+		 * @return The words of this container, must not be modified
+		 */
+		private long[] words() {
+			if (words != null) {
+				return words;
+			}
+
+			long[] result = new long[BLOCK_SIZE];
+			for (char pos : cells) {
+				result[pos >>> BLOCK_BITS] |= 1L << (pos & BLOCK_MASK);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package org.dstadler.ctw.utils;
+
+import static org.dstadler.ctw.utils.Constants.SQUARE_SIZE;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.google.common.base.Preconditions;
+
+import uk.me.jstott.jcoord.UTMRef;
+
+/**
+ * Packs squares and tiles into a single primitive long, so that sets
+ * of covered cells can be kept in a {@link LongHashSet} instead of
+ * sets of Strings or objects.
+ *
+ * Squares store UTM zone, latitude band and easting/northing in km:
+ *
+ * <pre>
+ * bits 53-58: zone (1-60)
+ * bits 48-52: band, as offset to 'A'
+ * bits 24-47: easting in km, offset by 2^23
+ * bits  0-23: northing in km, offset by 2^23
+ * </pre>
+ *
+ * Tiles store zoom, x and y:
+ *
+ * <pre>
+ * bits 58-62: zoom
+ * bits 29-57: x
+ * bits  0-28: y
+ * </pre>
+ *
+ * Keys of tiles sort in the same order as {@link OSMTile#compareTo(OSMTile)}.
+ *
+ * Strings are only produced when cells are written to or read from
+ * text-files. The format is the same as {@link UTMRefWithHash#getSquareString(uk.me.jstott.jcoord.LatLng)}
+ * for squares and {@link OSMTile#toCoords()} for tiles.
+ */
+public class CellKey {
+	// bits of easting/northing and x/y, also used by CellBitmap
+	static final int KM_BITS = 24;
+	private static final long KM_MASK = (1L << KM_BITS) - 1;
+	private static final long KM_OFFSET = 1L << (KM_BITS - 1);
+	private static final int BAND_SHIFT = 2 * KM_BITS;
+	private static final int ZONE_SHIFT = BAND_SHIFT + 5;
+
+	static final int TILE_BITS = 29;
+	private static final long TILE_MASK = (1L << TILE_BITS) - 1;
+	private static final int ZOOM_SHIFT = 2 * TILE_BITS;
+
+	/**
+	 * @param zone The UTM longitude zone, 1-60
+	 * @param band The UTM latitude band, e.g. 'U'
+	 * @param eastingKm The easting of the square in km
+	 * @param northingKm The northing of the square in km
+	 * @return The key for the square
+	 */
+	public static long square(int zone, char band, long eastingKm, long northingKm) {
+		Preconditions.checkArgument(zone >= 1 && zone <= 60,
+				"Invalid zone %s, needs to be between 1 and 60", zone);
+		Preconditions.checkArgument(band >= 'A' && band <= 'Z',
+				"Invalid band %s, needs to be a letter between A and Z", band);
+		Preconditions.checkArgument(Math.abs(eastingKm) < KM_OFFSET && Math.abs(northingKm) < KM_OFFSET,
+				"Invalid easting %s or northing %s", eastingKm, northingKm);
+
+		return ((long) zone << ZONE_SHIFT) | ((long) (band - 'A') << BAND_SHIFT) |
+				((eastingKm + KM_OFFSET) << KM_BITS) | (northingKm + KM_OFFSET);
+	}
+
+	/**
+	 * @return The key of the square which contains the given UTM reference,
+	 * 		easting and northing are rounded to full meters and then truncated
+	 * 		to full km in the same way as when computing square-strings
+	 */
+	public static long squareOf(UTMRef ref) {
+		return square(ref.getLngZone(), ref.getLatZone(),
+				Math.round(ref.getEasting()) / SQUARE_SIZE, Math.round(ref.getNorthing()) / SQUARE_SIZE);
+	}
+
+	public static int squareZone(long key) {
+		return (int) (key >>> ZONE_SHIFT);
+	}
+
+	public static char squareBand(long key) {
+		return (char) ('A' + ((key >>> BAND_SHIFT) & 0x1F));
+	}
+
+	/**
+	 * @return The easting of the square in meters
+	 */
+	public static long squareEasting(long key) {
+		return (((key >>> KM_BITS) & KM_MASK) - KM_OFFSET) * SQUARE_SIZE;
+	}
+
+	/**
+	 * @return The northing of the square in meters
+	 */
+	public static long squareNorthing(long key) {
+		return ((key & KM_MASK) - KM_OFFSET) * SQUARE_SIZE;
+	}
+
+	public static UTMRefWithHash toSquare(long key) {
+		return new UTMRefWithHash(squareZone(key), squareBand(key), squareEasting(key), squareNorthing(key));
+	}
+
+	/**
+	 * @return The square in the format of {@link UTMRefWithHash#getSquareString(uk.me.jstott.jcoord.LatLng)},
+	 * 		e.g. "33U 446000.0 5350000.0"
+	 */
+	public static String formatSquare(long key) {
+		// easting/northing are full meters, so this is the same as formatting the double-values
+		return Integer.toString(squareZone(key)) + squareBand(key) +
+				" " + squareEasting(key) + ".0 " + squareNorthing(key) + ".0";
+	}
+
+	/**
+	 * Parse a square which was formatted via {@link #formatSquare(long)}.
+	 *
+	 * @throws IllegalArgumentException If the string is not a valid square
+	 */
+	public static long parseSquare(String str) {
+		return parseSquare(str, 0, str.length());
+	}
+
+	/**
+	 * Parse a square from a part of a larger text, e.g. a line in a buffer,
+	 * without creating a String for it.
+	 *
+	 * @param str The text containing the square
+	 * @param start The index of the first character of the square
+	 * @param end The index after the last character of the square
+	 * @throws IllegalArgumentException If the text is not a valid square
+	 */
+	public static long parseSquare(CharSequence str, int start, int end) {
+		int pos = start;
+		int zone = 0;
+		while (pos < end && pos - start < 2 && UTMRefWithHash.isDigit(str.charAt(pos))) {
+			zone = zone * 10 + (str.charAt(pos) - '0');
+			pos++;
+		}
+
+		// same checks as UTMRefWithHash.fromString(), so both accept the same squares
+		if (pos == start || pos + 1 >= end || !UTMRefWithHash.isLatZone(str.charAt(pos)) || str.charAt(pos + 1) != ' ') {
+			throw UTMRefWithHash.invalidFormat(str, start, end);
+		}
+		char band = str.charAt(pos);
+
+		int separator = indexOf(str, ' ', pos + 2, end);
+		if (separator == -1) {
+			throw UTMRefWithHash.invalidFormat(str, start, end);
+		}
+
+		return square(zone, band,
+				parseKm(str, pos + 2, separator, start, end), parseKm(str, separator + 1, end, start, end));
+	}
+
+	private static long parseKm(CharSequence str, int from, int to, int start, int end) {
+		// digits with an optional fraction of only zeros, e.g. "446000.0"
+		int dot = indexOf(str, '.', from, to);
+		int digitsEnd = dot == -1 ? to : dot;
+		if (digitsEnd == from || digitsEnd - from > 12 || digitsEnd == to - 1) {
+			throw UTMRefWithHash.invalidFormat(str, start, end);
+		}
+
+		long meters = 0;
+		for (int i = from; i < digitsEnd; i++) {
+			char c = str.charAt(i);
+			if (!UTMRefWithHash.isDigit(c)) {
+				throw UTMRefWithHash.invalidFormat(str, start, end);
+			}
+			meters = meters * 10 + (c - '0');
+		}
+		for (int i = digitsEnd + 1; i < to; i++) {
+			if (str.charAt(i) != '0') {
+				throw UTMRefWithHash.invalidFormat(str, start, end);
+			}
+		}
+
+		if (meters % SQUARE_SIZE != 0) {
+			throw new IllegalArgumentException("Square needs to be at full km, but had " + str.subSequence(start, end));
+		}
+
+		return meters / SQUARE_SIZE;
+	}
+
+	/**
+	 * @param zoom The zoom-level, 0-20
+	 * @param x The x-coordinate of the tile
+	 * @param y The y-coordinate of the tile
+	 * @return The key for the tile
+	 */
+	public static long tile(int zoom, int x, int y) {
+		Preconditions.checkArgument(zoom >= 0 && zoom <= 20,
+				"Invalid zoom %s, needs to be between 0 and 20", zoom);
+		Preconditions.checkArgument(x >= 0 && y >= 0,
+				"Invalid tile %s/%s", x, y);
+
+		return ((long) zoom << ZOOM_SHIFT) | ((long) x << TILE_BITS) | y;
+	}
+
+	public static long tileOf(OSMTile tile) {
+		return tile(tile.getZoom(), tile.getXTile(), tile.getYTile());
+	}
+
+	public static int tileZoom(long key) {
+		return (int) (key >>> ZOOM_SHIFT);
+	}
+
+	public static int tileX(long key) {
+		return (int) ((key >>> TILE_BITS) & TILE_MASK);
+	}
+
+	public static int tileY(long key) {
+		return (int) (key & TILE_MASK);
+	}
+
+	public static OSMTile toTile(long key) {
+		return new OSMTile(tileZoom(key), tileX(key), tileY(key));
+	}
+
+	/**
+	 * @return The tile in the format of {@link OSMTile#toCoords()}, e.g. "14/8842/5673"
+	 */
+	public static String formatTile(long key) {
+		return tileZoom(key) + "/" + tileX(key) + "/" + tileY(key);
+	}
+
+	/**
+	 * Parse a tile which was formatted via {@link #formatTile(long)}.
+	 *
+	 * @throws IllegalArgumentException If the string is not a valid tile
+	 */
+	public static long parseTile(String str) {
+		return parseTile(str, 0, str.length());
+	}
+
+	/**
+	 * Parse a tile from a part of a larger text, e.g. a line in a buffer,
+	 * without creating a String for it.
+	 *
+	 * @param str The text containing the tile
+	 * @param start The index of the first character of the tile
+	 * @param end The index after the last character of the tile
+	 * @throws IllegalArgumentException If the text is not a valid tile
+	 */
+	public static long parseTile(CharSequence str, int start, int end) {
+		int slash1 = indexOf(str, '/', start, end);
+		int slash2 = slash1 == -1 ? -1 : indexOf(str, '/', slash1 + 1, end);
+		if (slash2 == -1) {
+			throw invalid("tile", str, start, end);
+		}
+
+		return tile(parseInt(str, start, slash1, start, end), parseInt(str, slash1 + 1, slash2, start, end),
+				parseInt(str, slash2 + 1, end, start, end));
+	}
+
+	private static int parseInt(CharSequence str, int from, int to, int start, int end) {
+		if (to == from || to - from > 9) {
+			throw invalid("tile", str, start, end);
+		}
+
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			char c = str.charAt(i);
+			if (c < '0' || c > '9') {
+				throw invalid("tile", str, start, end);
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static int indexOf(CharSequence str, char c, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (str.charAt(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static IllegalArgumentException invalid(String type, CharSequence str, int start, int end) {
+		return new IllegalArgumentException("Cannot parse " + type + " " + str.subSequence(start, end));
+	}
+
+	/**
+	 * @return The formatted squares, sorted in the same way as they are written to text-files
+	 */
+	public static Set<String> toSquareStrings(LongHashSet keys) {
+		Set<String> strings = new TreeSet<>();
+		keys.forEach(key -> strings.add(formatSquare(key)));
+		return strings;
+	}
+
+	/**
+	 * @return The formatted tiles, sorted in the same way as they are written to text-files
+	 */
+	public static Set<String> toTileStrings(LongHashSet keys) {
+		Set<String> strings = new TreeSet<>();
+		keys.forEach(key -> strings.add(formatTile(key)));
+		return strings;
+	}
+}
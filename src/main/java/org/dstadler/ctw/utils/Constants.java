@@ -19,7 +19,8 @@ public class Constants {
 	// "easting" would need to take the zone into account
 	// this would make computing the largest square and rectangle rather complex
 	// You can adjust this to another UTM-zone to match your
-	// main area of squares
+	// main area of squares or set the system property "ctw.multiZone"
+	// to compute them for all zones, see SquareGrid
 	// See also https://en.wikipedia.org/wiki/Universal_Transverse_Mercator_coordinate_system
 	public static final int ZONE = 33;
 
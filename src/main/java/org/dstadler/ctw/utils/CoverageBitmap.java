@@ -0,0 +1,163 @@
+package org.dstadler.ctw.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * A sparse bitmap of covered cells which can be filled by many
+ * threads concurrently without locking.
+ *
+ * Cells are identified by the keys of {@link CellKey}. The bitmap is
+ * split into pages of 4096 consecutive keys, i.e. a column of squares
+ * with the same easting or a column of tiles with the same x, and
+ * pages are only allocated when a cell in them is covered.
+ *
+ * Bits are set via compare-and-set on the long words of a page, so
+ * adding a cell which is covered already, which is by far the most
+ * common case when reading GPX tracks, is a read and a compare.
+ *
+ * Use a {@link Writer} per thread to avoid looking up the page for
+ * consecutive cells in the same page.
+ */
+public class CoverageBitmap {
+	private static final int PAGE_BITS = 12;
+	private static final long PAGE_MASK = (1L << PAGE_BITS) - 1;
+	private static final int WORDS_PER_PAGE = 1 << (PAGE_BITS - 6);
+
+	private final Map<Long, AtomicLongArray> pages = new ConcurrentHashMap<>();
+	private final LongAdder size = new LongAdder();
+
+	/**
+	 * Mark the cell as covered.
+	 *
+	 * @param key A non-negative key as produced by {@link CellKey}
+	 * @return true if the cell was not covered before
+	 */
+	public boolean add(long key) {
+		return set(page(key >>> PAGE_BITS), key);
+	}
+
+	public boolean contains(long key) {
+		AtomicLongArray page = pages.get(key >>> PAGE_BITS);
+		return page != null && (page.get(wordIndex(key)) & bit(key)) != 0;
+	}
+
+	/**
+	 * @return The number of covered cells
+	 */
+	public int size() {
+		return size.intValue();
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @return A writer for use by a single thread
+	 */
+	public Writer writer() {
+		return new Writer();
+	}
+
+	/**
+	 * Invoke the consumer for all covered cells in no particular order.
+	 *
+	 * Cells which are added concurrently may or may not be reported.
+	 */
+	public void forEach(LongConsumer consumer) {
+		for (Map.Entry<Long, AtomicLongArray> entry : pages.entrySet()) {
+			long base = entry.getKey() << PAGE_BITS;
+			AtomicLongArray page = entry.getValue();
+			for (int i = 0; i < WORDS_PER_PAGE; i++) {
+				long word = page.get(i);
+				while (word != 0) {
+					int bit = Long.numberOfTrailingZeros(word);
+					consumer.accept(base + ((long) i << 6) + bit);
+					word &= word - 1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return All covered cells, e.g. for writing them to a file
+	 */
+	public LongHashSet toSet() {
+		LongHashSet set = new LongHashSet(size());
+		forEach(set::add);
+		return set;
+	}
+
+	private AtomicLongArray page(long pageId) {
+		AtomicLongArray page = pages.get(pageId);
+		if (page != null) {
+			return page;
+		}
+
+		return pages.computeIfAbsent(pageId, id -> new AtomicLongArray(WORDS_PER_PAGE));
+	}
+
+	private boolean set(AtomicLongArray page, long key) {
+		int index = wordIndex(key);
+		long bit = bit(key);
+
+		long word = page.get(index);
+		while ((word & bit) == 0) {
+			long witness = page.compareAndExchange(index, word, word | bit);
+			if (witness == word) {
+				size.increment();
+				return true;
+			}
+
+			// another thread changed the word in the meantime, check again
+			word = witness;
+		}
+
+		return false;
+	}
+
+	private static int wordIndex(long key) {
+		return (int) ((key & PAGE_MASK) >>> 6);
+	}
+
+	private static long bit(long key) {
+		// only the lowest 6 bits are used for shifting
+		return 1L << key;
+	}
+
+	/**
+	 * Adds cells to the bitmap and remembers the last page, so that
+	 * consecutive cells of a track do not look up the page again.
+	 *
+	 * Not thread-safe, each thread should use its own writer.
+	 */
+	public class Writer implements LongConsumer {
+		private long pageId = -1;
+		private AtomicLongArray page;
+
+		private Writer() {
+		}
+
+		/**
+		 * @see CoverageBitmap#add(long)
+		 */
+		public boolean add(long key) {
+			long id = key >>> PAGE_BITS;
+			if (id != pageId) {
+				page = page(id);
+				pageId = id;
+			}
+
+			return set(page, key);
+		}
+
+		@Override
+		public void accept(long key) {
+			add(key);
+		}
+	}
+}
@@ -0,0 +1,491 @@
+package org.dstadler.ctw.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.dstadler.commons.logging.jdk.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An append-only journal of the squares or tiles which were added to or
+ * removed from a text-file of covered cells in each run.
+ *
+ * Each run appends one record with the changed cells, so writing the journal
+ * is proportional to the number of changed cells, and the cells which were
+ * newly covered since a given run can be read from the last records instead of
+ * comparing full sets.
+ *
+ * The first record is a snapshot of all covered cells. When there are more than
+ * {@value #PROPERTY_MAX_RUNS} runs (default {@value #DEFAULT_MAX_RUNS}), the older
+ * half of the runs is compacted into the snapshot.
+ *
+ * <pre>
+ * int   magic "CTWJ"
+ * byte  version
+ * records:
+ * byte  type, 'S' for the snapshot, 'R' for a run
+ * long  id of the run, increasing, the snapshot has the id of the last run it contains
+ * long  time of the run
+ * long  length of the text-file after the run
+ * long  last-modified of the text-file after the run
+ * int   number of added keys
+ * int   number of removed keys
+ * int   bytes of added keys
+ * int   bytes of removed keys
+ * int   CRC32 of added and removed keys
+ * ...   added keys, then removed keys, sorted, encoded as in {@link CoverageStore}
+ * </pre>
+ *
+ * The text-file stays the source of truth. If it does not have the length and
+ * last-modified of the last record, e.g. after a checkout, the journal is started
+ * again with a new snapshot. When the text-file is written again without changes,
+ * {@link #textFileWritten()} records its new length and last-modified. A record which was not written completely, e.g. when
+ * the process was killed, is ignored and overwritten by the next run.
+ */
+public class CoverageJournal {
+	private static final Logger log = LoggerFactory.make();
+
+	public static final String PROPERTY_MAX_RUNS = "ctw.journalRuns";
+	public static final int DEFAULT_MAX_RUNS = 100;
+
+	private static final int MAGIC = ('C' << 24) | ('T' << 16) | ('W' << 8) | 'J';
+	private static final byte VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 1;
+	private static final int RECORD_HEADER_SIZE = 1 + 8 + 8 + 8 + 8 + 4 + 4 + 4 + 4 + 4;
+
+	private static final byte SNAPSHOT = 'S';
+	private static final byte RUN = 'R';
+
+	private final File file;
+	private final File textFile;
+
+	// state after reading or writing the file
+	private final List<Run> records;
+	private long validLength;
+	private long lastOffset;
+	private boolean current;
+
+	private CoverageJournal(File file, File textFile, List<Run> records, long validLength, long lastOffset,
+			boolean current) {
+		this.file = file;
+		this.textFile = textFile;
+		this.records = records;
+		this.validLength = validLength;
+		this.lastOffset = lastOffset;
+		this.current = current;
+	}
+
+	/**
+	 * @return The journal which is used for the given text-file
+	 */
+	public static File getJournalFile(File textFile) {
+		String name = textFile.getName();
+		if (name.endsWith(".txt")) {
+			name = name.substring(0, name.length() - 4);
+		}
+		return new File(CoverageStore.STORE_DIR, name + ".journal");
+	}
+
+	/**
+	 * Read the journal for the given text-file.
+	 *
+	 * This needs to be done before the text-file is written for the current run,
+	 * as the journal is only continued if it matches the text-file.
+	 *
+	 * @param textFile The text-file of covered cells
+	 * @return The journal, empty if there is no journal yet
+	 * @throws IOException If reading the journal fails
+	 */
+	public static CoverageJournal open(File textFile) throws IOException {
+		return open(getJournalFile(textFile), textFile);
+	}
+
+	static CoverageJournal open(File file, File textFile) throws IOException {
+		List<Run> records = new ArrayList<>();
+		if (!file.exists()) {
+			return new CoverageJournal(file, textFile, records, 0, 0, false);
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+			log.warning("Ignoring journal " + file + " with unexpected format");
+			return new CoverageJournal(file, textFile, records, 0, 0, false);
+		}
+
+		long validLength = buffer.position();
+		long lastOffset = 0;
+		while (buffer.hasRemaining()) {
+			Run run = readRecord(buffer, records.isEmpty());
+			if (run == null) {
+				log.warning("Ignoring incomplete record at offset " + validLength + " of journal " + file);
+				break;
+			}
+
+			records.add(run);
+			lastOffset = validLength;
+			validLength = buffer.position();
+		}
+
+		Run last = records.isEmpty() ? null : records.get(records.size() - 1);
+		boolean current = last != null &&
+				last.textLength == textFile.length() && last.textLastModified == textFile.lastModified();
+		if (last != null && !current) {
+			log.info("Starting journal " + file + " again as " + textFile + " was changed");
+		}
+
+		return new CoverageJournal(file, textFile, records, validLength, lastOffset, current);
+	}
+
+	/**
+	 * @return The record at the position of the buffer, null if it is incomplete or broken
+	 */
+	private static Run readRecord(ByteBuffer buffer, boolean first) {
+		if (buffer.remaining() < RECORD_HEADER_SIZE) {
+			return null;
+		}
+
+		byte type = buffer.get();
+		long id = buffer.getLong();
+		long time = buffer.getLong();
+		long textLength = buffer.getLong();
+		long textLastModified = buffer.getLong();
+		int addedCount = buffer.getInt();
+		int removedCount = buffer.getInt();
+		int addedBytes = buffer.getInt();
+		int removedBytes = buffer.getInt();
+		int checksum = buffer.getInt();
+
+		// only the first record is a snapshot
+		if (type != (first ? SNAPSHOT : RUN) || addedBytes < 0 || removedBytes < 0 ||
+				(long) addedBytes + removedBytes > buffer.remaining()) {
+			return null;
+		}
+
+		ByteBuffer addedBuffer = slice(buffer, addedBytes);
+		ByteBuffer removedBuffer = slice(buffer, removedBytes);
+
+		CRC32 crc = new CRC32();
+		crc.update(addedBuffer.duplicate());
+		crc.update(removedBuffer.duplicate());
+		if ((int) crc.getValue() != checksum) {
+			return null;
+		}
+
+		long[] added = CoverageStore.decode(addedBuffer, addedCount);
+		long[] removed = CoverageStore.decode(removedBuffer, removedCount);
+		if (added == null || removed == null) {
+			return null;
+		}
+
+		return new Run(type == SNAPSHOT, id, time, textLength, textLastModified, added, removed);
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int length) {
+		ByteBuffer slice = buffer.slice(buffer.position(), length);
+		buffer.position(buffer.position() + length);
+		return slice;
+	}
+
+	/**
+	 * Record the changes of the current run, after the text-file was written.
+	 *
+	 * @param previous The cells which were covered before this run, only used if
+	 * 		the journal needs to be started with a new snapshot
+	 * @param added The keys of newly covered cells, sorted
+	 * @param removed The keys of cells which are not covered any more, sorted
+	 * @return The id of the run
+	 * @throws IOException If writing the journal fails
+	 */
+	public long append(Supplier<long[]> previous, long[] added, long[] removed) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Could not create directory " + parent);
+		}
+
+		long id = getLastRun() + 1;
+		if (!current) {
+			// start with the cells before this run, this replaces an outdated or broken journal
+			records.clear();
+			records.add(new Run(true, id - 1, System.currentTimeMillis(), 0, 0, previous.get(), new long[0]));
+			records.add(new Run(false, id, System.currentTimeMillis(),
+					textFile.length(), textFile.lastModified(), added, removed));
+			write(records);
+			return id;
+		}
+
+		Run run = new Run(false, id, System.currentTimeMillis(), textFile.length(), textFile.lastModified(), added, removed);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			// drop an incomplete record of a previous run
+			channel.truncate(validLength);
+			channel.position(validLength);
+
+			ByteBuffer record = ByteBuffer.wrap(encode(run));
+			while (record.hasRemaining()) {
+				channel.write(record);
+			}
+			lastOffset = validLength;
+			validLength = channel.position();
+		}
+		records.add(run);
+
+		int maxRuns = Integer.getInteger(PROPERTY_MAX_RUNS, DEFAULT_MAX_RUNS);
+		if (records.size() - 1 > maxRuns) {
+			compact(maxRuns / 2);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Record the current length and last-modified of the text-file in the last
+	 * record, when the text-file was written again without changing coverage,
+	 * e.g. to re-create its binary copy. Otherwise the journal would be
+	 * started again in the next run.
+	 *
+	 * @throws IOException If updating the journal fails
+	 */
+	public void textFileWritten() throws IOException {
+		// an outdated journal is started again with the next change anyway
+		if (!current) {
+			return;
+		}
+
+		Run last = records.get(records.size() - 1);
+		Run updated = new Run(last.snapshot, last.id, last.time, textFile.length(), textFile.lastModified(),
+				last.added, last.removed);
+
+		// length and last-modified have a fixed position in the header of the record
+		ByteBuffer header = ByteBuffer.allocate(8 + 8).
+				putLong(updated.textLength).
+				putLong(updated.textLastModified).
+				flip();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			long position = lastOffset + 1 + 8 + 8;
+			while (header.hasRemaining()) {
+				position += channel.write(header, position);
+			}
+		}
+
+		records.set(records.size() - 1, updated);
+	}
+
+	/**
+	 * Fold all but the given number of runs into the snapshot.
+	 */
+	void compact(int keepRuns) throws IOException {
+		Preconditions.checkArgument(keepRuns >= 0, "Invalid number of runs to keep: %s", keepRuns);
+
+		int fold = records.size() - 1 - keepRuns;
+		if (fold <= 0) {
+			return;
+		}
+
+		LongHashSet cells = new LongHashSet();
+		for (long key : records.get(0).added) {
+			cells.add(key);
+		}
+		for (int i = 1; i <= fold; i++) {
+			Run run = records.get(i);
+			for (long key : run.removed) {
+				cells.remove(key);
+			}
+			for (long key : run.added) {
+				cells.add(key);
+			}
+		}
+
+		Run last = records.get(fold);
+		List<Run> compacted = new ArrayList<>();
+		compacted.add(new Run(true, last.id, last.time, last.textLength, last.textLastModified,
+				cells.toSortedArray(), new long[0]));
+		compacted.addAll(records.subList(fold + 1, records.size()));
+
+		write(compacted);
+
+		records.clear();
+		records.addAll(compacted);
+
+		log.info("Compacted " + fold + " runs of journal " + file + " into a snapshot of run " + last.id);
+	}
+
+	private void write(List<Run> runs) throws IOException {
+		// write to a temporary file first to not leave a broken file behind
+		File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+		long offset = HEADER_SIZE;
+		long last = offset;
+		try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+			out.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put(VERSION).array());
+			for (Run run : runs) {
+				byte[] record = encode(run);
+				out.write(record);
+
+				last = offset;
+				offset += record.length;
+			}
+		}
+
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		validLength = offset;
+		lastOffset = last;
+		current = true;
+	}
+
+	private static byte[] encode(Run run) {
+		byte[] added = CoverageStore.encode(run.added);
+		byte[] removed = CoverageStore.encode(run.removed);
+
+		CRC32 crc = new CRC32();
+		crc.update(added);
+		crc.update(removed);
+
+		return ByteBuffer.allocate(RECORD_HEADER_SIZE + added.length + removed.length).
+				put(run.snapshot ? SNAPSHOT : RUN).
+				putLong(run.id).
+				putLong(run.time).
+				putLong(run.textLength).
+				putLong(run.textLastModified).
+				putInt(run.added.length).
+				putInt(run.removed.length).
+				putInt(added.length).
+				putInt(removed.length).
+				putInt((int) crc.getValue()).
+				put(added).
+				put(removed).
+				array();
+	}
+
+	/**
+	 * @return The id of the last run, 0 if there was no run yet
+	 */
+	public long getLastRun() {
+		return records.isEmpty() ? 0 : records.get(records.size() - 1).id;
+	}
+
+	/**
+	 * @return If the journal matches the text-file and can be continued
+	 */
+	public boolean isCurrent() {
+		return current;
+	}
+
+	/**
+	 * @return The runs after the snapshot, oldest first
+	 */
+	public List<Run> getRuns() {
+		return records.isEmpty() ? List.of() : List.copyOf(records.subList(1, records.size()));
+	}
+
+	/**
+	 * @param time A timestamp in milliseconds
+	 * @return The id of the last run which was recorded at or before the given time,
+	 * 		-1 if the journal does not go back as far, e.g. because of compaction
+	 */
+	public long getLastRunAt(long time) {
+		long id = -1;
+		for (Run run : records) {
+			if (run.time > time) {
+				break;
+			}
+			id = run.id;
+		}
+		return id;
+	}
+
+	/**
+	 * Compute the cells which were newly covered after the given run from the
+	 * last records of the journal.
+	 *
+	 * @param runId The id of a run, e.g. the last one which was looked at
+	 * @return The keys of the cells which were added after the given run and are still
+	 * 		covered, null if the journal does not go back as far, e.g. because of compaction
+	 */
+	public LongHashSet addedSince(long runId) {
+		if (records.isEmpty() || runId < records.get(0).id) {
+			return null;
+		}
+
+		LongHashSet cells = new LongHashSet();
+		for (Run run : records) {
+			if (run.snapshot || run.id <= runId) {
+				continue;
+			}
+
+			for (long key : run.removed) {
+				cells.remove(key);
+			}
+			for (long key : run.added) {
+				cells.add(key);
+			}
+		}
+		return cells;
+	}
+
+	/**
+	 * The cells which changed in one run.
+	 */
+	public static final class Run {
+		private final boolean snapshot;
+		private final long id;
+		private final long time;
+		private final long textLength;
+		private final long textLastModified;
+		private final long[] added;
+		private final long[] removed;
+
+		private Run(boolean snapshot, long id, long time, long textLength, long textLastModified,
+				long[] added, long[] removed) {
+			this.snapshot = snapshot;
+			this.id = id;
+			this.time = time;
+			this.textLength = textLength;
+			this.textLastModified = textLastModified;
+			this.added = added;
+			this.removed = removed;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return The keys of newly covered cells, sorted
+		 */
+		public long[] getAdded() {
+			return added;
+		}
+
+		/**
+		 * @return The keys of cells which are not covered any more, sorted
+		 */
+		public long[] getRemoved() {
+			return removed;
+		}
+
+		@Override
+		public String toString() {
+			return "Run{" +
+					"id=" + id +
+					", time=" + time +
+					", added=" + added.length +
+					", removed=" + removed.length +
+					'}';
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package org.dstadler.ctw.utils;
+
+import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_SQUARES_NEW_TXT;
+import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_SQUARES_TXT;
+import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_NEW_TXT;
+import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_TXT;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+/**
+ * The covered and newly covered squares and tiles of one run, built once
+ * after reading the GPX files and shared by all following steps instead
+ * of reading the "Visited*.txt" files again in each of them.
+ *
+ * The keys are kept in the order of the lines of the text-files, so the
+ * sets returned here iterate in the same order as the ones returned by
+ * {@link UTMRefWithHash#readSquares(File)} and {@link OSMTile#readTiles(File)}
+ * and results do not change when steps use the snapshot.
+ *
+ * Instances are immutable and can be used by multiple threads. The sets are
+ * only created on first use and then shared by all steps, so they cannot be
+ * changed. Steps which remove cells while computing their result copy them
+ * or use the sorted copies of {@link #sortedSquares()} and {@link #sortedTiles()}.
+ */
+public final class CoverageSnapshot {
+	private final long[] squares;
+	private final long[] newSquares;
+	private final long[] tiles;
+	private final long[] newTiles;
+
+	private final CellBitmap squareGrid;
+	private final CellBitmap newSquareGrid;
+	private final CellBitmap tileGrid;
+	private final CellBitmap newTileGrid;
+
+	private final Supplier<Set<UTMRefWithHash>> squareSet;
+	private final Supplier<Set<UTMRefWithHash>> newSquareSet;
+	private final Supplier<Set<OSMTile>> tileSet;
+	private final Supplier<Set<OSMTile>> newTileSet;
+
+	private CoverageSnapshot(long[] squares, long[] newSquares, long[] tiles, long[] newTiles) {
+		this.squares = squares;
+		this.newSquares = newSquares;
+		this.tiles = tiles;
+		this.newTiles = newTiles;
+
+		this.squareGrid = CellBitmap.of(CellKey.KM_BITS, squares);
+		this.newSquareGrid = CellBitmap.of(CellKey.KM_BITS, newSquares);
+		this.tileGrid = CellBitmap.of(CellKey.TILE_BITS, tiles);
+		this.newTileGrid = CellBitmap.of(CellKey.TILE_BITS, newTiles);
+
+		this.squareSet = Suppliers.memoize(() -> Collections.unmodifiableSet(toSquares(squares, new HashSet<>())));
+		this.newSquareSet = Suppliers.memoize(() -> Collections.unmodifiableSet(toSquares(newSquares, new HashSet<>())));
+		this.tileSet = Suppliers.memoize(() -> Collections.unmodifiableSet(toTiles(tiles, new HashSet<>())));
+		this.newTileSet = Suppliers.memoize(() -> Collections.unmodifiableSet(toTiles(newTiles, new HashSet<>())));
+	}
+
+	/**
+	 * @param squares Keys of all covered squares in the order of the text-file
+	 * @param newSquares Keys of the newly covered squares in the order of the text-file
+	 * @param tiles Keys of all covered tiles in the order of the text-file
+	 * @param newTiles Keys of the newly covered tiles in the order of the text-file
+	 */
+	public static CoverageSnapshot of(long[] squares, long[] newSquares, long[] tiles, long[] newTiles) {
+		return new CoverageSnapshot(squares.clone(), newSquares.clone(), tiles.clone(), newTiles.clone());
+	}
+
+	/**
+	 * Read the snapshot from the "Visited*.txt" files of a previous run,
+	 * used when a step is run on its own.
+	 */
+	public static CoverageSnapshot read() throws IOException {
+		return read(new File(VISITED_SQUARES_TXT), new File(VISITED_SQUARES_NEW_TXT),
+				new File(VISITED_TILES_TXT), new File(VISITED_TILES_NEW_TXT));
+	}
+
+	static CoverageSnapshot read(File squares, File newSquares, File tiles, File newTiles) throws IOException {
+		// the binary copies are only used if the text-files were not changed since they were written
+		return new CoverageSnapshot(
+				CoverageStore.readKeys(squares, CellKey::parseSquare),
+				CoverageStore.readKeys(newSquares, CellKey::parseSquare),
+				CoverageStore.readKeys(tiles, CellKey::parseTile),
+				CoverageStore.readKeys(newTiles, CellKey::parseTile));
+	}
+
+	/**
+	 * @return All covered squares, interned, cannot be changed
+	 */
+	public Set<UTMRefWithHash> getSquares() {
+		return squareSet.get();
+	}
+
+	/**
+	 * @return The newly covered squares, interned, cannot be changed
+	 */
+	public Set<UTMRefWithHash> getNewSquares() {
+		return newSquareSet.get();
+	}
+
+	public Set<OSMTile> getTiles() {
+		return tileSet.get();
+	}
+
+	public Set<OSMTile> getNewTiles() {
+		return newTileSet.get();
+	}
+
+	/**
+	 * @return A new sorted set of all covered squares which the caller can change
+	 */
+	public TreeSet<UTMRefWithHash> sortedSquares() {
+		return toSquares(squares, new TreeSet<>());
+	}
+
+	/**
+	 * @return A new sorted set of the newly covered squares which the caller can change
+	 */
+	public TreeSet<UTMRefWithHash> sortedNewSquares() {
+		return toSquares(newSquares, new TreeSet<>());
+	}
+
+	public TreeSet<OSMTile> sortedTiles() {
+		return toTiles(tiles, new TreeSet<>());
+	}
+
+	public TreeSet<OSMTile> sortedNewTiles() {
+		return toTiles(newTiles, new TreeSet<>());
+	}
+
+	private static <S extends Set<UTMRefWithHash>> S toSquares(long[] keys, S squares) {
+		// added in the same order as the lines of the file
+		for (long key : keys) {
+			squares.add(CellKey.toSquare(key).intern());
+		}
+		return squares;
+	}
+
+	private static <S extends Set<OSMTile>> S toTiles(long[] keys, S tiles) {
+		for (long key : keys) {
+			tiles.add(CellKey.toTile(key));
+		}
+		return tiles;
+	}
+
+	public CellBitmap getSquareGrid() {
+		return squareGrid;
+	}
+
+	public CellBitmap getNewSquareGrid() {
+		return newSquareGrid;
+	}
+
+	public CellBitmap getTileGrid() {
+		return tileGrid;
+	}
+
+	public CellBitmap getNewTileGrid() {
+		return newTileGrid;
+	}
+
+	@Override
+	public String toString() {
+		return "CoverageSnapshot{" +
+				"squares=" + squares.length +
+				", newSquares=" + newSquares.length +
+				", tiles=" + tiles.length +
+				", newTiles=" + newTiles.length +
+				'}';
+	}
+}
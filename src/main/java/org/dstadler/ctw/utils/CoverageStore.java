@@ -0,0 +1,257 @@
+package org.dstadler.ctw.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.function.ToLongFunction;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.dstadler.commons.logging.jdk.LoggerFactory;
+
+/**
+ * A compact binary copy of a text-file with covered squares or tiles,
+ * so that later steps do not need to parse the text-file again.
+ *
+ * The keys of {@link CellKey} are stored in the same order as the lines
+ * of the text-file, as difference to the previous key with a variable
+ * number of bytes. As lines are sorted, most differences need one or two
+ * bytes.
+ *
+ * <pre>
+ * int   magic "CTWC"
+ * byte  version
+ * int   number of keys
+ * long  length of the text-file
+ * long  last-modified of the text-file
+ * int   CRC32 of the text-file
+ * int   CRC32 of the keys
+ * ...   keys, zig-zag encoded difference to the previous key as varint
+ * </pre>
+ *
+ * The text-file stays the source of truth and is kept for diffing. The binary
+ * file is only used if the text-file still has the recorded length, last-modified
+ * and checksum, i.e. it was not changed after the binary file was written,
+ * e.g. by a checkout. Computing the checksum reads the text-file, but is much
+ * cheaper than parsing its lines. The binary file is stored in the "cache" directory.
+ */
+public class CoverageStore {
+	private static final Logger log = LoggerFactory.make();
+
+	public static final String STORE_DIR = "cache";
+
+	private static final int MAGIC = ('C' << 24) | ('T' << 16) | ('W' << 8) | 'C';
+	private static final byte VERSION = 2;
+	private static final int HEADER_SIZE = 4 + 1 + 4 + 8 + 8 + 4 + 4;
+
+	/**
+	 * @return The binary file which is used for the given text-file
+	 */
+	public static File getStoreFile(File textFile) {
+		String name = textFile.getName();
+		if (name.endsWith(".txt")) {
+			name = name.substring(0, name.length() - 4);
+		}
+		return new File(STORE_DIR, name + ".bin");
+	}
+
+	/**
+	 * Write the keys to the binary file for the given text-file.
+	 *
+	 * The text-file needs to be written before, as its length and last-modified
+	 * are recorded.
+	 *
+	 * @param textFile The text-file which contains the same cells
+	 * @param keys The keys in the order of the lines of the text-file
+	 * @throws IOException If writing the file fails
+	 */
+	public static void write(File textFile, long[] keys) throws IOException {
+		write(getStoreFile(textFile), textFile, keys);
+	}
+
+	static void write(File file, File textFile, long[] keys) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Could not create directory " + parent);
+		}
+
+		byte[] payload = encode(keys);
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).
+				putInt(MAGIC).
+				put(VERSION).
+				putInt(keys.length).
+				putLong(textFile.length()).
+				putLong(textFile.lastModified()).
+				putInt(checksum(textFile)).
+				putInt((int) crc.getValue());
+
+		// write to a temporary file first to not leave a broken file behind
+		File tmp = new File(parent, file.getName() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+			out.write(header.array());
+			out.write(payload);
+		}
+
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Read the keys from the binary file for the given text-file.
+	 *
+	 * @param textFile The text-file which contains the same cells
+	 * @return The keys in the order of the lines of the text-file or null if there
+	 * 		is no binary file, the text-file was changed afterwards or the binary file is broken
+	 * @throws IOException If reading the file fails
+	 */
+	public static long[] read(File textFile) throws IOException {
+		return read(getStoreFile(textFile), textFile);
+	}
+
+	static long[] read(File file, File textFile) throws IOException {
+		if (!file.exists() || !textFile.exists()) {
+			return null;
+		}
+
+		// read into the heap, a mapped file could not be replaced on Windows while the mapping is alive
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+			log.warning("Ignoring binary file " + file + " with unexpected format");
+			return null;
+		}
+
+		int count = buffer.getInt();
+		long length = buffer.getLong();
+		long lastModified = buffer.getLong();
+		int textChecksum = buffer.getInt();
+		int checksum = buffer.getInt();
+
+		// length and last-modified are checked first as they do not need to read the text-file
+		if (length != textFile.length() || lastModified != textFile.lastModified() ||
+				textChecksum != checksum(textFile)) {
+			log.info("Not using binary file " + file + " as " + textFile + " was changed");
+			return null;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(buffer.duplicate());
+		if ((int) crc.getValue() != checksum) {
+			log.warning("Ignoring binary file " + file + " with invalid checksum");
+			return null;
+		}
+
+		long[] keys = decode(buffer, count);
+		if (keys == null) {
+			log.warning("Ignoring binary file " + file + " with invalid content");
+		}
+		return keys;
+	}
+
+	/**
+	 * Read the keys for the given text-file, from the binary file if it is
+	 * still valid or by parsing the lines of the text-file otherwise.
+	 *
+	 * @param textFile The text-file which contains the cells
+	 * @param parser Computes the key for a line of the text-file
+	 * @return The keys in the order of the lines of the text-file, empty if it does not exist
+	 * @throws IOException If reading the files fails
+	 */
+	public static long[] readKeys(File textFile, ToLongFunction<String> parser) throws IOException {
+		long[] keys = read(textFile);
+		if (keys != null) {
+			return keys;
+		}
+
+		if (!textFile.exists()) {
+			return new long[0];
+		}
+
+		keys = new long[16];
+		int count = 0;
+		try (BufferedReader reader = new BufferedReader(new FileReader(textFile))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (count == keys.length) {
+					keys = Arrays.copyOf(keys, count * 2);
+				}
+				keys[count++] = parser.applyAsLong(line);
+			}
+		}
+		return Arrays.copyOf(keys, count);
+	}
+
+	private static int checksum(File textFile) throws IOException {
+		CRC32 crc = new CRC32();
+		try (InputStream in = Files.newInputStream(textFile.toPath())) {
+			byte[] bytes = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(bytes)) != -1) {
+				crc.update(bytes, 0, read);
+			}
+		}
+		return (int) crc.getValue();
+	}
+
+	static byte[] encode(long[] keys) {
+		// at most 10 bytes per key
+		byte[] bytes = new byte[Math.max(16, keys.length * 3)];
+		int pos = 0;
+		long previous = 0;
+		for (long key : keys) {
+			if (pos + 10 > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, pos + 10));
+			}
+
+			long delta = key - previous;
+			long value = (delta << 1) ^ (delta >> 63);
+			while ((value & ~0x7FL) != 0) {
+				bytes[pos++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[pos++] = (byte) value;
+
+			previous = key;
+		}
+
+		return Arrays.copyOf(bytes, pos);
+	}
+
+	/**
+	 * @return The decoded keys or null if the buffer does not contain exactly count keys
+	 */
+	static long[] decode(ByteBuffer buffer, int count) {
+		if (count < 0 || count > buffer.remaining()) {
+			return null;
+		}
+
+		long[] keys = new long[count];
+		long previous = 0;
+		for (int i = 0; i < count; i++) {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				if (!buffer.hasRemaining() || shift > 63) {
+					return null;
+				}
+				b = buffer.get();
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+
+			previous += (value >>> 1) ^ -(value & 1);
+			keys[i] = previous;
+		}
+
+		return buffer.hasRemaining() ? null : keys;
+	}
+}
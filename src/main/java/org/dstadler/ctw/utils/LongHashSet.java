@@ -0,0 +1,260 @@
+package org.dstadler.ctw.utils;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A set of primitive long values, used for keys of squares and
+ * tiles as produced by {@link CellKey}.
+ *
+ * Values are stored in a single array with open addressing and
+ * linear probing, so a set of a few hundred thousand cells needs
+ * a few MB instead of the many small objects of a HashSet of
+ * Strings or Longs.
+ *
+ * This class is not thread-safe.
+ */
+public class LongHashSet {
+	private static final int MIN_CAPACITY = 16;
+
+	// marks unused slots, the value itself is tracked separately
+	private static final long EMPTY = 0;
+
+	private long[] values;
+	private int size;
+	private boolean containsEmpty;
+
+	public LongHashSet() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize The number of values which can be added without resizing
+	 */
+	public LongHashSet(int expectedSize) {
+		Preconditions.checkArgument(expectedSize >= 0,
+				"Expected size cannot be negative, but had %s", expectedSize);
+
+		values = new long[capacityFor(expectedSize)];
+	}
+
+	private static int capacityFor(int size) {
+		// keep the load-factor at or below 0.5, capacity is a power of two
+		return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1);
+	}
+
+	/**
+	 * @return true if the value was not contained before
+	 */
+	public boolean add(long value) {
+		if (value == EMPTY) {
+			if (containsEmpty) {
+				return false;
+			}
+			containsEmpty = true;
+			size++;
+			return true;
+		}
+
+		int mask = values.length - 1;
+		int pos = hash(value) & mask;
+		while (values[pos] != EMPTY) {
+			if (values[pos] == value) {
+				return false;
+			}
+			pos = (pos + 1) & mask;
+		}
+
+		values[pos] = value;
+		size++;
+
+		if (size * 2 > values.length) {
+			resize(values.length * 2);
+		}
+
+		return true;
+	}
+
+	public boolean contains(long value) {
+		if (value == EMPTY) {
+			return containsEmpty;
+		}
+
+		int mask = values.length - 1;
+		int pos = hash(value) & mask;
+		while (values[pos] != EMPTY) {
+			if (values[pos] == value) {
+				return true;
+			}
+			pos = (pos + 1) & mask;
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return true if the value was contained before
+	 */
+	public boolean remove(long value) {
+		if (value == EMPTY) {
+			if (!containsEmpty) {
+				return false;
+			}
+			containsEmpty = false;
+			size--;
+			return true;
+		}
+
+		int mask = values.length - 1;
+		int pos = hash(value) & mask;
+		while (values[pos] != value) {
+			if (values[pos] == EMPTY) {
+				return false;
+			}
+			pos = (pos + 1) & mask;
+		}
+
+		// move following values of the same probe-sequence into the gap
+		int gap = pos;
+		pos = (pos + 1) & mask;
+		while (values[pos] != EMPTY) {
+			int home = hash(values[pos]) & mask;
+
+			// only move if the home-slot is not between the gap and the current position
+			if (((pos - home) & mask) >= ((pos - gap) & mask)) {
+				values[gap] = values[pos];
+				gap = pos;
+			}
+			pos = (pos + 1) & mask;
+		}
+		values[gap] = EMPTY;
+		size--;
+
+		return true;
+	}
+
+	/**
+	 * @return true if any value was not contained before
+	 */
+	public boolean addAll(LongHashSet other) {
+		int before = size;
+		other.forEach(this::add);
+		return size != before;
+	}
+
+	/**
+	 * @return true if any value was removed
+	 */
+	public boolean removeAll(LongHashSet other) {
+		int before = size;
+		other.forEach(this::remove);
+		return size != before;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(values, EMPTY);
+		containsEmpty = false;
+		size = 0;
+	}
+
+	/**
+	 * Invoke the consumer for all values in no particular order.
+	 *
+	 * The set cannot be modified while iterating.
+	 */
+	public void forEach(LongConsumer consumer) {
+		if (containsEmpty) {
+			consumer.accept(EMPTY);
+		}
+		for (long value : values) {
+			if (value != EMPTY) {
+				consumer.accept(value);
+			}
+		}
+	}
+
+	/**
+	 * @return All values in ascending order
+	 */
+	public long[] toSortedArray() {
+		long[] array = new long[size];
+		int i = 0;
+		if (containsEmpty) {
+			array[i++] = EMPTY;
+		}
+		for (long value : values) {
+			if (value != EMPTY) {
+				array[i++] = value;
+			}
+		}
+
+		Arrays.sort(array);
+		return array;
+	}
+
+	private void resize(int capacity) {
+		long[] old = values;
+		values = new long[capacity];
+
+		int mask = capacity - 1;
+		for (long value : old) {
+			if (value != EMPTY) {
+				int pos = hash(value) & mask;
+				while (values[pos] != EMPTY) {
+					pos = (pos + 1) & mask;
+				}
+				values[pos] = value;
+			}
+		}
+	}
+
+	private static int hash(long value) {
+		// keys often only differ in a few bits, so spread them across the whole hash
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof LongHashSet other) || other.size != size) {
+			return false;
+		}
+
+		for (long value : values) {
+			if (value != EMPTY && !other.contains(value)) {
+				return false;
+			}
+		}
+		return containsEmpty == other.containsEmpty;
+	}
+
+	@Override
+	public int hashCode() {
+		// same as for a Set of Longs
+		int hash = 0;
+		for (long value : values) {
+			if (value != EMPTY) {
+				hash += Long.hashCode(value);
+			}
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return "LongHashSet{size=" + size + "}";
+	}
+}
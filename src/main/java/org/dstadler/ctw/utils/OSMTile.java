@@ -5,11 +5,9 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.apache.commons.io.FileUtils;
@@ -38,8 +36,6 @@ public class OSMTile implements BaseTile<OSMTile>, Comparable<OSMTile> {
 
 	private static final int PIXELS = 256;
 
-	private static final Pattern STRING_COORDS = Pattern.compile("(\\d+)/(\\d+)/(\\d+)");
-
 	private final int zoom;
 	private final int xTile;
 	private final int yTile;
@@ -68,13 +64,65 @@ public class OSMTile implements BaseTile<OSMTile>, Comparable<OSMTile> {
 	}
 
 	public static OSMTile fromString(String str) {
-		Matcher matcher = STRING_COORDS.matcher(str);
+		return fromString(str, 0, str.length());
+	}
+
+	/**
+	 * Parse a tile from a part of a larger text, e.g. a line in a buffer,
+	 * without creating a String for it.
+	 *
+	 * @param str The text containing the tile in the format "{zoom}/{x}/{y}"
+	 * @param start The index of the first character of the tile
+	 * @param end The index after the last character of the tile
+	 * @return The parsed tile
+	 * @throws IllegalArgumentException If the text is not a valid tile
+	 */
+	public static OSMTile fromString(CharSequence str, int start, int end) {
+		long slashes = findSlashes(str, start, end);
+		if (slashes == -1) {
+			throw new IllegalArgumentException("String for OSM-tile did not match pattern {0}/{1}/{2}: " +
+					str.subSequence(start, end));
+		}
+
+		int slash1 = (int) (slashes >>> 32);
+		int slash2 = (int) slashes;
+		return new OSMTile(Integer.parseInt(str, start, slash1, 10),
+				Integer.parseInt(str, slash1 + 1, slash2, 10), Integer.parseInt(str, slash2 + 1, end, 10));
+	}
+
+	/**
+	 * @return If the text has the format "{zoom}/{x}/{y}" of {@link #toCoords()},
+	 * 		values are not checked for valid ranges
+	 */
+	public static boolean isCoords(CharSequence str) {
+		return findSlashes(str, 0, str.length()) != -1;
+	}
+
+	// positions of the two slashes packed into a long, -1 if the format does not match
+	private static long findSlashes(CharSequence str, int start, int end) {
+		int slash1 = skipDigits(str, start, end);
+		if (slash1 == start || slash1 == end || str.charAt(slash1) != '/') {
+			return -1;
+		}
+
+		int slash2 = skipDigits(str, slash1 + 1, end);
+		if (slash2 == slash1 + 1 || slash2 == end || str.charAt(slash2) != '/') {
+			return -1;
+		}
+
+		int last = skipDigits(str, slash2 + 1, end);
+		if (last == slash2 + 1 || last != end) {
+			return -1;
+		}
 
-		Preconditions.checkArgument(matcher.matches(),
-				"String for OSM-tile did not match pattern {0}/{1}/{2}: %s", str);
+		return ((long) slash1 << 32) | slash2;
+	}
 
-		return new OSMTile(Integer.parseInt(matcher.group(1)),
-				Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3)));
+	private static int skipDigits(CharSequence str, int pos, int end) {
+		while (pos < end && str.charAt(pos) >= '0' && str.charAt(pos) <= '9') {
+			pos++;
+		}
+		return pos;
 	}
 
 	public static OSMTile fromLatLngZoom(final double lat, final double lon, final int zoom) {
@@ -83,22 +131,73 @@ public class OSMTile implements BaseTile<OSMTile>, Comparable<OSMTile> {
 		int xtile = (int) Math.floor(computeXTile(lon, zoom));
 		Preconditions.checkArgument(xtile >= 0,
 				"Had invalid x-tile %s for lon: %s and zoom: %s", xtile, lon, zoom);
+
+		return new OSMTile(zoom, clampXTile(xtile, zoom), clampYTile((int) Math.floor(computeYTile(lat, zoom)), zoom));
+	}
+
+	/**
+	 * Convert many points to tiles for one or more zoom-levels at once.
+	 *
+	 * The logarithm and trigonometric functions are computed only once per point
+	 * and then scaled for each zoom-level, no objects are created. The result is
+	 * the same as calling {@link #fromLatLngZoom(double, double, int)} for each
+	 * point and zoom.
+	 *
+	 * @param lats The latitudes of the points
+	 * @param lons The longitudes of the points
+	 * @param count The number of points to convert from the start of the arrays
+	 * @param zooms The zoom-levels to compute tiles for
+	 * @param xTiles One array per zoom-level which receives the x-coordinates of the tiles
+	 * @param yTiles One array per zoom-level which receives the y-coordinates of the tiles
+	 * @throws IllegalArgumentException If any point or zoom is invalid
+	 */
+	public static void fromLatLngZoom(double[] lats, double[] lons, int count, int[] zooms, int[][] xTiles, int[][] yTiles) {
+		Preconditions.checkArgument(count >= 0 && count <= lats.length && count <= lons.length,
+				"Invalid count %s for %s latitudes and %s longitudes", count, lats.length, lons.length);
+		Preconditions.checkArgument(xTiles.length >= zooms.length && yTiles.length >= zooms.length,
+				"Need arrays for tiles of %s zoom-levels, but had %s and %s", zooms.length, xTiles.length, yTiles.length);
+		for (int z = 0; z < zooms.length; z++) {
+			checkParameters(0, 0, zooms[z]);
+			Preconditions.checkArgument(xTiles[z].length >= count && yTiles[z].length >= count,
+					"Arrays for tiles of zoom %s cannot hold %s points", zooms[z], count);
+		}
+
+		for (int i = 0; i < count; i++) {
+			double lat = lats[i];
+			double lon = lons[i];
+			checkParameters(lat, lon, OSM_MIN_ZOOM);
+
+			// position at zoom 0, scaling by a power of two is exact, so this
+			// gives the same values as computeXTile()/computeYTile()
+			double x = computeXTile(lon, 0);
+			double y = computeYTile(lat, 0);
+
+			for (int z = 0; z < zooms.length; z++) {
+				int zoom = zooms[z];
+				xTiles[z][i] = clampXTile((int) Math.floor(x * (1 << zoom)), zoom);
+				yTiles[z][i] = clampYTile((int) Math.floor(y * (1 << zoom)), zoom);
+			}
+		}
+	}
+
+	private static int clampXTile(int xtile, int zoom) {
 		// for lon == 90 we get one more than the max tile
 		if (xtile >= (1 << zoom)) {
-			xtile = ((1 << zoom) - 1);
+			return (1 << zoom) - 1;
 		}
+		return xtile;
+	}
 
-		int ytile = (int) Math.floor(computeYTile(lat, zoom));
+	private static int clampYTile(int ytile, int zoom) {
 		// precision seems not high enough to properly compute this in some cases (e.g., lat = -90)
 		if (ytile < 0) {
-			ytile = 0;
+			return 0;
 		}
 		// for lat == 180 we get one more than the max tile
 		if (ytile >= (1 << zoom)) {
-			ytile = ((1 << zoom) - 1);
+			return (1 << zoom) - 1;
 		}
-
-		return new OSMTile(zoom, xtile, ytile);
+		return ytile;
 	}
 
 	/**
@@ -135,11 +234,27 @@ public class OSMTile implements BaseTile<OSMTile>, Comparable<OSMTile> {
 		}
 	}
 
-	private static double computeXTile(double lon, int zoom) {
+	/**
+	 * Compute the fractional x-position of the given longitude in tile-units,
+	 * i.e. the integer part is the x-coordinate of the tile.
+	 *
+	 * @param lon The longitude
+	 * @param zoom The zoom-level
+	 * @return The x-position, not clamped to the valid range of tiles
+	 */
+	public static double computeXTile(double lon, int zoom) {
 		return (lon + 180) / 360 * (1 << zoom);
 	}
 
-	private static double computeYTile(double lat, int zoom) {
+	/**
+	 * Compute the fractional y-position of the given latitude in tile-units,
+	 * i.e. the integer part is the y-coordinate of the tile.
+	 *
+	 * @param lat The latitude
+	 * @param zoom The zoom-level
+	 * @return The y-position, not clamped to the valid range of tiles
+	 */
+	public static double computeYTile(double lat, int zoom) {
 		return (1.0 - Math.log(Math.tan(Math.toRadians(lat)) + 1.0 / Math.cos(Math.toRadians(lat))) / Math.PI) / 2 * (1 << zoom);
 	}
 
@@ -161,12 +276,11 @@ public class OSMTile implements BaseTile<OSMTile>, Comparable<OSMTile> {
 	}
 
 	private static double computeLon(int x, int zoom) {
-		return ((double)x) / Math.pow(2.0, zoom) * 360.0 - 180;
+		return TileEdges.longitude(x, zoom);
 	}
 
 	private static double computeLat(int y, int zoom) {
-		double n = Math.PI - (2.0 * Math.PI * y) / Math.pow(2.0, zoom);
-		return Math.toDegrees(Math.atan(Math.sinh(n)));
+		return TileEdges.latitude(y, zoom);
 	}
 
 	@Override
@@ -311,12 +425,25 @@ public class OSMTile implements BaseTile<OSMTile>, Comparable<OSMTile> {
 	 * The file should have one string-representation as produced by
 	 * string() per line.
 	 *
+	 * If an up-to-date {@link CoverageStore} exists for the file, the
+	 * tiles are loaded from it instead.
+	 *
 	 * @param file The file to read lines of tile-strings
-	 * @return All found tiles in sorted order.
+	 * @return All found tiles.
 	 * @throws IOException If reading from the file fails.
 	 */
 	public static Set<OSMTile> readTiles(File file) throws IOException {
-		return new TreeSet<>(FileUtils.readLines(file, StandardCharsets.UTF_8)).
+		long[] keys = CoverageStore.read(file);
+		if (keys != null) {
+			// added in the same order as the lines of the file
+			Set<OSMTile> tiles = new HashSet<>();
+			for (long key : keys) {
+				tiles.add(CellKey.toTile(key));
+			}
+			return tiles;
+		}
+
+		return FileUtils.readLines(file, StandardCharsets.UTF_8).
 				stream().
 				map(OSMTile::fromString).
 				collect(Collectors.toSet());
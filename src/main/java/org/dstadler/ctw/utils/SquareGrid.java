@@ -0,0 +1,180 @@
+package org.dstadler.ctw.utils;
+
+import static org.dstadler.ctw.utils.Constants.ZONE;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.dstadler.commons.logging.jdk.LoggerFactory;
+
+/**
+ * A set of squares which share one continuous grid of easting and northing,
+ * so they can be put into one matrix for computing the largest square or
+ * rectangle.
+ *
+ * By default only squares in {@link Constants#ZONE} are used, as before.
+ *
+ * With the system property {@value #PROPERTY_MULTI_ZONE} set to "true", squares
+ * are split into one grid per UTM zone and hemisphere. Easting and northing are
+ * continuous across all latitude bands of a zone in one hemisphere, so bands do
+ * not need to be split. Each grid is evaluated separately, in parallel, and the
+ * largest result of all grids is used. Squares are assigned to exactly one zone
+ * when they are computed, so no square is counted twice at the seams between
+ * zones. A rectangle cannot continue across a seam though, as the grids of
+ * neighbouring zones are not aligned.
+ */
+public class SquareGrid {
+	private static final Logger log = LoggerFactory.make();
+
+	public static final String PROPERTY_MULTI_ZONE = "ctw.multiZone";
+
+	private final int zone;
+	private final char band;
+	private final boolean resolveBand;
+	private final Set<UTMRefWithHash> squares;
+
+	private double minEast = Double.MAX_VALUE, maxEast = Double.MIN_VALUE,
+			minNorth = Double.MAX_VALUE, maxNorth = Double.MIN_VALUE;
+	private boolean found = false;
+
+	/**
+	 * @param zone The UTM zone of this grid, other squares are ignored
+	 * @param band The band used for creating references, only selects the hemisphere if resolveBand is true
+	 * @param resolveBand If references should get the actual band of their position
+	 * @param squares The squares, may contain squares of other zones
+	 */
+	private SquareGrid(int zone, char band, boolean resolveBand, Set<UTMRefWithHash> squares) {
+		this.zone = zone;
+		this.band = band;
+		this.resolveBand = resolveBand;
+		this.squares = squares;
+
+		for (UTMRefWithHash square : squares) {
+			if (square.getLngZone() != zone) {
+				continue;
+			}
+
+			if (square.getEasting() > maxEast) {
+				maxEast = square.getEasting();
+			}
+			if (square.getEasting() < minEast) {
+				minEast = square.getEasting();
+			}
+
+			if (square.getNorthing() > maxNorth) {
+				maxNorth = square.getNorthing();
+			}
+			if (square.getNorthing() < minNorth) {
+				minNorth = square.getNorthing();
+			}
+
+			found = true;
+		}
+	}
+
+	/**
+	 * Split the squares into grids.
+	 *
+	 * @param squares The covered squares
+	 * @return One grid for {@link Constants#ZONE} or one grid per zone and hemisphere
+	 * 		if {@value #PROPERTY_MULTI_ZONE} is set, grids without squares are not returned
+	 */
+	public static List<SquareGrid> split(Set<UTMRefWithHash> squares) {
+		if (!Boolean.getBoolean(PROPERTY_MULTI_ZONE)) {
+			SquareGrid grid = new SquareGrid(ZONE, 'U', false, squares);
+			return grid.found ? Collections.singletonList(grid) : Collections.emptyList();
+		}
+
+		// sorted by zone and southern before northern hemisphere
+		Map<Integer, Set<UTMRefWithHash>> shards = new TreeMap<>();
+		for (UTMRefWithHash square : squares) {
+			shards.computeIfAbsent(square.getLngZone() * 2 + (isSouth(square) ? 0 : 1), key -> new HashSet<>()).
+					add(square);
+		}
+
+		List<SquareGrid> grids = new ArrayList<>(shards.size());
+		for (Map.Entry<Integer, Set<UTMRefWithHash>> entry : shards.entrySet()) {
+			// 'M' is the last band in the south, 'N' the first in the north
+			grids.add(new SquareGrid(entry.getKey() / 2, entry.getKey() % 2 == 0 ? 'M' : 'N', true, entry.getValue()));
+		}
+		return grids;
+	}
+
+	/**
+	 * @return The zones which are used by {@link #split(Set)}, e.g. for messages
+	 */
+	public static String describeZones() {
+		return Boolean.getBoolean(PROPERTY_MULTI_ZONE) ? "any UTM zone" : "UTM zone " + ZONE;
+	}
+
+	/**
+	 * Run the given algorithm on the matrix of each grid in parallel.
+	 *
+	 * @param grids The grids as returned by {@link #split(Set)}
+	 * @param algorithm Computes the rectangle and its area from a matrix,
+	 * 		e.g. {@link MatrixUtils#maxRectangle(int[][])}
+	 * @return The grid with the largest area and its result, the first of these
+	 * 		grids if more than one have the same area, null if there are no grids
+	 */
+	public static Pair<SquareGrid, Pair<Rectangle, Integer>> findLargest(List<SquareGrid> grids,
+			Function<int[][], Pair<Rectangle, Integer>> algorithm) {
+		// the stream is ordered, so reducing keeps the first of equal results
+		return grids.stream().
+				parallel().
+				map(grid -> {
+					Pair<Rectangle, Integer> result = algorithm.apply(grid.populateMatrix());
+					if (log.isLoggable(Level.FINE)) {
+						log.fine("Found " + result + " for zone " + grid.zone + ", band " + grid.band);
+					}
+					return Pair.of(grid, result);
+				}).
+				reduce((a, b) -> b.getValue().getValue() > a.getValue().getValue() ? b : a).
+				orElse(null);
+	}
+
+	/**
+	 * @return The matrix of covered squares of this grid
+	 * @see MatrixUtils#populateMatrix(Set, double, double, double, double, int)
+	 */
+	public int[][] populateMatrix() {
+		return MatrixUtils.populateMatrix(squares, minEast, minNorth, maxEast, maxNorth, zone);
+	}
+
+	/**
+	 * @return A reference at the given position in this grid
+	 */
+	public UTMRefWithHash ref(double easting, double northing) {
+		if (!resolveBand) {
+			return new UTMRefWithHash(zone, band, easting, northing);
+		}
+
+		return new UTMRefWithHash(zone, UTMBands.getLatZone(new UTMRefWithHash(zone, band, easting, northing)),
+				easting, northing);
+	}
+
+	public int getZone() {
+		return zone;
+	}
+
+	public double getMinEast() {
+		return minEast;
+	}
+
+	public double getMinNorth() {
+		return minNorth;
+	}
+
+	private static boolean isSouth(UTMRefWithHash square) {
+		return square.getLatZone() < 'N';
+	}
+}
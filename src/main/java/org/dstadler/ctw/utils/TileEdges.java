@@ -0,0 +1,105 @@
+package org.dstadler.ctw.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Caches the latitudes and longitudes of the edges between OSM tiles.
+ *
+ * All tiles in the same row share the latitude of their upper and
+ * lower edge, computing it needs {@code atan(sinh(...))}. When rendering
+ * many tiles of a high zoom-level only a few thousand distinct rows are
+ * used, so the latitudes are kept per zoom-level in chunks of consecutive
+ * rows. A chunk is computed completely when it is used for the first time.
+ *
+ * Longitudes only need a division, so they are not cached, but use the
+ * same formula as before without {@link Math#pow(double, double)}.
+ *
+ * Values are exactly the same as when computing them for each tile.
+ */
+public class TileEdges {
+	// rows per chunk
+	private static final int CHUNK_BITS = 8;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	// OSMTile allows one zoom-level more than OSM uses
+	private static final int MAX_ZOOM = OSMTile.OSM_MAX_ZOOM + 1;
+
+	// per zoom-level the chunks of latitudes, there is one edge more than rows of tiles
+	private static final AtomicReferenceArray<AtomicReferenceArray<double[]>> LATITUDES = new AtomicReferenceArray<>(MAX_ZOOM + 1);
+
+	/**
+	 * @param y The row of tiles, the edge at y is the upper edge of the row, y + 1 the lower edge
+	 * @param zoom The zoom-level
+	 * @return The latitude of the upper edge of the given row of tiles
+	 */
+	public static double latitude(int y, int zoom) {
+		checkEdge(y, zoom);
+
+		AtomicReferenceArray<double[]> chunks = LATITUDES.get(zoom);
+		if (chunks == null) {
+			// concurrent threads may create this more than once, only one is kept
+			LATITUDES.compareAndSet(zoom, null, new AtomicReferenceArray<>((tiles(zoom) >> CHUNK_BITS) + 1));
+			chunks = LATITUDES.get(zoom);
+		}
+
+		int chunkIndex = y >> CHUNK_BITS;
+		double[] chunk = chunks.get(chunkIndex);
+		if (chunk == null) {
+			chunk = computeChunk(chunkIndex, zoom);
+
+			// concurrent threads compute the same values, so it does not matter which is kept
+			chunks.set(chunkIndex, chunk);
+		}
+
+		return chunk[y & (CHUNK_SIZE - 1)];
+	}
+
+	/**
+	 * @param x The column of tiles, the edge at x is the left edge of the column, x + 1 the right edge
+	 * @param zoom The zoom-level
+	 * @return The longitude of the left edge of the given column of tiles
+	 */
+	public static double longitude(int x, int zoom) {
+		checkEdge(x, zoom);
+
+		// dividing by the power of two gives the same value as dividing by Math.pow(2.0, zoom)
+		return ((double) x) / tiles(zoom) * 360.0 - 180;
+	}
+
+	private static double[] computeChunk(int chunkIndex, int zoom) {
+		double[] chunk = new double[CHUNK_SIZE];
+
+		int start = chunkIndex << CHUNK_BITS;
+		int end = Math.min(CHUNK_SIZE, tiles(zoom) + 1 - start);
+		for (int i = 0; i < end; i++) {
+			chunk[i] = computeLatitude(start + i, zoom);
+		}
+
+		// edges beyond the last row are never returned
+		Arrays.fill(chunk, end, CHUNK_SIZE, Double.NaN);
+
+		return chunk;
+	}
+
+	/**
+	 * Compute the latitude without caching, as done before.
+	 */
+	static double computeLatitude(int y, int zoom) {
+		double n = Math.PI - (2.0 * Math.PI * y) / Math.pow(2.0, zoom);
+		return Math.toDegrees(Math.atan(Math.sinh(n)));
+	}
+
+	private static int tiles(int zoom) {
+		return 1 << zoom;
+	}
+
+	private static void checkEdge(int edge, int zoom) {
+		Preconditions.checkArgument(zoom >= 0 && zoom <= MAX_ZOOM,
+				"Invalid zoom %s, needs to be between 0 and %s", zoom, MAX_ZOOM);
+		Preconditions.checkArgument(edge >= 0 && edge <= tiles(zoom),
+				"Invalid edge %s for zoom %s", edge, zoom);
+	}
+}
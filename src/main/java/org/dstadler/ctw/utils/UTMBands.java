@@ -0,0 +1,117 @@
+package org.dstadler.ctw.utils;
+
+import static org.dstadler.ctw.utils.Constants.SQUARE_SIZE;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import uk.me.jstott.jcoord.UTMRef;
+
+/**
+ * Looks up the latitude band of a UTM reference without converting it
+ * back to latitude/longitude.
+ *
+ * The latitude computed by {@link UTMRef#toLatLng()} only depends on the
+ * distance from the central meridian and on the northing relative to the
+ * equator, not on the zone. For each column of squares, i.e. each full
+ * km of easting, this class computes once at which northing the latitude
+ * reaches each band-boundary, using the same conversion. Afterwards the band
+ * of any square in this column is found by comparing its northing with
+ * these thresholds.
+ *
+ * The thresholds are only used between 72 degrees south and 72 degrees north
+ * and for zones which are far enough away from 180 degrees longitude, so that
+ * {@link UTMRef#toLatLng()} never fails with an invalid longitude. Other positions
+ * or positions which are not at full km are converted via {@link UTMRef#toLatLng()}
+ * as before.
+ */
+public class UTMBands {
+	// band-letters for each 8 degrees starting at -80
+	private static final char[] BANDS = "CDEFGHJKLMNPQRSTUVWX".toCharArray();
+	private static final int MIN_LATITUDE = -80;
+	private static final int BAND_HEIGHT = 8;
+
+	private static final int MAX_EASTING_KM = 1000;
+	private static final int MAX_NORTHING_KM = 10_000;
+
+	// a column at 500km from the central meridian spans less than 15 degrees
+	// longitude below 72 degrees latitude, so these zones stay within +/-180
+	private static final int MIN_ZONE = 4;
+	private static final int MAX_ZONE = 57;
+
+	// per km of easting the smallest northing in km relative to the equator
+	// at which the latitude reaches the lower boundary of each band
+	private static final AtomicReferenceArray<int[]> THRESHOLDS = new AtomicReferenceArray<>(MAX_EASTING_KM + 1);
+
+	/**
+	 * Compute the same latitude band as
+	 * {@code UTMRef.getUTMLatitudeZoneLetter(ref.toLatLng().getLatitude())}.
+	 *
+	 * The current band of the reference is only used to decide if the northing
+	 * is relative to the northern or the southern hemisphere.
+	 *
+	 * @param ref The UTM reference
+	 * @return The latitude band letter
+	 */
+	public static char getLatZone(UTMRef ref) {
+		double easting = ref.getEasting();
+		double northing = ref.getNorthing();
+
+		if (ref.getLngZone() >= MIN_ZONE && ref.getLngZone() <= MAX_ZONE &&
+				easting % SQUARE_SIZE == 0 && northing % SQUARE_SIZE == 0) {
+			int[] thresholds = thresholds((int) easting / SQUARE_SIZE);
+			int y = (int) northing / SQUARE_SIZE - (ref.getLatZone() < 'N' ? MAX_NORTHING_KM : 0);
+
+			// only use the table between the boundaries at 72 degrees south and north
+			if (y >= thresholds[1] && y < thresholds[BANDS.length - 1]) {
+				int band = 1;
+				while (y >= thresholds[band + 1]) {
+					band++;
+				}
+				return BANDS[band];
+			}
+		}
+
+		return UTMRef.getUTMLatitudeZoneLetter(ref.toLatLng().getLatitude());
+	}
+
+	private static int[] thresholds(int eastingKm) {
+		int[] thresholds = THRESHOLDS.get(eastingKm);
+		if (thresholds == null) {
+			thresholds = computeThresholds(eastingKm);
+
+			// concurrent threads compute the same values, so it does not matter which is kept
+			THRESHOLDS.set(eastingKm, thresholds);
+		}
+		return thresholds;
+	}
+
+	private static int[] computeThresholds(int eastingKm) {
+		int[] thresholds = new int[BANDS.length];
+		for (int band = 0; band < BANDS.length; band++) {
+			double boundary = MIN_LATITUDE + band * BAND_HEIGHT;
+
+			// binary search for the first northing at or above the boundary,
+			// the latitude increases with the northing along a column
+			int low = -MAX_NORTHING_KM;
+			int high = MAX_NORTHING_KM;
+			while (low < high) {
+				int mid = Math.floorDiv(low + high, 2);
+				if (latitude(eastingKm, mid) >= boundary) {
+					high = mid;
+				} else {
+					low = mid + 1;
+				}
+			}
+			thresholds[band] = low;
+		}
+		return thresholds;
+	}
+
+	private static double latitude(int eastingKm, int northingKm) {
+		// the band only selects the hemisphere
+		double easting = (double) eastingKm * SQUARE_SIZE;
+		return northingKm < 0 ?
+				UTMSquareConverter.toLatitude('M', easting, (double) (northingKm + MAX_NORTHING_KM) * SQUARE_SIZE) :
+				UTMSquareConverter.toLatitude('N', easting, (double) northingKm * SQUARE_SIZE);
+	}
+}
@@ -6,16 +6,19 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.apache.commons.io.FileUtils;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 import jakarta.annotation.Nullable;
 import uk.me.jstott.jcoord.LatLng;
 import uk.me.jstott.jcoord.NotDefinedOnUTMGridException;
@@ -27,6 +30,17 @@ import uk.me.jstott.jcoord.UTMRef;
  *
  * It also provides support for computing the 1km-"square" into which given
  * {@link uk.me.jstott.jcoord.LatLng} coordinates fall into.
+ *
+ * Instances are immutable, so the hash is computed once and the string and
+ * rectangle are cached when they are first used. Sorting compares the values
+ * numerically, but in the same order as the strings. Squares which are read via
+ * {@link #fromString(String)} or are reached via up/down/left/right are
+ * interned, so the same square is only kept once in memory.
+ *
+ * Rectangles are additionally kept in a bounded cache which is shared by all
+ * steps running in the same JVM, so a square is only projected once even if
+ * instances are garbage-collected in between. The size can be set via the system
+ * property {@value #PROPERTY_RECTANGLE_CACHE_SIZE}.
  */
 public class UTMRefWithHash extends UTMRef implements BaseTile<UTMRefWithHash>, Comparable<UTMRefWithHash> {
 	// numerical value between 1 and 60
@@ -36,27 +50,158 @@ public class UTMRefWithHash extends UTMRef implements BaseTile<UTMRefWithHash>,
 	// number of meters
 	private static final String EASTING_NORTHING_PATTERN = "(\\d+(?:\\.\\d+)?)";
 
-	private static final Pattern UTMREF_PATTERN = Pattern.compile(
-			LNG_ZONE_PATTERN + LAT_ZONE_PATTERN + " " + EASTING_NORTHING_PATTERN + " " + EASTING_NORTHING_PATTERN);
+	// the format which is accepted by fromString(), only used for error messages
+	private static final String UTMREF_PATTERN =
+			LNG_ZONE_PATTERN + LAT_ZONE_PATTERN + " " + EASTING_NORTHING_PATTERN + " " + EASTING_NORTHING_PATTERN;
+
+	// whole numbers with up to this many digits are exactly representable as double
+	private static final int MAX_EXACT_DIGITS = 15;
+
+	public static final String PROPERTY_RECTANGLE_CACHE_SIZE = "ctw.rectangleCacheSize";
+
+	// enough for all squares of a large collection of tracks
+	private static final int DEFAULT_RECTANGLE_CACHE_SIZE = 250_000;
+
+	private static final Cache<UTMRefWithHash, LatLonRectangle> RECTANGLES = CacheBuilder.newBuilder().
+			maximumSize(Integer.getInteger(PROPERTY_RECTANGLE_CACHE_SIZE, DEFAULT_RECTANGLE_CACHE_SIZE)).
+			build();
+
+	private static final Interner<UTMRefWithHash> INTERNER = Interners.newWeakInterner();
+
+	private static final long[] POWERS_OF_TEN = {
+			1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L,
+	};
+
+	private final int hash;
+
+	// cached on first use, may be computed by more than one thread, but always to the same value
+	private String string;
+	private volatile LatLonRectangle rectangle;
 
 	public UTMRefWithHash(int lngZone, char latZone, double easting, double northing) throws NotDefinedOnUTMGridException {
 		super(lngZone, latZone, easting, northing);
+
+		hash = Objects.hash(latZone, lngZone, easting, northing);
+	}
+
+	/**
+	 * @return The canonical instance for this square, so that equal squares
+	 * 		are only kept once in memory
+	 */
+	public UTMRefWithHash intern() {
+		return INTERNER.intern(this);
 	}
 
 	public static UTMRefWithHash fromString(String ref) {
-		Matcher matcher = UTMREF_PATTERN.matcher(ref);
+		return fromString(ref, 0, ref.length());
+	}
+
+	/**
+	 * Parse a square from a part of a larger text, e.g. a line in a buffer,
+	 * without creating a String for it.
+	 *
+	 * Accepts the same format as {@link #fromString(String)}, i.e. zone, band,
+	 * easting and northing as in "33U 446000.0 5350000.0".
+	 *
+	 * @param ref The text containing the UTM reference
+	 * @param start The index of the first character of the reference
+	 * @param end The index after the last character of the reference
+	 * @return The parsed and interned reference
+	 * @throws IllegalArgumentException If the text is not a valid UTM reference
+	 */
+	public static UTMRefWithHash fromString(CharSequence ref, int start, int end) {
+		int pos = start;
+		int lngZone = 0;
+		while (pos < end && pos - start < 2 && isDigit(ref.charAt(pos))) {
+			lngZone = lngZone * 10 + (ref.charAt(pos) - '0');
+			pos++;
+		}
 
-		if (!matcher.matches()) {
-			throw new IllegalArgumentException("Cannot parse UTM reference " + ref +
-					", needs to match pattern " + UTMREF_PATTERN.pattern());
+		if (pos == start || pos + 1 >= end || !isLatZone(ref.charAt(pos)) || ref.charAt(pos + 1) != ' ') {
+			throw invalidFormat(ref, start, end);
+		}
+		char latZone = ref.charAt(pos);
+
+		int eastingStart = pos + 2;
+		int eastingEnd = skipNumber(ref, eastingStart, end);
+		if (eastingEnd == -1 || eastingEnd == end || ref.charAt(eastingEnd) != ' ') {
+			throw invalidFormat(ref, start, end);
+		}
+
+		int northingStart = eastingEnd + 1;
+		if (skipNumber(ref, northingStart, end) != end) {
+			throw invalidFormat(ref, start, end);
 		}
 
 		try {
-			return new UTMRefWithHash(Integer.parseInt(matcher.group(1)), matcher.group(2).charAt(0),
-					Double.parseDouble(matcher.group(3)), Double.parseDouble(matcher.group(4)));
+			return new UTMRefWithHash(lngZone, latZone,
+					parseMeters(ref, eastingStart, eastingEnd), parseMeters(ref, northingStart, end)).intern();
 		} catch (NotDefinedOnUTMGridException e) {
-			throw new IllegalArgumentException("For input: " + ref, e);
+			throw new IllegalArgumentException("For input: " + ref.subSequence(start, end), e);
+		}
+	}
+
+	static IllegalArgumentException invalidFormat(CharSequence ref, int start, int end) {
+		return new IllegalArgumentException("Cannot parse UTM reference " + ref.subSequence(start, end) +
+				", needs to match pattern " + UTMREF_PATTERN);
+	}
+
+	// ASCII only, Character.isDigit() would also accept other scripts
+	static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	static boolean isLatZone(char c) {
+		// between C and X without I and O
+		return c >= 'C' && c <= 'X' && c != 'I' && c != 'O';
+	}
+
+	/**
+	 * @return The index after digits with an optional fraction, -1 if there is no such number
+	 */
+	private static int skipNumber(CharSequence ref, int pos, int end) {
+		int start = pos;
+		while (pos < end && isDigit(ref.charAt(pos))) {
+			pos++;
+		}
+		if (pos == start) {
+			return -1;
+		}
+
+		if (pos < end && ref.charAt(pos) == '.') {
+			int fraction = ++pos;
+			while (pos < end && isDigit(ref.charAt(pos))) {
+				pos++;
+			}
+			if (pos == fraction) {
+				return -1;
+			}
+		}
+
+		return pos;
+	}
+
+	private static double parseMeters(CharSequence ref, int start, int end) {
+		int dot = start;
+		while (dot < end && ref.charAt(dot) != '.') {
+			dot++;
 		}
+
+		boolean whole = dot - start <= MAX_EXACT_DIGITS;
+		for (int i = dot + 1; whole && i < end; i++) {
+			whole = ref.charAt(i) == '0';
+		}
+
+		// only fractions need the rounding of Double.parseDouble()
+		if (!whole) {
+			return Double.parseDouble(ref.subSequence(start, end).toString());
+		}
+
+		long meters = 0;
+		for (int i = start; i < dot; i++) {
+			meters = meters * 10 + (ref.charAt(i) - '0');
+		}
+		return meters;
 	}
 
 	/**
@@ -93,6 +238,18 @@ public class UTMRefWithHash extends UTMRef implements BaseTile<UTMRefWithHash>,
 		return getSquareStringInternal(latLngSquare);
 	}
 
+	/**
+	 * Compute the same square as {@link #getSquareString(LatLng)}, but as
+	 * packed key without formatting and parsing the string in between.
+	 *
+	 * @param latLng The latitude/longitude value to use
+	 * @return A key as produced by {@link CellKey#square(int, char, long, long)}
+	 * @see UTMSquareConverter#getSquareKey(double, double)
+	 */
+	public static long getSquareKey(LatLng latLng) {
+		return UTMSquareConverter.getSquareKey(latLng.getLatitude(), latLng.getLongitude());
+	}
+
 	private static String getSquareStringInternal(LatLng latLng) {
 		UTMRef utmRef = latLng.toUTMRef();
 		return formatUTMRef(utmRef.getLngZone(), utmRef.getLatZone(),
@@ -110,6 +267,16 @@ public class UTMRefWithHash extends UTMRef implements BaseTile<UTMRefWithHash>,
 	 * 		of this UTMRef
 	 */
 	public LatLonRectangle getRectangle() {
+		LatLonRectangle rect = rectangle;
+		if (rect == null) {
+			// computed only once for concurrent callers of equal squares
+			rect = RECTANGLES.asMap().computeIfAbsent(this, UTMRefWithHash::computeRectangle);
+			rectangle = rect;
+		}
+		return rect;
+	}
+
+	private LatLonRectangle computeRectangle() {
 		// use separate refs for easting/northing to not cause gaps
 		// caused by non-matching longitude-values
 		UTMRefWithHash ref2East = new UTMRefWithHash(getLngZone(), getLatZone(),
@@ -134,7 +301,7 @@ public class UTMRefWithHash extends UTMRef implements BaseTile<UTMRefWithHash>,
 	}
 
 	private UTMRefWithHash fixupZone() {
-		return new UTMRefWithHash(getLngZone(), UTMRef.getUTMLatitudeZoneLetter(toLatLng().getLatitude()), getEasting(), getNorthing());
+		return new UTMRefWithHash(getLngZone(), UTMBands.getLatZone(this), getEasting(), getNorthing()).intern();
 	}
 
 	public UTMRefWithHash up() {
@@ -150,25 +317,91 @@ public class UTMRefWithHash extends UTMRef implements BaseTile<UTMRefWithHash>,
 	}
 
 	public UTMRefWithHash right() {
-		return new UTMRefWithHash(getLngZone(), getLatZone(), getEasting() + SQUARE_SIZE, getNorthing());
+		return new UTMRefWithHash(getLngZone(), getLatZone(), getEasting() + SQUARE_SIZE, getNorthing()).intern();
 	}
 
 	public UTMRefWithHash left() {
-		return new UTMRefWithHash(getLngZone(), getLatZone(), getEasting() - SQUARE_SIZE, getNorthing());
+		return new UTMRefWithHash(getLngZone(), getLatZone(), getEasting() - SQUARE_SIZE, getNorthing()).intern();
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(getLatZone(), getLngZone(), getEasting(), getNorthing());
+		return hash;
 	}
 
+	/**
+	 * Sorts in the same order as comparing the results of {@link #string()},
+	 * but without formatting the values for squares at full meters.
+	 */
 	@Override
 	public int compareTo(@Nullable UTMRefWithHash o) {
 		if (o == null) {
 			return 1;
 		}
+		if (this == o) {
+			return 0;
+		}
+
+		double easting = getEasting();
+		double northing = getNorthing();
+		double oEasting = o.getEasting();
+		double oNorthing = o.getNorthing();
+
+		// fractions are formatted with varying number of digits, compare the strings then
+		if (easting != Math.rint(easting) || northing != Math.rint(northing) ||
+				oEasting != Math.rint(oEasting) || oNorthing != Math.rint(oNorthing)) {
+			return string().compareTo(o.string());
+		}
+
+		// the zone is followed by the band-letter which sorts after digits
+		int cmp = compareDecimal(getLngZone(), o.getLngZone(), false);
+		if (cmp != 0) {
+			return cmp;
+		}
 
-		return string().compareTo(o.string());
+		cmp = Character.compare(getLatZone(), o.getLatZone());
+		if (cmp != 0) {
+			return cmp;
+		}
+
+		// easting and northing are followed by ".0" which sorts before digits
+		cmp = compareDecimal((long) easting, (long) oEasting, true);
+		if (cmp != 0) {
+			return cmp;
+		}
+
+		return compareDecimal((long) northing, (long) oNorthing, true);
+	}
+
+	/**
+	 * Compare two non-negative numbers in the same way as their decimal strings.
+	 *
+	 * @param shorterFirst If the character which follows the number sorts before digits
+	 */
+	private static int compareDecimal(long a, long b, boolean shorterFirst) {
+		int digitsA = digits(a);
+		int digitsB = digits(b);
+		if (digitsA == digitsB) {
+			return Long.compare(a, b);
+		}
+
+		// compare the common leading digits, if they are equal the shorter
+		// number is ordered by the character which follows it
+		long prefixA = digitsA > digitsB ? a / POWERS_OF_TEN[digitsA - digitsB] : a;
+		long prefixB = digitsB > digitsA ? b / POWERS_OF_TEN[digitsB - digitsA] : b;
+		if (prefixA != prefixB) {
+			return Long.compare(prefixA, prefixB);
+		}
+
+		return (digitsA < digitsB) == shorterFirst ? -1 : 1;
+	}
+
+	private static int digits(long value) {
+		int digits = 1;
+		while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+			digits++;
+		}
+		return digits;
 	}
 
 	@Override
@@ -185,15 +418,38 @@ public class UTMRefWithHash extends UTMRef implements BaseTile<UTMRefWithHash>,
 				getNorthing() == o.getNorthing();
 	}
 
+	/**
+	 * Read squares from the given text-file, or from an up-to-date
+	 * {@link CoverageStore} for it.
+	 *
+	 * @param file The file with one square per line
+	 * @return All found squares, interned
+	 * @throws IOException If reading from the file fails.
+	 */
 	public static Set<UTMRefWithHash> readSquares(File file) throws IOException {
-		return new TreeSet<>(FileUtils.readLines(file, StandardCharsets.UTF_8)).
+		long[] keys = CoverageStore.read(file);
+		if (keys != null) {
+			// added in the same order as the lines of the file
+			Set<UTMRefWithHash> squares = new HashSet<>();
+			for (long key : keys) {
+				squares.add(CellKey.toSquare(key).intern());
+			}
+			return squares;
+		}
+
+		return FileUtils.readLines(file, StandardCharsets.UTF_8).
 						stream().
 						map(UTMRefWithHash::fromString).
 						collect(Collectors.toSet());
 	}
 
 	public String toString() {
-		return formatUTMRef(this.getLngZone(), this.getLatZone(), this.getEasting(), this.getNorthing());
+		String str = string;
+		if (str == null) {
+			str = formatUTMRef(this.getLngZone(), this.getLatZone(), this.getEasting(), this.getNorthing());
+			string = str;
+		}
+		return str;
 	}
 
 	private static final ThreadLocal<DecimalFormat> DECIMAL_FORMAT = new ThreadLocal<>();
@@ -0,0 +1,255 @@
+package org.dstadler.ctw.utils;
+
+import static org.dstadler.ctw.utils.Constants.SQUARE_SIZE;
+
+import uk.me.jstott.jcoord.LatLng;
+import uk.me.jstott.jcoord.NotDefinedOnUTMGridException;
+import uk.me.jstott.jcoord.UTMRef;
+import uk.me.jstott.jcoord.ellipsoid.WGS84Ellipsoid;
+
+/**
+ * Computes the 1km-square of a point on primitive values only.
+ *
+ * {@link UTMRefWithHash#getSquareString(LatLng)} converts a point to UTM,
+ * converts the corner of the resulting square back to lat/lon and
+ * projects that point again to normalize the latitude band. Via jcoord this
+ * creates a number of LatLng and UTMRef objects for every track-point.
+ *
+ * This class contains the same formulas as {@link LatLng#toUTMRef()} and
+ * {@link UTMRef#toLatLng()}, with the floating point operations done in
+ * exactly the same order, so the resulting square is the same as the
+ * one produced via jcoord, but no objects are created.
+ */
+public class UTMSquareConverter {
+	// scale factor on the central meridian
+	private static final double F0 = 0.9996;
+
+	private static final double DEG_TO_RAD = 0.017453292519943295;
+	private static final double RAD_TO_DEG = 57.29577951308232;
+
+	private static final double FALSE_EASTING = 500000;
+	private static final double FALSE_NORTHING = 10000000;
+
+	private static final double MAX_EASTING = 1000000;
+
+	private static final double A = WGS84Ellipsoid.getInstance().getSemiMajorAxis();
+	private static final double E2 = WGS84Ellipsoid.getInstance().getEccentricitySquared();
+	private static final double EP2 = E2 / (1 - E2);
+
+	// coefficients of the meridional arc, as computed in LatLng.toUTMRef()
+	private static final double M1 = 1 - E2 / 4 - 3 * E2 * E2 / 64 - 5 * E2 * E2 * E2 / 256;
+	private static final double M2 = 3 * E2 / 8 + 3 * E2 * E2 / 32 + 45 * E2 * E2 * E2 / 1024;
+	private static final double M3 = 15 * E2 * E2 / 256 + 45 * E2 * E2 * E2 / 1024;
+	private static final double M4 = 35 * E2 * E2 * E2 / 3072;
+
+	// coefficients of the footpoint latitude, as computed in UTMRef.toLatLng()
+	private static final double N = (1 - Math.sqrt(1 - E2)) / (1 + Math.sqrt(1 - E2));
+	private static final double MU = A * (1 - E2 / 4 - 3 * E2 * E2 / 64 - 5 * Math.pow(E2, 3) / 256);
+	private static final double PHI1 = 3 * N / 2 - 27 * Math.pow(N, 3) / 32;
+	private static final double PHI2 = 21 * N * N / 16 - 55 * Math.pow(N, 4) / 32;
+	private static final double PHI3 = 151 * Math.pow(N, 3) / 96;
+
+	/**
+	 * Compute the same square as {@link UTMRefWithHash#getSquareString(LatLng)}.
+	 *
+	 * @param latitude The latitude of the point
+	 * @param longitude The longitude of the point
+	 * @return A key as produced by {@link CellKey#square(int, char, long, long)}
+	 * @throws IllegalArgumentException If the point is not a valid lat/lon
+	 * 		or the corner of the square cannot be converted back
+	 * @throws NotDefinedOnUTMGridException If the point is outside of the UTM grid
+	 */
+	public static long getSquareKey(double latitude, double longitude) {
+		if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180) {
+			throw new IllegalArgumentException("Invalid latitude " + latitude + " or longitude " + longitude);
+		}
+
+		long key = squareOf(latitude, longitude);
+
+		// convert the south-west corner of the square back to lat/lon
+		int zone = CellKey.squareZone(key);
+		double x = CellKey.squareEasting(key) - FALSE_EASTING;
+		double y = CellKey.squareNorthing(key);
+		double longitudeOrigin = ((double) zone - 1) * 6 - 180 + 3;
+
+		if (CellKey.squareBand(key) - 'N' < 0) {
+			y -= FALSE_NORTHING;
+		}
+
+		double mu = y / F0 / MU;
+		double phi1Rad = mu + PHI1 * Math.sin(2 * mu) + PHI2 * Math.sin(4 * mu) + PHI3 * Math.sin(6 * mu);
+
+		double sinPhi1 = Math.sin(phi1Rad);
+		double cosPhi1 = Math.cos(phi1Rad);
+		double tanPhi1 = Math.tan(phi1Rad);
+
+		double n1 = A / Math.sqrt(1 - E2 * sinPhi1 * sinPhi1);
+		double t1 = tanPhi1 * tanPhi1;
+		double c1 = EP2 * cosPhi1 * cosPhi1;
+		double r1 = A * (1 - E2) / Math.pow(1 - E2 * sinPhi1 * sinPhi1, 1.5);
+		double d = x / (n1 * F0);
+
+		double squareLatitude = (phi1Rad - (n1 * tanPhi1 / r1) * (d * d / 2
+				- (5 + 3 * t1 + 10 * c1 - 4 * c1 * c1 - 9 * EP2) * Math.pow(d, 4) / 24
+				+ (61 + 90 * t1 + 298 * c1 + 45 * t1 * t1 - 252 * EP2 - 3 * c1 * c1) * Math.pow(d, 6) / 720)) * RAD_TO_DEG;
+		double squareLongitude = longitudeOrigin + ((d - (1 + 2 * t1 + c1) * Math.pow(d, 3) / 6
+				+ (5 - 2 * c1 + 28 * t1 - 3 * c1 * c1 + 8 * EP2 + 24 * t1 * t1) * Math.pow(d, 5) / 120) / cosPhi1) * RAD_TO_DEG;
+
+		if (squareLatitude < -90 || squareLatitude > 90 || squareLongitude < -180 || squareLongitude > 180) {
+			throw new IllegalArgumentException("Failed for " + latitude + "/" + longitude +
+					", corner of square at " + squareLatitude + "/" + squareLongitude);
+		}
+
+		// don't try to normalize again if lat would be out of range
+		if (squareLatitude > 80 || squareLatitude < -80) {
+			return key;
+		}
+
+		// project the corner again to get the zone and band which the whole square is assigned to
+		return squareOf(squareLatitude, squareLongitude);
+	}
+
+	/**
+	 * Compute the same latitude as {@code new UTMRef(zone, latZone, easting, northing).toLatLng().getLatitude()}
+	 * without creating objects. The zone only affects the longitude, so it is not needed here.
+	 *
+	 * @param latZone The latitude band, only used to decide between northern and southern hemisphere
+	 * @param easting The easting in meters
+	 * @param northing The northing in meters
+	 * @return The latitude in degrees
+	 */
+	public static double toLatitude(char latZone, double easting, double northing) {
+		double x = easting - FALSE_EASTING;
+		double y = northing;
+		if (latZone - 'N' < 0) {
+			y -= FALSE_NORTHING;
+		}
+
+		double mu = y / F0 / MU;
+		double phi1Rad = mu + PHI1 * Math.sin(2 * mu) + PHI2 * Math.sin(4 * mu) + PHI3 * Math.sin(6 * mu);
+
+		double sinPhi1 = Math.sin(phi1Rad);
+		double cosPhi1 = Math.cos(phi1Rad);
+		double tanPhi1 = Math.tan(phi1Rad);
+
+		double n1 = A / Math.sqrt(1 - E2 * sinPhi1 * sinPhi1);
+		double t1 = tanPhi1 * tanPhi1;
+		double c1 = EP2 * cosPhi1 * cosPhi1;
+		double r1 = A * (1 - E2) / Math.pow(1 - E2 * sinPhi1 * sinPhi1, 1.5);
+		double d = x / (n1 * F0);
+
+		return (phi1Rad - (n1 * tanPhi1 / r1) * (d * d / 2
+				- (5 + 3 * t1 + 10 * c1 - 4 * c1 * c1 - 9 * EP2) * Math.pow(d, 4) / 24
+				+ (61 + 90 * t1 + 298 * c1 + 45 * t1 * t1 - 252 * EP2 - 3 * c1 * c1) * Math.pow(d, 6) / 720)) * RAD_TO_DEG;
+	}
+
+	/**
+	 * Compute the same latitude and longitude as {@code new UTMRef(zone, latZone, easting, northing).toLatLng()}
+	 * without creating objects.
+	 *
+	 * @param zone The UTM longitude zone
+	 * @param latZone The latitude band, only used to decide between northern and southern hemisphere
+	 * @param easting The easting in meters
+	 * @param northing The northing in meters
+	 * @param latLon Receives the latitude at index 0 and the longitude at index 1, in degrees
+	 */
+	public static void toLatLng(int zone, char latZone, double easting, double northing, double[] latLon) {
+		double x = easting - FALSE_EASTING;
+		double y = northing;
+		double longitudeOrigin = ((double) zone - 1) * 6 - 180 + 3;
+		if (latZone - 'N' < 0) {
+			y -= FALSE_NORTHING;
+		}
+
+		double mu = y / F0 / MU;
+		double phi1Rad = mu + PHI1 * Math.sin(2 * mu) + PHI2 * Math.sin(4 * mu) + PHI3 * Math.sin(6 * mu);
+
+		double sinPhi1 = Math.sin(phi1Rad);
+		double cosPhi1 = Math.cos(phi1Rad);
+		double tanPhi1 = Math.tan(phi1Rad);
+
+		double n1 = A / Math.sqrt(1 - E2 * sinPhi1 * sinPhi1);
+		double t1 = tanPhi1 * tanPhi1;
+		double c1 = EP2 * cosPhi1 * cosPhi1;
+		double r1 = A * (1 - E2) / Math.pow(1 - E2 * sinPhi1 * sinPhi1, 1.5);
+		double d = x / (n1 * F0);
+
+		latLon[0] = (phi1Rad - (n1 * tanPhi1 / r1) * (d * d / 2
+				- (5 + 3 * t1 + 10 * c1 - 4 * c1 * c1 - 9 * EP2) * Math.pow(d, 4) / 24
+				+ (61 + 90 * t1 + 298 * c1 + 45 * t1 * t1 - 252 * EP2 - 3 * c1 * c1) * Math.pow(d, 6) / 720)) * RAD_TO_DEG;
+		latLon[1] = longitudeOrigin + ((d - (1 + 2 * t1 + c1) * Math.pow(d, 3) / 6
+				+ (5 - 2 * c1 + 28 * t1 - 3 * c1 * c1 + 8 * EP2 + 24 * t1 * t1) * Math.pow(d, 5) / 120) / cosPhi1) * RAD_TO_DEG;
+	}
+
+	private static long squareOf(double latitude, double longitude) {
+		if (latitude < -80 || latitude > 84) {
+			throw new NotDefinedOnUTMGridException("Latitude (" + latitude + ") falls outside the UTM grid.");
+		}
+
+		if (longitude == 180) {
+			longitude = -180;
+		}
+
+		int zone = zone(latitude, longitude);
+		char band = UTMRef.getUTMLatitudeZoneLetter(latitude);
+
+		double latitudeRad = latitude * DEG_TO_RAD;
+		double longitudeRad = longitude * DEG_TO_RAD;
+		double longitudeOriginRad = ((zone - 1) * 6 - 180 + 3) * DEG_TO_RAD;
+
+		double sinLat = Math.sin(latitudeRad);
+		double cosLat = Math.cos(latitudeRad);
+		double tanLat = Math.tan(latitudeRad);
+
+		double n = A / Math.sqrt(1 - E2 * sinLat * sinLat);
+		double t = tanLat * tanLat;
+		double c = EP2 * cosLat * cosLat;
+		double a = cosLat * (longitudeRad - longitudeOriginRad);
+		double m = A * (M1 * latitudeRad - M2 * Math.sin(2 * latitudeRad) +
+				M3 * Math.sin(4 * latitudeRad) - M4 * Math.sin(6 * latitudeRad));
+
+		double easting = F0 * n * (a + (1 - t + c) * Math.pow(a, 3) / 6
+				+ (5 - 18 * t + t * t + 72 * c - 58 * EP2) * Math.pow(a, 5) / 120) + FALSE_EASTING;
+		double northing = F0 * (m + n * tanLat * (a * a / 2
+				+ (5 - t + 9 * c + 4 * c * c) * Math.pow(a, 4) / 24
+				+ (61 - 58 * t + t * t + 600 * c - 330 * EP2) * Math.pow(a, 6) / 720));
+
+		if (latitude < 0) {
+			northing += FALSE_NORTHING;
+		}
+
+		// same range as checked when constructing a UTMRef
+		if (easting < 0 || easting > MAX_EASTING) {
+			throw new NotDefinedOnUTMGridException("Easting (" + easting + ") out of range");
+		}
+		if (northing < 0 || northing > FALSE_NORTHING) {
+			throw new NotDefinedOnUTMGridException("Northing (" + northing + ") out of range");
+		}
+
+		return CellKey.square(zone, band, Math.round(easting) / SQUARE_SIZE, Math.round(northing) / SQUARE_SIZE);
+	}
+
+	private static int zone(double latitude, double longitude) {
+		int zone = (int) Math.floor((longitude + 180) / 6) + 1;
+
+		// Norway
+		if (latitude >= 56 && latitude < 64 && longitude >= 3 && longitude < 12) {
+			return 32;
+		}
+
+		// Svalbard
+		if (latitude >= 72 && latitude < 84) {
+			if (longitude >= 0 && longitude < 9) {
+				return 31;
+			} else if (longitude >= 9 && longitude < 21) {
+				return 33;
+			} else if (longitude >= 21 && longitude < 33) {
+				return 35;
+			} else if (longitude >= 33 && longitude < 42) {
+				return 37;
+			}
+		}
+
+		return zone;
+	}
+}
@@ -0,0 +1,75 @@
+package org.dstadler.ctw.gpx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.dstadler.ctw.utils.CellKey;
+import org.dstadler.ctw.utils.Constants;
+import org.dstadler.ctw.utils.OSMTile;
+import org.dstadler.ctw.utils.UTMRefWithHash;
+import org.junit.jupiter.api.Test;
+
+import uk.me.jstott.jcoord.LatLng;
+
+class CellCacheTest {
+	@Test
+	void testSameCell() {
+		CellCache cache = new CellCache();
+
+		long square = cache.getSquare(48.3, 14.3);
+		long tile = cache.getTile(48.3, 14.3);
+		assertEquals(UTMRefWithHash.getSquareString(new LatLng(48.3, 14.3)), CellKey.formatSquare(square));
+		assertEquals(OSMTile.fromLatLngZoom(48.3, 14.3, Constants.TILE_ZOOM).toCoords(), CellKey.formatTile(tile));
+
+		// points in the same cell return the cached keys
+		assertEquals(square, cache.getSquare(48.3001, 14.3001));
+		assertEquals(tile, cache.getTile(48.3001, 14.3001));
+	}
+
+	@Test
+	void testRandomTracks() {
+		Random random = new Random(4711);
+
+		// include borders of zones, bands and hemispheres and the special zones
+		checkTrack(random, 48.0, 17.99);
+		checkTrack(random, 47.99, 14.21);
+		checkTrack(random, 0.0, 32.5);
+		checkTrack(random, 60.0, 3.0);
+		checkTrack(random, 56.0, 5.0);
+		checkTrack(random, 72.0, 9.0);
+		checkTrack(random, 79.95, 20.0);
+		checkTrack(random, -79.95, 20.0);
+		checkTrack(random, -33.9, 18.4);
+
+		for (int i = 0; i < 20; i++) {
+			checkTrack(random, random.nextDouble() * 160 - 80, random.nextDouble() * 358 - 179);
+		}
+	}
+
+	private static void checkTrack(Random random, double lat, double lon) {
+		CellCache cache = new CellCache();
+		for (int i = 0; i < 2000; i++) {
+			// roughly 10m steps
+			lat += (random.nextDouble() - 0.5) * 0.0002;
+			lon += (random.nextDouble() - 0.5) * 0.0002;
+
+			assertEquals(UTMRefWithHash.getSquareString(new LatLng(lat, lon)), CellKey.formatSquare(cache.getSquare(lat, lon)),
+					"Failed for " + lat + "/" + lon);
+			assertEquals(OSMTile.fromLatLngZoom(lat, lon, Constants.TILE_ZOOM).toCoords(), CellKey.formatTile(cache.getTile(lat, lon)),
+					"Failed for " + lat + "/" + lon);
+		}
+	}
+
+	@Test
+	void testInvalid() {
+		CellCache cache = new CellCache();
+		cache.getTile(89.9, 14.3);
+
+		assertThrows(IllegalArgumentException.class,
+				() -> cache.getTile(90.1, 14.3));
+		assertThrows(IllegalArgumentException.class,
+				() -> cache.getTile(48.3, 180.1));
+	}
+}
@@ -0,0 +1,105 @@
+package org.dstadler.ctw.gpx;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.dstadler.ctw.utils.CellKey;
+import org.junit.jupiter.api.Test;
+
+class CellIndexTest {
+	private static final long TILE_1 = CellKey.tile(14, 1, 1);
+	private static final long TILE_2 = CellKey.tile(14, 1, 2);
+	private static final long TILE_3 = CellKey.tile(14, 1, 3);
+
+	@Test
+	void testEmpty() {
+		CellIndex index = new CellIndex();
+		assertEquals(0, index.size());
+		assertEquals(0, index.getCount(TILE_1));
+		assertFalse(index.contains(TILE_1));
+		assertTrue(index.getCells().isEmpty());
+
+		// cells which were never counted are not retracted
+		index.remove(new long[] { TILE_1 });
+		assertTrue(index.getRetracted().isEmpty());
+		assertEquals(0, index.size());
+		assertTrue(index.toString().contains("size=0"));
+	}
+
+	@Test
+	void testAddRemove() {
+		CellIndex index = new CellIndex();
+		index.add(new long[] { TILE_1, TILE_2 });
+		index.add(new long[] { TILE_2, TILE_3 });
+
+		assertEquals(3, index.size());
+		assertEquals(1, index.getCount(TILE_1));
+		assertEquals(2, index.getCount(TILE_2));
+		assertEquals(1, index.getCount(TILE_3));
+		assertArrayEquals(new long[] { TILE_1, TILE_2, TILE_3 }, index.getCells().toSortedArray());
+
+		index.remove(new long[] { TILE_1, TILE_2 });
+
+		assertArrayEquals(new long[] { TILE_1 }, index.getRetracted().toSortedArray());
+		assertEquals(2, index.size());
+		assertEquals(0, index.getCount(TILE_1));
+		assertEquals(1, index.getCount(TILE_2));
+		assertTrue(index.contains(TILE_2));
+
+		index.remove(new long[] { TILE_2, TILE_3 });
+		assertArrayEquals(new long[] { TILE_1, TILE_2, TILE_3 }, index.getRetracted().toSortedArray());
+		assertEquals(0, index.size());
+
+		// adding again is not retracted any more
+		index.add(new long[] { TILE_2 });
+		assertArrayEquals(new long[] { TILE_1, TILE_3 }, index.getRetracted().toSortedArray());
+
+		// key 0 is a valid tile
+		index.add(new long[] { 0 });
+		assertTrue(index.contains(0));
+		index.remove(new long[] { 0, 0 });
+		assertFalse(index.contains(0));
+		assertTrue(index.getRetracted().contains(0));
+	}
+
+	@Test
+	void testCopies() {
+		CellIndex index = new CellIndex();
+		index.add(new long[] { TILE_1 });
+
+		index.getCells().remove(TILE_1);
+		assertTrue(index.contains(TILE_1));
+	}
+
+	@Test
+	void testMany() {
+		// resizing and removing keeps the counts of the other cells
+		CellIndex index = new CellIndex();
+		Random random = new Random(4711);
+		int[] counts = new int[2000];
+		for (int i = 0; i < 20_000; i++) {
+			int y = random.nextInt(counts.length);
+			if (random.nextInt(3) == 0) {
+				index.remove(new long[] { CellKey.tile(14, 5, y) });
+				counts[y] = Math.max(0, counts[y] - 1);
+			} else {
+				index.add(new long[] { CellKey.tile(14, 5, y) });
+				counts[y]++;
+			}
+		}
+
+		int size = 0;
+		for (int y = 0; y < counts.length; y++) {
+			assertEquals(counts[y], index.getCount(CellKey.tile(14, 5, y)));
+			if (counts[y] > 0) {
+				size++;
+			}
+		}
+		assertEquals(size, index.size());
+		assertEquals(size, index.getCells().size());
+	}
+}
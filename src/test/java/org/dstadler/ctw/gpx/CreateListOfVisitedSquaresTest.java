@@ -1,13 +1,20 @@
 package org.dstadler.ctw.gpx;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -15,19 +22,81 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.stream.Stream;
 
+import org.apache.commons.io.FileUtils;
 import org.dstadler.commons.testing.PrivateConstructorCoverage;
 import org.dstadler.commons.util.ExecutorUtil;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
-import org.xml.sax.SAXException;
+import org.junit.jupiter.api.io.TempDir;
 
 class CreateListOfVisitedSquaresTest {
 	@Test
-	void test() throws IOException, SAXException {
+	void test() throws IOException {
 		// for now simply run the application
 		CreateListOfVisitedSquares.main(new String[0]);
 	}
 
+	@Test
+	void testIncremental(@TempDir File tempDir) throws IOException {
+		File manifest = new File(tempDir, "GPXManifest.txt");
+
+		// first run parses all files and fills the manifest, second run uses the cached results
+		assertSameResult(Map.of(
+				CreateListOfVisitedSquares.PROPERTY_INCREMENTAL, "true",
+				CreateListOfVisitedSquares.PROPERTY_MANIFEST, manifest.getAbsolutePath()), 2);
+		assertTrue(manifest.exists());
+
+		GPXManifest read = GPXManifest.read(manifest, "points");
+		assertTrue(read.size() > 0);
+		assertEquals(new TreeSet<>(Arrays.asList(readFile(CreateListOfVisitedSquares.VISITED_SQUARES_TXT).split("\n"))),
+				new TreeSet<>(read.getSquares()));
+		assertEquals(new TreeSet<>(Arrays.asList(readFile(CreateListOfVisitedSquares.VISITED_TILES_TXT).split("\n"))),
+				new TreeSet<>(read.getTiles()));
+	}
+
+	@Test
+	void testScanner() throws IOException {
+		assertSameResult(Map.of(CreateListOfVisitedSquares.PROPERTY_SCANNER, "true"), 1);
+	}
+
+	@Test
+	void testConcurrentReads() throws IOException {
+		assertSameResult(Map.of(CreateListOfVisitedSquares.PROPERTY_CONCURRENT_READS, "16"), 1);
+	}
+
+	@Test
+	void testNewSince() throws IOException {
+		// no journal goes back as far, so the new cells of the last change are kept
+		assertSameResult(Map.of(CreateListOfVisitedSquares.PROPERTY_NEW_SINCE, "2000-01-01"), 1);
+	}
+
+	/**
+	 * Run the application with the given system-properties and verify
+	 * that each run writes the same lists as a run without them.
+	 */
+	private static void assertSameResult(Map<String, String> properties, int runs) throws IOException {
+		CreateListOfVisitedSquares.main(new String[0]);
+
+		String squares = readFile(CreateListOfVisitedSquares.VISITED_SQUARES_TXT);
+		String tiles = readFile(CreateListOfVisitedSquares.VISITED_TILES_TXT);
+
+		properties.forEach(System::setProperty);
+		try {
+			for (int i = 0; i < runs; i++) {
+				CreateListOfVisitedSquares.main(new String[0]);
+
+				assertEquals(squares, readFile(CreateListOfVisitedSquares.VISITED_SQUARES_TXT), "Run " + i);
+				assertEquals(tiles, readFile(CreateListOfVisitedSquares.VISITED_TILES_TXT), "Run " + i);
+			}
+		} finally {
+			properties.keySet().forEach(System::clearProperty);
+		}
+	}
+
+	private static String readFile(String file) throws IOException {
+		return FileUtils.readFileToString(new File(file), StandardCharsets.UTF_8);
+	}
+
 	// helper method to get coverage of the unused constructor
 	@Test
 	void testPrivateConstructor() throws Exception {
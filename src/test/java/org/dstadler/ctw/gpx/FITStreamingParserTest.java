@@ -0,0 +1,374 @@
+package org.dstadler.ctw.gpx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dstadler.commons.testing.PrivateConstructorCoverage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FITStreamingParserTest {
+	// 2023-05-01T10:00:00Z in seconds since the FIT epoch 1989-12-31T00:00:00Z
+	private static final long TIMESTAMP = Instant.parse("2023-05-01T10:00:00Z").getEpochSecond() - 631065600L;
+
+	private static final int RECORD = 20;
+	private static final int EVENT = 21;
+	private static final int[][] RECORD_FIELDS = { { 253, 4 }, { 0, 4 }, { 1, 4 }, { 2, 2 } };
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	void testRecords() throws IOException {
+		checkRecords(false);
+	}
+
+	@Test
+	void testBigEndian() throws IOException {
+		checkRecords(true);
+	}
+
+	private static void checkRecords(boolean bigEndian) throws IOException {
+		FITWriter writer = new FITWriter(bigEndian);
+		writer.definition(0, RECORD, RECORD_FIELDS);
+		writer.record(0, TIMESTAMP, 48.3, 14.3);
+		writer.record(0, TIMESTAMP + 1, -33.9, -70.6);
+
+		List<Point> points = new ArrayList<>();
+		assertEquals(2, parse(writer.toBytes(), points));
+
+		assertEquals(2, points.size());
+		assertPoint(48.3, 14.3, Instant.parse("2023-05-01T10:00:00Z").toEpochMilli(), points.get(0));
+		assertPoint(-33.9, -70.6, Instant.parse("2023-05-01T10:00:01Z").toEpochMilli(), points.get(1));
+	}
+
+	@Test
+	void testCompressedTimestamp() throws IOException {
+		FITWriter writer = new FITWriter(false);
+		writer.definition(0, RECORD, new int[][] { { 0, 4 }, { 1, 4 } });
+
+		// no timestamp known yet
+		writer.compressed(0, 3);
+		writer.position(48.3, 14.3);
+
+		writer.definition(1, RECORD, RECORD_FIELDS);
+		writer.record(1, TIMESTAMP, 48.3, 14.3);
+
+		// 5-bit offsets relative to the last timestamp, a smaller offset rolls over
+		writer.compressed(0, (int) ((TIMESTAMP + 2) & 0x1F));
+		writer.position(48.31, 14.31);
+		writer.compressed(0, (int) ((TIMESTAMP + 1) & 0x1F));
+		writer.position(48.32, 14.32);
+
+		List<Point> points = new ArrayList<>();
+		assertEquals(4, parse(writer.toBytes(), points));
+
+		long start = Instant.parse("2023-05-01T10:00:00Z").toEpochMilli();
+		assertEquals(TrackPointConsumer.NO_TIME, points.get(0).time);
+		assertEquals(start, points.get(1).time);
+		assertEquals(start + 2000, points.get(2).time);
+		assertEquals(start + 33000, points.get(3).time);
+	}
+
+	@Test
+	void testDeveloperFields() throws IOException {
+		FITWriter writer = new FITWriter(false);
+		writer.definition(0, RECORD, RECORD_FIELDS, new int[][] { { 0, 3 }, { 1, 2 } });
+		writer.record(0, TIMESTAMP, 48.3, 14.3);
+		writer.bytes(new byte[5]);
+		writer.record(0, TIMESTAMP + 1, 48.4, 14.4);
+		writer.bytes(new byte[5]);
+
+		List<Point> points = new ArrayList<>();
+		assertEquals(2, parse(writer.toBytes(), points));
+		assertPoint(48.4, 14.4, Instant.parse("2023-05-01T10:00:01Z").toEpochMilli(), points.get(1));
+	}
+
+	@Test
+	void testOtherMessages() throws IOException {
+		FITWriter writer = new FITWriter(false);
+
+		// file_id with type, manufacturer and an array-field
+		writer.definition(0, 0, new int[][] { { 0, 1 }, { 1, 2 }, { 8, 20 } });
+		writer.bytes(new byte[1 + 23]);
+
+		// record without position, e.g. from an indoor activity
+		writer.definition(1, RECORD, new int[][] { { 253, 4 }, { 3, 1 } });
+		writer.bytes(new byte[] { 1, 0, 0, 0, 0, 0 });
+
+		// record with invalid position
+		writer.definition(2, RECORD, RECORD_FIELDS);
+		writer.record(2, TIMESTAMP, 48.3, 14.3);
+		writer.bytes(new byte[] { 2 });
+		writer.int32(TIMESTAMP);
+		writer.int32(0x7FFFFFFF);
+		writer.int32(0x7FFFFFFF);
+		writer.bytes(new byte[2]);
+
+		List<Point> points = new ArrayList<>();
+		assertEquals(1, parse(writer.toBytes(), points));
+	}
+
+	@Test
+	void testTimerStop() throws IOException {
+		FITWriter writer = new FITWriter(false);
+		writer.definition(0, RECORD, RECORD_FIELDS);
+		writer.definition(1, EVENT, new int[][] { { 253, 4 }, { 3, 4 }, { 0, 1 }, { 1, 1 } });
+
+		writer.record(0, TIMESTAMP, 48.3, 14.3);
+
+		// timer start, other event-types and stop of other events do not end the segment
+		writer.event(1, 0, 0);
+		writer.event(1, 0, 3);
+		writer.event(1, 42, 1);
+		writer.record(0, TIMESTAMP + 1, 48.3, 14.3);
+
+		// timer stop and stop_all
+		writer.event(1, 0, 1);
+		writer.record(0, TIMESTAMP + 2, 48.3, 14.3);
+		writer.event(1, 0, 4);
+
+		List<String> events = new ArrayList<>();
+		int count = FITStreamingParser.parse(new ByteArrayInputStream(writer.toBytes()), "test", new TrackPointConsumer() {
+			@Override
+			public void accept(double lat, double lon, long time) {
+				events.add("point");
+			}
+
+			@Override
+			public void endSegment() {
+				events.add("end");
+			}
+		});
+
+		assertEquals(3, count);
+		assertEquals(List.of("point", "point", "end", "point", "end", "end"), events);
+	}
+
+	@Test
+	void testChained() throws IOException {
+		FITWriter writer1 = new FITWriter(false);
+		writer1.definition(0, RECORD, RECORD_FIELDS);
+		writer1.record(0, TIMESTAMP, 48.3, 14.3);
+
+		// local message types are defined again in the second file
+		FITWriter writer2 = new FITWriter(true);
+		writer2.definition(0, RECORD, RECORD_FIELDS);
+		writer2.record(0, TIMESTAMP, 48.4, 14.4);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(writer1.toBytes());
+		out.write(writer2.toBytes(12));
+
+		List<Point> points = new ArrayList<>();
+		assertEquals(2, parse(out.toByteArray(), points));
+		assertPoint(48.4, 14.4, Instant.parse("2023-05-01T10:00:00Z").toEpochMilli(), points.get(1));
+	}
+
+	@Test
+	void testInvalid() {
+		// empty
+		assertThrows(IOException.class, () -> parse(new byte[0], new ArrayList<>()));
+
+		// header too small
+		assertThrows(IOException.class, () -> parse(new byte[] { 8, 0, 0, 0, 0, 0, 0, 0 }, new ArrayList<>()));
+
+		// missing signature
+		byte[] bytes = new FITWriter(false).toBytes();
+		bytes[9] = 'X';
+		assertThrows(IOException.class, () -> parse(bytes, new ArrayList<>()));
+
+		// truncated
+		FITWriter writer = new FITWriter(false);
+		writer.definition(0, RECORD, RECORD_FIELDS);
+		writer.record(0, TIMESTAMP, 48.3, 14.3);
+		byte[] full = writer.toBytes();
+		byte[] truncated = new byte[full.length - 5];
+		System.arraycopy(full, 0, truncated, 0, truncated.length);
+		assertThrows(IOException.class, () -> parse(truncated, new ArrayList<>()));
+
+		// data-message without definition
+		FITWriter undefined = new FITWriter(false);
+		undefined.record(3, TIMESTAMP, 48.3, 14.3);
+		assertThrows(IOException.class, () -> parse(undefined.toBytes(), new ArrayList<>()));
+	}
+
+	@Test
+	void testFile() throws IOException {
+		File file = new File(tempDir, "test.fit");
+		Files.write(file.toPath(), sampleFIT());
+
+		List<Point> points = new ArrayList<>();
+		assertEquals(2, FITStreamingParser.parse(file, (lat, lon, time) -> points.add(new Point(lat, lon, time))));
+		assertPoint(48.3, 14.3, Instant.parse("2023-05-01T10:00:00Z").toEpochMilli(), points.get(0));
+	}
+
+	@Test
+	void testPrivateConstructor() throws Exception {
+		PrivateConstructorCoverage.executePrivateConstructor(FITStreamingParser.class);
+	}
+
+	/**
+	 * @return A small FIT file with two points near Linz
+	 */
+	static byte[] sampleFIT() throws IOException {
+		FITWriter writer = new FITWriter(false);
+		writer.definition(0, RECORD, RECORD_FIELDS);
+		writer.record(0, TIMESTAMP, 48.3, 14.3);
+		writer.record(0, TIMESTAMP + 1, 48.31, 14.31);
+		return writer.toBytes();
+	}
+
+	private static int parse(byte[] bytes, List<Point> points) throws IOException {
+		return FITStreamingParser.parse(new ByteArrayInputStream(bytes), "test",
+				(lat, lon, time) -> points.add(new Point(lat, lon, time)));
+	}
+
+	private static void assertPoint(double lat, double lon, long time, Point point) {
+		// semicircles have a resolution of roughly 1cm
+		assertEquals(lat, point.lat, 0.000001);
+		assertEquals(lon, point.lon, 0.000001);
+		assertEquals(time, point.time);
+	}
+
+	private static final class Point {
+		private final double lat;
+		private final double lon;
+		private final long time;
+
+		private Point(double lat, double lon, long time) {
+			this.lat = lat;
+			this.lon = lon;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * Writes the records of a FIT file in memory.
+	 */
+	private static final class FITWriter {
+		private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+		private final boolean bigEndian;
+
+		private FITWriter(boolean bigEndian) {
+			this.bigEndian = bigEndian;
+		}
+
+		private void definition(int localType, int globalNumber, int[][] fields) {
+			definition(localType, globalNumber, fields, null);
+		}
+
+		private void definition(int localType, int globalNumber, int[][] fields, int[][] developerFields) {
+			records.write(0x40 | (developerFields != null ? 0x20 : 0) | localType);
+			records.write(0);
+			records.write(bigEndian ? 1 : 0);
+			if (bigEndian) {
+				records.write(globalNumber >> 8);
+				records.write(globalNumber & 0xFF);
+			} else {
+				records.write(globalNumber & 0xFF);
+				records.write(globalNumber >> 8);
+			}
+
+			records.write(fields.length);
+			for (int[] field : fields) {
+				records.write(field[0]);
+				records.write(field[1]);
+				records.write(0);
+			}
+
+			if (developerFields != null) {
+				records.write(developerFields.length);
+				for (int[] field : developerFields) {
+					records.write(field[0]);
+					records.write(field[1]);
+					records.write(0);
+				}
+			}
+		}
+
+		private void record(int localType, long timestamp, double lat, double lon) {
+			records.write(localType);
+			int32(timestamp);
+			position(lat, lon);
+			records.write(0);
+			records.write(0);
+		}
+
+		private void event(int localType, int event, int eventType) {
+			records.write(localType);
+			int32(TIMESTAMP);
+			int32(0);
+			records.write(event);
+			records.write(eventType);
+		}
+
+		private void compressed(int localType, int timeOffset) {
+			records.write(0x80 | (localType << 5) | timeOffset);
+		}
+
+		private void position(double lat, double lon) {
+			int32(Math.round(lat * (1L << 31) / 180));
+			int32(Math.round(lon * (1L << 31) / 180));
+		}
+
+		private void int32(long value) {
+			if (bigEndian) {
+				for (int shift = 24; shift >= 0; shift -= 8) {
+					records.write((int) (value >> shift) & 0xFF);
+				}
+			} else {
+				for (int shift = 0; shift <= 24; shift += 8) {
+					records.write((int) (value >> shift) & 0xFF);
+				}
+			}
+		}
+
+		private void bytes(byte[] bytes) {
+			records.write(bytes, 0, bytes.length);
+		}
+
+		private byte[] toBytes() {
+			return toBytes(14);
+		}
+
+		private byte[] toBytes(int headerSize) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			out.write(headerSize);
+			out.write(0x20);
+			out.write(0x08);
+			out.write(0x08);
+
+			// the data-size is always little endian
+			int size = records.size();
+			for (int shift = 0; shift <= 24; shift += 8) {
+				out.write((size >> shift) & 0xFF);
+			}
+			out.write('.');
+			out.write('F');
+			out.write('I');
+			out.write('T');
+			if (headerSize == 14) {
+				out.write(0);
+				out.write(0);
+			}
+
+			out.write(records.toByteArray(), 0, records.size());
+
+			// the CRC is not verified
+			out.write(0);
+			out.write(0);
+
+			return out.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package org.dstadler.ctw.gpx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.dstadler.commons.testing.PrivateConstructorCoverage;
+import org.junit.jupiter.api.Test;
+
+class GPXByteScannerTest {
+	@Test
+	void testSameAsStreamingParser() throws IOException {
+		for (String name : new String[] { "sample.gpx", "sample2.gpx" }) {
+			File file = new File(CreateListOfVisitedSquares.GPX_DIR, name);
+
+			// the scanner does not report timestamps, so only compare positions
+			List<String> expected = new ArrayList<>();
+			int count = GPXStreamingParser.parse(file, (lat, lon, time) -> expected.add(lat + "/" + lon));
+
+			List<String> actual = new ArrayList<>();
+			assertEquals(count, GPXByteScanner.parse(file, (lat, lon, time) -> actual.add(lat + "/" + lon)));
+
+			assertEquals(expected, actual);
+		}
+	}
+
+	@Test
+	void testScan() throws IOException {
+		List<String> events = new ArrayList<>();
+		int count = scan("""
+				<?xml version="1.0" encoding="UTF-8"?>
+				<gpx xmlns="http://www.topografix.com/GPX/1/1" xmlns:gpx="http://www.topografix.com/GPX/1/1">
+				  <!-- <trkpt lat="0" lon="0"/> -->
+				  <metadata><desc><![CDATA[<trkpt lat="0" lon="0"/>]]></desc></metadata>
+				  <wpt lat="47.0" lon="13.0"/>
+				  <trk>
+				    <trkseg>
+				      <trkpt lat="48.1" lon="14.2"><ele>250.0</ele><time>2023-09-21T15:27:52.000Z</time></trkpt>
+				      <trkpt lon='14.3'
+				          lat = ' 48.2 '/>
+				    </trkseg>
+				    <trkseg>
+				      <gpx:trkpt latitude="0" lat="-33.5" lon="-70.25"></gpx:trkpt>
+				      <trkpt	lat="1"	lon="2"></trkpt>
+				    </gpx:trkseg>
+				  </trk>
+				</gpx>
+				""", recorder(events));
+
+		assertEquals(4, count);
+		assertEquals(List.of("48.1/14.2/" + TrackPointConsumer.NO_TIME, "48.2/14.3/" + TrackPointConsumer.NO_TIME, "end",
+				"-33.5/-70.25/" + TrackPointConsumer.NO_TIME, "1.0/2.0/" + TrackPointConsumer.NO_TIME, "end"), events);
+	}
+
+	@Test
+	void testEmpty() throws IOException {
+		assertEquals(0, scan("", recorder(new ArrayList<>())));
+		assertEquals(0, scan("<", recorder(new ArrayList<>())));
+		assertEquals(0, scan("<gpx><trk><trkseg/></trk></gpx>", recorder(new ArrayList<>())));
+		assertEquals(0, scan("<gpx><!-- unterminated", recorder(new ArrayList<>())));
+	}
+
+	@Test
+	void testBufferPosition() throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap("<trkpt lat=\"1\" lon=\"2\"/><trkpt lat=\"3\" lon=\"4\"/>".getBytes(StandardCharsets.US_ASCII));
+		buffer.position(24);
+
+		List<String> events = new ArrayList<>();
+		assertEquals(1, GPXByteScanner.parse(buffer, "test", recorder(events)));
+		assertEquals(List.of("3.0/4.0/" + TrackPointConsumer.NO_TIME), events);
+		assertEquals(24, buffer.position());
+	}
+
+	@Test
+	void testInvalid() {
+		IOException e = assertThrows(IOException.class,
+				() -> scan("<gpx><trkpt lat=\"1\"/></gpx>", recorder(new ArrayList<>())));
+		assertTrue(e.getMessage().contains("'lon'"), "Had: " + e.getMessage());
+
+		e = assertThrows(IOException.class,
+				() -> scan("<gpx><trkpt lat=\"1\" lon=\"abc\"/></gpx>", recorder(new ArrayList<>())));
+		assertTrue(e.getMessage().contains("'lon'"), "Had: " + e.getMessage());
+
+		assertThrows(IOException.class,
+				() -> scan("<gpx><trkpt lat=\"1\" lon=\"2\"", recorder(new ArrayList<>())));
+		assertThrows(IOException.class,
+				() -> scan("<gpx><trkpt lat=\"1\" lon=\"2/></gpx>", recorder(new ArrayList<>())));
+		assertThrows(IOException.class,
+				() -> scan("<gpx><trkpt lat=\"\" lon=\"2\"/></gpx>", recorder(new ArrayList<>())));
+	}
+
+	@Test
+	void testParseDouble() {
+		for (String value : new String[] { "0", "-0", "-0.0", "48.3", "+48.3", "-180", "180.000000",
+				"48.", ".5", "1e3", "1.5E-3", "0.1234567890123456789", "12345678901234567890",
+				"48.123456789012", "-33.00000000000001", "1.0000000000000002", "9007199254740993",
+				"NaN", "-Infinity", " 48.3 ", "0x1p3", "48.3d" }) {
+			assertEquals(Double.parseDouble(value), parseDouble(value), "For " + value);
+		}
+
+		assertThrows(NumberFormatException.class, () -> parseDouble(""));
+		assertThrows(NumberFormatException.class, () -> parseDouble("-"));
+		assertThrows(NumberFormatException.class, () -> parseDouble("."));
+		assertThrows(NumberFormatException.class, () -> parseDouble("1.2.3"));
+		assertThrows(NumberFormatException.class, () -> parseDouble("48,3"));
+	}
+
+	@Test
+	void testParseDoubleRandom() {
+		Random random = new Random(4872);
+		for (int i = 0; i < 20_000; i++) {
+			double value = (random.nextDouble() - 0.5) * 360;
+
+			// the usual formats of GPX files and the shortest representation
+			String[] formats = {
+					String.format(Locale.ROOT, "%.6f", value),
+					String.format(Locale.ROOT, "%.9f", value),
+					String.format(Locale.ROOT, "%.15f", value),
+					Double.toString(value),
+			};
+
+			for (String format : formats) {
+				assertEquals(Double.doubleToLongBits(Double.parseDouble(format)),
+						Double.doubleToLongBits(parseDouble(format)), "For " + format);
+			}
+		}
+	}
+
+	private static double parseDouble(String value) {
+		byte[] bytes = ("\"" + value + "\"").getBytes(StandardCharsets.US_ASCII);
+		return GPXByteScanner.parseDouble(ByteBuffer.wrap(bytes), 1, bytes.length - 1);
+	}
+
+	private static int scan(String xml, TrackPointConsumer consumer) throws IOException {
+		return GPXByteScanner.parse(ByteBuffer.wrap(xml.getBytes(StandardCharsets.UTF_8)), "test", consumer);
+	}
+
+	private static TrackPointConsumer recorder(List<String> events) {
+		return new TrackPointConsumer() {
+			@Override
+			public void accept(double lat, double lon, long time) {
+				events.add(lat + "/" + lon + "/" + time);
+			}
+
+			@Override
+			public void endSegment() {
+				events.add("end");
+			}
+		};
+	}
+
+	// helper method to get coverage of the unused constructor
+	@Test
+	void testPrivateConstructor() throws Exception {
+		PrivateConstructorCoverage.executePrivateConstructor(GPXByteScanner.class);
+	}
+}
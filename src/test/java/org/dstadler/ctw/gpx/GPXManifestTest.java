@@ -0,0 +1,172 @@
+package org.dstadler.ctw.gpx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dstadler.ctw.utils.CellKey;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GPXManifestTest {
+	@TempDir
+	File tempDir;
+
+	@Test
+	void testReadMissing() throws IOException {
+		GPXManifest manifest = GPXManifest.read(new File(tempDir, "missing.txt"), "points");
+		assertEquals(0, manifest.size());
+		assertEquals("points", manifest.getSettings());
+		assertTrue(manifest.getSquares().isEmpty());
+		assertTrue(manifest.getTiles().isEmpty());
+	}
+
+	@Test
+	void testRoundTrip() throws IOException {
+		GPXManifest manifest = new GPXManifest("points");
+		manifest.put("gpx/some file.gpx", new GPXManifest.Entry(123, 456, "abcdef",
+				Set.of("33U 446000.0 5350000.0", "33U 447000.0 5350000.0"),
+				Set.of("14/8842/5673")));
+		manifest.put("gpx/other.gpx", new GPXManifest.Entry(0, 1, "012345",
+				Set.of("33U 446000.0 5350000.0"),
+				Set.of()));
+
+		File file = new File(tempDir, "sub/manifest.txt");
+		manifest.write(file);
+		assertTrue(file.exists());
+		assertFalse(new File(file.getParentFile(), "manifest.txt.tmp").exists());
+
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		assertEquals("# GPXManifest 1 points", lines.get(0));
+		assertEquals("F 0 1 012345 gpx/other.gpx", lines.get(1));
+		assertEquals("S 33U 446000.0 5350000.0", lines.get(2));
+		assertEquals("F 123 456 abcdef gpx/some file.gpx", lines.get(3));
+
+		GPXManifest read = GPXManifest.read(file, "points");
+		assertEquals(2, read.size());
+		assertEquals(manifest.getPaths(), read.getPaths());
+		assertEquals(manifest.getSquares(), read.getSquares());
+		assertEquals(manifest.getTiles(), read.getTiles());
+
+		GPXManifest.Entry entry = read.get("gpx/some file.gpx");
+		assertNotNull(entry);
+		assertEquals(123, entry.getSize());
+		assertEquals(456, entry.getLastModified());
+		assertEquals("abcdef", entry.getHash());
+		assertEquals(Set.of("14/8842/5673"), entry.getTiles());
+
+		assertEquals(789, entry.withLastModified(789).getLastModified());
+		assertEquals(entry.getSquares(), entry.withLastModified(789).getSquares());
+
+		// different settings invalidate the manifest
+		assertEquals(0, GPXManifest.read(file, "segments").size());
+	}
+
+	@Test
+	void testRetainAll() {
+		GPXManifest manifest = new GPXManifest("points");
+		manifest.put("a.gpx", new GPXManifest.Entry(1, 1, "a", Set.of("33U 446000.0 5350000.0"), Set.of("14/1/1")));
+		manifest.put("b.gpx", new GPXManifest.Entry(1, 1, "b", Set.of("33U 447000.0 5350000.0"), Set.of("14/1/2")));
+
+		Map<String, GPXManifest.Entry> removed = manifest.retainAll(List.of("a.gpx", "c.gpx"));
+		assertEquals(Set.of("b.gpx"), removed.keySet());
+		assertEquals(Set.of("a.gpx"), manifest.getPaths());
+		assertNull(manifest.get("b.gpx"));
+		assertEquals(Set.of("33U 446000.0 5350000.0"), manifest.getSquares());
+		assertEquals(Set.of("14/1/1"), manifest.getTiles());
+	}
+
+	@Test
+	void testRetract() {
+		GPXManifest manifest = new GPXManifest("points");
+		manifest.put("a.gpx", new GPXManifest.Entry(1, 1, "a",
+				Set.of("33U 446000.0 5350000.0", "33U 447000.0 5350000.0"), Set.of("14/1/1", "14/1/2")));
+		manifest.put("b.gpx", new GPXManifest.Entry(1, 1, "b",
+				Set.of("33U 447000.0 5350000.0"), Set.of("14/1/2")));
+
+		assertEquals(2, manifest.getSquareIndex().getCount(CellKey.parseSquare("33U 447000.0 5350000.0")));
+		assertEquals(1, manifest.getTileIndex().getCount(CellKey.parseTile("14/1/1")));
+		assertTrue(manifest.getRetractedSquares().isEmpty());
+		assertTrue(manifest.getRetractedTiles().isEmpty());
+
+		// touching a file does not retract anything
+		manifest.put("a.gpx", manifest.get("a.gpx").withLastModified(2));
+		assertEquals(2, manifest.getSquareIndex().getCount(CellKey.parseSquare("33U 447000.0 5350000.0")));
+		assertTrue(manifest.getRetractedSquares().isEmpty());
+
+		// replacing a file retracts cells which are not covered any more
+		manifest.put("a.gpx", new GPXManifest.Entry(2, 2, "c",
+				Set.of("33U 447000.0 5350000.0"), Set.of("14/1/2", "14/1/3")));
+		assertEquals(Set.of("33U 447000.0 5350000.0"), manifest.getSquares());
+		assertEquals(Set.of("14/1/2", "14/1/3"), manifest.getTiles());
+		assertEquals(Set.of("33U 446000.0 5350000.0"), manifest.getRetractedSquares());
+		assertEquals(Set.of("14/1/1"), manifest.getRetractedTiles());
+
+		// removing one of two files keeps shared cells
+		manifest.retainAll(List.of("a.gpx"));
+		assertEquals(Set.of("33U 447000.0 5350000.0"), manifest.getSquares());
+		assertEquals(1, manifest.getSquareIndex().getCount(CellKey.parseSquare("33U 447000.0 5350000.0")));
+		assertEquals(Set.of("33U 446000.0 5350000.0"), manifest.getRetractedSquares());
+
+		// removing the last file retracts all cells
+		manifest.retainAll(List.of());
+		assertTrue(manifest.getSquares().isEmpty());
+		assertTrue(manifest.getTiles().isEmpty());
+		assertEquals(Set.of("33U 446000.0 5350000.0", "33U 447000.0 5350000.0"), manifest.getRetractedSquares());
+		assertEquals(Set.of("14/1/1", "14/1/2", "14/1/3"), manifest.getRetractedTiles());
+
+		// re-adding a cell removes it from the retracted ones
+		manifest.put("d.gpx", new GPXManifest.Entry(1, 1, "d",
+				Set.of("33U 446000.0 5350000.0"), Set.of("14/1/1")));
+		assertEquals(Set.of("33U 447000.0 5350000.0"), manifest.getRetractedSquares());
+		assertEquals(Set.of("14/1/2", "14/1/3"), manifest.getRetractedTiles());
+	}
+
+	@Test
+	void testMatches() throws IOException {
+		File file = new File(tempDir, "test.gpx");
+		Files.writeString(file.toPath(), "<gpx/>");
+
+		GPXManifest.Entry entry = new GPXManifest.Entry(file.length(), file.lastModified(), "a", Set.of(), Set.of());
+		assertTrue(entry.matches(GPXSource.ofFile(file)));
+		assertFalse(entry.withLastModified(file.lastModified() - 1000).matches(GPXSource.ofFile(file)));
+	}
+
+	@Test
+	void testInvalid() throws IOException {
+		assertThrows(IllegalArgumentException.class,
+				() -> new GPXManifest("a\nb"));
+		assertThrows(IllegalArgumentException.class,
+				() -> new GPXManifest.Entry(1, 1, "a b", Set.of(), Set.of()));
+		assertThrows(IllegalArgumentException.class,
+				() -> new GPXManifest("points").put("a\nb", new GPXManifest.Entry(1, 1, "a", Set.of(), Set.of())));
+
+		File file = new File(tempDir, "invalid.txt");
+		Files.writeString(file.toPath(), "# GPXManifest 1 points\nS 33U 446000.0 5350000.0\n");
+		assertThrows(IllegalStateException.class,
+				() -> GPXManifest.read(file, "points"));
+
+		Files.writeString(file.toPath(), "# GPXManifest 1 points\nF 1 2 abc\n");
+		assertThrows(IllegalStateException.class,
+				() -> GPXManifest.read(file, "points"));
+
+		Files.writeString(file.toPath(), "# GPXManifest 1 points\nX something\n");
+		assertThrows(IllegalStateException.class,
+				() -> GPXManifest.read(file, "points"));
+
+		Files.writeString(file.toPath(), "# GPXManifest 1 points\nF 1 2 abc a.gpx\nT 14/1\n");
+		assertThrows(IllegalStateException.class,
+				() -> GPXManifest.read(file, "points"));
+	}
+}
@@ -0,0 +1,232 @@
+package org.dstadler.ctw.gpx;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GPXSourceTest {
+	private static final File SAMPLE = new File(CreateListOfVisitedSquares.GPX_DIR, "sample.gpx");
+	private static final File SAMPLE2 = new File(CreateListOfVisitedSquares.GPX_DIR, "sample2.gpx");
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	void testNames() {
+		assertTrue(GPXSource.isGPXFile("track.gpx"));
+		assertTrue(GPXSource.isGPXFile("TRACK.GPX"));
+		assertTrue(GPXSource.isGPXFile("track.gpx.gz"));
+		assertTrue(GPXSource.isGPXFile("track.fit"));
+		assertTrue(GPXSource.isGPXFile("TRACK.FIT.GZ"));
+		assertFalse(GPXSource.isGPXFile("track.gz"));
+		assertFalse(GPXSource.isGPXFile("track.zip"));
+
+		assertTrue(GPXSource.isZipFile("export.zip"));
+		assertTrue(GPXSource.isZipFile("EXPORT.ZIP"));
+		assertFalse(GPXSource.isZipFile("track.gpx"));
+	}
+
+	@Test
+	void testFile() throws IOException {
+		GPXSource source = GPXSource.ofFile(SAMPLE);
+		assertEquals(SAMPLE.getPath(), source.getPath());
+		assertEquals(SAMPLE.getPath(), source.toString());
+		assertEquals(SAMPLE, source.getFile());
+		assertEquals(SAMPLE.length(), source.getSize());
+		assertEquals(SAMPLE.lastModified(), source.getLastModified());
+
+		assertTrue(source.isMappable());
+		assertContent(SAMPLE, source);
+
+		assertThrows(IllegalArgumentException.class,
+				() -> GPXSource.ofFile(new File(tempDir, "track.txt")));
+	}
+
+	@Test
+	void testGzip() throws IOException {
+		File file = new File(tempDir, "sample.gpx.gz");
+		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+			Files.copy(SAMPLE.toPath(), out);
+		}
+
+		GPXSource source = GPXSource.ofFile(file);
+		assertEquals(file.length(), source.getSize());
+		assertFalse(source.isMappable());
+		assertContent(SAMPLE, source);
+
+		// parsing gives the same points as the plain file
+		try (InputStream stream = source.open()) {
+			assertEquals(GPXStreamingParser.parse(SAMPLE, (lat, lon, time) -> {}),
+					GPXStreamingParser.parse(stream, source.getPath(), (lat, lon, time) -> {}));
+		}
+	}
+
+	@Test
+	void testZip() throws IOException {
+		File file = new File(tempDir, "export.zip");
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+			addEntry(out, "sample.gpx", SAMPLE);
+			out.putNextEntry(new ZipEntry("sub/"));
+			out.closeEntry();
+			addEntry(out, "sub/sample2.gpx", SAMPLE2);
+			addEntry(out, "readme.txt", SAMPLE);
+		}
+
+		List<GPXSource> sources = GPXSource.ofZipFile(file);
+		assertEquals(List.of(file.getPath() + "!/sample.gpx", file.getPath() + "!/sub/sample2.gpx"),
+				sources.stream().map(GPXSource::getPath).collect(Collectors.toList()));
+
+		assertEquals(file, sources.get(0).getFile());
+		assertFalse(sources.get(0).isMappable());
+		assertEquals(SAMPLE.length(), sources.get(0).getSize());
+		assertEquals(SAMPLE2.length(), sources.get(1).getSize());
+
+		assertContent(SAMPLE, sources.get(0));
+		assertContent(SAMPLE2, sources.get(1));
+
+		// entries can be read concurrently
+		try (InputStream stream1 = sources.get(0).open();
+			 InputStream stream2 = sources.get(1).open()) {
+			assertArrayEquals(Files.readAllBytes(SAMPLE2.toPath()), stream2.readAllBytes());
+			assertArrayEquals(Files.readAllBytes(SAMPLE.toPath()), stream1.readAllBytes());
+		}
+
+		// entry was removed in the meantime
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+			addEntry(out, "other.gpx", SAMPLE);
+		}
+		assertThrows(IOException.class, () -> sources.get(0).open());
+	}
+
+	@Test
+	void testZipShared() throws IOException {
+		File file = new File(tempDir, "export.zip");
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+			addEntry(out, "sample.gpx", SAMPLE);
+			addEntry(out, "sample2.gpx", SAMPLE2);
+		}
+		List<GPXSource> sources = GPXSource.ofZipFile(file);
+
+		// replace the archive, the entries still read via the handle which listed them
+		File other = new File(tempDir, "other.zip");
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(other))) {
+			addEntry(out, "other.gpx", SAMPLE);
+		}
+		Files.move(other.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		assertContent(SAMPLE, sources.get(0));
+		assertContent(SAMPLE, sources.get(0).load());
+
+		// after all entries are released the archive is opened again
+		sources.get(1).release();
+		sources.get(1).release();
+		assertThrows(IOException.class, () -> sources.get(1).open());
+		assertThrows(IOException.class, () -> sources.get(0).load());
+	}
+
+	@Test
+	void testFIT() throws IOException {
+		File file = new File(tempDir, "track.fit.gz");
+		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+			out.write(FITStreamingParserTest.sampleFIT());
+		}
+
+		File zipFile = new File(tempDir, "export.zip");
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+			out.putNextEntry(new ZipEntry("track.fit"));
+			out.write(FITStreamingParserTest.sampleFIT());
+			out.closeEntry();
+		}
+
+		List<GPXSource> sources = new ArrayList<>(GPXSource.ofZipFile(zipFile));
+		assertEquals(1, sources.size());
+		sources.add(GPXSource.ofFile(file));
+
+		for (GPXSource source : sources) {
+			List<double[]> points = new ArrayList<>();
+			try (InputStream stream = source.open()) {
+				assertEquals(2, source.parse(stream, (lat, lon, time) -> points.add(new double[] { lat, lon })));
+			}
+			assertEquals(48.3, points.get(0)[0], 0.000001);
+			assertEquals(14.3, points.get(0)[1], 0.000001);
+		}
+	}
+
+	@Test
+	void testLoad() throws IOException {
+		File gzFile = new File(tempDir, "sample.gpx.gz");
+		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gzFile))) {
+			Files.copy(SAMPLE.toPath(), out);
+		}
+		File zipFile = new File(tempDir, "export.zip");
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+			addEntry(out, "sample.gpx", SAMPLE);
+		}
+
+		List<GPXSource> sources = new ArrayList<>(GPXSource.ofZipFile(zipFile));
+		sources.add(GPXSource.ofFile(gzFile));
+		sources.add(GPXSource.ofFile(SAMPLE));
+
+		for (GPXSource source : sources) {
+			assertFalse(source.isLoaded());
+
+			GPXSource loaded = source.load();
+			assertTrue(loaded.isLoaded());
+			assertSame(loaded, loaded.load());
+			assertEquals(source.getPath(), loaded.getPath());
+			assertEquals(source.getSize(), loaded.getSize());
+			assertEquals(source.getLastModified(), loaded.getLastModified());
+			assertContent(SAMPLE, loaded);
+		}
+
+		// the data is not read from the files again
+		GPXSource loaded = sources.get(0).load();
+		GPXSource loadedGz = sources.get(1).load();
+		assertTrue(zipFile.delete());
+		assertTrue(gzFile.delete());
+		assertContent(SAMPLE, loaded);
+		assertContent(SAMPLE, loadedGz);
+		assertThrows(IOException.class, () -> sources.get(0).load());
+		assertThrows(IOException.class, () -> sources.get(1).load());
+
+		// loaded zip entries can be scanned from memory
+		assertTrue(loaded.isMappable());
+		assertFalse(sources.get(0).isMappable());
+		assertEquals(ByteBuffer.wrap(Files.readAllBytes(SAMPLE.toPath())), loaded.map());
+		assertEquals(ByteBuffer.wrap(Files.readAllBytes(SAMPLE.toPath())), sources.get(2).map());
+		assertThrows(IllegalStateException.class, () -> sources.get(0).map());
+	}
+
+	private static void addEntry(ZipOutputStream out, String name, File content) throws IOException {
+		out.putNextEntry(new ZipEntry(name));
+		Files.copy(content.toPath(), out);
+		out.closeEntry();
+	}
+
+	private static void assertContent(File expected, GPXSource source) throws IOException {
+		try (InputStream stream = source.open()) {
+			assertArrayEquals(Files.readAllBytes(expected.toPath()), stream.readAllBytes());
+		}
+	}
+}
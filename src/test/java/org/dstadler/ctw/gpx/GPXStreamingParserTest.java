@@ -0,0 +1,169 @@
+package org.dstadler.ctw.gpx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.dstadler.commons.gpx.GPXTrackpointsParser;
+import org.dstadler.commons.gpx.TrackPoint;
+import org.dstadler.commons.testing.PrivateConstructorCoverage;
+import org.junit.jupiter.api.Test;
+
+class GPXStreamingParserTest {
+	private static final File SAMPLE_GPX = new File(CreateListOfVisitedSquares.GPX_DIR, "sample.gpx");
+
+	@Test
+	void testSameAsGPXTrackpointsParser() throws IOException {
+		SortedMap<Long, TrackPoint> expected = GPXTrackpointsParser.parseContent(SAMPLE_GPX, false);
+
+		List<double[]> actual = new ArrayList<>();
+		int count = GPXStreamingParser.parse(SAMPLE_GPX,
+				(lat, lon, time) -> actual.add(new double[] { lat, lon }));
+
+		assertEquals(expected.size(), count);
+		assertEquals(expected.size(), actual.size());
+
+		// the sample-file is ordered by time, so points are reported in the same order
+		int i = 0;
+		for (TrackPoint trackPoint : expected.values()) {
+			double[] point = actual.get(i++);
+			assertEquals(trackPoint.getLatitude(), point[0], "Point " + i);
+			assertEquals(trackPoint.getLongitude(), point[1], "Point " + i);
+		}
+	}
+
+	@Test
+	void testStream() throws IOException {
+		List<double[]> points = new ArrayList<>();
+		List<Long> times = new ArrayList<>();
+
+		int count = parse("""
+				<?xml version="1.0" encoding="UTF-8"?>
+				<gpx xmlns="http://www.topografix.com/GPX/1/1" xmlns:gpx="http://www.topografix.com/GPX/1/1">
+				  <metadata><time>2020-01-01T00:00:00Z</time></metadata>
+				  <trk>
+				    <trkseg>
+				      <trkpt lat="48.1" lon="14.2"><ele>250.0</ele><time>2023-09-21T15:27:52.000Z</time></trkpt>
+				      <trkpt lat="48.2" lon="14.3"/>
+				    </trkseg>
+				    <trkseg>
+				      <gpx:trkpt lat="-33.5" lon="-70.25"><time>invalid</time></gpx:trkpt>
+				      <trkpt lat="1" lon="2"><time>2023-09-21T17:27:53+02:00</time></trkpt>
+				    </trkseg>
+				  </trk>
+				</gpx>
+				""", (lat, lon, time) -> {
+			points.add(new double[] { lat, lon });
+			times.add(time);
+		});
+
+		assertEquals(4, count);
+		assertEquals(4, points.size());
+
+		assertEquals(48.1, points.get(0)[0]);
+		assertEquals(14.2, points.get(0)[1]);
+		assertEquals(48.2, points.get(1)[0]);
+		assertEquals(14.3, points.get(1)[1]);
+		assertEquals(-33.5, points.get(2)[0]);
+		assertEquals(-70.25, points.get(2)[1]);
+		assertEquals(1.0, points.get(3)[0]);
+		assertEquals(2.0, points.get(3)[1]);
+
+		assertEquals(1695310072000L, (long) times.get(0));
+		assertEquals(TrackPointConsumer.NO_TIME, (long) times.get(1));
+		assertEquals(TrackPointConsumer.NO_TIME, (long) times.get(2));
+		assertEquals(1695310073000L, (long) times.get(3));
+	}
+
+	@Test
+	void testEndSegment() throws IOException {
+		List<String> events = new ArrayList<>();
+		parse("<gpx><trk><trkseg><trkpt lat=\"1\" lon=\"2\"/><trkpt lat=\"3\" lon=\"4\"/></trkseg>" +
+				"<trkseg/><trkseg><trkpt lat=\"5\" lon=\"6\"/></trkseg></trk></gpx>", new TrackPointConsumer() {
+			@Override
+			public void accept(double lat, double lon, long time) {
+				events.add(lat + "/" + lon);
+			}
+
+			@Override
+			public void endSegment() {
+				events.add("end");
+			}
+		});
+
+		assertEquals(List.of("1.0/2.0", "3.0/4.0", "end", "end", "5.0/6.0", "end"), events);
+	}
+
+	@Test
+	void testEmpty() throws IOException {
+		assertEquals(0, parse("<gpx><trk><trkseg/></trk></gpx>",
+				(lat, lon, time) -> {
+					throw new IllegalStateException("Should not be called");
+				}));
+	}
+
+	@Test
+	void testStreamNotClosed() throws IOException {
+		AtomicBoolean closed = new AtomicBoolean();
+		ByteArrayInputStream stream = new ByteArrayInputStream(
+				"<gpx><trkpt lat=\"1\" lon=\"2\"/></gpx>".getBytes(StandardCharsets.UTF_8)) {
+			@Override
+			public void close() {
+				closed.set(true);
+			}
+		};
+		assertEquals(1, GPXStreamingParser.parse(stream, "test", (lat, lon, time) -> {}));
+
+		assertFalse(closed.get(), "The stream should not be closed by the parser");
+	}
+
+	@Test
+	void testInvalid() {
+		assertThrows(IOException.class,
+				() -> parse("<gpx><trk><trkseg><trkpt lat=\"1\" lon=\"2\"></trkseg></trk></gpx>",
+						(lat, lon, time) -> {}));
+
+		IOException e = assertThrows(IOException.class,
+				() -> parse("<gpx><trkpt lat=\"1\"/></gpx>",
+						(lat, lon, time) -> {}));
+		assertTrue(e.getMessage().contains("'lon'"), "Had: " + e.getMessage());
+
+		e = assertThrows(IOException.class,
+				() -> parse("<gpx><trkpt lat=\"1\" lon=\"abc\"/></gpx>",
+						(lat, lon, time) -> {}));
+		assertTrue(e.getMessage().contains("abc"), "Had: " + e.getMessage());
+	}
+
+	@Test
+	void testNoExternalEntities() {
+		// DTDs are disabled, so an entity-reference cannot be resolved
+		assertThrows(IOException.class,
+				() -> parse("""
+						<?xml version="1.0"?>
+						<!DOCTYPE gpx [<!ENTITY xxe SYSTEM "file:///etc/passwd">]>
+						<gpx><trkpt lat="1" lon="2"><time>&xxe;</time></trkpt></gpx>
+						""",
+						(lat, lon, time) -> {}));
+	}
+
+	private static int parse(String xml, TrackPointConsumer consumer) throws IOException {
+		return GPXStreamingParser.parse(
+				new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), "test", consumer);
+	}
+
+	// helper method to get coverage of the unused constructor
+	@Test
+	void testPrivateConstructor() throws Exception {
+		PrivateConstructorCoverage.executePrivateConstructor(GPXStreamingParser.class);
+	}
+}
@@ -0,0 +1,187 @@
+package org.dstadler.ctw.gpx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IngestionPipelineTest {
+	private static final File SAMPLE = new File(CreateListOfVisitedSquares.GPX_DIR, "sample.gpx");
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	void testRun() throws IOException {
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+		List<String> paths = new ArrayList<>();
+		new IngestionPipeline(2, 1, 1).run(CreateListOfVisitedSquares.GPX_DIR,
+				source -> {
+					threads.add(Thread.currentThread().getName());
+					return source.getPath();
+				},
+				path -> {
+					threads.add(Thread.currentThread().getName());
+					paths.add(path);
+				});
+
+		assertEquals(Set.of(new File(CreateListOfVisitedSquares.GPX_DIR, "sample.gpx").getPath(),
+						new File(CreateListOfVisitedSquares.GPX_DIR, "sample2.gpx").getPath()),
+				new TreeSet<>(paths));
+
+		// aggregation is done by the calling thread
+		assertTrue(threads.contains(Thread.currentThread().getName()), "Had: " + threads);
+	}
+
+	@Test
+	void testManyFiles() throws IOException {
+		// more files than fit into the queues
+		for (int i = 0; i < 50; i++) {
+			Files.copy(SAMPLE.toPath(), new File(tempDir, "track" + i + ".gpx").toPath());
+		}
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(new File(tempDir, "export.zip").toPath()))) {
+			for (int i = 0; i < 10; i++) {
+				zip.putNextEntry(new ZipEntry("track" + i + ".gpx"));
+				Files.copy(SAMPLE.toPath(), zip);
+				zip.closeEntry();
+			}
+		}
+		assertTrue(new File(tempDir, "other.txt").createNewFile());
+
+		List<Integer> counts = new ArrayList<>();
+		new IngestionPipeline(3, 2, 2).run(tempDir,
+				source -> {
+					try (InputStream stream = source.open()) {
+						return source.parse(stream, (lat, lon, time) -> {});
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				},
+				counts::add);
+
+		assertEquals(60, counts.size());
+		assertEquals(1, counts.stream().distinct().count(), "Had: " + counts);
+	}
+
+	@Test
+	void testConcurrentReads() throws IOException {
+		for (int i = 0; i < 50; i++) {
+			Files.copy(SAMPLE.toPath(), new File(tempDir, "track" + i + ".gpx").toPath());
+		}
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(new File(tempDir, "export.zip").toPath()))) {
+			for (int i = 0; i < 10; i++) {
+				zip.putNextEntry(new ZipEntry("track" + i + ".gpx"));
+				Files.copy(SAMPLE.toPath(), zip);
+				zip.closeEntry();
+			}
+		}
+
+		List<Integer> counts = new ArrayList<>();
+		new IngestionPipeline(2, 2, 2, 8).run(tempDir,
+				source -> {
+					// files are read before parsing them
+					assertTrue(source.isLoaded(), "Had: " + source);
+					try (InputStream stream = source.open()) {
+						return source.parse(stream, (lat, lon, time) -> {});
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				},
+				counts::add);
+
+		assertEquals(60, counts.size());
+		assertEquals(1, counts.stream().distinct().count(), "Had: " + counts);
+	}
+
+	@Test
+	void testReadFails() throws IOException {
+		for (int i = 0; i < 20; i++) {
+			Files.copy(SAMPLE.toPath(), new File(tempDir, "track" + i + ".gpx").toPath());
+		}
+
+		// a dangling link is listed, but cannot be read
+		Files.createSymbolicLink(new File(tempDir, "missing.gpx").toPath(), new File(tempDir, "notexisting").toPath());
+
+		assertThrows(IOException.class,
+				() -> new IngestionPipeline(1, 1, 1, 2).run(tempDir, GPXSource::getPath, result -> {}));
+	}
+
+	@Test
+	void testNullResults() throws IOException {
+		List<String> paths = new ArrayList<>();
+		new IngestionPipeline(1, 1, 1).run(CreateListOfVisitedSquares.GPX_DIR,
+				source -> source.getPath().endsWith("sample.gpx") ? source.getPath() : null,
+				paths::add);
+
+		assertEquals(List.of(SAMPLE.getPath()), paths);
+	}
+
+	@Test
+	void testParserFails() throws IOException {
+		for (int i = 0; i < 20; i++) {
+			Files.copy(SAMPLE.toPath(), new File(tempDir, "track" + i + ".gpx").toPath());
+		}
+
+		// the failure is reported without blocking on the full queues
+		IllegalStateException e = assertThrows(IllegalStateException.class,
+				() -> new IngestionPipeline(1, 1, 1).run(tempDir,
+						source -> {
+							throw new IllegalStateException("Failed for " + source);
+						},
+						result -> {}));
+		assertTrue(e.getMessage().startsWith("Failed for "), "Had: " + e.getMessage());
+	}
+
+	@Test
+	void testAggregatorFails() throws IOException {
+		for (int i = 0; i < 20; i++) {
+			Files.copy(SAMPLE.toPath(), new File(tempDir, "track" + i + ".gpx").toPath());
+		}
+
+		IllegalStateException e = assertThrows(IllegalStateException.class,
+				() -> new IngestionPipeline(2, 1, 1).run(tempDir,
+						GPXSource::getPath,
+						result -> {
+							throw new IllegalStateException("Failed for " + result);
+						}));
+		assertTrue(e.getMessage().startsWith("Failed for "), "Had: " + e.getMessage());
+	}
+
+	@Test
+	void testInvalidZip() throws IOException {
+		Files.writeString(new File(tempDir, "broken.zip").toPath(), "no zip");
+
+		assertThrows(IOException.class,
+				() -> new IngestionPipeline(1, 1, 1).run(tempDir, GPXSource::getPath, result -> {}));
+	}
+
+	@Test
+	void testInvalid() {
+		assertThrows(IllegalArgumentException.class,
+				() -> new IngestionPipeline(0, 1, 1));
+		assertThrows(IllegalArgumentException.class,
+				() -> new IngestionPipeline(1, 0, 1));
+		assertThrows(IllegalArgumentException.class,
+				() -> new IngestionPipeline(1, 1, 0));
+		assertThrows(IllegalArgumentException.class,
+				() -> new IngestionPipeline(1, 1, 1, -1));
+
+		assertThrows(IllegalStateException.class,
+				() -> new IngestionPipeline(1, 1, 1).run(new File(tempDir, "notexisting"),
+						GPXSource::getPath, result -> {}));
+	}
+}
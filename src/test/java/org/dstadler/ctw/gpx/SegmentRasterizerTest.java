@@ -0,0 +1,199 @@
+package org.dstadler.ctw.gpx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dstadler.ctw.utils.CellKey;
+import org.dstadler.ctw.utils.Constants;
+import org.dstadler.ctw.utils.LongHashSet;
+import org.dstadler.ctw.utils.OSMTile;
+import org.dstadler.ctw.utils.UTMRefWithHash;
+import org.junit.jupiter.api.Test;
+
+import uk.me.jstott.jcoord.LatLng;
+
+class SegmentRasterizerTest {
+	@Test
+	void testWalk() {
+		assertEquals(List.of(), walk(0.5, 0.5, 0.7, 0.9));
+		assertEquals(List.of(), walk(0.5, 0.5, 1.5, 0.5));
+		assertEquals(List.of("1/0", "2/0"), walk(0.5, 0.5, 3.5, 0.5));
+		assertEquals(List.of("2/0", "1/0"), walk(3.5, 0.5, 0.5, 0.5));
+		assertEquals(List.of("0/1", "0/2"), walk(0.5, 0.5, 0.5, 3.5));
+		assertEquals(List.of("0/-1"), walk(0.5, 0.5, 0.5, -1.5));
+
+		// diagonal, one of the cells at the corner is included
+		assertEquals(List.of("0/1"), walk(0.5, 0.5, 1.5, 1.5));
+
+		// flat diagonal
+		assertEquals(List.of("1/0", "2/0", "2/1", "3/1"), walk(0.1, 0.1, 4.1, 1.9));
+	}
+
+	@Test
+	void testWalkPointsInsideCells() {
+		List<double[]> points = new ArrayList<>();
+		SegmentRasterizer.walk(0.3, 0.2, 7.9, 3.1, (x, y, px, py) -> {
+			assertTrue(px >= x && px <= x + 1, "Had " + px + " for " + x);
+			assertTrue(py >= y && py <= y + 1, "Had " + py + " for " + y);
+			points.add(new double[] { px, py });
+		});
+
+		assertEquals(7 + 3 - 1, points.size());
+	}
+
+	private static List<String> walk(double x1, double y1, double x2, double y2) {
+		List<String> cells = new ArrayList<>();
+		SegmentRasterizer.walk(x1, y1, x2, y2, (x, y, px, py) -> cells.add(x + "/" + y));
+		return cells;
+	}
+
+	@Test
+	void testSinglePoint() {
+		LongHashSet squares = new LongHashSet();
+		LongHashSet tiles = new LongHashSet();
+		SegmentRasterizer rasterizer = new SegmentRasterizer(squares::add, tiles::add, SegmentRasterizer.DEFAULT_MAX_GAP);
+
+		rasterizer.accept(48.3, 14.3, TrackPointConsumer.NO_TIME);
+		rasterizer.accept(48.3, 14.3, TrackPointConsumer.NO_TIME);
+
+		assertEquals(Set.of(UTMRefWithHash.getSquareString(new LatLng(48.3, 14.3))), CellKey.toSquareStrings(squares));
+		assertEquals(Set.of(OSMTile.fromLatLngZoom(48.3, 14.3, Constants.TILE_ZOOM).toCoords()), CellKey.toTileStrings(tiles));
+	}
+
+	@Test
+	void testSameAsDensePoints() {
+		// crosses from UTM zone 33 into zone 34 at longitude 18
+		checkSameAsDensePoints(48.10, 17.95, 48.12, 18.05);
+
+		// crosses latitude-band from T to U at latitude 48
+		checkSameAsDensePoints(47.97, 14.21, 48.04, 14.28);
+
+		// southern hemisphere and westward
+		checkSameAsDensePoints(-33.91, 18.46, -33.95, 18.39);
+
+		// crosses the equator
+		checkSameAsDensePoints(-0.02, 32.51, 0.03, 32.54);
+	}
+
+	private static void checkSameAsDensePoints(double lat1, double lon1, double lat2, double lon2) {
+		LongHashSet squareKeys = new LongHashSet();
+		LongHashSet tileKeys = new LongHashSet();
+		SegmentRasterizer rasterizer = new SegmentRasterizer(squareKeys::add, tileKeys::add, 20_000);
+		rasterizer.accept(lat1, lon1, TrackPointConsumer.NO_TIME);
+		rasterizer.accept(lat2, lon2, TrackPointConsumer.NO_TIME);
+
+		Set<String> squares = CellKey.toSquareStrings(squareKeys);
+		Set<String> tiles = CellKey.toTileStrings(tileKeys);
+
+		// a point roughly every meter along the line
+		Set<String> denseSquares = new HashSet<>();
+		Set<String> denseTiles = new HashSet<>();
+		int count = (int) SegmentRasterizer.distance(lat1, lon1, lat2, lon2);
+		for (int i = 0; i <= count; i++) {
+			double lat = lat1 + (lat2 - lat1) * i / count;
+			double lon = lon1 + (lon2 - lon1) * i / count;
+
+			denseSquares.add(UTMRefWithHash.getSquareString(new LatLng(lat, lon)));
+			denseTiles.add(OSMTile.fromLatLngZoom(lat, lon, Constants.TILE_ZOOM).toCoords());
+		}
+
+		assertTrue(squares.containsAll(denseSquares),
+				"Missing squares: " + difference(denseSquares, squares));
+		assertTrue(tiles.containsAll(denseTiles),
+				"Missing tiles: " + difference(denseTiles, tiles));
+
+		// the line is straight in UTM-/tile-coordinates, not in lat/lon, so allow a few more cells
+		assertTrue(squares.size() <= denseSquares.size() + 2,
+				"Too many squares: " + difference(squares, denseSquares));
+		assertTrue(tiles.size() <= denseTiles.size() + 2,
+				"Too many tiles: " + difference(tiles, denseTiles));
+	}
+
+	private static Set<String> difference(Set<String> set1, Set<String> set2) {
+		Set<String> diff = new HashSet<>(set1);
+		diff.removeAll(set2);
+		return diff;
+	}
+
+	@Test
+	void testGap() {
+		LongHashSet squares = new LongHashSet();
+		LongHashSet tiles = new LongHashSet();
+		SegmentRasterizer rasterizer = new SegmentRasterizer(squares::add, tiles::add, 1000);
+
+		// roughly 7km apart, so not filled in
+		rasterizer.accept(48.30, 14.30, TrackPointConsumer.NO_TIME);
+		rasterizer.accept(48.30, 14.40, TrackPointConsumer.NO_TIME);
+
+		assertEquals(2, squares.size());
+		assertEquals(2, tiles.size());
+
+		squares.clear();
+		tiles.clear();
+		rasterizer = new SegmentRasterizer(squares::add, tiles::add, 10_000);
+		rasterizer.accept(48.30, 14.30, TrackPointConsumer.NO_TIME);
+		rasterizer.accept(48.30, 14.40, TrackPointConsumer.NO_TIME);
+
+		assertTrue(squares.size() >= 7, "Had: " + CellKey.toSquareStrings(squares));
+		assertTrue(tiles.size() >= 4, "Had: " + CellKey.toTileStrings(tiles));
+	}
+
+	@Test
+	void testEndSegment() {
+		LongHashSet squares = new LongHashSet();
+		LongHashSet tiles = new LongHashSet();
+		SegmentRasterizer rasterizer = new SegmentRasterizer(squares::add, tiles::add, 10_000);
+
+		rasterizer.accept(48.30, 14.30, TrackPointConsumer.NO_TIME);
+		rasterizer.endSegment();
+		rasterizer.accept(48.30, 14.40, TrackPointConsumer.NO_TIME);
+
+		assertEquals(2, squares.size());
+		assertEquals(2, tiles.size());
+	}
+
+	@Test
+	void testSampleFile() throws IOException {
+		File file = new File(CreateListOfVisitedSquares.GPX_DIR, "sample.gpx");
+
+		Set<String> pointSquares = new HashSet<>();
+		Set<String> pointTiles = new HashSet<>();
+		GPXStreamingParser.parse(file, (lat, lon, time) -> {
+			pointSquares.add(UTMRefWithHash.getSquareString(new LatLng(lat, lon)));
+			pointTiles.add(OSMTile.fromLatLngZoom(lat, lon, Constants.TILE_ZOOM).toCoords());
+		});
+
+		LongHashSet squareKeys = new LongHashSet();
+		LongHashSet tileKeys = new LongHashSet();
+		GPXStreamingParser.parse(file, new SegmentRasterizer(squareKeys::add, tileKeys::add, SegmentRasterizer.DEFAULT_MAX_GAP));
+
+		Set<String> squares = CellKey.toSquareStrings(squareKeys);
+		Set<String> tiles = CellKey.toTileStrings(tileKeys);
+
+		assertTrue(squares.containsAll(pointSquares),
+				"Missing squares: " + difference(pointSquares, squares));
+		assertTrue(tiles.containsAll(pointTiles),
+				"Missing tiles: " + difference(pointTiles, tiles));
+	}
+
+	@Test
+	void testInvalid() {
+		assertThrows(IllegalArgumentException.class,
+				() -> new SegmentRasterizer(new LongHashSet()::add, new LongHashSet()::add, -1));
+	}
+
+	@Test
+	void testDistance() {
+		assertEquals(0, SegmentRasterizer.distance(48.3, 14.3, 48.3, 14.3));
+		assertEquals(111_200, SegmentRasterizer.distance(48.0, 14.3, 49.0, 14.3), 1);
+		assertEquals(7_395, SegmentRasterizer.distance(48.3, 14.3, 48.3, 14.4), 10);
+	}
+}
@@ -0,0 +1,154 @@
+package org.dstadler.ctw.gpx;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.dstadler.ctw.utils.CellKey;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SortedMergeDiffTest {
+	@TempDir
+	File tempDir;
+
+	@Test
+	void testNoPreviousFile() throws IOException {
+		String[] current = { "14/10/5", "14/9/5" };
+		SortedMergeDiff diff = diff(current, null);
+
+		assertTrue(diff.isChanged());
+		assertArrayEquals(keys(current), diff.getKeys());
+		assertArrayEquals(keys(current), diff.getAdded());
+		assertArrayEquals(new long[0], diff.getRemoved());
+
+		assertEquals(List.of(current), read("full.txt"));
+		assertEquals(List.of(current), read("added.txt"));
+		assertEquals(List.of(), read("removed.txt"));
+	}
+
+	@Test
+	void testUnchanged() throws IOException {
+		String[] current = { "14/10/5", "14/9/5" };
+		SortedMergeDiff diff = diff(current, List.of(current));
+
+		assertFalse(diff.isChanged());
+		assertArrayEquals(keys(current), diff.getKeys());
+		assertEquals(List.of(current), read("full.txt"));
+		assertEquals(List.of(), read("added.txt"));
+		assertEquals(List.of(), read("removed.txt"));
+	}
+
+	@Test
+	void testAddedAndRemoved() throws IOException {
+		String[] current = { "14/1/1", "14/3/3", "14/5/5" };
+		SortedMergeDiff diff = diff(current, List.of("14/0/0", "14/3/3", "14/4/4", "14/6/6", "14/7/7"));
+
+		assertTrue(diff.isChanged());
+		assertArrayEquals(keys("14/1/1", "14/5/5"), diff.getAdded());
+		assertArrayEquals(keys("14/0/0", "14/4/4", "14/6/6", "14/7/7"), diff.getRemoved());
+
+		assertEquals(List.of(current), read("full.txt"));
+		assertEquals(List.of("14/1/1", "14/5/5"), read("added.txt"));
+		assertEquals(List.of("14/0/0", "14/4/4", "14/6/6", "14/7/7"), read("removed.txt"));
+
+		// all removed
+		diff = diff(new String[0], List.of("14/0/0", "14/3/3"));
+		assertArrayEquals(new long[0], diff.getKeys());
+		assertArrayEquals(keys("14/0/0", "14/3/3"), diff.getRemoved());
+		assertEquals(List.of(), read("full.txt"));
+	}
+
+	@Test
+	void testPreviousNotSorted() throws IOException {
+		String[] current = { "14/1/1", "14/3/3" };
+		SortedMergeDiff diff = diff(current, List.of("14/3/3", "14/0/0", "14/3/3"));
+
+		assertArrayEquals(keys("14/1/1"), diff.getAdded());
+		assertArrayEquals(keys("14/0/0"), diff.getRemoved());
+		assertEquals(List.of(current), read("full.txt"));
+		assertEquals(List.of("14/1/1"), read("added.txt"));
+		assertEquals(List.of("14/0/0"), read("removed.txt"));
+	}
+
+	@Test
+	void testPreviousInvalidLines() throws IOException {
+		// empty and broken lines of the previous list are skipped
+		String[] current = { "14/1/1", "14/3/3" };
+		SortedMergeDiff diff = diff(current, List.of("", "14/0/0", "14/1/1", "14/2/x", "14/3/3", "14/4/4", "abc"));
+
+		assertArrayEquals(keys(), diff.getAdded());
+		assertArrayEquals(keys("14/0/0", "14/4/4"), diff.getRemoved());
+		assertArrayEquals(keys(current), diff.getKeys());
+		assertEquals(List.of(current), read("full.txt"));
+		assertEquals(List.of(), read("added.txt"));
+		assertEquals(List.of("14/0/0", "14/4/4"), read("removed.txt"));
+	}
+
+	@Test
+	void testSameAsSets() throws IOException {
+		Random random = new Random(4711);
+		for (int run = 0; run < 20; run++) {
+			Set<String> current = randomTiles(random);
+			Set<String> previous = randomTiles(random);
+
+			SortedMergeDiff diff = diff(current.toArray(new String[0]), new ArrayList<>(previous));
+
+			Set<String> added = new TreeSet<>(current);
+			added.removeAll(previous);
+			Set<String> removed = new TreeSet<>(previous);
+			removed.removeAll(current);
+
+			assertEquals(new ArrayList<>(current), read("full.txt"));
+			assertEquals(new ArrayList<>(added), read("added.txt"));
+			assertEquals(new ArrayList<>(removed), read("removed.txt"));
+			assertArrayEquals(keys(added.toArray(new String[0])), diff.getAdded());
+			assertArrayEquals(keys(removed.toArray(new String[0])), diff.getRemoved());
+		}
+	}
+
+	private SortedMergeDiff diff(String[] current, List<String> previous) throws IOException {
+		File previousFile = new File(tempDir, "previous.txt");
+		if (previous == null) {
+			Files.deleteIfExists(previousFile.toPath());
+		} else {
+			Files.write(previousFile.toPath(), previous);
+		}
+
+		return SortedMergeDiff.write(current, previousFile,
+				new File(tempDir, "full.txt"), new File(tempDir, "added.txt"), new File(tempDir, "removed.txt"),
+				CellKey::parseTile);
+	}
+
+	private List<String> read(String name) throws IOException {
+		return Files.readAllLines(new File(tempDir, name).toPath());
+	}
+
+	private static long[] keys(String... tiles) {
+		long[] keys = new long[tiles.length];
+		for (int i = 0; i < tiles.length; i++) {
+			keys[i] = CellKey.parseTile(tiles[i]);
+		}
+		return keys;
+	}
+
+	private static Set<String> randomTiles(Random random) {
+		// sorted as Strings, i.e. in the order of the text-files
+		Set<String> tiles = new TreeSet<>();
+		int count = random.nextInt(300);
+		for (int i = 0; i < count; i++) {
+			tiles.add("14/" + random.nextInt(30) + "/" + (95 + random.nextInt(10)));
+		}
+		return tiles;
+	}
+}
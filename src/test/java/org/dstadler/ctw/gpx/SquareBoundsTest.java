@@ -0,0 +1,82 @@
+package org.dstadler.ctw.gpx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.dstadler.ctw.utils.UTMRefWithHash;
+import org.junit.jupiter.api.Test;
+
+import uk.me.jstott.jcoord.LatLng;
+
+class SquareBoundsTest {
+	@Test
+	void testEmpty() {
+		SquareBounds bounds = new SquareBounds();
+		assertFalse(bounds.contains(48.3, 14.3));
+		assertFalse(bounds.contains(0, 0));
+		assertNotNull(bounds.toString());
+	}
+
+	@Test
+	void testUpdate() {
+		SquareBounds bounds = update(48.3, 14.3);
+		assertTrue(bounds.contains(48.3, 14.3));
+		assertFalse(bounds.contains(48.32, 14.3));
+		assertFalse(bounds.contains(48.3, 14.32));
+
+		bounds.clear();
+		assertFalse(bounds.contains(48.3, 14.3));
+	}
+
+	@Test
+	void testNotCached() {
+		// square across the border of zone 33 and 34
+		assertFalse(update(48.1, 17.9999).contains(48.1, 17.9999));
+
+		// squares at the equator only contain points of their hemisphere
+		assertTrue(update(0.0001, 32.5).contains(0.0001, 32.5));
+		assertFalse(update(0.0001, 32.5).contains(-0.0001, 32.5));
+		assertTrue(update(-0.0001, 32.5).contains(-0.0001, 32.5));
+		assertFalse(update(-0.0001, 32.5).contains(0.0001, 32.5));
+
+		// special zones around Norway and Svalbard
+		assertFalse(update(60.5, 5.5).contains(60.5, 5.5));
+		assertFalse(update(78.2, 15.6).contains(78.2, 15.6));
+
+		// polar regions
+		assertFalse(update(80.5, 15.6).contains(80.5, 15.6));
+		assertFalse(update(-79.95, 15.6).contains(-79.95, 15.6));
+	}
+
+	@Test
+	void testSameSquare() {
+		Random random = new Random(2876);
+		for (int i = 0; i < 200; i++) {
+			double lat = random.nextDouble() * 160 - 80;
+			double lon = random.nextDouble() * 360 - 180;
+
+			SquareBounds bounds = update(lat, lon);
+			String square = UTMRefWithHash.getSquareString(new LatLng(lat, lon));
+
+			// points around it are either outside or map to the same square
+			for (int j = 0; j < 100; j++) {
+				double lat2 = lat + (random.nextDouble() - 0.5) * 0.02;
+				double lon2 = lon + (random.nextDouble() - 0.5) * 0.02;
+				if (bounds.contains(lat2, lon2)) {
+					assertEquals(square, UTMRefWithHash.getSquareString(new LatLng(lat2, lon2)),
+							"Had " + bounds + " for " + lat + "/" + lon + " and " + lat2 + "/" + lon2);
+				}
+			}
+		}
+	}
+
+	private static SquareBounds update(double lat, double lon) {
+		SquareBounds bounds = new SquareBounds();
+		bounds.update(new LatLng(lat, lon).toUTMRef());
+		return bounds;
+	}
+}
@@ -2,7 +2,12 @@ package org.dstadler.ctw.tiles;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
 import java.util.Locale;
+import java.util.Set;
+
+import org.dstadler.ctw.gpx.CreateListOfVisitedSquares;
+import org.dstadler.ctw.utils.OSMTile;
 
 import org.junit.jupiter.api.Test;
 
@@ -46,4 +51,26 @@ class CreateTileOverlaysHelperTest {
 			Locale.setDefault(prev);
 		}
 	}
-}
\ No newline at end of file
+
+	@Test
+	void readOptional() throws IOException {
+		assertTrue(CreateTileOverlaysHelper.readOptional("txt/NotExisting.txt", "tiles").isEmpty());
+		assertEquals(CreateTileOverlaysHelper.read(CreateListOfVisitedSquares.VISITED_TILES_TXT, "tiles"),
+				CreateTileOverlaysHelper.readOptional(CreateListOfVisitedSquares.VISITED_TILES_TXT, "tiles"));
+	}
+
+	@Test
+	void touchedTiles() {
+		Set<OSMTile> tiles = CreateTileOverlaysHelper.touchedTiles(Set.of("14/8842/5673"));
+
+		// one tile for each zoom up to 14, then 4 times as many for each further zoom
+		assertEquals(15 + 4 + 16 + 64 + 256, tiles.size());
+		assertTrue(tiles.contains(new OSMTile(14, 8842, 5673)));
+		assertTrue(tiles.contains(new OSMTile(13, 4421, 2836)));
+		assertTrue(tiles.contains(new OSMTile(0, 0, 0)));
+		assertTrue(tiles.contains(new OSMTile(18, 8842*16 + 15, 5673*16)));
+		assertFalse(tiles.contains(new OSMTile(14, 8843, 5673)));
+
+		assertTrue(CreateTileOverlaysHelper.touchedTiles(Set.of()).isEmpty());
+	}
+}
@@ -0,0 +1,252 @@
+package org.dstadler.ctw.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class CellBitmapTest {
+	@Test
+	void testEmpty() {
+		CellBitmap bitmap = CellBitmap.ofTiles(new LongHashSet());
+		assertTrue(bitmap.isEmpty());
+		assertEquals(0, bitmap.cardinality());
+		assertFalse(bitmap.contains(0));
+		assertFalse(bitmap.contains(-1));
+		assertArrayEquals(new long[0], bitmap.toSortedArray());
+		bitmap.forEach(key -> {
+			throw new IllegalStateException("Should not be called");
+		});
+
+		assertTrue(bitmap.shift(1, 1).isEmpty());
+		assertTrue(bitmap.dilate(3).isEmpty());
+		assertTrue(bitmap.interior().isEmpty());
+		assertEquals(bitmap, bitmap.or(bitmap));
+		assertTrue(bitmap.toString().contains("cardinality=0"));
+	}
+
+	@Test
+	void testTiles() {
+		LongHashSet keys = new LongHashSet();
+		keys.add(CellKey.tile(14, 8842, 5673));
+		keys.add(CellKey.tile(14, 8843, 5673));
+		keys.add(CellKey.tile(14, 8842, 5674));
+		keys.add(CellKey.tile(13, 8842, 5673));
+
+		CellBitmap bitmap = CellBitmap.ofTiles(keys);
+		assertEquals(4, bitmap.cardinality());
+		assertFalse(bitmap.isEmpty());
+		assertTrue(bitmap.contains(CellKey.tile(14, 8842, 5673)));
+		assertTrue(bitmap.contains(CellKey.tile(13, 8842, 5673)));
+		assertFalse(bitmap.contains(CellKey.tile(12, 8842, 5673)));
+		assertFalse(bitmap.contains(CellKey.tile(14, 8843, 5674)));
+		assertArrayEquals(keys.toSortedArray(), bitmap.toSortedArray());
+
+		// neighbours are the same as for OSMTile
+		OSMTile tile = new OSMTile(14, 8842, 5673);
+		CellBitmap single = CellBitmap.ofTiles(set(CellKey.tileOf(tile)));
+		assertArrayEquals(new long[] { CellKey.tileOf(tile.up()) }, single.shift(0, -1).toSortedArray());
+		assertArrayEquals(new long[] { CellKey.tileOf(tile.down()) }, single.shift(0, 1).toSortedArray());
+		assertArrayEquals(new long[] { CellKey.tileOf(tile.left()) }, single.shift(-1, 0).toSortedArray());
+		assertArrayEquals(new long[] { CellKey.tileOf(tile.right()) }, single.shift(1, 0).toSortedArray());
+	}
+
+	@Test
+	void testSquares() {
+		long key = CellKey.square(33, 'U', 446, 5350);
+		CellBitmap bitmap = CellBitmap.ofSquares(set(key));
+		assertTrue(bitmap.contains(key));
+
+		// easting is x, northing is y, the band is kept
+		assertArrayEquals(new long[] { CellKey.square(33, 'U', 447, 5349) }, bitmap.shift(1, -1).toSortedArray());
+
+		// negative easting/northing
+		key = CellKey.square(33, 'U', -1, -64);
+		assertArrayEquals(new long[] { CellKey.square(33, 'U', 0, -63) },
+				CellBitmap.ofSquares(set(key)).shift(1, 1).toSortedArray());
+	}
+
+	@Test
+	void testShiftDropsCellsOutsideOfRange() {
+		CellBitmap bitmap = CellBitmap.ofTiles(set(CellKey.tile(14, 0, 0), CellKey.tile(14, 5, 5)));
+		assertArrayEquals(new long[] { CellKey.tile(14, 4, 5) }, bitmap.shift(-1, 0).toSortedArray());
+		assertArrayEquals(new long[] { CellKey.tile(14, 5, 4) }, bitmap.shift(0, -1).toSortedArray());
+
+		// shifting does not move cells to a different zoom
+		long max = (1 << 29) - 1;
+		bitmap = CellBitmap.ofTiles(set(CellKey.tile(14, (int) max, (int) max)));
+		assertTrue(bitmap.shift(1, 0).isEmpty());
+		assertTrue(bitmap.shift(0, 1).isEmpty());
+		assertEquals(1, bitmap.shift(0, -1).cardinality());
+	}
+
+	@Test
+	void testShiftLarge() {
+		CellBitmap bitmap = CellBitmap.ofTiles(set(CellKey.tile(14, 100, 100)));
+		assertArrayEquals(new long[] { CellKey.tile(14, 163, 37) }, bitmap.shift(63, -63).toSortedArray());
+
+		assertThrows(IllegalArgumentException.class, () -> bitmap.shift(64, 0));
+		assertThrows(IllegalArgumentException.class, () -> bitmap.shift(0, -64));
+	}
+
+	@Test
+	void testSetAlgebra() {
+		Random random = new Random(4711);
+		for (int run = 0; run < 20; run++) {
+			LongHashSet a = randomTiles(random);
+			LongHashSet b = randomTiles(random);
+			CellBitmap bitmapA = CellBitmap.ofTiles(a);
+			CellBitmap bitmapB = CellBitmap.ofTiles(b);
+
+			assertEquals(a.size(), bitmapA.cardinality());
+			assertArrayEquals(a.toSortedArray(), bitmapA.toSortedArray());
+
+			LongHashSet or = new LongHashSet();
+			or.addAll(a);
+			or.addAll(b);
+			assertArrayEquals(or.toSortedArray(), bitmapA.or(bitmapB).toSortedArray());
+
+			LongHashSet andNot = new LongHashSet();
+			andNot.addAll(a);
+			andNot.removeAll(b);
+			assertArrayEquals(andNot.toSortedArray(), bitmapA.andNot(bitmapB).toSortedArray());
+
+			LongHashSet and = new LongHashSet();
+			a.forEach(key -> {
+				if (b.contains(key)) {
+					and.add(key);
+				}
+			});
+			assertArrayEquals(and.toSortedArray(), bitmapA.and(bitmapB).toSortedArray());
+			assertEquals(and.size(), bitmapA.and(bitmapB).cardinality());
+
+			for (long key : or.toSortedArray()) {
+				assertEquals(a.contains(key), bitmapA.contains(key));
+			}
+
+			// combining is symmetric where it should be
+			assertEquals(bitmapA.or(bitmapB), bitmapB.or(bitmapA));
+			assertEquals(bitmapA.and(bitmapB), bitmapB.and(bitmapA));
+			assertEquals(bitmapA, bitmapA.or(bitmapA));
+			assertTrue(bitmapA.andNot(bitmapA).isEmpty());
+		}
+	}
+
+	@Test
+	void testContainers() {
+		// a full block needs the bitmap, a few cells use positions
+		LongHashSet keys = new LongHashSet();
+		for (int x = 0; x < 64; x++) {
+			for (int y = 0; y < 64; y++) {
+				keys.add(CellKey.tile(14, 64 + x, 128 + y));
+			}
+		}
+		keys.add(CellKey.tile(14, 1000, 1000));
+
+		CellBitmap bitmap = CellBitmap.ofTiles(keys);
+		assertEquals(64 * 64 + 1, bitmap.cardinality());
+		assertEquals(1, bitmap.arrayContainers());
+		assertArrayEquals(keys.toSortedArray(), bitmap.toSortedArray());
+
+		// removing most cells switches to positions
+		LongHashSet most = new LongHashSet();
+		keys.forEach(key -> {
+			if (CellKey.tileX(key) != 64 || CellKey.tileY(key) < 128 + 64 - CellBitmap.MAX_ARRAY_CELLS / 8) {
+				most.add(key);
+			}
+		});
+		CellBitmap rest = bitmap.andNot(CellBitmap.ofTiles(most));
+		assertEquals(CellBitmap.MAX_ARRAY_CELLS / 8, rest.cardinality());
+		assertEquals(1, rest.arrayContainers());
+
+		// shifting a full block moves parts of it into three other blocks
+		CellBitmap shifted = bitmap.shift(3, -5);
+		assertEquals(bitmap.cardinality(), shifted.cardinality());
+		assertTrue(shifted.contains(CellKey.tile(14, 67, 123)));
+		assertTrue(shifted.contains(CellKey.tile(14, 130, 186)));
+		assertFalse(shifted.contains(CellKey.tile(14, 66, 123)));
+		assertEquals(bitmap, shifted.shift(-3, 5));
+	}
+
+	@Test
+	void testDilate() {
+		Random random = new Random(4712);
+		for (int run = 0; run < 10; run++) {
+			LongHashSet keys = randomTiles(random);
+			CellBitmap bitmap = CellBitmap.ofTiles(keys);
+
+			for (int distance = 0; distance <= 3; distance++) {
+				LongHashSet expected = new LongHashSet();
+				int d = distance;
+				keys.forEach(key -> {
+					for (int dx = -d; dx <= d; dx++) {
+						for (int dy = -d + Math.abs(dx); dy <= d - Math.abs(dx); dy++) {
+							expected.add(CellKey.tile(CellKey.tileZoom(key), CellKey.tileX(key) + dx, CellKey.tileY(key) + dy));
+						}
+					}
+				});
+
+				assertArrayEquals(expected.toSortedArray(), bitmap.dilate(distance).toSortedArray());
+			}
+		}
+
+		assertThrows(IllegalArgumentException.class,
+				() -> CellBitmap.ofTiles(new LongHashSet()).dilate(-1));
+	}
+
+	@Test
+	void testInterior() {
+		LongHashSet keys = new LongHashSet();
+		for (int x = 60; x < 70; x++) {
+			for (int y = 60; y < 63; y++) {
+				keys.add(CellKey.tile(14, x, y));
+			}
+		}
+
+		long[] interior = CellBitmap.ofTiles(keys).interior().toSortedArray();
+		assertEquals(8, interior.length);
+		for (long key : interior) {
+			assertEquals(61, CellKey.tileY(key));
+			assertTrue(CellKey.tileX(key) > 60 && CellKey.tileX(key) < 69);
+		}
+	}
+
+	@Test
+	void testDifferentLayouts() {
+		CellBitmap tiles = CellBitmap.ofTiles(set(1));
+		CellBitmap squares = CellBitmap.ofSquares(set(1));
+		assertNotEquals(tiles, squares);
+
+		assertThrows(IllegalArgumentException.class, () -> tiles.or(squares));
+		assertThrows(IllegalArgumentException.class, () -> CellBitmap.ofTiles(set(-1)));
+	}
+
+	private static LongHashSet randomTiles(Random random) {
+		// dense areas for bitmaps, scattered cells for positions, not at the edge of the map
+		LongHashSet keys = new LongHashSet();
+		int count = random.nextInt(5000);
+		for (int i = 0; i < count; i++) {
+			int zoom = 13 + random.nextInt(2);
+			if (random.nextBoolean()) {
+				keys.add(CellKey.tile(zoom, 8800 + random.nextInt(100), 5600 + random.nextInt(100)));
+			} else {
+				keys.add(CellKey.tile(zoom, 10 + random.nextInt((1 << zoom) - 20), 10 + random.nextInt((1 << zoom) - 20)));
+			}
+		}
+		return keys;
+	}
+
+	private static LongHashSet set(long... keys) {
+		LongHashSet set = new LongHashSet();
+		for (long key : keys) {
+			set.add(key);
+		}
+		return set;
+	}
+}
@@ -0,0 +1,163 @@
+package org.dstadler.ctw.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.dstadler.commons.testing.PrivateConstructorCoverage;
+import org.junit.jupiter.api.Test;
+
+import uk.me.jstott.jcoord.LatLng;
+
+class CellKeyTest {
+	@Test
+	void testSquare() {
+		long key = CellKey.square(33, 'U', 446, 5350);
+		assertEquals(33, CellKey.squareZone(key));
+		assertEquals('U', CellKey.squareBand(key));
+		assertEquals(446000, CellKey.squareEasting(key));
+		assertEquals(5350000, CellKey.squareNorthing(key));
+		assertEquals("33U 446000.0 5350000.0", CellKey.formatSquare(key));
+		assertEquals(key, CellKey.parseSquare("33U 446000.0 5350000.0"));
+
+		assertEquals(UTMRefWithHash.fromString("33U 446000.0 5350000.0"), CellKey.toSquare(key));
+		assertEquals(key, CellKey.squareOf(CellKey.toSquare(key)));
+
+		// the largest values and values which were formatted in exponential format by UTMRef
+		assertEquals("1C 0.0 0.0", CellKey.formatSquare(CellKey.parseSquare("1C 0.0 0.0")));
+		assertEquals("60X 999000.0 9999000.0", CellKey.formatSquare(CellKey.parseSquare("60X 999000.0 9999000.0")));
+		assertEquals("33T 100000.0 10000000.0", CellKey.formatSquare(CellKey.parseSquare("33T 100000.0 10000000.0")));
+	}
+
+	@Test
+	void testSquareSameAsString() {
+		Random random = new Random(4711);
+		for (int i = 0; i < 10_000; i++) {
+			LatLng latLng = new LatLng(random.nextDouble() * 160 - 80, random.nextDouble() * 360 - 180);
+
+			String square = UTMRefWithHash.getSquareString(latLng);
+			long key = UTMRefWithHash.getSquareKey(latLng);
+			assertEquals(square, CellKey.formatSquare(key));
+			assertEquals(key, CellKey.parseSquare(square));
+			assertEquals(UTMRefWithHash.fromString(square), CellKey.toSquare(key));
+		}
+	}
+
+	@Test
+	void testSquareInvalid() {
+		assertThrows(IllegalArgumentException.class, () -> CellKey.square(0, 'U', 1, 1));
+		assertThrows(IllegalArgumentException.class, () -> CellKey.square(61, 'U', 1, 1));
+		assertThrows(IllegalArgumentException.class, () -> CellKey.square(33, '1', 1, 1));
+		assertThrows(IllegalArgumentException.class, () -> CellKey.square(33, 'U', 1L << 23, 1));
+		assertThrows(IllegalArgumentException.class, () -> CellKey.square(33, 'U', 1, -(1L << 23)));
+
+		for (String str : new String[] { "", "33", "33U", "33U ", "33U 446000.0", "U 446000.0 5350000.0",
+				"333U 446000.0 5350000.0", "33U  446000.0 5350000.0", "33U 446000.0 5350000.0 ",
+				"33U 446000.5 5350000.0", "33U 446500.0 5350000.0", "33U a46000.0 5350000.0",
+				"33U 446000.0 5350000.", "33U 446000.0 .0", "33U 4460000000000000.0 5350000.0" }) {
+			assertThrows(IllegalArgumentException.class, () -> CellKey.parseSquare(str),
+					"Should fail for '" + str + "'");
+		}
+
+		// non-ASCII digits and bands which UTM does not use are rejected in the same way as by UTMRefWithHash
+		for (String str : new String[] { "\u0663\u0663U 446000.0 5350000.0", "33U 446000.0 \u0665350000.0",
+				"33I 446000.0 5350000.0", "33O 446000.0 5350000.0", "33A 446000.0 5350000.0", "33Y 446000.0 5350000.0" }) {
+			IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> CellKey.parseSquare(str),
+					"Should fail for '" + str + "'");
+			assertEquals(assertThrows(IllegalArgumentException.class, () -> UTMRefWithHash.fromString(str)).getMessage(),
+					e.getMessage());
+		}
+	}
+
+	@Test
+	void testTile() {
+		long key = CellKey.tile(14, 8842, 5673);
+		assertEquals(14, CellKey.tileZoom(key));
+		assertEquals(8842, CellKey.tileX(key));
+		assertEquals(5673, CellKey.tileY(key));
+		assertEquals("14/8842/5673", CellKey.formatTile(key));
+		assertEquals(key, CellKey.parseTile("14/8842/5673"));
+		assertEquals(new OSMTile(14, 8842, 5673), CellKey.toTile(key));
+		assertEquals(key, CellKey.tileOf(new OSMTile(14, 8842, 5673)));
+
+		assertEquals(0, CellKey.tile(0, 0, 0));
+		int max = (1 << 20) - 1;
+		assertEquals("20/" + max + "/" + max, CellKey.formatTile(CellKey.tile(20, max, max)));
+
+		assertThrows(IllegalArgumentException.class, () -> CellKey.tile(-1, 0, 0));
+		assertThrows(IllegalArgumentException.class, () -> CellKey.tile(21, 0, 0));
+		assertThrows(IllegalArgumentException.class, () -> CellKey.tile(14, -1, 0));
+		for (String str : new String[] { "", "14", "14/8842", "14/8842/", "/8842/5673", "14/a/5673",
+				"14/8842/5673/1", "14/8842/-5673", "14/8842/12345678901" }) {
+			assertThrows(IllegalArgumentException.class, () -> CellKey.parseTile(str),
+					"Should fail for '" + str + "'");
+		}
+	}
+
+	@Test
+	void testParseRange() {
+		String buffer = "33U 446000.0 5350000.0\n14/8842/5673\n";
+
+		assertEquals(CellKey.parseSquare("33U 446000.0 5350000.0"), CellKey.parseSquare(buffer, 0, 22));
+		assertEquals(CellKey.tile(14, 8842, 5673), CellKey.parseTile(buffer, 23, 35));
+
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> CellKey.parseTile(buffer, 23, 36));
+		assertEquals("Cannot parse tile 14/8842/5673\n", e.getMessage());
+		e = assertThrows(IllegalArgumentException.class,
+				() -> CellKey.parseSquare(buffer, 0, 23));
+		assertEquals(assertThrows(IllegalArgumentException.class,
+				() -> UTMRefWithHash.fromString(buffer, 0, 23)).getMessage(), e.getMessage());
+	}
+
+	@Test
+	void testTileOrder() {
+		Random random = new Random(4711);
+		List<OSMTile> tiles = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			int zoom = random.nextInt(20);
+			tiles.add(new OSMTile(zoom, random.nextInt(1 << zoom), random.nextInt(1 << zoom)));
+		}
+
+		// keys sort in the same order as the tiles
+		List<Long> keys = new ArrayList<>();
+		for (OSMTile tile : tiles) {
+			keys.add(CellKey.tileOf(tile));
+		}
+		Collections.sort(tiles);
+		Collections.sort(keys);
+		for (int i = 0; i < tiles.size(); i++) {
+			assertEquals(tiles.get(i), CellKey.toTile(keys.get(i)));
+		}
+	}
+
+	@Test
+	void testToStrings() {
+		LongHashSet squares = new LongHashSet();
+		squares.add(CellKey.parseSquare("33U 446000.0 5350000.0"));
+		squares.add(CellKey.parseSquare("33U 1000.0 5350000.0"));
+		assertEquals(List.of("33U 1000.0 5350000.0", "33U 446000.0 5350000.0"),
+				new ArrayList<>(CellKey.toSquareStrings(squares)));
+
+		LongHashSet tiles = new LongHashSet();
+		tiles.add(CellKey.parseTile("14/8842/5673"));
+		tiles.add(CellKey.parseTile("14/10000/5673"));
+		assertEquals(List.of("14/10000/5673", "14/8842/5673"),
+				new ArrayList<>(CellKey.toTileStrings(tiles)));
+
+		Set<String> empty = CellKey.toTileStrings(new LongHashSet());
+		assertTrue(empty.isEmpty());
+	}
+
+	// helper method to get coverage of the unused constructor
+	@Test
+	void testPrivateConstructor() throws Exception {
+		PrivateConstructorCoverage.executePrivateConstructor(CellKey.class);
+	}
+}
@@ -0,0 +1,144 @@
+package org.dstadler.ctw.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class CoverageBitmapTest {
+	@Test
+	void testEmpty() {
+		CoverageBitmap bitmap = new CoverageBitmap();
+		assertTrue(bitmap.isEmpty());
+		assertEquals(0, bitmap.size());
+		assertFalse(bitmap.contains(0));
+		assertFalse(bitmap.contains(4096));
+		bitmap.forEach(key -> {
+			throw new IllegalStateException("Should not be called");
+		});
+		assertTrue(bitmap.toSet().isEmpty());
+	}
+
+	@Test
+	void testAdd() {
+		CoverageBitmap bitmap = new CoverageBitmap();
+		assertTrue(bitmap.add(0));
+		assertFalse(bitmap.add(0));
+		assertTrue(bitmap.add(63));
+		assertTrue(bitmap.add(64));
+		assertTrue(bitmap.add(4095));
+		assertTrue(bitmap.add(4096));
+		assertTrue(bitmap.add(CellKey.square(33, 'U', 446, 5350)));
+		assertTrue(bitmap.add(CellKey.tile(20, 1 << 20, 1 << 20)));
+
+		assertFalse(bitmap.isEmpty());
+		assertEquals(7, bitmap.size());
+		assertTrue(bitmap.contains(63));
+		assertTrue(bitmap.contains(4096));
+		assertTrue(bitmap.contains(CellKey.square(33, 'U', 446, 5350)));
+		assertFalse(bitmap.contains(1));
+		assertFalse(bitmap.contains(4097));
+		assertFalse(bitmap.contains(CellKey.square(33, 'U', 446, 5351)));
+
+		assertArrayEquals(new long[] { 0, 63, 64, 4095, 4096,
+						CellKey.square(33, 'U', 446, 5350), CellKey.tile(20, 1 << 20, 1 << 20) },
+				bitmap.toSet().toSortedArray());
+	}
+
+	@Test
+	void testWriter() {
+		CoverageBitmap bitmap = new CoverageBitmap();
+		CoverageBitmap.Writer writer = bitmap.writer();
+
+		// switch between pages
+		assertTrue(writer.add(1));
+		assertTrue(writer.add(5000));
+		assertTrue(writer.add(2));
+		assertFalse(writer.add(1));
+		assertFalse(bitmap.add(5000));
+		writer.accept(3);
+		writer.accept(3);
+
+		assertEquals(4, bitmap.size());
+		assertArrayEquals(new long[] { 1, 2, 3, 5000 }, bitmap.toSet().toSortedArray());
+	}
+
+	@Test
+	void testRandom() {
+		Random rnd = new Random(42);
+		CoverageBitmap bitmap = new CoverageBitmap();
+		CoverageBitmap.Writer writer = bitmap.writer();
+		LongHashSet expected = new LongHashSet();
+
+		for (int i = 0; i < 100_000; i++) {
+			// mostly clustered keys as for tracks, some spread out
+			long key = rnd.nextInt(10) == 0 ?
+					rnd.nextLong() >>> 2 :
+					CellKey.square(33, 'U', 400 + rnd.nextInt(100), 5300 + rnd.nextInt(100));
+
+			assertEquals(expected.add(key), i % 2 == 0 ? bitmap.add(key) : writer.add(key),
+					"Failed for key " + key);
+		}
+
+		assertEquals(expected.size(), bitmap.size());
+		assertEquals(expected, bitmap.toSet());
+
+		AtomicInteger count = new AtomicInteger();
+		bitmap.forEach(key -> {
+			assertTrue(expected.contains(key), "Failed for key " + key);
+			assertTrue(bitmap.contains(key), "Failed for key " + key);
+			count.incrementAndGet();
+		});
+		assertEquals(expected.size(), count.get());
+	}
+
+	@Test
+	void testConcurrent() throws InterruptedException {
+		CoverageBitmap bitmap = new CoverageBitmap();
+		AtomicInteger added = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+
+		// all threads add overlapping keys, each key is only reported as new once
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			int offset = t;
+			threads.add(Thread.ofPlatform().name("bitmap-" + t).start(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+
+				CoverageBitmap.Writer writer = bitmap.writer();
+				for (int i = 0; i < 50_000; i++) {
+					if (writer.add((i + offset * 1000L) * 3)) {
+						added.incrementAndGet();
+					}
+				}
+			}));
+		}
+
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// keys 0..56_999, multiplied by 3
+		assertEquals(57_000, bitmap.size());
+		assertEquals(57_000, added.get());
+
+		LongHashSet set = bitmap.toSet();
+		for (long i = 0; i < 57_000; i++) {
+			assertTrue(set.contains(i * 3), "Failed for " + i);
+			assertFalse(bitmap.contains(i * 3 + 1), "Failed for " + i);
+		}
+	}
+}
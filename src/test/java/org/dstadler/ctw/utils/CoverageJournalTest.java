@@ -0,0 +1,307 @@
+package org.dstadler.ctw.utils;
+
+import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_TXT;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CoverageJournalTest {
+	private static final long[] NONE = new long[0];
+
+	@TempDir
+	File tempDir;
+
+	@AfterEach
+	void tearDown() {
+		System.clearProperty(CoverageJournal.PROPERTY_MAX_RUNS);
+	}
+
+	@Test
+	void testGetJournalFile() {
+		assertEquals(new File("cache", "VisitedTiles.journal"), CoverageJournal.getJournalFile(new File(VISITED_TILES_TXT)));
+		assertEquals(new File("cache", "other.journal"), CoverageJournal.getJournalFile(new File("other")));
+	}
+
+	@Test
+	void testEmpty() throws IOException {
+		CoverageJournal journal = CoverageJournal.open(new File(tempDir, "Visited.journal"), new File(tempDir, "Visited.txt"));
+		assertEquals(0, journal.getLastRun());
+		assertFalse(journal.isCurrent());
+		assertTrue(journal.getRuns().isEmpty());
+		assertNull(journal.addedSince(0));
+	}
+
+	@Test
+	void testAppend() throws IOException {
+		File textFile = new File(tempDir, "Visited.txt");
+		File file = new File(tempDir, "sub/Visited.journal");
+
+		// first run starts the journal with the previous cells
+		writeText(textFile, "1");
+		CoverageJournal journal = CoverageJournal.open(file, textFile);
+		writeText(textFile, "2");
+		assertEquals(1, journal.append(() -> new long[] { 1, 2 }, new long[] { 3, 4 }, NONE));
+		assertTrue(file.exists());
+		assertFalse(new File(file.getParentFile(), "Visited.journal.tmp").exists());
+
+		journal = CoverageJournal.open(file, textFile);
+		assertTrue(journal.isCurrent());
+		assertEquals(1, journal.getLastRun());
+		assertEquals(1, journal.getRuns().size());
+		assertArrayEquals(new long[] { 3, 4 }, journal.getRuns().get(0).getAdded());
+
+		// following runs are appended
+		writeText(textFile, "3");
+		assertEquals(2, journal.append(() -> {
+			throw new IllegalStateException("Should not be called");
+		}, new long[] { 5 }, new long[] { 3 }));
+		writeText(textFile, "4");
+		assertEquals(3, journal.append(null, new long[] { 3, 6 }, new long[] { 5 }));
+
+		journal = CoverageJournal.open(file, textFile);
+		assertTrue(journal.isCurrent());
+		assertEquals(3, journal.getLastRun());
+
+		List<CoverageJournal.Run> runs = journal.getRuns();
+		assertEquals(3, runs.size());
+		assertEquals(2, runs.get(1).getId());
+		assertArrayEquals(new long[] { 5 }, runs.get(1).getAdded());
+		assertArrayEquals(new long[] { 3 }, runs.get(1).getRemoved());
+		assertTrue(runs.get(2).getTime() > 0);
+		assertTrue(runs.get(2).toString().contains("id=3"));
+
+		assertArrayEquals(new long[] { 3, 4, 6 }, journal.addedSince(0).toSortedArray());
+		assertArrayEquals(new long[] { 3, 6 }, journal.addedSince(1).toSortedArray());
+		assertArrayEquals(new long[] { 3, 6 }, journal.addedSince(2).toSortedArray());
+		assertTrue(journal.addedSince(3).isEmpty());
+	}
+
+	@Test
+	void testTextFileChanged() throws IOException {
+		File textFile = new File(tempDir, "Visited.txt");
+		File file = new File(tempDir, "Visited.journal");
+
+		CoverageJournal journal = CoverageJournal.open(file, textFile);
+		writeText(textFile, "1");
+		journal.append(() -> new long[] { 1 }, new long[] { 2 }, NONE);
+
+		// e.g. a checkout of the text-file
+		writeText(textFile, "other");
+		journal = CoverageJournal.open(file, textFile);
+		assertFalse(journal.isCurrent());
+
+		// starts again, run ids keep increasing
+		writeText(textFile, "2");
+		assertEquals(2, journal.append(() -> new long[] { 7 }, new long[] { 8 }, NONE));
+
+		journal = CoverageJournal.open(file, textFile);
+		assertTrue(journal.isCurrent());
+		assertEquals(1, journal.getRuns().size());
+		assertNull(journal.addedSince(0));
+		assertArrayEquals(new long[] { 8 }, journal.addedSince(1).toSortedArray());
+	}
+
+	@Test
+	void testTextFileWritten() throws IOException {
+		File textFile = new File(tempDir, "Visited.txt");
+		File file = new File(tempDir, "Visited.journal");
+
+		// nothing to update without a journal
+		CoverageJournal journal = CoverageJournal.open(file, textFile);
+		journal.textFileWritten();
+		assertFalse(file.exists());
+
+		writeText(textFile, "1");
+		journal.append(() -> new long[] { 1 }, new long[] { 2 }, NONE);
+		writeText(textFile, "2");
+		journal.append(null, new long[] { 3 }, NONE);
+
+		// same content written again, e.g. to re-create the binary copy
+		journal = CoverageJournal.open(file, textFile);
+		assertTrue(journal.isCurrent());
+		writeText(textFile, "2");
+		assertTrue(textFile.setLastModified(textFile.lastModified() + 60_000));
+		assertFalse(CoverageJournal.open(file, textFile).isCurrent());
+		journal.textFileWritten();
+
+		// the journal is continued instead of being started again
+		journal = CoverageJournal.open(file, textFile);
+		assertTrue(journal.isCurrent());
+		assertEquals(2, journal.getRuns().size());
+		assertArrayEquals(new long[] { 2, 3 }, journal.addedSince(0).toSortedArray());
+
+		// also works for the last record of a re-written journal
+		System.setProperty(CoverageJournal.PROPERTY_MAX_RUNS, "0");
+		writeText(textFile, "3");
+		journal.append(null, new long[] { 4 }, NONE);
+		assertTrue(journal.getRuns().isEmpty());
+
+		assertTrue(textFile.setLastModified(textFile.lastModified() + 60_000));
+		journal.textFileWritten();
+		journal = CoverageJournal.open(file, textFile);
+		assertTrue(journal.isCurrent());
+		assertEquals(3, journal.getLastRun());
+	}
+
+	@Test
+	void testGetLastRunAt() throws IOException, InterruptedException {
+		File textFile = new File(tempDir, "Visited.txt");
+		File file = new File(tempDir, "Visited.journal");
+
+		CoverageJournal journal = CoverageJournal.open(file, textFile);
+		assertEquals(-1, journal.getLastRunAt(Long.MAX_VALUE));
+
+		for (int i = 1; i <= 3; i++) {
+			writeText(textFile, Integer.toString(i));
+			journal.append(() -> new long[] { 100 }, new long[] { i }, NONE);
+
+			// runs at different times
+			Thread.sleep(5);
+		}
+
+		// the journal starts with this process
+		assertEquals(-1, journal.getLastRunAt(0));
+		assertNull(journal.addedSince(journal.getLastRunAt(0)));
+
+		assertEquals(3, journal.getLastRunAt(Long.MAX_VALUE));
+		assertTrue(journal.addedSince(journal.getLastRunAt(Long.MAX_VALUE)).isEmpty());
+
+		long time = journal.getRuns().get(1).getTime();
+		assertEquals(2, journal.getLastRunAt(time));
+		assertEquals(1, journal.getLastRunAt(time - 1));
+		assertArrayEquals(new long[] { 2, 3 }, journal.addedSince(journal.getLastRunAt(time - 1)).toSortedArray());
+	}
+
+	@Test
+	void testIncompleteRecord() throws IOException {
+		File textFile = new File(tempDir, "Visited.txt");
+		File file = new File(tempDir, "Visited.journal");
+
+		CoverageJournal journal = CoverageJournal.open(file, textFile);
+		writeText(textFile, "1");
+		journal.append(() -> NONE, new long[] { 1 }, NONE);
+		writeText(textFile, "2");
+		journal.append(null, new long[] { 2, 3 }, NONE);
+		long length = file.length();
+
+		// the last record was not written completely
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length - 1);
+		}
+		journal = CoverageJournal.open(file, textFile);
+		assertEquals(1, journal.getLastRun());
+
+		// the text-file is still compared with the last complete record
+		assertTrue(textFile.setLastModified(textFile.lastModified() - 10_000));
+		assertFalse(CoverageJournal.open(file, textFile).isCurrent());
+
+		// broken payload
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(raf.length() - 1);
+			raf.write(0x7F);
+		}
+		assertEquals(1, CoverageJournal.open(file, textFile).getLastRun());
+	}
+
+	@Test
+	void testIncompleteRecordOverwritten() throws IOException {
+		File textFile = new File(tempDir, "Visited.txt");
+		File file = new File(tempDir, "Visited.journal");
+
+		CoverageJournal journal = CoverageJournal.open(file, textFile);
+		writeText(textFile, "1");
+		journal.append(() -> NONE, new long[] { 1 }, NONE);
+		long length = file.length();
+
+		// a partial record of a run which was killed, text-file was not changed yet
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(length);
+			raf.write(new byte[] { 'R', 0, 0, 0 });
+		}
+
+		journal = CoverageJournal.open(file, textFile);
+		assertTrue(journal.isCurrent());
+		writeText(textFile, "2");
+		assertEquals(2, journal.append(null, new long[] { 2 }, NONE));
+
+		journal = CoverageJournal.open(file, textFile);
+		assertEquals(2, journal.getLastRun());
+		assertArrayEquals(new long[] { 1, 2 }, journal.addedSince(0).toSortedArray());
+	}
+
+	@Test
+	void testUnexpectedFormat() throws IOException {
+		File textFile = new File(tempDir, "Visited.txt");
+		File file = new File(tempDir, "Visited.journal");
+		Files.writeString(file.toPath(), "some other file");
+
+		CoverageJournal journal = CoverageJournal.open(file, textFile);
+		assertFalse(journal.isCurrent());
+		assertEquals(0, journal.getLastRun());
+
+		writeText(textFile, "1");
+		assertEquals(1, journal.append(() -> new long[] { 1 }, new long[] { 2 }, NONE));
+		assertTrue(CoverageJournal.open(file, textFile).isCurrent());
+	}
+
+	@Test
+	void testCompact() throws IOException {
+		System.setProperty(CoverageJournal.PROPERTY_MAX_RUNS, "4");
+
+		File textFile = new File(tempDir, "Visited.txt");
+		File file = new File(tempDir, "Visited.journal");
+
+		CoverageJournal journal = CoverageJournal.open(file, textFile);
+		for (int i = 1; i <= 4; i++) {
+			writeText(textFile, Integer.toString(i));
+			journal.append(() -> new long[] { 100 }, new long[] { i }, i == 3 ? new long[] { 100 } : NONE);
+		}
+		assertEquals(4, journal.getRuns().size());
+
+		// the fifth run compacts the first three runs into the snapshot
+		writeText(textFile, "5");
+		journal.append(null, new long[] { 5 }, new long[] { 1 });
+		assertEquals(2, journal.getRuns().size());
+
+		journal = CoverageJournal.open(file, textFile);
+		assertTrue(journal.isCurrent());
+		assertEquals(5, journal.getLastRun());
+		assertEquals(2, journal.getRuns().size());
+		assertEquals(4, journal.getRuns().get(0).getId());
+
+		assertNull(journal.addedSince(2));
+		assertArrayEquals(new long[] { 4, 5 }, journal.addedSince(3).toSortedArray());
+		assertArrayEquals(new long[] { 5 }, journal.addedSince(4).toSortedArray());
+
+		// nothing to compact
+		journal.compact(2);
+		assertEquals(2, journal.getRuns().size());
+
+		journal.compact(0);
+		assertTrue(journal.getRuns().isEmpty());
+		assertTrue(journal.addedSince(5).isEmpty());
+		assertNull(journal.addedSince(4));
+
+		assertThrows(IllegalArgumentException.class, () -> CoverageJournal.open(file, textFile).compact(-1));
+	}
+
+	private static void writeText(File textFile, String content) throws IOException {
+		Files.writeString(textFile.toPath(), content);
+
+		// make changes visible even on file systems with a coarse last-modified
+		assertTrue(textFile.setLastModified(1_000_000L * content.hashCode()));
+	}
+}
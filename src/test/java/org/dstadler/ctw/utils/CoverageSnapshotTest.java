@@ -0,0 +1,99 @@
+package org.dstadler.ctw.utils;
+
+import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_SQUARES_TXT;
+import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_TXT;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CoverageSnapshotTest {
+	@TempDir
+	File tempDir;
+
+	@Test
+	void testOf() {
+		long[] squares = { CellKey.square(33, 'U', 446, 5350), CellKey.square(33, 'U', 447, 5350) };
+		long[] tiles = { CellKey.tile(14, 8842, 5673) };
+		CoverageSnapshot snapshot = CoverageSnapshot.of(squares, new long[0], tiles, tiles);
+
+		// later changes do not affect the snapshot
+		squares[0] = CellKey.square(33, 'U', 1, 1);
+
+		assertEquals(2, snapshot.getSquares().size());
+		assertTrue(snapshot.getSquares().contains(UTMRefWithHash.fromString("33U 446000 5350000")));
+		assertTrue(snapshot.getNewSquares().isEmpty());
+		assertEquals(Set.of(new OSMTile(14, 8842, 5673)), snapshot.getTiles());
+		assertEquals(snapshot.getTiles(), snapshot.getNewTiles());
+
+		assertEquals(2, snapshot.getSquareGrid().cardinality());
+		assertTrue(snapshot.getSquareGrid().contains(CellKey.square(33, 'U', 446, 5350)));
+		assertTrue(snapshot.getNewSquareGrid().isEmpty());
+		assertArrayEquals(tiles, snapshot.getTileGrid().toSortedArray());
+		assertArrayEquals(tiles, snapshot.getNewTileGrid().toSortedArray());
+
+		// the sets are shared and cannot be changed
+		assertSame(snapshot.getSquares(), snapshot.getSquares());
+		assertSame(snapshot.getNewTiles(), snapshot.getNewTiles());
+		assertThrows(UnsupportedOperationException.class, () -> snapshot.getSquares().clear());
+		assertThrows(UnsupportedOperationException.class, () -> snapshot.getTiles().add(new OSMTile(14, 1, 1)));
+
+		// sorted sets are new copies
+		TreeSet<UTMRefWithHash> sorted = snapshot.sortedSquares();
+		assertEquals(new TreeSet<>(snapshot.getSquares()), sorted);
+		assertNotSame(sorted, snapshot.sortedSquares());
+		sorted.clear();
+		assertEquals(2, snapshot.sortedSquares().size());
+		assertTrue(snapshot.sortedNewSquares().isEmpty());
+		assertEquals(new TreeSet<>(snapshot.getTiles()), snapshot.sortedTiles());
+		assertEquals(snapshot.sortedTiles(), snapshot.sortedNewTiles());
+
+		assertTrue(snapshot.toString().contains("squares=2"));
+	}
+
+	@Test
+	void testRead() throws IOException {
+		File squares = new File(tempDir, "Squares.txt");
+		File tiles = new File(tempDir, "Tiles.txt");
+		Files.write(squares.toPath(), List.of("33U 446000.0 5350000.0", "32U 690000.0 5330000.0"));
+		Files.write(tiles.toPath(), List.of("14/8842/5673", "14/8843/5673", "14/8842/5673"));
+
+		// new-files do not exist
+		CoverageSnapshot snapshot = CoverageSnapshot.read(squares, new File(tempDir, "SquaresNew.txt"),
+				tiles, new File(tempDir, "TilesNew.txt"));
+
+		// same content and iteration order as when reading the text-files
+		assertEquals(new ArrayList<>(UTMRefWithHash.readSquares(squares)), new ArrayList<>(snapshot.getSquares()));
+		assertEquals(new ArrayList<>(OSMTile.readTiles(tiles)), new ArrayList<>(snapshot.getTiles()));
+		assertEquals(2, snapshot.getTileGrid().cardinality());
+
+		assertTrue(snapshot.getNewSquares().isEmpty());
+		assertTrue(snapshot.getNewTiles().isEmpty());
+		assertTrue(snapshot.getNewTileGrid().isEmpty());
+	}
+
+	@Test
+	void testReadVisited() throws IOException {
+		CoverageSnapshot snapshot = CoverageSnapshot.read();
+
+		assertEquals(new ArrayList<>(UTMRefWithHash.readSquares(new File(VISITED_SQUARES_TXT))),
+				new ArrayList<>(snapshot.getSquares()));
+		assertEquals(new ArrayList<>(OSMTile.readTiles(new File(VISITED_TILES_TXT))),
+				new ArrayList<>(snapshot.getTiles()));
+		assertEquals(snapshot.getSquares().size(), snapshot.getSquareGrid().cardinality());
+		assertEquals(snapshot.getTiles().size(), snapshot.getTileGrid().cardinality());
+	}
+}
@@ -0,0 +1,163 @@
+package org.dstadler.ctw.utils;
+
+import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_SQUARES_TXT;
+import static org.dstadler.ctw.gpx.CreateListOfVisitedSquares.VISITED_TILES_TXT;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CoverageStoreTest {
+	@TempDir
+	File tempDir;
+
+	@Test
+	void testGetStoreFile() {
+		assertEquals(new File("cache", "VisitedSquares.bin"), CoverageStore.getStoreFile(new File(VISITED_SQUARES_TXT)));
+		assertEquals(new File("cache", "other.bin"), CoverageStore.getStoreFile(new File("other")));
+	}
+
+	@Test
+	void testEncodeDecode() {
+		Random random = new Random(4711);
+		long[] keys = new long[10_000];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = random.nextInt(10) == 0 ? random.nextLong() & Long.MAX_VALUE : random.nextInt(100_000);
+		}
+		keys[0] = 0;
+		keys[1] = Long.MAX_VALUE;
+
+		byte[] bytes = CoverageStore.encode(keys);
+		assertArrayEquals(keys, CoverageStore.decode(ByteBuffer.wrap(bytes), keys.length));
+
+		// wrong number of keys
+		assertNull(CoverageStore.decode(ByteBuffer.wrap(bytes), keys.length - 1));
+		assertNull(CoverageStore.decode(ByteBuffer.wrap(bytes), keys.length + 1));
+		assertNull(CoverageStore.decode(ByteBuffer.wrap(bytes), -1));
+
+		assertEquals(0, CoverageStore.encode(new long[0]).length);
+		assertArrayEquals(new long[0], CoverageStore.decode(ByteBuffer.wrap(new byte[0]), 0));
+	}
+
+	@Test
+	void testRoundTrip() throws IOException {
+		File textFile = new File(tempDir, "Visited.txt");
+		Files.writeString(textFile.toPath(), "14/8842/5673\n14/8843/5673\n");
+		File file = new File(tempDir, "sub/Visited.bin");
+
+		long[] keys = { CellKey.tile(14, 8842, 5673), CellKey.tile(14, 8843, 5673) };
+		CoverageStore.write(file, textFile, keys);
+		assertTrue(file.exists());
+		assertFalse(new File(file.getParentFile(), "Visited.bin.tmp").exists());
+
+		assertArrayEquals(keys, CoverageStore.read(file, textFile));
+	}
+
+	@Test
+	void testMissing() throws IOException {
+		File textFile = new File(tempDir, "Visited.txt");
+		File file = new File(tempDir, "Visited.bin");
+		assertNull(CoverageStore.read(file, textFile));
+
+		Files.writeString(textFile.toPath(), "14/8842/5673\n");
+		assertNull(CoverageStore.read(file, textFile));
+	}
+
+	@Test
+	void testReadKeys() throws IOException {
+		// without a binary file the lines are parsed, in the order of the file
+		File textFile = new File(tempDir, "CoverageStoreTestKeys.txt");
+		assertEquals(0, CoverageStore.readKeys(textFile, CellKey::parseTile).length);
+
+		Files.write(textFile.toPath(), List.of("14/8843/5673", "14/8842/5673"));
+		assertArrayEquals(new long[] { CellKey.tile(14, 8843, 5673), CellKey.tile(14, 8842, 5673) },
+				CoverageStore.readKeys(textFile, CellKey::parseTile));
+	}
+
+	@Test
+	void testTextFileChanged() throws IOException {
+		File textFile = new File(tempDir, "Visited.txt");
+		Files.writeString(textFile.toPath(), "14/8842/5673\n");
+		File file = new File(tempDir, "Visited.bin");
+
+		CoverageStore.write(file, textFile, new long[] { CellKey.tile(14, 8842, 5673) });
+
+		Files.writeString(textFile.toPath(), "14/8842/5673\n14/8843/5673\n");
+		assertNull(CoverageStore.read(file, textFile));
+
+		CoverageStore.write(file, textFile, new long[] { CellKey.tile(14, 8842, 5673), CellKey.tile(14, 8843, 5673) });
+		assertTrue(textFile.setLastModified(textFile.lastModified() - 10_000));
+		assertNull(CoverageStore.read(file, textFile));
+
+		// same length and last-modified, but different content
+		CoverageStore.write(file, textFile, new long[] { CellKey.tile(14, 8842, 5673), CellKey.tile(14, 8843, 5673) });
+		long lastModified = textFile.lastModified();
+		Files.writeString(textFile.toPath(), "14/8842/5673\n14/8843/5674\n");
+		assertTrue(textFile.setLastModified(lastModified));
+		assertNull(CoverageStore.read(file, textFile));
+	}
+
+	@Test
+	void testBroken() throws IOException {
+		File textFile = new File(tempDir, "Visited.txt");
+		Files.writeString(textFile.toPath(), "14/8842/5673\n");
+		File file = new File(tempDir, "Visited.bin");
+
+		CoverageStore.write(file, textFile, new long[] { CellKey.tile(14, 8842, 5673), CellKey.tile(14, 8843, 5673) });
+
+		// modify the last byte of the keys
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(raf.length() - 1);
+			raf.write(0x7F);
+		}
+		assertNull(CoverageStore.read(file, textFile));
+
+		// too short for the header
+		Files.write(file.toPath(), new byte[] { 'C', 'T' });
+		assertNull(CoverageStore.read(file, textFile));
+
+		// different format
+		Files.writeString(file.toPath(), "some other file with enough bytes for a header");
+		assertNull(CoverageStore.read(file, textFile));
+	}
+
+	@Test
+	void testSameAsTextFile() throws IOException {
+		Assumptions.assumeTrue(new File(VISITED_TILES_TXT).exists(),
+				"File " + VISITED_TILES_TXT + " does not exist");
+
+		for (String name : new String[] { VISITED_SQUARES_TXT, VISITED_TILES_TXT }) {
+			List<String> lines = Files.readAllLines(new File(name).toPath(), StandardCharsets.UTF_8);
+			long[] keys = new long[lines.size()];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = name.equals(VISITED_SQUARES_TXT) ?
+						CellKey.parseSquare(lines.get(i)) : CellKey.parseTile(lines.get(i));
+			}
+
+			File textFile = new File(tempDir, new File(name).getName());
+			Files.write(textFile.toPath(), lines, StandardCharsets.UTF_8);
+			File file = new File(tempDir, "store.bin");
+			CoverageStore.write(file, textFile, keys);
+
+			assertArrayEquals(keys, CoverageStore.read(file, textFile));
+
+			// sorted keys need only a few bytes each
+			assertTrue(file.length() < textFile.length(),
+					"Had " + file.length() + " and " + textFile.length() + " bytes for " + name);
+		}
+	}
+}
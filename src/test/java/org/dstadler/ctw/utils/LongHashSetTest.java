@@ -0,0 +1,129 @@
+package org.dstadler.ctw.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class LongHashSetTest {
+	@Test
+	void testEmpty() {
+		LongHashSet set = new LongHashSet();
+		assertTrue(set.isEmpty());
+		assertEquals(0, set.size());
+		assertFalse(set.contains(0));
+		assertFalse(set.contains(1));
+		assertFalse(set.remove(0));
+		assertFalse(set.remove(1));
+		assertArrayEquals(new long[0], set.toSortedArray());
+		set.forEach(value -> {
+			throw new IllegalStateException("Should not be called");
+		});
+
+		assertEquals(new LongHashSet(100), set);
+		assertEquals(0, set.hashCode());
+		assertTrue(set.toString().contains("size=0"));
+
+		assertThrows(IllegalArgumentException.class,
+				() -> new LongHashSet(-1));
+	}
+
+	@Test
+	void testAddRemove() {
+		LongHashSet set = new LongHashSet();
+		assertTrue(set.add(5));
+		assertFalse(set.add(5));
+		assertTrue(set.add(0));
+		assertFalse(set.add(0));
+		assertTrue(set.add(-3));
+		assertTrue(set.add(Long.MIN_VALUE));
+
+		assertEquals(4, set.size());
+		assertTrue(set.contains(0));
+		assertTrue(set.contains(5));
+		assertTrue(set.contains(Long.MIN_VALUE));
+		assertFalse(set.contains(6));
+		assertArrayEquals(new long[] { Long.MIN_VALUE, -3, 0, 5 }, set.toSortedArray());
+
+		assertTrue(set.remove(0));
+		assertFalse(set.contains(0));
+		assertTrue(set.remove(5));
+		assertFalse(set.remove(5));
+		assertArrayEquals(new long[] { Long.MIN_VALUE, -3 }, set.toSortedArray());
+
+		set.clear();
+		assertTrue(set.isEmpty());
+		assertFalse(set.contains(-3));
+	}
+
+	@Test
+	void testRandom() {
+		// compare with a HashSet, values in a small range cause collisions and removals
+		Random random = new Random(4711);
+		LongHashSet set = new LongHashSet();
+		Set<Long> expected = new HashSet<>();
+		for (int i = 0; i < 200_000; i++) {
+			long value = random.nextInt(20_000) - 100;
+			switch (random.nextInt(3)) {
+				case 0, 1 -> assertEquals(expected.add(value), set.add(value));
+				default -> assertEquals(expected.remove(value), set.remove(value));
+			}
+			assertEquals(expected.size(), set.size());
+		}
+
+		for (long value = -200; value < 20_000; value++) {
+			assertEquals(expected.contains(value), set.contains(value), "Failed for " + value);
+		}
+
+		long[] array = set.toSortedArray();
+		assertEquals(expected.size(), array.length);
+		assertEquals(expected, toSet(set));
+		assertEquals(expected.hashCode(), set.hashCode());
+	}
+
+	@Test
+	void testAddAllRemoveAll() {
+		LongHashSet set1 = new LongHashSet();
+		LongHashSet set2 = new LongHashSet();
+		for (long i = 0; i < 1000; i++) {
+			set1.add(i);
+			set2.add(i + 500);
+		}
+
+		LongHashSet union = new LongHashSet();
+		assertTrue(union.addAll(set1));
+		assertTrue(union.addAll(set2));
+		assertFalse(union.addAll(set1));
+		assertEquals(1500, union.size());
+
+		assertTrue(union.removeAll(set2));
+		assertFalse(union.removeAll(set2));
+		assertEquals(500, union.size());
+		assertTrue(union.contains(0));
+		assertTrue(union.contains(499));
+		assertFalse(union.contains(500));
+
+		assertNotEquals(set1, set2);
+		assertNotEquals(set1, union);
+		assertNotEquals(set1, "other");
+
+		LongHashSet copy = new LongHashSet();
+		copy.addAll(set1);
+		assertEquals(set1, copy);
+		assertEquals(set1.hashCode(), copy.hashCode());
+	}
+
+	private static Set<Long> toSet(LongHashSet set) {
+		Set<Long> values = new HashSet<>();
+		set.forEach(values::add);
+		return values;
+	}
+}
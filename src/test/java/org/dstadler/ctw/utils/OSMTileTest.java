@@ -5,6 +5,7 @@ import static org.dstadler.ctw.utils.Constants.MAX_ZOOM;
 import static org.dstadler.ctw.utils.OSMTile.OSM_MAX_ZOOM;
 import static org.dstadler.ctw.utils.OSMTile.OSM_MIN_ZOOM;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -111,6 +112,65 @@ public class OSMTileTest {
 				() -> OSMTile.fromLatLngZoom(10, 181, 10));
 	}
 
+	@Test
+	void testFromLatLngZoomBatch() {
+		int[] zooms = new int[] { 14, 0, 1, 7, 13, 16, 19 };
+		int count = 10_000;
+		double[] lats = new double[count + 1];
+		double[] lons = new double[count + 1];
+
+		// the limits of the valid range are clamped in the same way
+		lats[0] = 90;
+		lons[0] = 180;
+		lats[1] = -90;
+		lons[1] = -180;
+		lats[2] = 0;
+		lons[2] = 0;
+
+		RandomUtils rnd = RandomUtils.insecure();
+		for (int i = 3; i < count; i++) {
+			lats[i] = rnd.randomDouble(0, 180) - 90;
+			lons[i] = rnd.randomDouble(0, 360) - 180;
+		}
+
+		int[][] xTiles = new int[zooms.length][count];
+		int[][] yTiles = new int[zooms.length][count];
+		OSMTile.fromLatLngZoom(lats, lons, count, zooms, xTiles, yTiles);
+
+		for (int i = 0; i < count; i++) {
+			for (int z = 0; z < zooms.length; z++) {
+				OSMTile tile = OSMTile.fromLatLngZoom(lats[i], lons[i], zooms[z]);
+				assertEquals(tile, new OSMTile(zooms[z], xTiles[z][i], yTiles[z][i]),
+						"Failed for " + lats[i] + "/" + lons[i] + " at zoom " + zooms[z]);
+			}
+		}
+
+		// nothing to do
+		OSMTile.fromLatLngZoom(lats, lons, 0, zooms, new int[zooms.length][0], new int[zooms.length][0]);
+		OSMTile.fromLatLngZoom(lats, lons, count, new int[0], new int[0][], new int[0][]);
+	}
+
+	@Test
+	void testFromLatLngZoomBatchInvalid() {
+		double[] lats = new double[] { 10, 91 };
+		double[] lons = new double[] { 10, 10 };
+		int[][] tiles = new int[1][2];
+
+		assertThrows(IllegalArgumentException.class,
+				() -> OSMTile.fromLatLngZoom(lats, lons, 2, new int[] { 10 }, tiles, tiles));
+		assertThrows(IllegalArgumentException.class,
+				() -> OSMTile.fromLatLngZoom(lats, lons, 1, new int[] { 20 }, tiles, tiles));
+		assertThrows(IllegalArgumentException.class,
+				() -> OSMTile.fromLatLngZoom(lats, lons, 3, new int[] { 10 }, tiles, tiles));
+		assertThrows(IllegalArgumentException.class,
+				() -> OSMTile.fromLatLngZoom(lats, lons, 1, new int[] { 10, 11 }, tiles, tiles));
+		assertThrows(IllegalArgumentException.class,
+				() -> OSMTile.fromLatLngZoom(lats, lons, 2, new int[] { 10 }, new int[][] { new int[1] }, tiles));
+
+		// valid points are converted
+		OSMTile.fromLatLngZoom(lats, lons, 1, new int[] { 10 }, tiles, tiles);
+	}
+
 	@Test
 	void testHashCodeEquals() {
 		OSMTile nr1 = OSMTile.fromLatLngZoom(34, 3, 10);
@@ -309,6 +369,31 @@ public class OSMTileTest {
 				() -> OSMTile.fromString("1/2/3/4"));
 	}
 
+	@Test
+	void testFromStringRange() {
+		String buffer = "1/1/1\n12/4000/2374\n";
+		assertEquals(new OSMTile(1, 1, 1), OSMTile.fromString(buffer, 0, 5));
+		assertEquals(new OSMTile(12, 4000, 2374), OSMTile.fromString(buffer, 6, 18));
+
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> OSMTile.fromString(buffer, 0, 6));
+		assertEquals("String for OSM-tile did not match pattern {0}/{1}/{2}: 1/1/1\n", e.getMessage());
+	}
+
+	@Test
+	void testIsCoords() {
+		assertTrue(OSMTile.isCoords("1/1/1"));
+		assertTrue(OSMTile.isCoords("12/4000/2374"));
+		assertTrue(OSMTile.isCoords("99/99999/99999"));
+
+		for (String str : new String[] { "", "1", "1/1", "1/1/", "/1/1", "1//1", "1/1/1/1", "a/1/1",
+				"1/1/1a", "-1/1/1", "1.1.1", " 1/1/1", "1/1/\u0661" }) {
+			assertFalse(OSMTile.isCoords(str), "Should fail for '" + str + "'");
+			assertThrows(IllegalArgumentException.class, () -> OSMTile.fromString(str),
+					"Should fail for '" + str + "'");
+		}
+	}
+
 	@Test
 	void testInvalidValuesFromString() {
 		assertThrows(IllegalArgumentException.class,
@@ -0,0 +1,111 @@
+package org.dstadler.ctw.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class SquareGridTest {
+	@AfterEach
+	void tearDown() {
+		System.clearProperty(SquareGrid.PROPERTY_MULTI_ZONE);
+	}
+
+	@Test
+	void testSplitDefaultZone() {
+		Set<UTMRefWithHash> squares = new HashSet<>();
+		addBlock(squares, 33, 'U', 446000, 5350000, 2, 2);
+		addBlock(squares, 32, 'U', 700000, 5350000, 4, 4);
+
+		List<SquareGrid> grids = SquareGrid.split(squares);
+		assertEquals(1, grids.size());
+
+		SquareGrid grid = grids.get(0);
+		assertEquals(33, grid.getZone());
+		assertEquals(446000, grid.getMinEast());
+		assertEquals(5350000, grid.getMinNorth());
+		assertEquals("33U 447000.0 5351000.0", grid.ref(447000, 5351000).toString());
+
+		// squares in other zones are ignored
+		Pair<SquareGrid, Pair<Rectangle, Integer>> largest = SquareGrid.findLargest(grids, MatrixUtils::maxSubSquare);
+		assertSame(grid, largest.getKey());
+		assertEquals(4, (int) largest.getValue().getValue());
+
+		squares.removeIf(square -> square.getLngZone() == 33);
+		assertTrue(SquareGrid.split(squares).isEmpty());
+		assertNull(SquareGrid.findLargest(SquareGrid.split(squares), MatrixUtils::maxSubSquare));
+	}
+
+	@Test
+	void testDescribeZones() {
+		assertEquals("UTM zone 33", SquareGrid.describeZones());
+
+		System.setProperty(SquareGrid.PROPERTY_MULTI_ZONE, "true");
+		assertEquals("any UTM zone", SquareGrid.describeZones());
+	}
+
+	@Test
+	void testSplitMultiZone() {
+		System.setProperty(SquareGrid.PROPERTY_MULTI_ZONE, "true");
+
+		Set<UTMRefWithHash> squares = new HashSet<>();
+		addBlock(squares, 33, 'U', 446000, 5350000, 2, 2);
+		addBlock(squares, 32, 'U', 700000, 5350000, 4, 3);
+		addBlock(squares, 34, 'T', 300000, 5000000, 3, 3);
+		addBlock(squares, 34, 'H', 300000, 6000000, 1, 1);
+
+		List<SquareGrid> grids = SquareGrid.split(squares);
+		assertEquals(4, grids.size());
+		assertEquals(32, grids.get(0).getZone());
+		assertEquals(33, grids.get(1).getZone());
+		assertEquals(34, grids.get(2).getZone());
+		assertEquals(6000000, grids.get(2).getMinNorth());
+		assertEquals(34, grids.get(3).getZone());
+		assertEquals(5000000, grids.get(3).getMinNorth());
+
+		Pair<SquareGrid, Pair<Rectangle, Integer>> square = SquareGrid.findLargest(grids, MatrixUtils::maxSubSquare);
+		assertSame(grids.get(0), square.getKey());
+		assertEquals(9, (int) square.getValue().getValue());
+
+		Pair<SquareGrid, Pair<Rectangle, Integer>> rectangle = SquareGrid.findLargest(grids, MatrixUtils::maxRectangle);
+		assertSame(grids.get(0), rectangle.getKey());
+		assertEquals(12, (int) rectangle.getValue().getValue());
+
+		// references get the band of their position
+		assertEquals("34T 300000.0 5000000.0", grids.get(3).ref(300000, 5000000).toString());
+		assertEquals("34H 300000.0 6000000.0", grids.get(2).ref(300000, 6000000).toString());
+		assertEquals(UTMRefWithHash.fromString("33T 441000.0 5316000.0").up().toString(),
+				grids.get(1).ref(441000, 5317000).toString());
+	}
+
+	@Test
+	void testFindLargestSameArea() {
+		System.setProperty(SquareGrid.PROPERTY_MULTI_ZONE, "true");
+
+		Set<UTMRefWithHash> squares = new HashSet<>();
+		addBlock(squares, 34, 'U', 446000, 5350000, 2, 2);
+		addBlock(squares, 33, 'U', 446000, 5350000, 2, 2);
+
+		// the first grid is used for equal results
+		List<SquareGrid> grids = SquareGrid.split(squares);
+		assertEquals(33, SquareGrid.findLargest(grids, MatrixUtils::maxSubSquare).getKey().getZone());
+	}
+
+	private static void addBlock(Set<UTMRefWithHash> squares, int zone, char band,
+			int easting, int northing, int width, int height) {
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				squares.add(new UTMRefWithHash(zone, band, easting + x * 1000, northing + y * 1000));
+			}
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package org.dstadler.ctw.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TileEdgesTest {
+	@Test
+	void testLatitude() {
+		assertEquals(85.0511287798066, TileEdges.latitude(0, 0), 0.0000001);
+		assertEquals(0, TileEdges.latitude(1, 1), 0.0000001);
+		assertEquals(-85.0511287798066, TileEdges.latitude(1, 0), 0.0000001);
+
+		// all edges of the lower zoom-levels
+		for (int zoom = 0; zoom <= 12; zoom++) {
+			for (int y = 0; y <= 1 << zoom; y++) {
+				assertEquals(TileEdges.computeLatitude(y, zoom), TileEdges.latitude(y, zoom),
+						"Failed for " + y + " at zoom " + zoom);
+			}
+		}
+
+		Random rnd = new Random(2145);
+		for (int i = 0; i < 100_000; i++) {
+			int zoom = rnd.nextInt(13, 21);
+			int y = rnd.nextInt(0, (1 << zoom) + 1);
+			assertEquals(TileEdges.computeLatitude(y, zoom), TileEdges.latitude(y, zoom),
+					"Failed for " + y + " at zoom " + zoom);
+		}
+	}
+
+	@Test
+	void testLongitude() {
+		assertEquals(-180, TileEdges.longitude(0, 0));
+		assertEquals(180, TileEdges.longitude(1, 0));
+		assertEquals(0, TileEdges.longitude(1, 1));
+
+		Random rnd = new Random(2146);
+		for (int i = 0; i < 100_000; i++) {
+			int zoom = rnd.nextInt(0, 21);
+			int x = rnd.nextInt(0, (1 << zoom) + 1);
+			assertEquals(((double) x) / Math.pow(2.0, zoom) * 360.0 - 180, TileEdges.longitude(x, zoom),
+					"Failed for " + x + " at zoom " + zoom);
+		}
+	}
+
+	@Test
+	void testInvalid() {
+		assertThrows(IllegalArgumentException.class,
+				() -> TileEdges.latitude(0, -1));
+		assertThrows(IllegalArgumentException.class,
+				() -> TileEdges.latitude(0, 21));
+		assertThrows(IllegalArgumentException.class,
+				() -> TileEdges.latitude(-1, 10));
+		assertThrows(IllegalArgumentException.class,
+				() -> TileEdges.latitude(1025, 10));
+		assertThrows(IllegalArgumentException.class,
+				() -> TileEdges.longitude(-1, 10));
+		assertThrows(IllegalArgumentException.class,
+				() -> TileEdges.longitude(1025, 10));
+	}
+}
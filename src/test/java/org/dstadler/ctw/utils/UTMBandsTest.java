@@ -0,0 +1,53 @@
+package org.dstadler.ctw.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import uk.me.jstott.jcoord.UTMRef;
+
+class UTMBandsTest {
+	@Test
+	void testGetLatZone() {
+		assertEquals('U', UTMBands.getLatZone(new UTMRef(33, 'U', 446000, 5350000)));
+		assertEquals('T', UTMBands.getLatZone(new UTMRef(33, 'U', 441000, 5316000)));
+		assertEquals('N', UTMBands.getLatZone(new UTMRef(31, 'N', 500000, 0)));
+		assertEquals('N', UTMBands.getLatZone(new UTMRef(31, 'M', 500000, 10000000)));
+		assertEquals('M', UTMBands.getLatZone(new UTMRef(31, 'M', 500000, 9999000)));
+
+		// not at full km and close to the poles
+		assertEquals('U', UTMBands.getLatZone(new UTMRef(33, 'U', 446000.5, 5350000)));
+		assertEquals('X', UTMBands.getLatZone(new UTMRef(33, 'X', 500000, 8500000)));
+		assertEquals('C', UTMBands.getLatZone(new UTMRef(33, 'C', 500000, 1500000)));
+
+		// zones at 180 degrees are converted as before, this fails for an invalid longitude
+		assertEquals('U', UTMBands.getLatZone(new UTMRef(1, 'U', 500000, 5350000)));
+		assertThrows(IllegalArgumentException.class,
+				() -> UTMBands.getLatZone(new UTMRef(1, 'U', 0, 5350000)));
+	}
+
+	@Test
+	void testAllNorthings() {
+		// every square in a number of columns in both hemispheres,
+		// the zone does not matter for the latitude
+		for (int eastingKm = 0; eastingKm <= 1000; eastingKm += eastingKm < 10 || eastingKm > 990 ? 1 : 37) {
+			for (int northingKm = 0; northingKm <= 10_000; northingKm++) {
+				assertSameBand(new UTMRef(33, 'N', eastingKm * 1000.0, northingKm * 1000.0));
+				assertSameBand(new UTMRef(33, 'M', eastingKm * 1000.0, northingKm * 1000.0));
+			}
+		}
+	}
+
+	private static void assertSameBand(UTMRef ref) {
+		final char expected;
+		try {
+			expected = UTMRef.getUTMLatitudeZoneLetter(ref.toLatLng().getLatitude());
+		} catch (IllegalArgumentException e) {
+			// not a valid lat/lon, the table is not used for these
+			return;
+		}
+
+		assertEquals(expected, UTMBands.getLatZone(ref), "Failed for " + ref);
+	}
+}
@@ -7,6 +7,9 @@ import static org.dstadler.ctw.utils.OSMTileTest.ASSERT_DELTA;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -14,9 +17,11 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.NoSuchFileException;
 import java.util.Iterator;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.RandomUtils;
@@ -289,6 +294,28 @@ public class UTMRefWithHashTest {
 		}
     }
 
+	@Test
+	void testGetSquareKey() {
+		// same squares as via the strings, including special zones and the limits of the UTM-grid
+		for (double[] latLng : new double[][] {
+				{ 48.3, 14.3 }, { 56.5, 3.5 }, { 60.0, 5.0 }, { 78.0, 15.0 }, { 83.9, 33.0 },
+				{ -79.9, 20.0 }, { 0.0, 0.0 }, { -0.0001, 32.5 }, { 48.0, 18.0 } }) {
+			LatLng ll = new LatLng(latLng[0], latLng[1]);
+			assertEquals(UTMRefWithHash.getSquareString(ll), CellKey.formatSquare(UTMRefWithHash.getSquareKey(ll)),
+					"Failed for " + ll);
+		}
+
+		RandomUtils rnd = RandomUtils.insecure();
+		for (int i = 0; i < 100_000; i++) {
+			double lat = rnd.randomDouble(0, (-1) * MIN_LATITUDE + MAX_LATITUDE) + MIN_LATITUDE;
+			double lon = rnd.randomDouble(0, (-1) * MIN_LONGITUDE + MAX_LONGITUDE) + MIN_LONGITUDE;
+
+			LatLng ll = new LatLng(lat, lon);
+			assertEquals(UTMRefWithHash.getSquareString(ll), CellKey.formatSquare(UTMRefWithHash.getSquareKey(ll)),
+					"Failed for " + ll);
+		}
+	}
+
 	@Test
 	void testConvertBackAndForth() {
 		// Kansas USA (Consistent):
@@ -370,6 +397,127 @@ public class UTMRefWithHashTest {
 		assertFalse(it.hasNext());
 	}
 
+	// varying number of digits for zone, easting and northing
+	private static final long[] VALUES = { 0, 1, 9, 10, 11, 99, 100, 101, 1_000, 9_000, 10_000, 99_000, 100_000,
+			446_000, 999_000, 1_000_000, 5_350_000, 9_999_000, 10_000_000 };
+	private static final int[] ZONES = { 1, 2, 5, 9, 10, 11, 19, 20, 33, 60 };
+	private static final char[] BANDS = { 'C', 'N', 'U', 'X' };
+
+	@Test
+	void testComparatorSameAsStrings() {
+		RandomUtils rnd = RandomUtils.insecure();
+		for (int i = 0; i < 100_000; i++) {
+			UTMRefWithHash ref1 = randomRef(rnd);
+			UTMRefWithHash ref2 = randomRef(rnd);
+
+			assertEquals(Integer.signum(ref1.string().compareTo(ref2.string())), Integer.signum(ref1.compareTo(ref2)),
+					"Failed for " + ref1 + " and " + ref2);
+		}
+	}
+
+	private static UTMRefWithHash randomRef(RandomUtils rnd) {
+		int zone = ZONES[rnd.randomInt(0, ZONES.length)];
+		char band = BANDS[rnd.randomInt(0, BANDS.length)];
+		long easting = Math.min(999_000, VALUES[rnd.randomInt(0, VALUES.length)]);
+		long northing = VALUES[rnd.randomInt(0, VALUES.length)];
+
+		// also some squares which are not at full km and values with fractions
+		switch (rnd.randomInt(0, 4)) {
+			case 0:
+				return new UTMRefWithHash(zone, band, easting + 0.5, northing);
+			case 1:
+				return new UTMRefWithHash(zone, band, Math.min(1_000_000, easting + rnd.randomInt(0, 1000)), northing);
+			default:
+				return new UTMRefWithHash(zone, band, easting, northing);
+		}
+	}
+
+	@Test
+	void testCachedValues() {
+		UTMRefWithHash ref = new UTMRefWithHash(33, 'U', 446000, 5350000);
+
+		assertEquals(Objects.hash('U', 33, 446000.0, 5350000.0), ref.hashCode());
+		assertSame(ref.toString(), ref.string());
+		assertSame(ref.getRectangle(), ref.getRectangle());
+		assertEquals(new UTMRefWithHash(33, 'U', 446000, 5350000).getRectangle().toString(),
+				ref.getRectangle().toString());
+	}
+
+	@Test
+	void testFromStringSameAsPattern() {
+		// the regular expression which was used for parsing before
+		Pattern pattern = Pattern.compile("(\\d{1,2})([C-HJ-NP-X]) (\\d+(?:\\.\\d+)?) (\\d+(?:\\.\\d+)?)");
+		String chars = "0123456789 .CIOUXYa";
+
+		RandomUtils rnd = RandomUtils.insecure();
+		for (int i = 0; i < 200_000; i++) {
+			StringBuilder str = new StringBuilder(randomRef(rnd).toString());
+			if (rnd.randomBoolean()) {
+				// modify a random character
+				str.setCharAt(rnd.randomInt(0, str.length()), chars.charAt(rnd.randomInt(0, chars.length())));
+			}
+			if (rnd.randomInt(0, 10) == 0) {
+				str.append(".0500000000000000001");
+			}
+
+			String ref = str.toString();
+			Matcher matcher = pattern.matcher(ref);
+			UTMRefWithHash expected;
+			try {
+				expected = matcher.matches() ?
+						new UTMRefWithHash(Integer.parseInt(matcher.group(1)), matcher.group(2).charAt(0),
+								Double.parseDouble(matcher.group(3)), Double.parseDouble(matcher.group(4))) :
+						null;
+			} catch (NotDefinedOnUTMGridException e) {
+				expected = null;
+			}
+
+			if (expected == null) {
+				assertThrows(IllegalArgumentException.class, () -> UTMRefWithHash.fromString(ref),
+						"Should fail for '" + ref + "'");
+			} else {
+				UTMRefWithHash actual = UTMRefWithHash.fromString(ref);
+				assertEquals(expected, actual, "Failed for '" + ref + "'");
+				assertEquals(expected.toString(), actual.toString(), "Failed for '" + ref + "'");
+			}
+		}
+	}
+
+	@Test
+	void testFromStringRange() {
+		String buffer = "33U 446000.0 5350000.0\n33T 441000.5 5316000.25\n";
+
+		assertSame(UTMRefWithHash.fromString("33U 446000.0 5350000.0"), UTMRefWithHash.fromString(buffer, 0, 22));
+		assertEquals("33T 441000.5 5316000.25", UTMRefWithHash.fromString(buffer, 23, 46).toString());
+
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> UTMRefWithHash.fromString(buffer, 0, 23));
+		assertTrue(e.getMessage().startsWith("Cannot parse UTM reference 33U 446000.0 5350000.0\n, needs to match pattern"),
+				e.getMessage());
+	}
+
+	@Test
+	void testRectangleSharedBetweenInstances() {
+		UTMRefWithHash ref1 = new UTMRefWithHash(33, 'U', 447000, 5351000);
+		UTMRefWithHash ref2 = new UTMRefWithHash(33, 'U', 447000, 5351000);
+		assertNotSame(ref1, ref2);
+
+		// equal squares are only projected once
+		assertSame(ref1.getRectangle(), ref2.getRectangle());
+		assertNotEquals(ref1.getRectangle(), ref1.right().getRectangle());
+	}
+
+	@Test
+	void testIntern() {
+		UTMRefWithHash ref = UTMRefWithHash.fromString("33U 446000.0 5350000.0");
+
+		assertSame(ref, UTMRefWithHash.fromString("33U 446000.0 5350000.0"));
+		assertSame(ref, new UTMRefWithHash(33, 'U', 446000, 5350000).intern());
+		assertSame(ref, ref.left().right());
+		assertSame(ref, ref.up().down());
+		assertNotSame(ref, new UTMRefWithHash(33, 'U', 446000, 5350000));
+	}
+
 	@Test
 	void testUpDownAtLatZone() {
 		UTMRefWithHash ref1 = UTMRefWithHash.fromString("33T 441000.0 5316000.0");
@@ -0,0 +1,123 @@
+package org.dstadler.ctw.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import uk.me.jstott.jcoord.LatLng;
+import uk.me.jstott.jcoord.NotDefinedOnUTMGridException;
+import uk.me.jstott.jcoord.UTMRef;
+
+class UTMSquareConverterTest {
+	@Test
+	void testGetSquareKey() {
+		assertEquals("33U 445000.0 5348000.0",
+				CellKey.formatSquare(UTMSquareConverter.getSquareKey(48.2881, 14.2617)));
+
+		// special zones, hemispheres, band-boundaries and the limits of the UTM-grid
+		for (double[] latLng : new double[][] {
+				{ 48.3, 14.3 }, { 56.5, 3.5 }, { 60.0, 5.0 }, { 78.0, 15.0 }, { 83.9, 33.0 },
+				{ 84.0, 0.0 }, { -80.0, 0.0 }, { -79.9, 20.0 }, { 0.0, 0.0 }, { -0.0001, 32.5 },
+				{ 48.0, 18.0 }, { 47.99999, 17.99999 }, { 72.0, 9.0 }, { 64.0, 12.0 },
+				{ 10.0, 180.0 }, { 10.0, -180.0 }, { -10.0, 179.99999 } }) {
+			assertSameSquare(latLng[0], latLng[1]);
+		}
+	}
+
+	@Test
+	void testRandom() {
+		Random rnd = new Random(2142);
+		for (int i = 0; i < 500_000; i++) {
+			assertSameSquare(rnd.nextDouble(-80, 84), rnd.nextDouble(-180, 180));
+		}
+	}
+
+	@Test
+	void testRandomAtBorders() {
+		// points close to the borders of zones and bands are the ones where the
+		// band or zone of the square differs from the one of the point
+		Random rnd = new Random(2143);
+		for (int i = 0; i < 200_000; i++) {
+			double lat = rnd.nextInt(-10, 11) * 8 + rnd.nextDouble(-0.02, 0.02);
+			double lon = rnd.nextInt(-30, 31) * 6 + rnd.nextDouble(-0.02, 0.02);
+
+			assertSameSquare(Math.max(-80, Math.min(84, lat)), Math.max(-180, Math.min(180, lon)));
+		}
+	}
+
+	@Test
+	void testToLatitude() {
+		Random rnd = new Random(2144);
+		for (int i = 0; i < 100_000; i++) {
+			UTMRef ref = new UTMRef(31, rnd.nextBoolean() ? 'M' : 'N',
+					rnd.nextDouble(0, 1_000_000), rnd.nextDouble(0, 10_000_000));
+
+			final double expected;
+			try {
+				expected = ref.toLatLng().getLatitude();
+			} catch (IllegalArgumentException e) {
+				// longitude out of range
+				continue;
+			}
+
+			assertEquals(expected, UTMSquareConverter.toLatitude(ref.getLatZone(), ref.getEasting(), ref.getNorthing()),
+					"Failed for " + ref);
+		}
+	}
+
+	@Test
+	void testToLatLng() {
+		Random rnd = new Random(2145);
+		double[] latLon = new double[2];
+		for (int i = 0; i < 100_000; i++) {
+			UTMRef ref = new UTMRef(rnd.nextInt(1, 61), rnd.nextBoolean() ? 'M' : 'N',
+					rnd.nextDouble(0, 1_000_000), rnd.nextDouble(0, 10_000_000));
+
+			final LatLng expected;
+			try {
+				expected = ref.toLatLng();
+			} catch (IllegalArgumentException e) {
+				// longitude out of range
+				continue;
+			}
+
+			UTMSquareConverter.toLatLng(ref.getLngZone(), ref.getLatZone(), ref.getEasting(), ref.getNorthing(), latLon);
+			assertEquals(expected.getLatitude(), latLon[0], "Failed for " + ref);
+			assertEquals(expected.getLongitude(), latLon[1], "Failed for " + ref);
+		}
+	}
+
+	@Test
+	void testInvalid() {
+		assertThrows(NotDefinedOnUTMGridException.class,
+				() -> UTMSquareConverter.getSquareKey(84.1, 10));
+		assertThrows(NotDefinedOnUTMGridException.class,
+				() -> UTMSquareConverter.getSquareKey(-80.1, 10));
+		assertThrows(IllegalArgumentException.class,
+				() -> UTMSquareConverter.getSquareKey(91, 10));
+		assertThrows(IllegalArgumentException.class,
+				() -> UTMSquareConverter.getSquareKey(10, 180.1));
+		assertThrows(IllegalArgumentException.class,
+				() -> UTMSquareConverter.getSquareKey(10, -180.1));
+	}
+
+	private static void assertSameSquare(double lat, double lon) {
+		LatLng latLng = new LatLng(lat, lon);
+
+		final String expected;
+		try {
+			expected = UTMRefWithHash.getSquareString(latLng);
+		} catch (RuntimeException e) {
+			// both fail in the same way
+			assertThrows(e.getClass(), () -> UTMSquareConverter.getSquareKey(lat, lon),
+					"Failed for " + lat + "/" + lon);
+			return;
+		}
+
+		assertEquals(expected, CellKey.formatSquare(UTMSquareConverter.getSquareKey(lat, lon)),
+				"Failed for " + lat + "/" + lon);
+	}
+}